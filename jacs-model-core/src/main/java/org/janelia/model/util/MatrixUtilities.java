@@ -125,5 +125,41 @@ public class MatrixUtilities {
         return voxToMicronMatrix;
     }
 
+    /**
+     * Transforms a batch of points with an affine matrix such as the ones built by
+     * {@link #buildVoxToMicron(double[], int[])} and {@link #buildMicronToVox(double[], int[])}.
+     * The result for every point is identical to multiplying the matrix with the point's [x, y, z, 1] column vector.
+     *
+     * @param matrix 4x4 transform matrix
+     * @param xyzPoints interleaved x, y, z coordinates
+     * @return interleaved x, y, z coordinates of the transformed points
+     */
+    public static double[] transformPoints(Matrix matrix, double[] xyzPoints) {
+        if (matrix.getRowDimension() != EXPECTED_MATRIX_SIZE || matrix.getColumnDimension() != EXPECTED_MATRIX_SIZE) {
+            throw new IllegalArgumentException("Transform matrix must be " + EXPECTED_MATRIX_SIZE + "x" + EXPECTED_MATRIX_SIZE);
+        }
+        if (xyzPoints.length % 3 != 0) {
+            throw new IllegalArgumentException("The number of coordinates " + xyzPoints.length + " is not a multiple of 3");
+        }
+        double[][] m = matrix.getArray();
+        double[] transformedPoints = new double[xyzPoints.length];
+        for (int i = 0; i < xyzPoints.length; i += 3) {
+            double x = xyzPoints[i + X_OFFS];
+            double y = xyzPoints[i + Y_OFFS];
+            double z = xyzPoints[i + Z_OFFS];
+            for (int row = 0; row < 3; row++) {
+                double[] mrow = m[row];
+                // same order of operations as Matrix.times
+                double s = 0;
+                s += mrow[0] * x;
+                s += mrow[1] * y;
+                s += mrow[2] * z;
+                s += mrow[3] * 1.0;
+                transformedPoints[i + row] = s;
+            }
+        }
+        return transformedPoints;
+    }
+
     
 }
@@ -0,0 +1,144 @@
+package org.janelia.rendering.benchmarks;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.janelia.rendering.Coordinate;
+import org.janelia.rendering.FileBasedRenderedVolumeLocation;
+import org.janelia.rendering.RawImage;
+import org.janelia.rendering.RenderedVolumeLoaderImpl;
+import org.janelia.rendering.RenderedVolumeLocation;
+import org.janelia.rendering.RenderedVolumeMetadata;
+import org.janelia.rendering.TileInfo;
+import org.janelia.rendering.TileKey;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Throughput of the main {@link RenderedVolumeLoaderImpl} operations on a synthetic volume. The volume is generated
+ * for every combination of sample size, channel count and TIFF compression so the results of two runs can be
+ * compared one combination at a time. The loader is used without a texture cache so every operation reads
+ * the TIFF files. Run them with <code>./gradlew :jacs-model-rendering:jmh</code>, which also enables
+ * the GC profiler to report the allocation rate of every benchmark.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RenderedVolumeLoaderBenchmarks {
+
+    @Param({"8", "16"})
+    public int bitDepth;
+
+    @Param({"1", "2", "3", "4"})
+    public int channelCount;
+
+    @Param({"none", "lzw"})
+    public String compression;
+
+    private Path volumeDir;
+    private RenderedVolumeLoaderImpl renderedVolumeLoader;
+    private RenderedVolumeLocation renderedVolumeLocation;
+    private RenderedVolumeMetadata renderedVolumeMetadata;
+    private List<TileKey> tileKeys;
+    private RawImage rawImage;
+    private int[][] voxels;
+    private int nextTileKey;
+    private int nextVoxel;
+
+    @Setup
+    public void createVolume() throws IOException {
+        volumeDir = Files.createTempDirectory("renderingbenchmark");
+        SyntheticVolume.create(volumeDir, bitDepth, channelCount, "lzw".equals(compression));
+        renderedVolumeLoader = new RenderedVolumeLoaderImpl();
+        // always discover the volume instead of reading it from a manifest
+        renderedVolumeLoader.setUseVolumeManifest(false);
+        renderedVolumeLocation = new FileBasedRenderedVolumeLocation(volumeDir, Function.identity());
+        renderedVolumeMetadata = renderedVolumeLoader.loadVolume(renderedVolumeLocation)
+                .orElseThrow(() -> new IllegalStateException("Synthetic volume could not be loaded from " + volumeDir));
+        TileInfo xyTileInfo = renderedVolumeMetadata.getXyTileInfo();
+        tileKeys = new ArrayList<>();
+        int[] volumeSize = renderedVolumeMetadata.getVolumeSizeInVoxels();
+        for (int zoom = 0; zoom < SyntheticVolume.NUM_ZOOM_LEVELS; zoom++) {
+            int tilesPerAxis = 1 << (SyntheticVolume.NUM_ZOOM_LEVELS - 1 - zoom);
+            for (int z = 0; z < volumeSize[2]; z += 5) {
+                for (int y = 0; y < tilesPerAxis; y++) {
+                    for (int x = 0; x < tilesPerAxis; x++) {
+                        tileKeys.add(TileKey.fromRavelerTileCoord(x, y, z, zoom, Coordinate.Z, xyTileInfo));
+                    }
+                }
+            }
+        }
+        rawImage = renderedVolumeLoader.loadVolumeRawImageTiles(renderedVolumeLocation).get(0);
+        voxels = new int[][] {
+                {10, 10, 10},
+                {volumeSize[0] / 2, volumeSize[1] / 2, volumeSize[2] / 2},
+                {volumeSize[0] - 10, volumeSize[1] / 3, volumeSize[2] / 4},
+                {volumeSize[0] / 4, volumeSize[1] - 10, volumeSize[2] - 10}
+        };
+    }
+
+    @TearDown
+    public void deleteVolume() throws IOException {
+        try (Stream<Path> volumeFiles = Files.walk(volumeDir)) {
+            for (Path volumeFile : volumeFiles.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+                Files.deleteIfExists(volumeFile);
+            }
+        }
+    }
+
+    @Benchmark
+    public byte[] loadSlice() {
+        TileKey tileKey = tileKeys.get(nextTileKey++ % tileKeys.size());
+        return renderedVolumeLoader.loadSlice(renderedVolumeLocation, renderedVolumeMetadata, tileKey).getContent();
+    }
+
+    @Benchmark
+    public byte[] loadRawImageROI() {
+        int[] roiCenter = new int[] {
+                SyntheticVolume.RAW_TILE_SIZE[0] / 2,
+                SyntheticVolume.RAW_TILE_SIZE[1] / 2,
+                SyntheticVolume.RAW_TILE_SIZE[2] / 2
+        };
+        return renderedVolumeLoader.loadRawImageContentFromVoxelCoord(renderedVolumeLocation, rawImage, 0,
+                roiCenter[0], roiCenter[1], roiCenter[2], 64, 64, 16).getContent();
+    }
+
+    @Benchmark
+    public Optional<RenderedVolumeMetadata> loadTileInfo() {
+        return renderedVolumeLoader.loadVolume(renderedVolumeLocation);
+    }
+
+    @Benchmark
+    public Optional<RawImage> findClosestRawImage() {
+        int[] voxel = voxels[nextVoxel++ % voxels.length];
+        return renderedVolumeLoader.findClosestRawImageFromVoxelCoord(renderedVolumeLocation, voxel[0], voxel[1], voxel[2]);
+    }
+
+    @Benchmark
+    public List<RawImage> findRawImagesContainingVoxel() {
+        int[] voxel = voxels[nextVoxel++ % voxels.length];
+        return renderedVolumeLoader.findRawImagesContainingVoxelCoord(renderedVolumeLocation, voxel[0], voxel[1], voxel[2]);
+    }
+}
@@ -0,0 +1,177 @@
+package org.janelia.rendering.benchmarks;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Writes multi-page single channel grayscale TIFF images with one strip per page, either uncompressed
+ * or LZW compressed. The pages are laid out as strip data followed by the page's IFD so pages can be written
+ * one at a time without keeping the whole image in memory.
+ */
+class SyntheticTiffWriter {
+
+    interface SampleGenerator {
+        int sampleAt(int x, int y, int z);
+    }
+
+    private static final short TIFF_SHORT = 3;
+    private static final short TIFF_LONG = 4;
+    private static final int COMPRESSION_NONE = 1;
+    private static final int COMPRESSION_LZW = 5;
+    private static final int IFD_ENTRY_COUNT = 10;
+
+    static void writeTiff(Path tiffPath, int width, int height, int depth, int bitDepth, boolean lzw, SampleGenerator sampleGenerator) throws IOException {
+        Preconditions.checkArgument(bitDepth == 8 || bitDepth == 16, "Only 8-bit and 16-bit images are supported");
+        int bytesPerSample = bitDepth / 8;
+        try (FileChannel tiffChannel = FileChannel.open(tiffPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer header = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+            header.put((byte) 'I').put((byte) 'I').putShort((short) 42).putInt(0); // first IFD offset is patched below
+            header.flip();
+            tiffChannel.write(header);
+            long previousNextIFDOffsetPosition = 4;
+            ByteBuffer pageBuffer = ByteBuffer.allocate(width * height * bytesPerSample).order(ByteOrder.LITTLE_ENDIAN);
+            for (int z = 0; z < depth; z++) {
+                pageBuffer.clear();
+                for (int y = 0; y < height; y++) {
+                    for (int x = 0; x < width; x++) {
+                        int sample = sampleGenerator.sampleAt(x, y, z);
+                        if (bytesPerSample == 2) {
+                            pageBuffer.putShort((short) sample);
+                        } else {
+                            pageBuffer.put((byte) sample);
+                        }
+                    }
+                }
+                byte[] stripBytes = lzw ? lzwEncode(pageBuffer.array()) : pageBuffer.array();
+                long stripOffset = tiffChannel.position();
+                tiffChannel.write(ByteBuffer.wrap(stripBytes));
+                if ((tiffChannel.position() & 1) != 0) {
+                    // IFDs must start on a word boundary
+                    tiffChannel.write(ByteBuffer.wrap(new byte[1]));
+                }
+                long ifdOffset = tiffChannel.position();
+                ByteBuffer ifd = ByteBuffer.allocate(2 + IFD_ENTRY_COUNT * 12 + 4).order(ByteOrder.LITTLE_ENDIAN);
+                ifd.putShort((short) IFD_ENTRY_COUNT);
+                putIFDEntry(ifd, 256, TIFF_LONG, width); // ImageWidth
+                putIFDEntry(ifd, 257, TIFF_LONG, height); // ImageLength
+                putIFDEntry(ifd, 258, TIFF_SHORT, bitDepth); // BitsPerSample
+                putIFDEntry(ifd, 259, TIFF_SHORT, lzw ? COMPRESSION_LZW : COMPRESSION_NONE); // Compression
+                putIFDEntry(ifd, 262, TIFF_SHORT, 1); // PhotometricInterpretation: BlackIsZero
+                putIFDEntry(ifd, 273, TIFF_LONG, (int) stripOffset); // StripOffsets
+                putIFDEntry(ifd, 277, TIFF_SHORT, 1); // SamplesPerPixel
+                putIFDEntry(ifd, 278, TIFF_LONG, height); // RowsPerStrip
+                putIFDEntry(ifd, 279, TIFF_LONG, stripBytes.length); // StripByteCounts
+                putIFDEntry(ifd, 284, TIFF_SHORT, 1); // PlanarConfiguration: chunky
+                ifd.putInt(0); // next IFD
+                ifd.flip();
+                tiffChannel.write(ifd);
+                ByteBuffer ifdOffsetBytes = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN).putInt((int) ifdOffset);
+                ifdOffsetBytes.flip();
+                tiffChannel.write(ifdOffsetBytes, previousNextIFDOffsetPosition);
+                previousNextIFDOffsetPosition = ifdOffset + 2 + IFD_ENTRY_COUNT * 12;
+            }
+        }
+    }
+
+    private static void putIFDEntry(ByteBuffer ifd, int tag, short type, int value) {
+        ifd.putShort((short) tag);
+        ifd.putShort(type);
+        ifd.putInt(1);
+        if (type == TIFF_SHORT) {
+            ifd.putShort((short) value).putShort((short) 0);
+        } else {
+            ifd.putInt(value);
+        }
+    }
+
+    /**
+     * TIFF flavored LZW: codes are written most significant bit first and the code width grows one code early.
+     */
+    static byte[] lzwEncode(byte[] data) {
+        final int clearCode = 256;
+        final int eoiCode = 257;
+        final int firstCode = 258;
+        final int maxCode = 4095;
+        ByteArrayOutputStream encoded = new ByteArrayOutputStream(data.length / 2 + 16);
+        Map<Integer, Integer> codeTable = new HashMap<>();
+        BitWriter bitWriter = new BitWriter(encoded);
+        int codeWidth = 9;
+        int nextCode = firstCode;
+        bitWriter.write(clearCode, codeWidth);
+        if (data.length == 0) {
+            bitWriter.write(eoiCode, codeWidth);
+            bitWriter.flush();
+            return encoded.toByteArray();
+        }
+        int prefix = data[0] & 0xFF;
+        for (int i = 1; i < data.length; i++) {
+            int b = data[i] & 0xFF;
+            int key = (prefix << 8) | b;
+            Integer code = codeTable.get(key);
+            if (code != null) {
+                prefix = code;
+                continue;
+            }
+            bitWriter.write(prefix, codeWidth);
+            prefix = b;
+            codeTable.put(key, nextCode++);
+            if (nextCode == maxCode - 1) {
+                // the table is full so start over
+                bitWriter.write(clearCode, codeWidth);
+                codeTable.clear();
+                codeWidth = 9;
+                nextCode = firstCode;
+            } else if (nextCode > (1 << codeWidth) - 1) {
+                codeWidth++;
+            }
+        }
+        bitWriter.write(prefix, codeWidth);
+        nextCode++;
+        if (nextCode == maxCode - 1) {
+            bitWriter.write(clearCode, codeWidth);
+            codeWidth = 9;
+        } else if (nextCode > (1 << codeWidth) - 1) {
+            codeWidth++;
+        }
+        bitWriter.write(eoiCode, codeWidth);
+        bitWriter.flush();
+        return encoded.toByteArray();
+    }
+
+    private static class BitWriter {
+        private final ByteArrayOutputStream out;
+        private int bitBuffer;
+        private int bitCount;
+
+        BitWriter(ByteArrayOutputStream out) {
+            this.out = out;
+        }
+
+        void write(int code, int width) {
+            bitBuffer = (bitBuffer << width) | code;
+            bitCount += width;
+            while (bitCount >= 8) {
+                out.write((bitBuffer >> (bitCount - 8)) & 0xFF);
+                bitCount -= 8;
+            }
+            bitBuffer &= (1 << bitCount) - 1;
+        }
+
+        void flush() {
+            if (bitCount > 0) {
+                out.write((bitBuffer << (8 - bitCount)) & 0xFF);
+                bitCount = 0;
+                bitBuffer = 0;
+            }
+        }
+    }
+}
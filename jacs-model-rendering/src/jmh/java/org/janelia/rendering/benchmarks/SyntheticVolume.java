@@ -0,0 +1,119 @@
+package org.janelia.rendering.benchmarks;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Synthetic rendered volume: a two level TIFF octree - the root tile and its 8 children - together with
+ * the transform and a tilebase of raw tiles that cover the full resolution volume.
+ */
+class SyntheticVolume {
+
+    static final int NUM_ZOOM_LEVELS = 2;
+    static final int[] TILE_SIZE = new int[] {256, 192, 64};
+    static final int[] RAW_TILE_GRID = new int[] {2, 2, 1};
+    // the full resolution volume is the size of the tile times 2 ^ (NUM_ZOOM_LEVELS - 1)
+    static final int[] RAW_TILE_SIZE = new int[] {
+            TILE_SIZE[0] * 2 / RAW_TILE_GRID[0],
+            TILE_SIZE[1] * 2 / RAW_TILE_GRID[1],
+            TILE_SIZE[2] * 2 / RAW_TILE_GRID[2]
+    };
+    private static final int NANOS_PER_VOXEL = 1000;
+
+    static void create(Path volumeDir, int bitDepth, int channelCount, boolean lzw) throws IOException {
+        Files.createDirectories(volumeDir);
+        writeTransform(volumeDir);
+        List<String> octreeTilePaths = new ArrayList<>();
+        octreeTilePaths.add("");
+        for (int octant = 1; octant <= 8; octant++) {
+            octreeTilePaths.add(String.valueOf(octant));
+        }
+        for (String octreeTilePath : octreeTilePaths) {
+            Path tileDir = volumeDir.resolve(octreeTilePath);
+            Files.createDirectories(tileDir);
+            for (int c = 0; c < channelCount; c++) {
+                int channel = c;
+                int tileSeed = octreeTilePath.hashCode();
+                SyntheticTiffWriter.writeTiff(tileDir.resolve("default." + c + ".tif"),
+                        TILE_SIZE[0], TILE_SIZE[1], TILE_SIZE[2], bitDepth, lzw,
+                        (x, y, z) -> sampleAt(x, y, z, tileSeed + channel, bitDepth));
+            }
+        }
+        List<String> rawTileNames = writeRawTiles(volumeDir.resolve("raw"), bitDepth, channelCount, lzw);
+        writeTilebase(volumeDir, rawTileNames, bitDepth, channelCount);
+    }
+
+    /**
+     * A smooth gradient with some texture so that LZW compresses it about as well as it compresses real data.
+     */
+    private static int sampleAt(int x, int y, int z, int seed, int bitDepth) {
+        int value = (x * 7 + y * 5 + z * 3 + seed) + ((x * 31 + y * 17 + z * 13) % 11);
+        return bitDepth == 16 ? (value * 37) & 0xFFFF : value & 0xFF;
+    }
+
+    private static void writeTransform(Path volumeDir) throws IOException {
+        int lowestResNanosPerVoxel = NANOS_PER_VOXEL << (NUM_ZOOM_LEVELS - 1);
+        List<String> transformLines = new ArrayList<>();
+        transformLines.add("ox: 0");
+        transformLines.add("oy: 0");
+        transformLines.add("oz: 0");
+        transformLines.add("sx: " + lowestResNanosPerVoxel);
+        transformLines.add("sy: " + lowestResNanosPerVoxel);
+        transformLines.add("sz: " + lowestResNanosPerVoxel);
+        transformLines.add("nl: " + NUM_ZOOM_LEVELS);
+        Files.write(volumeDir.resolve("transform.txt"), transformLines, StandardCharsets.UTF_8);
+    }
+
+    private static List<String> writeRawTiles(Path rawDir, int bitDepth, int channelCount, boolean lzw) throws IOException {
+        List<String> rawTileNames = new ArrayList<>();
+        for (int zTile = 0; zTile < RAW_TILE_GRID[2]; zTile++) {
+            for (int yTile = 0; yTile < RAW_TILE_GRID[1]; yTile++) {
+                for (int xTile = 0; xTile < RAW_TILE_GRID[0]; xTile++) {
+                    String rawTileName = String.format("%05d", rawTileNames.size());
+                    Path rawTileDir = rawDir.resolve(rawTileName);
+                    Files.createDirectories(rawTileDir);
+                    for (int c = 0; c < channelCount; c++) {
+                        int seed = rawTileNames.size() * 8 + c;
+                        SyntheticTiffWriter.writeTiff(rawTileDir.resolve(rawTileName + "-ngc." + c + ".tif"),
+                                RAW_TILE_SIZE[0], RAW_TILE_SIZE[1], RAW_TILE_SIZE[2], bitDepth, lzw,
+                                (x, y, z) -> sampleAt(x, y, z, seed, bitDepth));
+                    }
+                    rawTileNames.add(rawTileName);
+                }
+            }
+        }
+        return rawTileNames;
+    }
+
+    private static void writeTilebase(Path volumeDir, List<String> rawTileNames, int bitDepth, int channelCount) throws IOException {
+        List<String> tilebaseLines = new ArrayList<>();
+        tilebaseLines.add("path: " + volumeDir.resolve("raw").toAbsolutePath().toString().replace('\\', '/'));
+        tilebaseLines.add("tiles:");
+        int[] shape = new int[3];
+        for (int d = 0; d < 3; d++) {
+            shape[d] = RAW_TILE_SIZE[d] * NANOS_PER_VOXEL;
+        }
+        for (int i = 0; i < rawTileNames.size(); i++) {
+            int[] origin = new int[] {
+                    (i % RAW_TILE_GRID[0]) * shape[0],
+                    ((i / RAW_TILE_GRID[0]) % RAW_TILE_GRID[1]) * shape[1],
+                    (i / (RAW_TILE_GRID[0] * RAW_TILE_GRID[1])) * shape[2]
+            };
+            tilebaseLines.add("- path: /" + rawTileNames.get(i));
+            tilebaseLines.add("  aabb:");
+            tilebaseLines.add(String.format("    ori: [%d, %d, %d]", origin[0], origin[1], origin[2]));
+            tilebaseLines.add(String.format("    shape: [%d, %d, %d]", shape[0], shape[1], shape[2]));
+            tilebaseLines.add("  shape:");
+            tilebaseLines.add("    type: " + (bitDepth == 16 ? "u16" : "u8"));
+            tilebaseLines.add(String.format("    dims: [%d, %d, %d, %d]", RAW_TILE_SIZE[0], RAW_TILE_SIZE[1], RAW_TILE_SIZE[2], channelCount));
+            tilebaseLines.add(String.format("  transform: [%d.0, 0.0, 0.0, 0.0, %d.0, 0.0, %d.0, 0.0, 0.0, %d.0, 0.0, 0.0, %d.0, 0.0, %d.0, " +
+                            "0.0, 0.0, 0.0, 1.0, 0.0, 0.0, 0.0, 0.0, 0.0, 1.0]",
+                    NANOS_PER_VOXEL, origin[0], NANOS_PER_VOXEL, origin[1], NANOS_PER_VOXEL, origin[2]));
+        }
+        Files.write(volumeDir.resolve("tilebase.cache.yml"), tilebaseLines, StandardCharsets.UTF_8);
+    }
+}
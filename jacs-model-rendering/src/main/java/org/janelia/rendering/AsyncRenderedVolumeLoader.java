@@ -0,0 +1,330 @@
+package org.janelia.rendering;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import org.janelia.rendering.utils.RequestContext;
+import org.janelia.rendering.ymlrepr.RawVolData;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Non blocking counterpart of {@link RenderedVolumeLoader}. Every call is run by the delegate loader on an I/O executor
+ * and the result is returned as a CompletableFuture. A request that does not complete within the configured timeout
+ * fails with a {@link TimeoutException}. A request that is cancelled or times out while it is still queued never runs.
+ * A running request is not interrupted, because interrupting a read from a pooled file channel closes the channel
+ * for all its readers and a coalesced read would fail the other requests waiting for it. Instead the request's
+ * {@link RequestContext} is cancelled, which closes the streams the request opened only for itself and lets the
+ * delegate stop early, and a result that arrives after that is discarded and closed if it holds a closeable content.
+ */
+public class AsyncRenderedVolumeLoader implements Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(AsyncRenderedVolumeLoader.class);
+    private static final int DEFAULT_IO_THREADS = 16;
+    private static final int DEFAULT_MAX_QUEUED_REQUESTS = 1000;
+    private static final long CLOSE_TIMEOUT_MILLIS = 30000L;
+
+    private final RenderedVolumeLoader delegate;
+    private final ExecutorService ioExecutor;
+    private final boolean ownsIOExecutor;
+    private final ScheduledExecutorService timeoutScheduler;
+    private final AtomicLong timedOutCount = new AtomicLong(0);
+    private final AtomicLong cancelledCount = new AtomicLong(0);
+    private final AtomicLong rejectedCount = new AtomicLong(0);
+    private long defaultTimeoutMillis;
+
+    public AsyncRenderedVolumeLoader(RenderedVolumeLoader delegate) {
+        this(delegate, createIOExecutor(DEFAULT_IO_THREADS, DEFAULT_MAX_QUEUED_REQUESTS), true);
+    }
+
+    /**
+     * @param delegate loader used for running the requests
+     * @param ioExecutor executor that runs the requests; it is not shut down when this loader is closed
+     */
+    public AsyncRenderedVolumeLoader(RenderedVolumeLoader delegate, ExecutorService ioExecutor) {
+        this(delegate, ioExecutor, false);
+    }
+
+    private AsyncRenderedVolumeLoader(RenderedVolumeLoader delegate, ExecutorService ioExecutor, boolean ownsIOExecutor) {
+        Preconditions.checkArgument(delegate != null, "Delegate volume loader is required");
+        Preconditions.checkArgument(ioExecutor != null, "I/O executor is required");
+        this.delegate = delegate;
+        this.ioExecutor = ioExecutor;
+        this.ownsIOExecutor = ownsIOExecutor;
+        this.timeoutScheduler = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setNameFormat("AsyncVolumeLoaderTimeout-%d").setDaemon(true).build());
+    }
+
+    /**
+     * Creates a bounded I/O executor. Requests submitted when all threads are busy and the queue is full
+     * fail with a {@link RejectedExecutionException}.
+     *
+     * @param nThreads maximum number of concurrent reads
+     * @param maxQueuedRequests maximum number of requests waiting for a thread
+     * @return
+     */
+    public static ExecutorService createIOExecutor(int nThreads, int maxQueuedRequests) {
+        Preconditions.checkArgument(nThreads > 0, "The number of I/O threads must be positive");
+        Preconditions.checkArgument(maxQueuedRequests > 0, "The maximum number of queued requests must be positive");
+        return new ThreadPoolExecutor(nThreads, nThreads,
+                0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(maxQueuedRequests),
+                new ThreadFactoryBuilder().setNameFormat("VolumeLoaderIO-%d").setDaemon(true).build());
+    }
+
+    /**
+     * Creates an executor that runs every request on its own virtual thread if the runtime supports them.
+     * Such an executor is not bounded so the number of concurrent reads is only limited by the callers.
+     *
+     * @return the virtual thread executor or an empty optional if the runtime does not support virtual threads
+     */
+    public static Optional<ExecutorService> createVirtualThreadIOExecutor() {
+        try {
+            return Optional.of((ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null));
+        } catch (ReflectiveOperationException e) {
+            LOG.debug("Virtual threads are not supported by this runtime", e);
+            return Optional.empty();
+        }
+    }
+
+    public RenderedVolumeLoader getDelegate() {
+        return delegate;
+    }
+
+    public long getDefaultTimeoutMillis() {
+        return defaultTimeoutMillis;
+    }
+
+    /**
+     * Set the timeout applied to every request that does not specify its own. If set to 0 requests never time out.
+     *
+     * @param defaultTimeoutMillis
+     */
+    public void setDefaultTimeoutMillis(long defaultTimeoutMillis) {
+        Preconditions.checkArgument(defaultTimeoutMillis >= 0, "The timeout cannot be negative");
+        this.defaultTimeoutMillis = defaultTimeoutMillis;
+    }
+
+    public long getTimedOutCount() {
+        return timedOutCount.get();
+    }
+
+    public long getCancelledCount() {
+        return cancelledCount.get();
+    }
+
+    public long getRejectedCount() {
+        return rejectedCount.get();
+    }
+
+    public CompletableFuture<Optional<RenderedVolumeMetadata>> loadVolume(RenderedVolumeLocation rvl) {
+        return submit(() -> delegate.loadVolume(rvl));
+    }
+
+    public CompletableFuture<Streamable<byte[]>> loadSlice(RenderedVolumeLocation rvl, RenderedVolumeMetadata renderedVolumeMetadata, TileKey tileKey) {
+        return submit(() -> delegate.loadSlice(rvl, renderedVolumeMetadata, tileKey));
+    }
+
+    public CompletableFuture<Streamable<byte[]>> loadSlice(RenderedVolumeLocation rvl, RenderedVolumeMetadata renderedVolumeMetadata, TileKey tileKey,
+                                                           List<IntensityWindow> channelWindows) {
+        return submit(() -> delegate.loadSlice(rvl, renderedVolumeMetadata, tileKey, channelWindows));
+    }
+
+    /**
+     * The texture is encoded on the I/O thread that loads it.
+     */
+    public CompletableFuture<Streamable<byte[]>> loadSlice(RenderedVolumeLocation rvl, RenderedVolumeMetadata renderedVolumeMetadata, TileKey tileKey,
+                                                           List<IntensityWindow> channelWindows, TextureEncoding textureEncoding) {
+        return submit(() -> delegate.loadSlice(rvl, renderedVolumeMetadata, tileKey, channelWindows, textureEncoding));
+    }
+
+    public CompletableFuture<List<Streamable<byte[]>>> loadSlices(RenderedVolumeLocation rvl, RenderedVolumeMetadata renderedVolumeMetadata, List<TileKey> tileKeys) {
+        return submit(() -> delegate.loadSlices(rvl, renderedVolumeMetadata, tileKeys));
+    }
+
+    public CompletableFuture<Optional<RawImage>> findClosestRawImageFromVoxelCoord(RenderedVolumeLocation rvl, int xVoxel, int yVoxel, int zVoxel) {
+        return submit(() -> delegate.findClosestRawImageFromVoxelCoord(rvl, xVoxel, yVoxel, zVoxel));
+    }
+
+    public CompletableFuture<List<RawImage>> findRawImagesContainingVoxelCoord(RenderedVolumeLocation rvl, int xVoxel, int yVoxel, int zVoxel) {
+        return submit(() -> delegate.findRawImagesContainingVoxelCoord(rvl, xVoxel, yVoxel, zVoxel));
+    }
+
+    public CompletableFuture<List<RawImage>> findRawImagesIntersectingVoxelBox(RenderedVolumeLocation rvl,
+                                                                               int xStartVoxel, int yStartVoxel, int zStartVoxel,
+                                                                               int xEndVoxel, int yEndVoxel, int zEndVoxel) {
+        return submit(() -> delegate.findRawImagesIntersectingVoxelBox(rvl,
+                xStartVoxel, yStartVoxel, zStartVoxel,
+                xEndVoxel, yEndVoxel, zEndVoxel));
+    }
+
+    public CompletableFuture<Streamable<byte[]>> loadRawImageContentFromVoxelCoord(RenderedVolumeLocation rvl,
+                                                                                   RawImage rawImage,
+                                                                                   int channel,
+                                                                                   int xVoxel, int yVoxel, int zVoxel,
+                                                                                   int dimx, int dimy, int dimz) {
+        return submit(() -> delegate.loadRawImageContentFromVoxelCoord(rvl, rawImage, channel, xVoxel, yVoxel, zVoxel, dimx, dimy, dimz));
+    }
+
+    public CompletableFuture<Streamable<byte[]>> loadDownsampledRawImageContentFromVoxelCoord(RenderedVolumeLocation rvl,
+                                                                                              RawImage rawImage,
+                                                                                              int channel,
+                                                                                              int xVoxel, int yVoxel, int zVoxel,
+                                                                                              int dimx, int dimy, int dimz,
+                                                                                              int xFactor, int yFactor, int zFactor,
+                                                                                              DownsamplingMethod downsamplingMethod) {
+        return submit(() -> delegate.loadDownsampledRawImageContentFromVoxelCoord(rvl, rawImage, channel,
+                xVoxel, yVoxel, zVoxel, dimx, dimy, dimz,
+                xFactor, yFactor, zFactor, downsamplingMethod));
+    }
+
+    public CompletableFuture<Streamable<byte[]>> loadRawImageProjectionFromVoxelCoord(RenderedVolumeLocation rvl,
+                                                                                      RawImage rawImage,
+                                                                                      int channel,
+                                                                                      int xVoxel, int yVoxel, int zVoxel,
+                                                                                      int dimx, int dimy, int dimz,
+                                                                                      Coordinate projectionAxis,
+                                                                                      ProjectionType projectionType) {
+        return submit(() -> delegate.loadRawImageProjectionFromVoxelCoord(rvl, rawImage, channel,
+                xVoxel, yVoxel, zVoxel, dimx, dimy, dimz,
+                projectionAxis, projectionType));
+    }
+
+    public CompletableFuture<Streamable<byte[]>> loadTileProjection(RenderedVolumeLocation rvl,
+                                                                    RenderedVolumeMetadata renderedVolumeMetadata,
+                                                                    TileKey tileKey,
+                                                                    int channel,
+                                                                    int depth,
+                                                                    ProjectionType projectionType) {
+        return submit(() -> delegate.loadTileProjection(rvl, renderedVolumeMetadata, tileKey, channel, depth, projectionType));
+    }
+
+    public CompletableFuture<List<RawImage>> loadVolumeRawImageTiles(RenderedVolumeLocation rvl) {
+        return submit(() -> delegate.loadVolumeRawImageTiles(rvl));
+    }
+
+    public CompletableFuture<RawVolData> loadRawVolumeData(RenderedVolumeLocation rvl) {
+        return submit(() -> delegate.loadRawVolumeData(rvl));
+    }
+
+    /**
+     * Run a request with the default timeout.
+     *
+     * @param request
+     * @param <T>
+     * @return
+     */
+    public <T> CompletableFuture<T> submit(Supplier<T> request) {
+        return submit(request, defaultTimeoutMillis);
+    }
+
+    /**
+     * Run a request on the I/O executor, e.g. <code>submit(() -&gt; loader.loadSlice(rvl, rv, tileKey), 500)</code>.
+     *
+     * @param request
+     * @param timeoutMillis request timeout; if 0 the request never times out
+     * @param <T>
+     * @return a future that completes with the result of the request. Cancelling the future does not interrupt
+     * a running request but it cancels the request's context.
+     */
+    public <T> CompletableFuture<T> submit(Supplier<T> request, long timeoutMillis) {
+        Preconditions.checkArgument(timeoutMillis >= 0, "The timeout cannot be negative");
+        CompletableFuture<T> result = new CompletableFuture<>();
+        RequestContext requestContext = new RequestContext();
+        Future<?> requestTask;
+        try {
+            requestTask = ioExecutor.submit(() -> {
+                if (result.isDone()) {
+                    // cancelled or timed out while waiting in the queue
+                    return;
+                }
+                try {
+                    T requestResult = requestContext.run(request);
+                    if (!result.complete(requestResult)) {
+                        discard(requestResult);
+                    }
+                } catch (Throwable e) {
+                    result.completeExceptionally(e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            rejectedCount.incrementAndGet();
+            LOG.warn("Request rejected by the I/O executor", e);
+            result.completeExceptionally(e);
+            return result;
+        }
+        ScheduledFuture<?> timeoutTask;
+        if (timeoutMillis > 0) {
+            timeoutTask = timeoutScheduler.schedule(
+                    () -> result.completeExceptionally(new TimeoutException("Request timed out after " + timeoutMillis + "ms")),
+                    timeoutMillis, TimeUnit.MILLISECONDS);
+        } else {
+            timeoutTask = null;
+        }
+        result.whenComplete((r, e) -> {
+            if (timeoutTask != null) {
+                timeoutTask.cancel(false);
+            }
+            if (result.isCancelled()) {
+                cancelledCount.incrementAndGet();
+                requestTask.cancel(false);
+                requestContext.cancel();
+            } else if (e instanceof TimeoutException) {
+                timedOutCount.incrementAndGet();
+                requestTask.cancel(false);
+                requestContext.cancel();
+            }
+        });
+        return result;
+    }
+
+    private void discard(Object requestResult) {
+        Object content = requestResult instanceof Streamable ? ((Streamable<?>) requestResult).getContent() : requestResult;
+        if (content instanceof Closeable) {
+            try {
+                ((Closeable) content).close();
+            } catch (IOException e) {
+                LOG.warn("Error closing discarded request result", e);
+            }
+        }
+    }
+
+    /**
+     * If the I/O executor was created by this loader, stop accepting requests and wait for the submitted ones to
+     * complete. The running requests are not interrupted for the same reason cancelled requests are not.
+     * Then stop the timeout scheduler.
+     */
+    @Override
+    public void close() {
+        try {
+            if (ownsIOExecutor) {
+                ioExecutor.shutdown();
+                if (!ioExecutor.awaitTermination(CLOSE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+                    LOG.warn("I/O requests still running after waiting {}ms for them to complete", CLOSE_TIMEOUT_MILLIS);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            timeoutScheduler.shutdownNow();
+        }
+    }
+}
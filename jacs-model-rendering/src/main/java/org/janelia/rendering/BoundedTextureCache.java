@@ -0,0 +1,152 @@
+package org.janelia.rendering;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nullable;
+
+import com.google.common.base.Preconditions;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * LRU texture cache bounded by the total number of cached bytes. The textures can be held either on the heap or
+ * in direct (off-heap) buffers. Either way the cache holds its own copy of every texture and every retrieval
+ * returns a new array, so callers are free to modify both the arrays they put and the arrays they get.
+ */
+public class BoundedTextureCache implements TextureCache {
+
+    private static final Logger LOG = LoggerFactory.getLogger(BoundedTextureCache.class);
+
+    private final long capacityInBytes;
+    private final boolean offHeap;
+    private final Map<TextureCacheKey, Object> cachedTextures;
+    private final AtomicLong hitCount;
+    private final AtomicLong missCount;
+    private final AtomicLong evictionCount;
+    private long currentSizeInBytes;
+
+    /**
+     * @param capacityInBytes maximum number of texture bytes held by the cache
+     * @param offHeap if true the textures are held in direct buffers
+     */
+    public BoundedTextureCache(long capacityInBytes, boolean offHeap) {
+        Preconditions.checkArgument(capacityInBytes > 0, "Texture cache capacity must be positive");
+        this.capacityInBytes = capacityInBytes;
+        this.offHeap = offHeap;
+        this.cachedTextures = new LinkedHashMap<>(16, 0.75f, true);
+        this.hitCount = new AtomicLong(0);
+        this.missCount = new AtomicLong(0);
+        this.evictionCount = new AtomicLong(0);
+        this.currentSizeInBytes = 0;
+    }
+
+    @Nullable
+    @Override
+    public byte[] get(TextureCacheKey key) {
+        Object cachedTexture;
+        synchronized (this) {
+            cachedTexture = cachedTextures.get(key);
+        }
+        if (cachedTexture == null) {
+            missCount.incrementAndGet();
+            return null;
+        }
+        hitCount.incrementAndGet();
+        if (cachedTexture instanceof ByteBuffer) {
+            // the buffer is only read using absolute positions through a duplicate so concurrent reads are safe
+            ByteBuffer textureBuffer = ((ByteBuffer) cachedTexture).duplicate();
+            byte[] textureBytes = new byte[textureBuffer.capacity()];
+            textureBuffer.get(textureBytes);
+            return textureBytes;
+        } else {
+            return Arrays.copyOf((byte[]) cachedTexture, ((byte[]) cachedTexture).length);
+        }
+    }
+
+    @Override
+    public synchronized boolean contains(TextureCacheKey key) {
+        return cachedTextures.containsKey(key);
+    }
+
+    @Override
+    public void put(TextureCacheKey key, byte[] textureBytes) {
+        if (textureBytes == null || textureBytes.length == 0) {
+            return;
+        }
+        if (textureBytes.length > capacityInBytes) {
+            LOG.debug("Texture {} of size {} exceeds the cache capacity {}", key, textureBytes.length, capacityInBytes);
+            return;
+        }
+        Object cachedTexture;
+        if (offHeap) {
+            ByteBuffer textureBuffer = ByteBuffer.allocateDirect(textureBytes.length);
+            textureBuffer.put(textureBytes);
+            textureBuffer.flip();
+            cachedTexture = textureBuffer;
+        } else {
+            // the caller usually keeps using the array so the cache must not share it
+            cachedTexture = Arrays.copyOf(textureBytes, textureBytes.length);
+        }
+        synchronized (this) {
+            Object previousTexture = cachedTextures.put(key, cachedTexture);
+            if (previousTexture != null) {
+                currentSizeInBytes -= sizeOf(previousTexture);
+            }
+            currentSizeInBytes += textureBytes.length;
+            Iterator<Map.Entry<TextureCacheKey, Object>> lruIterator = cachedTextures.entrySet().iterator();
+            while (currentSizeInBytes > capacityInBytes && lruIterator.hasNext()) {
+                Map.Entry<TextureCacheKey, Object> lruEntry = lruIterator.next();
+                currentSizeInBytes -= sizeOf(lruEntry.getValue());
+                lruIterator.remove();
+                evictionCount.incrementAndGet();
+            }
+        }
+    }
+
+    @Override
+    public synchronized void invalidateAll() {
+        cachedTextures.clear();
+        currentSizeInBytes = 0;
+    }
+
+    @Override
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    @Override
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    public long getEvictionCount() {
+        return evictionCount.get();
+    }
+
+    @Override
+    public synchronized long getSizeInBytes() {
+        return currentSizeInBytes;
+    }
+
+    public long getCapacityInBytes() {
+        return capacityInBytes;
+    }
+
+    public boolean isOffHeap() {
+        return offHeap;
+    }
+
+    private long sizeOf(Object cachedTexture) {
+        if (cachedTexture instanceof ByteBuffer) {
+            return ((ByteBuffer) cachedTexture).capacity();
+        } else {
+            return ((byte[]) cachedTexture).length;
+        }
+    }
+}
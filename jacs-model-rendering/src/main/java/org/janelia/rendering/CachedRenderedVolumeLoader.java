@@ -0,0 +1,262 @@
+package org.janelia.rendering;
+
+import java.net.URI;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Supplier;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Suppliers;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import org.janelia.rendering.ymlrepr.RawVolData;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * RenderedVolumeLoader decorator that keeps the volume metadata, the raw volume data and the raw tiles
+ * together with their spatial index in memory for every volume base location. An entry is reloaded when the modification time of the transform file,
+ * of the tilebase file or of the volume's base directory changes, or when it is explicitly refreshed.
+ * Slices and raw image content are always read through the delegate.
+ */
+public class CachedRenderedVolumeLoader implements RenderedVolumeLoader {
+
+    private static final Logger LOG = LoggerFactory.getLogger(CachedRenderedVolumeLoader.class);
+    private static final long DEFAULT_MAX_VOLUMES = 100;
+    private static final long DEFAULT_MODIFICATION_CHECK_INTERVAL_MILLIS = 1000L;
+    // the base directory is checked as well to catch octree images being added or removed
+    private static final String[] MONITORED_RELATIVE_PATHS = new String[] {
+            DEFAULT_TRANSFORM_FILE_NAME,
+            DEFAULT_TILED_VOL_BASE_FILE_NAME,
+            DEFAULT_VOLUME_MANIFEST_FILE_NAME,
+            ""
+    };
+
+    private class VolumeCacheEntry {
+        private final long[] modificationTimes;
+        private volatile long lastCheckTime;
+        private final Supplier<Optional<RenderedVolumeMetadata>> volumeMetadataSupplier;
+        private final Supplier<RawVolData> rawVolDataSupplier;
+        private final Supplier<List<RawImage>> rawImagesSupplier;
+        private final Supplier<RawImageSpatialIndex> rawImageIndexSupplier;
+
+        private VolumeCacheEntry(RenderedVolumeLocation rvl, long[] modificationTimes, long lastCheckTime) {
+            this.modificationTimes = modificationTimes;
+            this.lastCheckTime = lastCheckTime;
+            this.volumeMetadataSupplier = Suppliers.memoize(() -> delegate.loadVolume(rvl));
+            this.rawVolDataSupplier = Suppliers.memoize(() -> delegate.loadRawVolumeData(rvl));
+            this.rawImagesSupplier = Suppliers.memoize(() -> Collections.unmodifiableList(delegate.loadVolumeRawImageTiles(rvl)));
+            this.rawImageIndexSupplier = Suppliers.memoize(() -> new RawImageSpatialIndex(rawImagesSupplier.get()));
+        }
+    }
+
+    private final RenderedVolumeLoader delegate;
+    private final Cache<URI, VolumeCacheEntry> volumeCache;
+    private long modificationCheckIntervalMillis = DEFAULT_MODIFICATION_CHECK_INTERVAL_MILLIS;
+
+    public CachedRenderedVolumeLoader(RenderedVolumeLoader delegate) {
+        this(delegate, DEFAULT_MAX_VOLUMES);
+    }
+
+    /**
+     * @param delegate loader used for reading the volumes that are not in the cache
+     * @param maxVolumes maximum number of volumes kept in the cache
+     */
+    public CachedRenderedVolumeLoader(RenderedVolumeLoader delegate, long maxVolumes) {
+        Preconditions.checkArgument(delegate != null, "Delegate volume loader is required");
+        this.delegate = delegate;
+        this.volumeCache = CacheBuilder.newBuilder()
+                .maximumSize(maxVolumes)
+                .build();
+    }
+
+    public RenderedVolumeLoader getDelegate() {
+        return delegate;
+    }
+
+    public long getModificationCheckIntervalMillis() {
+        return modificationCheckIntervalMillis;
+    }
+
+    /**
+     * Set how often the modification times of the volume files are checked. If set to 0
+     * the modification times are checked on every call.
+     *
+     * @param modificationCheckIntervalMillis
+     */
+    public void setModificationCheckIntervalMillis(long modificationCheckIntervalMillis) {
+        this.modificationCheckIntervalMillis = modificationCheckIntervalMillis;
+    }
+
+    /**
+     * Discard the cached data for the given volume location.
+     *
+     * @param rvl
+     */
+    public void refresh(RenderedVolumeLocation rvl) {
+        volumeCache.invalidate(rvl.getBaseStorageLocationURI());
+    }
+
+    /**
+     * Discard the cached data for all volumes.
+     */
+    public void refreshAll() {
+        volumeCache.invalidateAll();
+    }
+
+    @Override
+    public Optional<RenderedVolumeMetadata> loadVolume(RenderedVolumeLocation rvl) {
+        return getVolumeCacheEntry(rvl).volumeMetadataSupplier.get();
+    }
+
+    @Override
+    public Streamable<byte[]> loadSlice(RenderedVolumeLocation rvl, RenderedVolumeMetadata renderedVolumeMetadata, TileKey tileKey) {
+        return delegate.loadSlice(rvl, renderedVolumeMetadata, tileKey);
+    }
+
+    @Override
+    public Streamable<byte[]> loadSlice(RenderedVolumeLocation rvl, RenderedVolumeMetadata renderedVolumeMetadata, TileKey tileKey,
+                                        List<IntensityWindow> channelWindows) {
+        return delegate.loadSlice(rvl, renderedVolumeMetadata, tileKey, channelWindows);
+    }
+
+    @Override
+    public Streamable<byte[]> loadSlice(RenderedVolumeLocation rvl, RenderedVolumeMetadata renderedVolumeMetadata, TileKey tileKey,
+                                        List<IntensityWindow> channelWindows, TextureEncoding textureEncoding) {
+        return delegate.loadSlice(rvl, renderedVolumeMetadata, tileKey, channelWindows, textureEncoding);
+    }
+
+    @Override
+    public List<Streamable<byte[]>> loadSlices(RenderedVolumeLocation rvl, RenderedVolumeMetadata renderedVolumeMetadata, List<TileKey> tileKeys) {
+        return delegate.loadSlices(rvl, renderedVolumeMetadata, tileKeys);
+    }
+
+    @Override
+    public Optional<RawImage> findClosestRawImageFromVoxelCoord(RenderedVolumeLocation rvl, int xVoxel, int yVoxel, int zVoxel) {
+        VolumeCacheEntry volumeCacheEntry = getVolumeCacheEntry(rvl);
+        return volumeCacheEntry.volumeMetadataSupplier.get()
+                .flatMap(rv -> RenderedVolumeLoaderImpl.findClosestRawImage(volumeCacheEntry.rawImageIndexSupplier.get(), rv, xVoxel, yVoxel, zVoxel));
+    }
+
+    @Override
+    public List<RawImage> findRawImagesContainingVoxelCoord(RenderedVolumeLocation rvl, int xVoxel, int yVoxel, int zVoxel) {
+        VolumeCacheEntry volumeCacheEntry = getVolumeCacheEntry(rvl);
+        return volumeCacheEntry.volumeMetadataSupplier.get()
+                .map(rv -> RenderedVolumeLoaderImpl.findRawImagesContainingVoxel(volumeCacheEntry.rawImageIndexSupplier.get(), rv, xVoxel, yVoxel, zVoxel))
+                .orElse(Collections.emptyList());
+    }
+
+    @Override
+    public List<RawImage> findRawImagesIntersectingVoxelBox(RenderedVolumeLocation rvl,
+                                                            int xStartVoxel, int yStartVoxel, int zStartVoxel,
+                                                            int xEndVoxel, int yEndVoxel, int zEndVoxel) {
+        VolumeCacheEntry volumeCacheEntry = getVolumeCacheEntry(rvl);
+        return volumeCacheEntry.volumeMetadataSupplier.get()
+                .map(rv -> RenderedVolumeLoaderImpl.findRawImagesIntersectingVoxelBox(volumeCacheEntry.rawImageIndexSupplier.get(), rv,
+                        new int[]{xStartVoxel, yStartVoxel, zStartVoxel},
+                        new int[]{xEndVoxel, yEndVoxel, zEndVoxel}))
+                .orElse(Collections.emptyList());
+    }
+
+    @Override
+    public Streamable<byte[]> loadRawImageContentFromVoxelCoord(RenderedVolumeLocation rvl,
+                                                                RawImage rawImage,
+                                                                int channel,
+                                                                int xVoxel, int yVoxel, int zVoxel,
+                                                                int dimx, int dimy, int dimz) {
+        return delegate.loadRawImageContentFromVoxelCoord(rvl, rawImage, channel, xVoxel, yVoxel, zVoxel, dimx, dimy, dimz);
+    }
+
+    @Override
+    public Streamable<byte[]> loadDownsampledRawImageContentFromVoxelCoord(RenderedVolumeLocation rvl,
+                                                                           RawImage rawImage,
+                                                                           int channel,
+                                                                           int xVoxel, int yVoxel, int zVoxel,
+                                                                           int dimx, int dimy, int dimz,
+                                                                           int xFactor, int yFactor, int zFactor,
+                                                                           DownsamplingMethod downsamplingMethod) {
+        return delegate.loadDownsampledRawImageContentFromVoxelCoord(rvl, rawImage, channel,
+                xVoxel, yVoxel, zVoxel, dimx, dimy, dimz,
+                xFactor, yFactor, zFactor, downsamplingMethod);
+    }
+
+    @Override
+    public Streamable<ChannelWriter> streamRawImageContentFromVoxelCoord(RenderedVolumeLocation rvl,
+                                                                         RawImage rawImage,
+                                                                         int channel,
+                                                                         int xVoxel, int yVoxel, int zVoxel,
+                                                                         int dimx, int dimy, int dimz) {
+        return delegate.streamRawImageContentFromVoxelCoord(rvl, rawImage, channel, xVoxel, yVoxel, zVoxel, dimx, dimy, dimz);
+    }
+
+    @Override
+    public Streamable<byte[]> loadRawImageProjectionFromVoxelCoord(RenderedVolumeLocation rvl,
+                                                                    RawImage rawImage,
+                                                                    int channel,
+                                                                    int xVoxel, int yVoxel, int zVoxel,
+                                                                    int dimx, int dimy, int dimz,
+                                                                    Coordinate projectionAxis,
+                                                                    ProjectionType projectionType) {
+        return delegate.loadRawImageProjectionFromVoxelCoord(rvl, rawImage, channel,
+                xVoxel, yVoxel, zVoxel, dimx, dimy, dimz,
+                projectionAxis, projectionType);
+    }
+
+    @Override
+    public Streamable<byte[]> loadTileProjection(RenderedVolumeLocation rvl,
+                                                 RenderedVolumeMetadata renderedVolumeMetadata,
+                                                 TileKey tileKey,
+                                                 int channel,
+                                                 int depth,
+                                                 ProjectionType projectionType) {
+        return delegate.loadTileProjection(rvl, renderedVolumeMetadata, tileKey, channel, depth, projectionType);
+    }
+
+    @Override
+    public List<RawImage> loadVolumeRawImageTiles(RenderedVolumeLocation rvl) {
+        return getVolumeCacheEntry(rvl).rawImagesSupplier.get();
+    }
+
+    @Override
+    public RawVolData loadRawVolumeData(RenderedVolumeLocation rvl) {
+        return getVolumeCacheEntry(rvl).rawVolDataSupplier.get();
+    }
+
+    private VolumeCacheEntry getVolumeCacheEntry(RenderedVolumeLocation rvl) {
+        URI volumeURI = rvl.getBaseStorageLocationURI();
+        try {
+            VolumeCacheEntry volumeCacheEntry = volumeCache.get(volumeURI,
+                    () -> new VolumeCacheEntry(rvl, getModificationTimes(rvl), System.currentTimeMillis()));
+            long currentTime = System.currentTimeMillis();
+            if (currentTime - volumeCacheEntry.lastCheckTime < modificationCheckIntervalMillis) {
+                return volumeCacheEntry;
+            }
+            long[] currentModificationTimes = getModificationTimes(rvl);
+            if (Arrays.equals(currentModificationTimes, volumeCacheEntry.modificationTimes)) {
+                volumeCacheEntry.lastCheckTime = currentTime;
+                return volumeCacheEntry;
+            }
+            LOG.debug("Volume {} was modified - reload its metadata", volumeURI);
+            VolumeCacheEntry updatedVolumeCacheEntry = new VolumeCacheEntry(rvl, currentModificationTimes, currentTime);
+            if (volumeCache.asMap().replace(volumeURI, volumeCacheEntry, updatedVolumeCacheEntry)) {
+                return updatedVolumeCacheEntry;
+            } else {
+                // another thread has already replaced or removed the entry
+                return volumeCache.get(volumeURI, () -> updatedVolumeCacheEntry);
+            }
+        } catch (ExecutionException e) {
+            LOG.error("Error retrieving cached metadata for {}", volumeURI, e);
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    private long[] getModificationTimes(RenderedVolumeLocation rvl) {
+        return Arrays.stream(MONITORED_RELATIVE_PATHS)
+                .mapToLong(rvl::getContentLastModifiedAtRelativePath)
+                .toArray();
+    }
+}
@@ -0,0 +1,55 @@
+package org.janelia.rendering;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Content that is written directly to a caller supplied channel instead of being materialized in memory first.
+ * A writer is typically backed by an open resource and it should only be invoked once.
+ */
+@FunctionalInterface
+public interface ChannelWriter {
+
+    /**
+     * Create a writer for content that is already in memory.
+     *
+     * @param bytes
+     * @return
+     */
+    static ChannelWriter fromBytes(byte[] bytes) {
+        return channel -> writeFully(ByteBuffer.wrap(bytes), channel);
+    }
+
+    /**
+     * Convert a byte array streamable into a channel writer streamable. The given streamable is consumed.
+     *
+     * @param bytesStreamable
+     * @return
+     */
+    static Streamable<ChannelWriter> fromStreamableBytes(Streamable<byte[]> bytesStreamable) {
+        return bytesStreamable.consume(ChannelWriter::fromBytes, (writer, size) -> size);
+    }
+
+    /**
+     * Write all remaining bytes from the buffer to the channel.
+     *
+     * @return the number of bytes written.
+     */
+    static long writeFully(ByteBuffer buffer, WritableByteChannel channel) throws IOException {
+        long nbytes = 0;
+        while (buffer.hasRemaining()) {
+            nbytes += channel.write(buffer);
+        }
+        return nbytes;
+    }
+
+    /**
+     * Write the content to the given channel. The channel is not closed.
+     *
+     * @param channel
+     * @return the number of bytes written.
+     * @throws IOException
+     */
+    long writeTo(WritableByteChannel channel) throws IOException;
+}
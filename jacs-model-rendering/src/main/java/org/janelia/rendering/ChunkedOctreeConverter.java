@@ -0,0 +1,442 @@
+package org.janelia.rendering;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.Lock;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.Striped;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import org.apache.commons.lang3.StringUtils;
+import org.janelia.rendering.utils.ChunkedDataset;
+import org.janelia.rendering.utils.ImageUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Converts a TIFF octree into the multiscale chunked layout served by {@link ChunkedRenderedVolumeLocation}.
+ * <p>
+ * Every octree tile image is a unit of work. The tiles are converted in parallel but only a bounded number of them
+ * is pending at any time and each tile is read and written one slab of chunks at a time, so the memory used
+ * does not depend on the size of the octree. Every converted tile is appended to a journal in the chunk store
+ * and a conversion that was interrupted skips the journaled tiles when it is restarted. Since chunks are written
+ * atomically, a tile that was only partially converted is simply converted again.
+ * <p>
+ * The chunk size is fixed so when it does not divide the tile size some chunks hold the edges of adjacent tiles.
+ * Such chunks are updated with the part of each tile under a lock, so a store must not be converted by more than
+ * one converter at a time. See {@link ChunkedOctreeConverterMain} for running the conversion from the command line.
+ */
+public class ChunkedOctreeConverter {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ChunkedOctreeConverter.class);
+    private static final String JOURNAL_FILE_NAME = "conversion.journal";
+
+    public static class VerificationResult {
+        private final int checkedSlices;
+        private final List<TileKey> mismatchedSlices;
+
+        VerificationResult(int checkedSlices, List<TileKey> mismatchedSlices) {
+            this.checkedSlices = checkedSlices;
+            this.mismatchedSlices = mismatchedSlices;
+        }
+
+        public int getCheckedSlices() {
+            return checkedSlices;
+        }
+
+        public List<TileKey> getMismatchedSlices() {
+            return mismatchedSlices;
+        }
+
+        public boolean isValid() {
+            return mismatchedSlices.isEmpty();
+        }
+
+        @Override
+        public String toString() {
+            return "VerificationResult{checkedSlices=" + checkedSlices + ", mismatchedSlices=" + mismatchedSlices + '}';
+        }
+    }
+
+    private final RenderedVolumeLoader renderedVolumeLoader;
+    private final RenderedVolumeLocation octreeLocation;
+    private final Path chunkedStorePath;
+    private ChunkedDataset.Format format = ChunkedDataset.Format.N5;
+    private ChunkedDataset.Compression compression = ChunkedDataset.Compression.GZIP;
+    private int maxBlockSize = 128;
+    private int nThreads = Runtime.getRuntime().availableProcessors();
+    private int maxPendingTiles = 2 * Runtime.getRuntime().availableProcessors();
+    private final AtomicLong convertedTileCount = new AtomicLong();
+    private final AtomicLong resumedTileCount = new AtomicLong();
+    private final AtomicLong writtenBytes = new AtomicLong();
+    private final Striped<Lock> sharedChunkLocks = Striped.lock(64);
+
+    /**
+     * @param renderedVolumeLoader loader used for reading the octree metadata
+     * @param octreeLocation TIFF octree
+     * @param chunkedStorePath N5 or Zarr container; if relative it is resolved against the octree directory
+     */
+    public ChunkedOctreeConverter(RenderedVolumeLoader renderedVolumeLoader, RenderedVolumeLocation octreeLocation, Path chunkedStorePath) {
+        this.renderedVolumeLoader = renderedVolumeLoader;
+        this.octreeLocation = octreeLocation;
+        this.chunkedStorePath = Paths.get(octreeLocation.getBaseDataStoragePath()).resolve(chunkedStorePath);
+    }
+
+    public Path getChunkedStorePath() {
+        return chunkedStorePath;
+    }
+
+    public void setFormat(ChunkedDataset.Format format) {
+        this.format = format;
+    }
+
+    public void setCompression(ChunkedDataset.Compression compression) {
+        this.compression = compression;
+    }
+
+    /**
+     * Set the chunk size along every axis. Along an axis where the tile is smaller the chunk size is the tile size.
+     *
+     * @param maxBlockSize
+     */
+    public void setMaxBlockSize(int maxBlockSize) {
+        Preconditions.checkArgument(maxBlockSize > 0, "Block size must be positive");
+        this.maxBlockSize = maxBlockSize;
+    }
+
+    public void setThreads(int nThreads) {
+        Preconditions.checkArgument(nThreads > 0, "At least one thread is required");
+        this.nThreads = nThreads;
+    }
+
+    /**
+     * Set the maximum number of tiles that are being converted or waiting to be converted.
+     * Each pending tile holds at most one slab of chunks in memory.
+     *
+     * @param maxPendingTiles
+     */
+    public void setMaxPendingTiles(int maxPendingTiles) {
+        Preconditions.checkArgument(maxPendingTiles > 0, "At least one pending tile is required");
+        this.maxPendingTiles = maxPendingTiles;
+    }
+
+    public long getConvertedTileCount() {
+        return convertedTileCount.get();
+    }
+
+    public long getResumedTileCount() {
+        return resumedTileCount.get();
+    }
+
+    /**
+     * @return the number of uncompressed chunk bytes written
+     */
+    public long getWrittenBytes() {
+        return writtenBytes.get();
+    }
+
+    /**
+     * Convert all tiles that have not been converted already by a previous run.
+     */
+    public void convert() {
+        RenderedVolumeMetadata renderedVolumeMetadata = loadVolumeMetadata();
+        int maxDepth = renderedVolumeMetadata.getNumZoomLevels() - 1;
+        List<String> tileImagePaths = listTileImagePaths(maxDepth);
+        Set<String> convertedTiles = readJournal();
+        ExecutorService conversionExecutor = Executors.newFixedThreadPool(nThreads, new ThreadFactoryBuilder()
+                .setNameFormat("OctreeConverter-%d")
+                .setDaemon(true)
+                .build());
+        Semaphore pendingTiles = new Semaphore(maxPendingTiles);
+        AtomicReference<RuntimeException> conversionError = new AtomicReference<>();
+        try (BufferedWriter journalWriter = Files.newBufferedWriter(chunkedStorePath.resolve(JOURNAL_FILE_NAME), StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+            for (String tileImagePath : tileImagePaths) {
+                if (convertedTiles.contains(tileImagePath)) {
+                    resumedTileCount.incrementAndGet();
+                    continue;
+                }
+                pendingTiles.acquire();
+                if (conversionError.get() != null) {
+                    pendingTiles.release();
+                    break;
+                }
+                conversionExecutor.submit(() -> {
+                    try {
+                        convertTile(renderedVolumeMetadata, maxDepth, tileImagePath);
+                        synchronized (journalWriter) {
+                            journalWriter.write(tileImagePath);
+                            journalWriter.newLine();
+                            journalWriter.flush();
+                        }
+                        convertedTileCount.incrementAndGet();
+                    } catch (Exception e) {
+                        LOG.error("Error converting tile {} from {}", tileImagePath, octreeLocation.getBaseStorageLocationURI(), e);
+                        conversionError.compareAndSet(null, e instanceof RuntimeException ? (RuntimeException) e : new IllegalStateException(e));
+                    } finally {
+                        pendingTiles.release();
+                    }
+                });
+            }
+            // wait for all pending tiles
+            pendingTiles.acquire(maxPendingTiles);
+            pendingTiles.release(maxPendingTiles);
+        } catch (IOException e) {
+            LOG.error("Error writing the conversion journal in {}", chunkedStorePath, e);
+            throw new IllegalStateException(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        } finally {
+            conversionExecutor.shutdownNow();
+        }
+        if (conversionError.get() != null) {
+            throw conversionError.get();
+        }
+    }
+
+    /**
+     * Compare random slices of the converted tiles read from the octree and from the chunk store.
+     * Each tile image is compared separately.
+     *
+     * @param sampleCount number of slices to compare
+     * @param seed random seed
+     * @return
+     */
+    public VerificationResult verify(int sampleCount, long seed) {
+        RenderedVolumeMetadata renderedVolumeMetadata = loadVolumeMetadata();
+        int maxDepth = renderedVolumeMetadata.getNumZoomLevels() - 1;
+        List<String> tileImagePaths = listTileImagePaths(maxDepth);
+        if (tileImagePaths.isEmpty()) {
+            return new VerificationResult(0, Collections.emptyList());
+        }
+        ChunkedRenderedVolumeLocation chunkedLocation = new ChunkedRenderedVolumeLocation(
+                Paths.get(octreeLocation.getBaseDataStoragePath()), Function.identity(), chunkedStorePath);
+        // do not let cached chunks hide what was actually written
+        chunkedLocation.setChunkCache(null);
+        Random random = new Random(seed);
+        List<TileKey> mismatchedSlices = new ArrayList<>();
+        for (int i = 0; i < sampleCount; i++) {
+            String tileImagePath = tileImagePaths.get(random.nextInt(tileImagePaths.size()));
+            Path tileImageRelativePath = Paths.get(tileImagePath);
+            Coordinate sliceAxis = TileInfo.getSliceAxisFromImageNameForChannel(tileImageRelativePath.getFileName().toString());
+            TileInfo tileInfo = renderedVolumeMetadata.getTileInfo(sliceAxis)
+                    .orElseThrow(() -> new IllegalStateException("No tile info found for " + tileImagePath));
+            int[] tilePosition = ChunkedRenderedVolumeLocation.getOctreeTilePosition(getTileRelativePath(tileImageRelativePath));
+            int depth = tilePosition[3];
+            // the tile key only identifies the mismatched slices; the octree y runs from the top octants down while the tile key uses raveler's y
+            TileKey tileKey = TileKey.fromTileCoord(tilePosition[0], (1 << depth) - 1 - tilePosition[1], tilePosition[2],
+                    maxDepth - depth, sliceAxis, random.nextInt(tileInfo.getNumPages()));
+            // read the slices directly from each location so that no cache is shared between them
+            List<String> channelImageNames = Collections.singletonList(tileImageRelativePath.getFileName().toString());
+            String tileRelativePath = getTileRelativePath(tileImageRelativePath);
+            byte[] octreeSlice = octreeLocation.readTiffPageAsTexturedBytes(tileRelativePath, channelImageNames, tileKey.getSliceIndex()).getContent();
+            byte[] chunkedSlice = chunkedLocation.readTiffPageAsTexturedBytes(tileRelativePath, channelImageNames, tileKey.getSliceIndex()).getContent();
+            if (!Arrays.equals(octreeSlice, chunkedSlice)) {
+                LOG.warn("Slice {} read from {} is different from the one read from {}",
+                        tileKey, chunkedStorePath, octreeLocation.getBaseStorageLocationURI());
+                mismatchedSlices.add(tileKey);
+            }
+        }
+        return new VerificationResult(sampleCount, mismatchedSlices);
+    }
+
+    private RenderedVolumeMetadata loadVolumeMetadata() {
+        return renderedVolumeLoader.loadVolume(octreeLocation)
+                .orElseThrow(() -> new IllegalArgumentException("No octree found at " + octreeLocation.getBaseStorageLocationURI()));
+    }
+
+    /**
+     * @return the tile image paths relative to the octree directory, e.g. 1/5/default.0.tif
+     */
+    private List<String> listTileImagePaths(int maxDepth) {
+        Path octreeBasePath = Paths.get(octreeLocation.getBaseDataStoragePath());
+        return octreeLocation.listImageUris(maxDepth).stream()
+                .map(imageURI -> octreeBasePath.relativize(Paths.get(imageURI)))
+                .filter(imagePath -> TileInfo.getSliceAxisFromImageNameForChannel(imagePath.getFileName().toString()) != null)
+                .filter(imagePath -> IntStream.range(0, imagePath.getNameCount() - 1)
+                        .mapToObj(i -> imagePath.getName(i).toString())
+                        .allMatch(octant -> octant.length() == 1 && octant.charAt(0) >= '1' && octant.charAt(0) <= '8'))
+                .map(imagePath -> StringUtils.replace(imagePath.toString(), "\\", "/"))
+                .sorted()
+                .collect(Collectors.toList());
+    }
+
+    private String getTileRelativePath(Path tileImageRelativePath) {
+        Path tilePath = tileImageRelativePath.getParent();
+        return tilePath == null ? "" : tilePath.toString();
+    }
+
+    private Set<String> readJournal() {
+        Set<String> convertedTiles = ConcurrentHashMap.newKeySet();
+        Path journalPath = chunkedStorePath.resolve(JOURNAL_FILE_NAME);
+        try {
+            Files.createDirectories(chunkedStorePath);
+            if (Files.exists(journalPath)) {
+                // a partially written last line does not match any tile
+                Files.readAllLines(journalPath, StandardCharsets.UTF_8).stream()
+                        .map(String::trim)
+                        .filter(StringUtils::isNotEmpty)
+                        .forEach(convertedTiles::add);
+            }
+            return convertedTiles;
+        } catch (IOException e) {
+            LOG.error("Error reading the conversion journal {}", journalPath, e);
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void convertTile(RenderedVolumeMetadata renderedVolumeMetadata, int maxDepth, String tileImagePath) {
+        Path tileImageRelativePath = Paths.get(tileImagePath);
+        String tileImageName = tileImageRelativePath.getFileName().toString();
+        String tileRelativePath = getTileRelativePath(tileImageRelativePath);
+        int[] tilePosition = ChunkedRenderedVolumeLocation.getOctreeTilePosition(tileRelativePath);
+        int depth = tilePosition[3];
+        if (depth > maxDepth) {
+            LOG.warn("Tile {} is deeper than the octree's max depth {}", tileImagePath, maxDepth);
+            return;
+        }
+        TileInfo tileInfo = renderedVolumeMetadata.getTileInfo(TileInfo.getSliceAxisFromImageNameForChannel(tileImageName))
+                .orElseThrow(() -> new IllegalStateException("No tile info found for " + tileImagePath));
+        int[] tileSize = tileInfo.getTileSize();
+        ChunkedDataset dataset = openScaleDataset(tileImageName, maxDepth, maxDepth - depth, tileInfo);
+        int[] blockSize = dataset.getBlockSize();
+        int planeSize = tileSize[0] * tileSize[1] * dataset.getBytesPerSample();
+        long[] tileOffset = new long[] {
+                (long) tilePosition[0] * tileSize[0],
+                (long) tilePosition[1] * tileSize[1],
+                (long) tilePosition[2] * tileSize[2]
+        };
+        // the slabs are aligned to the chunks so every chunk is written once for the tile
+        for (long zChunk = tileOffset[2] / blockSize[2]; zChunk * blockSize[2] < tileOffset[2] + tileSize[2]; zChunk++) {
+            int slabStart = (int) Math.max(0, zChunk * blockSize[2] - tileOffset[2]);
+            int slabEnd = (int) Math.min(tileSize[2], (zChunk + 1) * blockSize[2] - tileOffset[2]);
+            List<Integer> pageNumbers = IntStream.range(slabStart, slabEnd).boxed().collect(Collectors.toList());
+            List<Streamable<byte[]>> pageTextures = octreeLocation.readTiffPagesAsTexturedBytes(tileRelativePath,
+                    Collections.singletonList(tileImageName), pageNumbers);
+            byte[] slabBytes = new byte[planeSize * pageNumbers.size()];
+            for (int p = 0; p < pageTextures.size(); p++) {
+                byte[] pageTexture = pageTextures.get(p).getContent();
+                if (pageTexture == null) {
+                    throw new IllegalStateException("Page " + pageNumbers.get(p) + " could not be read from " + tileImagePath);
+                }
+                byte[] pagePlane = ImageUtils.textureBytesToChannelPlanes(pageTexture).get(0);
+                System.arraycopy(pagePlane, 0, slabBytes, p * planeSize, planeSize);
+            }
+            long[] slabOffset = new long[] {tileOffset[0], tileOffset[1], tileOffset[2] + slabStart};
+            int[] slabSize = new int[] {tileSize[0], tileSize[1], pageNumbers.size()};
+            writeSlabChunks(dataset, slabBytes, slabOffset, slabSize, zChunk);
+        }
+    }
+
+    private ChunkedDataset openScaleDataset(String tileImageName, int maxDepth, int scale, TileInfo tileInfo) {
+        Path groupPath = chunkedStorePath.resolve(ChunkedRenderedVolumeLocation.getTileImageGroupName(tileImageName));
+        Path datasetPath = groupPath.resolve(ChunkedRenderedVolumeLocation.getScaleDatasetName(scale));
+        int[] tileSize = tileInfo.getTileSize();
+        long tilesPerAxis = 1L << (maxDepth - scale);
+        long[] dims = Arrays.stream(tileSize).mapToLong(tileDim -> tileDim * tilesPerAxis).toArray();
+        int[] blockSize = Arrays.stream(tileSize).map(this::getBlockSize).toArray();
+        int bytesPerSample = tileInfo.getBitDepth() / 8;
+        // several tiles of the same scale may try to create the dataset at the same time
+        synchronized (this) {
+            ChunkedDataset dataset = ChunkedDataset.open(datasetPath);
+            if (dataset == null) {
+                ChunkedDataset.createGroup(chunkedStorePath, format);
+                ChunkedDataset.createGroup(groupPath, format);
+                return ChunkedDataset.create(datasetPath, format, dims, blockSize, bytesPerSample, compression);
+            } else if (!Arrays.equals(dims, dataset.getDims()) || !Arrays.equals(blockSize, dataset.getBlockSize())
+                    || bytesPerSample != dataset.getBytesPerSample()) {
+                LOG.error("Existing dataset {} does not match the octree tiles", dataset);
+                throw new IllegalStateException("Existing dataset " + datasetPath + " does not match the octree tiles");
+            } else {
+                return dataset;
+            }
+        }
+    }
+
+    private int getBlockSize(int tileDim) {
+        return Math.min(tileDim, maxBlockSize);
+    }
+
+    /**
+     * Write the chunks that overlap the slab. Chunks that are only partially covered by the slab also hold
+     * the edges of the adjacent tiles so the slab is merged into their current content.
+     */
+    private void writeSlabChunks(ChunkedDataset dataset, byte[] slabBytes, long[] slabOffset, int[] slabSize, long zChunk) {
+        int[] blockSize = dataset.getBlockSize();
+        long[] dims = dataset.getDims();
+        for (long yChunk = slabOffset[1] / blockSize[1]; yChunk * blockSize[1] < slabOffset[1] + slabSize[1]; yChunk++) {
+            for (long xChunk = slabOffset[0] / blockSize[0]; xChunk * blockSize[0] < slabOffset[0] + slabSize[0]; xChunk++) {
+                long[] gridPosition = new long[] {xChunk, yChunk, zChunk};
+                boolean coveredBySlab = true;
+                for (int d = 0; d < 3; d++) {
+                    long chunkStart = gridPosition[d] * blockSize[d];
+                    long chunkEnd = Math.min(dims[d], chunkStart + blockSize[d]);
+                    coveredBySlab = coveredBySlab && chunkStart >= slabOffset[d] && chunkEnd <= slabOffset[d] + slabSize[d];
+                }
+                if (coveredBySlab) {
+                    byte[] chunkBytes = new byte[dataset.getChunkByteSize()];
+                    copySlabToChunk(dataset, slabBytes, slabOffset, slabSize, gridPosition, chunkBytes);
+                    dataset.writeChunk(gridPosition, chunkBytes);
+                } else {
+                    Lock chunkLock = sharedChunkLocks.get(dataset.getChunkPath(gridPosition));
+                    chunkLock.lock();
+                    try {
+                        byte[] chunkBytes = dataset.readChunk(gridPosition);
+                        if (chunkBytes == null) {
+                            chunkBytes = new byte[dataset.getChunkByteSize()];
+                        }
+                        copySlabToChunk(dataset, slabBytes, slabOffset, slabSize, gridPosition, chunkBytes);
+                        dataset.writeChunk(gridPosition, chunkBytes);
+                    } finally {
+                        chunkLock.unlock();
+                    }
+                }
+                writtenBytes.addAndGet(dataset.getChunkByteSize());
+            }
+        }
+    }
+
+    private void copySlabToChunk(ChunkedDataset dataset, byte[] slabBytes, long[] slabOffset, int[] slabSize,
+                                 long[] gridPosition, byte[] chunkBytes) {
+        int[] blockSize = dataset.getBlockSize();
+        int bytesPerSample = dataset.getBytesPerSample();
+        long[] chunkOffset = new long[3];
+        long[] start = new long[3];
+        long[] end = new long[3];
+        for (int d = 0; d < 3; d++) {
+            chunkOffset[d] = gridPosition[d] * blockSize[d];
+            start[d] = Math.max(chunkOffset[d], slabOffset[d]);
+            end[d] = Math.min(chunkOffset[d] + blockSize[d], slabOffset[d] + slabSize[d]);
+        }
+        int rowSize = (int) (end[0] - start[0]) * bytesPerSample;
+        for (long z = start[2]; z < end[2]; z++) {
+            for (long y = start[1]; y < end[1]; y++) {
+                long slabIndex = ((z - slabOffset[2]) * slabSize[1] + y - slabOffset[1]) * slabSize[0] + start[0] - slabOffset[0];
+                long chunkIndex = ((z - chunkOffset[2]) * blockSize[1] + y - chunkOffset[1]) * blockSize[0] + start[0] - chunkOffset[0];
+                System.arraycopy(slabBytes, (int) slabIndex * bytesPerSample, chunkBytes, (int) chunkIndex * bytesPerSample, rowSize);
+            }
+        }
+    }
+}
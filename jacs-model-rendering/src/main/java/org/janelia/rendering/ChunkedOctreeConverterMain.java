@@ -0,0 +1,52 @@
+package org.janelia.rendering;
+
+import java.nio.file.Paths;
+import java.util.function.Function;
+
+import com.google.common.base.Preconditions;
+
+import org.janelia.rendering.utils.ChunkedDataset;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Command line entry point of {@link ChunkedOctreeConverter}. The process exits with status 1 if the verification
+ * finds slices that are different in the octree and in the chunk store.
+ */
+public class ChunkedOctreeConverterMain {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ChunkedOctreeConverterMain.class);
+
+    /**
+     * Usage: ChunkedOctreeConverterMain &lt;octreeDir&gt; &lt;chunkedStoreDir&gt; [n5|zarr] [verifiedSlices]
+     */
+    public static void main(String[] args) {
+        if (!run(args)) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Convert the octree and verify the converted slices if requested.
+     *
+     * @param args
+     * @return false if the verification found mismatched slices
+     */
+    static boolean run(String[] args) {
+        Preconditions.checkArgument(args.length >= 2, "Usage: ChunkedOctreeConverterMain <octreeDir> <chunkedStoreDir> [n5|zarr] [verifiedSlices]");
+        RenderedVolumeLocation octreeLocation = new FileBasedRenderedVolumeLocation(Paths.get(args[0]), Function.identity());
+        ChunkedOctreeConverter converter = new ChunkedOctreeConverter(new RenderedVolumeLoaderImpl(), octreeLocation, Paths.get(args[1]));
+        if (args.length > 2) {
+            converter.setFormat(ChunkedDataset.Format.valueOf(args[2].toUpperCase()));
+        }
+        converter.convert();
+        LOG.info("Converted {} tiles, skipped {} tiles converted by a previous run, wrote {} bytes",
+                converter.getConvertedTileCount(), converter.getResumedTileCount(), converter.getWrittenBytes());
+        if (args.length > 3) {
+            ChunkedOctreeConverter.VerificationResult verificationResult = converter.verify(Integer.parseInt(args[3]), System.currentTimeMillis());
+            LOG.info("Verification result: {}", verificationResult);
+            return verificationResult.isValid();
+        }
+        return true;
+    }
+}
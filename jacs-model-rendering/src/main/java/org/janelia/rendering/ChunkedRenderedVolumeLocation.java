@@ -0,0 +1,337 @@
+package org.janelia.rendering;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import javax.annotation.Nullable;
+
+import com.google.common.base.Preconditions;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import org.apache.commons.lang3.StringUtils;
+import org.janelia.rendering.utils.ChunkCache;
+import org.janelia.rendering.utils.ChunkedDataset;
+import org.janelia.rendering.utils.ImageUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Rendered volume location that serves the octree tiles and the raw image ROIs from local N5 or Zarr chunk stores.
+ * <p>
+ * The octree is stored in a single container with a multiscale group for every tile image name, e.g.
+ * <code>default.0/s0 ... default.0/sN</code> for <code>default.0.tif</code>, where <code>sN</code> holds the root tile
+ * and every finer scale doubles the number of tiles along each axis. Each scale is the mosaic of the octree tiles
+ * of the corresponding level laid out in the tile image's own x, y and page order. A raw image is served from
+ * an N5 or Zarr dataset next to the raw TIFF with the TIFF extension replaced by <code>.n5</code> or <code>.zarr</code>.
+ * <p>
+ * Images that are not found in the chunk stores, as well as the transform, the tilebase and the manifest,
+ * are read from the TIFF octree exactly like {@link FileBasedRenderedVolumeLocation} does.
+ */
+public class ChunkedRenderedVolumeLocation extends FileBasedRenderedVolumeLocation {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ChunkedRenderedVolumeLocation.class);
+    private static final String[] RAW_DATASET_EXTENSIONS = new String[] {".n5", ".zarr"};
+    private static final String SCALE_DATASET_PREFIX = "s";
+
+    /**
+     * @param tileImageName octree tile image name, e.g. default.0.tif
+     * @return the name of the multiscale group that holds the tile images, e.g. default.0
+     */
+    public static String getTileImageGroupName(String tileImageName) {
+        String lowerCaseName = tileImageName.toLowerCase();
+        if (lowerCaseName.endsWith(".tif")) {
+            return tileImageName.substring(0, tileImageName.length() - ".tif".length());
+        } else if (lowerCaseName.endsWith(".tiff")) {
+            return tileImageName.substring(0, tileImageName.length() - ".tiff".length());
+        } else {
+            return tileImageName;
+        }
+    }
+
+    /**
+     * @param scale scale level; 0 is the full resolution
+     * @return the name of the dataset that holds the given scale inside a multiscale group
+     */
+    public static String getScaleDatasetName(int scale) {
+        return SCALE_DATASET_PREFIX + scale;
+    }
+
+    /**
+     * Decode an octree tile path, e.g. "1/5/3", into the tile's position on the grid of its octree level.
+     *
+     * @param tileRelativePath
+     * @return {x, y, z, depth} where x, y and z are in tiles; the y axis runs from the top octants down
+     */
+    public static int[] getOctreeTilePosition(String tileRelativePath) {
+        int[] tilePosition = new int[4];
+        for (String octant : StringUtils.split(StringUtils.replace(tileRelativePath, "\\", "/"), '/')) {
+            int octreeCoord = Integer.parseInt(octant) - 1;
+            Preconditions.checkArgument(octreeCoord >= 0 && octreeCoord < 8, "Invalid octree path %s", tileRelativePath);
+            for (int d = 0; d < 3; d++) {
+                tilePosition[d] = tilePosition[d] * 2 + ((octreeCoord >> d) & 1);
+            }
+            tilePosition[3]++;
+        }
+        return tilePosition;
+    }
+
+    /**
+     * @param depth octree depth
+     * @param tileIndex index of the tile in the depth's tile list, 0 .. 8^depth - 1
+     * @return the relative path of the tile, the inverse of {@link #getOctreeTilePosition}
+     */
+    public static String getOctreeTilePath(int depth, int tileIndex) {
+        List<String> octants = new ArrayList<>();
+        for (int level = depth - 1; level >= 0; level--) {
+            octants.add(String.valueOf(((tileIndex >> (3 * level)) & 7) + 1));
+        }
+        return String.join("/", octants);
+    }
+
+    private final Path chunkedStorePath;
+    private final Cache<Path, Optional<ChunkedDataset>> datasets = CacheBuilder.newBuilder()
+            .maximumSize(10000)
+            .expireAfterWrite(1, TimeUnit.MINUTES)
+            .build();
+    private ChunkCache chunkCache = ChunkCache.getDefaultInstance();
+
+    /**
+     * @param volumeBasePath octree directory that contains the transform file
+     * @param pathMapper
+     * @param chunkedStorePath N5 or Zarr container with the octree tile images; if relative it is resolved against the octree directory
+     */
+    public ChunkedRenderedVolumeLocation(Path volumeBasePath, Function<Path, Path> pathMapper, Path chunkedStorePath) {
+        super(volumeBasePath, pathMapper);
+        Preconditions.checkArgument(chunkedStorePath != null, "Chunked store path is required");
+        this.chunkedStorePath = Paths.get(getBaseDataStoragePath()).resolve(chunkedStorePath);
+    }
+
+    public Path getChunkedStorePath() {
+        return chunkedStorePath;
+    }
+
+    /**
+     * The tile textures are identified by the chunked store so they do not collide with the textures
+     * of the TIFF octree at the same base location.
+     */
+    @Override
+    public URI getTileStorageURI() {
+        return chunkedStorePath.toUri();
+    }
+
+    public ChunkCache getChunkCache() {
+        return chunkCache;
+    }
+
+    /**
+     * Set the cache of decoded chunks. If set to null every read decodes the chunks from the storage.
+     *
+     * @param chunkCache
+     */
+    public void setChunkCache(ChunkCache chunkCache) {
+        this.chunkCache = chunkCache;
+    }
+
+    @Override
+    public List<URI> listImageUris(int level) {
+        List<String> groupNames = listTileImageGroupNames();
+        if (groupNames.isEmpty()) {
+            return super.listImageUris(level);
+        }
+        List<URI> imageURIs = new ArrayList<>();
+        for (String groupName : groupNames) {
+            int maxDepth = Math.min(level, getScaleDatasets(groupName).size() - 1);
+            for (int depth = 0; depth <= maxDepth; depth++) {
+                for (int tileIndex = 0; tileIndex < 1 << (3 * depth); tileIndex++) {
+                    imageURIs.add(chunkedStorePath.resolve(getOctreeTilePath(depth, tileIndex)).resolve(groupName + ".tif").toUri());
+                }
+            }
+        }
+        return imageURIs;
+    }
+
+    @Nullable
+    @Override
+    public RenderedImageInfo readTileImageInfo(String tileRelativePath) {
+        Path tilePath = Paths.get(tileRelativePath);
+        List<ChunkedDataset> scaleDatasets = getScaleDatasets(getTileImageGroupName(tilePath.getFileName().toString()));
+        if (scaleDatasets.isEmpty()) {
+            return super.readTileImageInfo(tileRelativePath);
+        }
+        ChunkedDataset rootDataset = scaleDatasets.get(scaleDatasets.size() - 1);
+        long[] tileSize = rootDataset.getDims();
+        return new RenderedImageInfo((int) tileSize[0], (int) tileSize[1], (int) tileSize[2], rootDataset.getBytesPerSample() * 8, false);
+    }
+
+    @Override
+    public List<Streamable<byte[]>> readTiffPagesAsTexturedBytes(String imageRelativePath, List<String> channelImageNames, List<Integer> pageNumbers) {
+        List<List<ChunkedDataset>> channelScaleDatasets = channelImageNames.stream()
+                .map(channelImageName -> getScaleDatasets(getTileImageGroupName(channelImageName)))
+                .filter(scaleDatasets -> !scaleDatasets.isEmpty())
+                .collect(Collectors.toList());
+        if (channelScaleDatasets.isEmpty()) {
+            return super.readTiffPagesAsTexturedBytes(imageRelativePath, channelImageNames, pageNumbers);
+        }
+        int[] tilePosition = getOctreeTilePosition(imageRelativePath);
+        List<ChunkedDataset> channelDatasets = new ArrayList<>();
+        int[] tileSize = null;
+        for (List<ChunkedDataset> scaleDatasets : channelScaleDatasets) {
+            int scale = scaleDatasets.size() - 1 - tilePosition[3];
+            if (scale < 0) {
+                return Collections.nCopies(pageNumbers.size(), Streamable.<byte[]>empty());
+            }
+            long[] rootDims = scaleDatasets.get(scaleDatasets.size() - 1).getDims();
+            tileSize = new int[] {(int) rootDims[0], (int) rootDims[1], (int) rootDims[2]};
+            channelDatasets.add(scaleDatasets.get(scale));
+        }
+        int bytesPerSample = channelDatasets.get(0).getBytesPerSample();
+        Preconditions.checkArgument(channelDatasets.stream().allMatch(ds -> ds.getBytesPerSample() == bytesPerSample),
+                "All channels of %s must have the same sample size", imageRelativePath);
+        List<Streamable<byte[]>> pageTextures = new ArrayList<>();
+        for (Integer pageNumber : pageNumbers) {
+            pageTextures.add(readTilePageTexture(channelDatasets, tilePosition, tileSize, pageNumber, bytesPerSample));
+        }
+        return pageTextures;
+    }
+
+    private Streamable<byte[]> readTilePageTexture(List<ChunkedDataset> channelDatasets, int[] tilePosition, int[] tileSize,
+                                                   int pageNumber, int bytesPerSample) {
+        if (pageNumber < 0 || pageNumber >= tileSize[2]) {
+            return Streamable.empty();
+        }
+        long[] pageOffset = new long[] {
+                (long) tilePosition[0] * tileSize[0],
+                (long) tilePosition[1] * tileSize[1],
+                (long) tilePosition[2] * tileSize[2] + pageNumber
+        };
+        int[] pageSize = new int[] {tileSize[0], tileSize[1], 1};
+        List<byte[]> channelPlanes = new ArrayList<>();
+        int existingChunks = 0;
+        for (ChunkedDataset channelDataset : channelDatasets) {
+            byte[] channelPlane = new byte[tileSize[0] * tileSize[1] * bytesPerSample];
+            existingChunks += channelDataset.readRegion(pageOffset, pageSize, channelPlane, chunkCache);
+            channelPlanes.add(channelPlane);
+        }
+        if (existingChunks == 0) {
+            // same as a missing octree tile
+            return Streamable.empty();
+        }
+        byte[] textureBytes = ImageUtils.channelPlanesToTextureBytes(channelPlanes, tileSize[0], tileSize[1], bytesPerSample);
+        return Streamable.of(textureBytes, textureBytes.length);
+    }
+
+    @Override
+    public Streamable<byte[]> readTiffImageROIPixels(String imagePath, int xCenter, int yCenter, int zCenter, int dimx, int dimy, int dimz) {
+        ChunkedDataset rawDataset = getRawImageDataset(imagePath);
+        if (rawDataset == null) {
+            return super.readTiffImageROIPixels(imagePath, xCenter, yCenter, zCenter, dimx, dimy, dimz);
+        }
+        long[] dims = rawDataset.getDims();
+        // the ROI is selected exactly like it is selected from a TIFF image
+        int[] xRange = getROIRange((int) dims[0], xCenter, dimx != -1 ? dimx : 0);
+        int[] yRange = getROIRange((int) dims[1], yCenter, dimy != -1 ? dimy : 0);
+        int[] zRange = getROIRange((int) dims[2], zCenter, dimz > 0 ? dimz : 0);
+        if (zRange[0] >= zRange[1]) {
+            return Streamable.empty();
+        }
+        int[] roiSize = new int[] {xRange[1] - xRange[0], yRange[1] - yRange[0], zRange[1] - zRange[0]};
+        byte[] roiBytes = new byte[roiSize[0] * roiSize[1] * roiSize[2] * rawDataset.getBytesPerSample()];
+        rawDataset.readRegion(new long[] {xRange[0], yRange[0], zRange[0]}, roiSize, roiBytes, chunkCache);
+        return Streamable.of(roiBytes, roiBytes.length);
+    }
+
+    /**
+     * @param size image size along the axis
+     * @param center ROI center
+     * @param delta ROI size or 0 for the entire axis
+     * @return {start, end} of the ROI along the axis
+     */
+    private int[] getROIRange(int size, int center, int delta) {
+        if (delta <= 0) {
+            return new int[] {0, size};
+        }
+        int start = Math.max(0, Math.min(size - delta, center - delta / 2));
+        int end = Math.min(size, start + delta);
+        return new int[] {start, end};
+    }
+
+    @Override
+    public Streamable<ChannelWriter> streamTiffImageROIPixels(String imagePath, int xCenter, int yCenter, int zCenter, int dimx, int dimy, int dimz) {
+        if (getRawImageDataset(imagePath) == null) {
+            return super.streamTiffImageROIPixels(imagePath, xCenter, yCenter, zCenter, dimx, dimy, dimz);
+        }
+        return ChannelWriter.fromStreamableBytes(readTiffImageROIPixels(imagePath, xCenter, yCenter, zCenter, dimx, dimy, dimz));
+    }
+
+    @Nullable
+    private ChunkedDataset getRawImageDataset(String imagePath) {
+        Path imageFilePath = getLocationPathFromAbsolutePath(imagePath);
+        String datasetBaseName = getTileImageGroupName(imageFilePath.getFileName().toString());
+        for (String datasetExtension : RAW_DATASET_EXTENSIONS) {
+            ChunkedDataset rawDataset = getDataset(imageFilePath.resolveSibling(datasetBaseName + datasetExtension));
+            if (rawDataset != null) {
+                return rawDataset;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the datasets of all scales of the group ordered from the full resolution to the root tile or an empty
+     * list if the group does not exist.
+     */
+    private List<ChunkedDataset> getScaleDatasets(String groupName) {
+        List<ChunkedDataset> scaleDatasets = new ArrayList<>();
+        Path groupPath = chunkedStorePath.resolve(groupName);
+        for (int scale = 0; ; scale++) {
+            ChunkedDataset scaleDataset = getDataset(groupPath.resolve(getScaleDatasetName(scale)));
+            if (scaleDataset == null) {
+                return scaleDatasets;
+            }
+            scaleDatasets.add(scaleDataset);
+        }
+    }
+
+    @Nullable
+    private ChunkedDataset getDataset(Path datasetPath) {
+        try {
+            return datasets.get(datasetPath, () -> Optional.ofNullable(ChunkedDataset.open(datasetPath))).orElse(null);
+        } catch (ExecutionException e) {
+            LOG.error("Error opening chunked dataset {}", datasetPath, e.getCause());
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    private List<String> listTileImageGroupNames() {
+        if (!Files.isDirectory(chunkedStorePath)) {
+            return Collections.emptyList();
+        }
+        List<String> groupNames = new ArrayList<>();
+        try (DirectoryStream<Path> groupPaths = Files.newDirectoryStream(chunkedStorePath, Files::isDirectory)) {
+            for (Path groupPath : groupPaths) {
+                String groupName = groupPath.getFileName().toString();
+                if (TileInfo.getSliceAxisFromImageNameForChannel(groupName + ".tif") != null && !getScaleDatasets(groupName).isEmpty()) {
+                    groupNames.add(groupName);
+                }
+            }
+        } catch (IOException e) {
+            LOG.error("Error listing {}", chunkedStorePath, e);
+            throw new IllegalStateException(e);
+        }
+        Collections.sort(groupNames);
+        return groupNames;
+    }
+}
@@ -67,6 +67,15 @@ public interface DataLocation {
      */
     boolean checkContentAtRelativePath(String relativePath);
 
+    /**
+     * Get the last modification time of the content at the relative path.
+     * @param relativePath
+     * @return the last modification time in milliseconds or -1 if the content does not exist or the location cannot provide it.
+     */
+    default long getContentLastModifiedAtRelativePath(String relativePath) {
+        return -1L;
+    }
+
     /**
      * Check if content exists at absolute path.
      * @param absolutePath
@@ -0,0 +1,19 @@
+package org.janelia.rendering;
+
+/**
+ * How the voxels of a downsampled ROI are computed from the voxels of the source image.
+ */
+public enum DownsamplingMethod {
+    /**
+     * Take the first voxel of every block; only every k-th row and slice is read.
+     */
+    SUBSAMPLE,
+    /**
+     * Rounded mean of every block.
+     */
+    BOX,
+    /**
+     * Maximum of every block.
+     */
+    MAX
+}
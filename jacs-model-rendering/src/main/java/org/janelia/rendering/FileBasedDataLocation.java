@@ -11,6 +11,7 @@ import java.util.function.Function;
 import com.google.common.base.Preconditions;
 
 import org.apache.commons.lang3.StringUtils;
+import org.janelia.rendering.utils.RequestContext;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -60,7 +61,7 @@ public class FileBasedDataLocation implements DataLocation {
         return getLocationPathFromAbsolutePath(absolutePath).toString();
     }
 
-    private Path getLocationPathFromAbsolutePath(String absolutePath) {
+    Path getLocationPathFromAbsolutePath(String absolutePath) {
         return pathMapper.apply(Paths.get(absolutePath));
     }
 
@@ -78,7 +79,7 @@ public class FileBasedDataLocation implements DataLocation {
     Function<Path, InputStream> defaultPathHandler() {
         return (Path p) -> {
             try {
-                return Files.newInputStream(p);
+                return RequestContext.register(Files.newInputStream(p));
             } catch (IOException e) {
                 LOG.error("Error opening {}", p, e);
                 throw new IllegalStateException(e);
@@ -103,6 +104,17 @@ public class FileBasedDataLocation implements DataLocation {
         return Files.exists(getLocationPathFromRelativePath(relativePath));
     }
 
+    @Override
+    public long getContentLastModifiedAtRelativePath(String relativePath) {
+        Path contentPath = getLocationPathFromRelativePath(relativePath);
+        try {
+            return Files.getLastModifiedTime(contentPath).toMillis();
+        } catch (IOException e) {
+            LOG.trace("Could not get the modification time for {}", contentPath, e);
+            return -1L;
+        }
+    }
+
     @Override
     public boolean checkContentAtAbsolutePath(String absolutePath) {
         Preconditions.checkArgument(StringUtils.isNotBlank(absolutePath));
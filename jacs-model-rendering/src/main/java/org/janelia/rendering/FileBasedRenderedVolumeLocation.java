@@ -1,32 +1,51 @@
 package org.janelia.rendering;
 
+import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URI;
+import java.nio.channels.FileChannel;
 import java.nio.file.FileVisitOption;
 import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardOpenOption;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.EnumSet;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 
 import javax.annotation.Nullable;
 
+import com.google.common.base.Preconditions;
 import com.sun.media.jai.codec.FileSeekableStream;
+import com.sun.media.jai.codec.SeekableStream;
 
+import org.janelia.rendering.utils.ByteBufferPool;
+import org.janelia.rendering.utils.FileChannelPool;
 import org.janelia.rendering.utils.ImageUtils;
+import org.janelia.rendering.utils.RawTiffPageReader;
+import org.janelia.rendering.utils.RenderingTrace;
+import org.janelia.rendering.utils.RequestContext;
+import org.janelia.rendering.utils.TiffIndex;
+import org.janelia.rendering.utils.TiffIndexCache;
+import org.janelia.rendering.utils.TiffIndexedSeekableStream;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 public class FileBasedRenderedVolumeLocation extends FileBasedDataLocation implements RenderedVolumeLocation {
 
     private static final Logger LOG = LoggerFactory.getLogger(FileBasedRenderedVolumeLocation.class);
+    private static final int DEFAULT_ROI_SLAB_DEPTH = 32;
+    private static final long LOCAL_TIFF_INDEX_CACHE_CAPACITY = 16L * 1024 * 1024;
 
     private static class TiffOctreeImageVisitor extends SimpleFileVisitor<Path> {
         private final List<Path> tileImages = new ArrayList<>();
@@ -67,6 +86,16 @@ public class FileBasedRenderedVolumeLocation extends FileBasedDataLocation imple
 
     }
 
+    private ExecutorService channelDecodeExecutor;
+    private ExecutorService roiDecodeExecutor;
+    private int roiSlabDepth = DEFAULT_ROI_SLAB_DEPTH;
+    private TiffIndexCache tiffIndexCache = TiffIndexCache.getDefaultInstance();
+    // indexes used by the raw page reads when no shared index cache is set
+    private final TiffIndexCache localTiffIndexCache = new TiffIndexCache(LOCAL_TIFF_INDEX_CACHE_CAPACITY, false);
+    private boolean rawTiffPageReads = true;
+    private ByteBufferPool byteBufferPool = ByteBufferPool.getDefaultInstance();
+    private FileChannelPool fileChannelPool;
+
     public FileBasedRenderedVolumeLocation(Path volumeBasePath, Function<Path, Path> pathMapper) {
         super(volumeBasePath, pathMapper);
     }
@@ -75,6 +104,103 @@ public class FileBasedRenderedVolumeLocation extends FileBasedDataLocation imple
         super(fileBasedDataLocation);
     }
 
+    public ExecutorService getChannelDecodeExecutor() {
+        return channelDecodeExecutor;
+    }
+
+    /**
+     * Set the executor used for decoding the channels of a multi-channel tile concurrently.
+     * If not set the channels are decoded sequentially.
+     *
+     * @param channelDecodeExecutor
+     */
+    public void setChannelDecodeExecutor(ExecutorService channelDecodeExecutor) {
+        this.channelDecodeExecutor = channelDecodeExecutor;
+    }
+
+    public ExecutorService getRoiDecodeExecutor() {
+        return roiDecodeExecutor;
+    }
+
+    /**
+     * Set the executor used for decoding the Z slabs of a raw image ROI or of an ROI projection concurrently.
+     * If not set the ROI slices are decoded sequentially.
+     *
+     * @param roiDecodeExecutor
+     */
+    public void setRoiDecodeExecutor(ExecutorService roiDecodeExecutor) {
+        this.roiDecodeExecutor = roiDecodeExecutor;
+    }
+
+    public int getRoiSlabDepth() {
+        return roiSlabDepth;
+    }
+
+    /**
+     * Set the maximum number of slices decoded by a single task when the ROI is decoded concurrently.
+     *
+     * @param roiSlabDepth
+     */
+    public void setRoiSlabDepth(int roiSlabDepth) {
+        Preconditions.checkArgument(roiSlabDepth > 0, "The ROI slab depth must be positive");
+        this.roiSlabDepth = roiSlabDepth;
+    }
+
+    public TiffIndexCache getTiffIndexCache() {
+        return tiffIndexCache;
+    }
+
+    /**
+     * Set the cache of TIFF page indexes. If set to null, the TIFF pages decoded with JAI are located by scanning
+     * the file's directories every time a page is read and the raw page reads use a cache private to this location.
+     *
+     * @param tiffIndexCache
+     */
+    public void setTiffIndexCache(TiffIndexCache tiffIndexCache) {
+        this.tiffIndexCache = tiffIndexCache;
+    }
+
+    public ByteBufferPool getByteBufferPool() {
+        return byteBufferPool;
+    }
+
+    /**
+     * Set the pool of direct buffers used for staging the data written to channels and the raw TIFF page reads.
+     *
+     * @param byteBufferPool
+     */
+    public void setByteBufferPool(ByteBufferPool byteBufferPool) {
+        this.byteBufferPool = byteBufferPool;
+    }
+
+    public FileChannelPool getFileChannelPool() {
+        return fileChannelPool;
+    }
+
+    /**
+     * Set the pool of open file channels used for reading the images. If not set every read opens
+     * and closes the image files.
+     *
+     * @param fileChannelPool
+     */
+    public void setFileChannelPool(FileChannelPool fileChannelPool) {
+        this.fileChannelPool = fileChannelPool;
+    }
+
+    public boolean isRawTiffPageReads() {
+        return rawTiffPageReads;
+    }
+
+    /**
+     * Enable or disable reading uncompressed TIFF pages directly from the files, without decoding them. When disabled or when
+     * the page layout is not supported all pages are decoded using JAI.
+     *
+     * @param rawTiffPageReads
+     */
+    public void setRawTiffPageReads(boolean rawTiffPageReads) {
+        this.rawTiffPageReads = rawTiffPageReads;
+    }
+
     @Override
     public List<URI> listImageUris(int level) {
         Path volumeBasePath = Paths.get(getBaseDataStoragePath());
@@ -106,15 +232,88 @@ public class FileBasedRenderedVolumeLocation extends FileBasedDataLocation imple
 
     @Override
     public Streamable<byte[]> readTiffPageAsTexturedBytes(String imageRelativePath, List<String> channelImageNames, int pageNumber) {
+        return readTiffPagesAsTexturedBytes(imageRelativePath, channelImageNames, Collections.singletonList(pageNumber)).get(0);
+    }
+
+    @Override
+    public List<Streamable<byte[]>> readTiffPagesAsTexturedBytes(String imageRelativePath, List<String> channelImageNames, List<Integer> pageNumbers) {
+        List<Path> channelImagePaths = getChannelImagePaths(imageRelativePath, channelImageNames);
+        Map<Integer, Streamable<byte[]>> pageTextures = new HashMap<>();
+        // read the pages in file order
+        List<Integer> sortedPageNumbers = pageNumbers.stream().distinct().sorted().collect(Collectors.toList());
+        if (rawTiffPageReads && !channelImagePaths.isEmpty()) {
+            long readIFDStartNanos = System.nanoTime();
+            List<TiffIndex> channelTiffIndexes = channelImagePaths.stream().map(this::getTiffIndex).collect(Collectors.toList());
+            RenderingTrace.recordStage(RenderingStage.READ_IFD, readIFDStartNanos, 0L);
+            // files that cannot be indexed are always decoded
+            if (!channelTiffIndexes.contains(null)) {
+                List<FileChannel> channelImageFiles = new ArrayList<>();
+                List<Closeable> channelImageHandles = new ArrayList<>();
+                try {
+                    long openStartNanos = System.nanoTime();
+                    for (Path channelImagePath : channelImagePaths) {
+                        if (fileChannelPool != null) {
+                            FileChannelPool.Lease channelLease = fileChannelPool.borrow(channelImagePath);
+                            channelImageHandles.add(channelLease);
+                            channelImageFiles.add(channelLease.getChannel());
+                        } else {
+                            FileChannel channelImageFile = RequestContext.register(FileChannel.open(channelImagePath, StandardOpenOption.READ));
+                            channelImageHandles.add(channelImageFile);
+                            channelImageFiles.add(channelImageFile);
+                        }
+                    }
+                    RenderingTrace.recordStage(RenderingStage.OPEN_STREAM, openStartNanos, 0L);
+                    for (Integer pageNumber : sortedPageNumbers) {
+                        // uncompressed pages are copied straight into the texture so there is no separate decoding
+                        long packStartNanos = System.nanoTime();
+                        byte[] rawTextureBytes = RawTiffPageReader.readTextureBytesFromChannels(channelImageFiles, channelTiffIndexes, pageNumber, byteBufferPool);
+                        if (rawTextureBytes != null) {
+                            RenderingTrace.recordStage(RenderingStage.TEXTURE_PACK, packStartNanos, rawTextureBytes.length);
+                            pageTextures.put(pageNumber, Streamable.of(rawTextureBytes, rawTextureBytes.length));
+                        }
+                    }
+                } catch (IOException | RuntimeException e) {
+                    // the pages that were not read are decoded with JAI below
+                    LOG.warn("Error reading raw pages {} from {} - decode them instead", sortedPageNumbers, channelImagePaths, e);
+                } finally {
+                    for (Closeable channelImageHandle : channelImageHandles) {
+                        try {
+                            channelImageHandle.close();
+                        } catch (IOException ignore) {
+                        }
+                    }
+                }
+            }
+        }
+        for (Integer pageNumber : sortedPageNumbers) {
+            if (!pageTextures.containsKey(pageNumber)) {
+                pageTextures.put(pageNumber, decodeTiffPageAsTexturedBytes(channelImagePaths, pageNumber));
+            }
+        }
+        return pageNumbers.stream()
+                .map(pageNumber -> {
+                    // every result needs its own instance because consuming a streamable clears its content
+                    Streamable<byte[]> pageTexture = pageTextures.get(pageNumber);
+                    return pageTexture.getContent() == null ? Streamable.<byte[]>empty() : Streamable.of(pageTexture.getContent(), pageTexture.getSize());
+                })
+                .collect(Collectors.toList());
+    }
+
+    private List<Path> getChannelImagePaths(String imageRelativePath, List<String> channelImageNames) {
+        return channelImageNames.stream()
+                .map(channelImageName -> Paths.get(getBaseDataStoragePath(), imageRelativePath, channelImageName))
+                .filter(Files::exists)
+                .collect(Collectors.toList());
+    }
+
+    private Streamable<byte[]> decodeTiffPageAsTexturedBytes(List<Path> channelImagePaths, int pageNumber) {
         byte[] imageTextureBytes = ImageUtils.bandMergedTextureBytesFromImageStreams(
-                channelImageNames.stream()
-                        .map(channelImageName -> Paths.get(getBaseDataStoragePath(), imageRelativePath, channelImageName))
-                        .filter(Files::exists)
+                channelImagePaths.stream()
                         .map(channelImagePath -> NamedSupplier.namedSupplier(
                                 channelImagePath.toString(),
                                 () -> {
                                     try {
-                                        return new FileSeekableStream(channelImagePath.toFile());
+                                        return openImageStream(channelImagePath);
                                     } catch (IOException e) {
                                         LOG.error("Error opening image {} for reading {}", channelImagePath, pageNumber, e);
                                         throw new IllegalStateException(e);
@@ -122,13 +321,26 @@ public class FileBasedRenderedVolumeLocation extends FileBasedDataLocation imple
 
                                 })
                         ),
-                pageNumber
+                pageNumber,
+                channelDecodeExecutor
         );
         return imageTextureBytes == null ? Streamable.empty() : Streamable.of(imageTextureBytes, imageTextureBytes.length);
     }
 
     @Override
     public Streamable<byte[]> readTiffImageROIPixels(String imagePath, int xCenter, int yCenter, int zCenter, int dimx, int dimy, int dimz) {
+        if (roiDecodeExecutor != null) {
+            Path imageFilePath = getLocationPathFromAbsolutePath(imagePath);
+            if (!Files.exists(imageFilePath)) {
+                return Streamable.empty();
+            }
+            byte[] roiBytes = ImageUtils.loadImagePixelBytesFromTiffStreams(
+                    NamedSupplier.namedSupplier(imageFilePath.toString(), () -> defaultPathHandler().apply(imageFilePath)),
+                    xCenter, yCenter, zCenter, dimx, dimy, dimz,
+                    roiDecodeExecutor,
+                    roiSlabDepth);
+            return roiBytes == null ? Streamable.empty() : Streamable.of(roiBytes, roiBytes.length);
+        }
         return getContentFromAbsolutePath(imagePath)
                 .consume(imageStream -> {
                     try {
@@ -142,8 +354,108 @@ public class FileBasedRenderedVolumeLocation extends FileBasedDataLocation imple
                 }, (bytes, l) -> (long) bytes.length);
     }
 
+    @Override
+    public Streamable<byte[]> readTiffImageROIProjection(String imagePath,
+                                                         int xCenter, int yCenter, int zCenter,
+                                                         int dimx, int dimy, int dimz,
+                                                         Coordinate projectionAxis,
+                                                         ProjectionType projectionType) {
+        return projectTiffImageROI(getLocationPathFromAbsolutePath(imagePath),
+                xCenter, yCenter, zCenter, dimx, dimy, dimz,
+                projectionAxis, projectionType);
+    }
+
+    @Override
+    public Streamable<byte[]> readTileImageROIProjection(String tileImageRelativePath,
+                                                         int xCenter, int yCenter, int zCenter,
+                                                         int dimx, int dimy, int dimz,
+                                                         Coordinate projectionAxis,
+                                                         ProjectionType projectionType) {
+        return projectTiffImageROI(Paths.get(getBaseDataStoragePath(), tileImageRelativePath),
+                xCenter, yCenter, zCenter, dimx, dimy, dimz,
+                projectionAxis, projectionType);
+    }
+
+    private Streamable<byte[]> projectTiffImageROI(Path imageFilePath,
+                                                   int xCenter, int yCenter, int zCenter,
+                                                   int dimx, int dimy, int dimz,
+                                                   Coordinate projectionAxis,
+                                                   ProjectionType projectionType) {
+        if (!Files.exists(imageFilePath)) {
+            return Streamable.empty();
+        }
+        byte[] projectionBytes = ImageUtils.projectImagePixelBytesFromTiffStreams(
+                NamedSupplier.namedSupplier(imageFilePath.toString(), () -> {
+                    try {
+                        return openImageStream(imageFilePath);
+                    } catch (IOException e) {
+                        LOG.error("Error opening {}", imageFilePath, e);
+                        throw new IllegalStateException(e);
+                    }
+                }),
+                xCenter, yCenter, zCenter, dimx, dimy, dimz,
+                projectionAxis, projectionType,
+                roiDecodeExecutor,
+                roiSlabDepth);
+        return projectionBytes == null ? Streamable.empty() : Streamable.of(projectionBytes, projectionBytes.length);
+    }
+
+    @Override
+    public Streamable<ChannelWriter> streamTiffImageROIPixels(String imagePath, int xCenter, int yCenter, int zCenter, int dimx, int dimy, int dimz) {
+        Path imageFilePath = getLocationPathFromAbsolutePath(imagePath);
+        if (!Files.exists(imageFilePath)) {
+            return Streamable.empty();
+        }
+        long roiSize;
+        try {
+            roiSize = ImageUtils.sizeImagePixelBytesFromTiffStream(openImageStream(imageFilePath), xCenter, yCenter, zCenter, dimx, dimy, dimz);
+        } catch (IOException e) {
+            LOG.error("Error opening {}", imageFilePath, e);
+            throw new IllegalStateException(e);
+        }
+        // the image is opened again when the content is written so that nothing is held open until then
+        return Streamable.of(channel -> {
+            try (InputStream imageStream = openImageStream(imageFilePath)) {
+                return ImageUtils.writeImagePixelBytesFromTiffStream(imageStream, xCenter, yCenter, zCenter, dimx, dimy, dimz, channel, byteBufferPool);
+            }
+        }, roiSize);
+    }
+
     @Override
     Function<Path, InputStream> defaultPathHandler() {
-        return ImageUtils.getImagePathHandler();
+        return (Path p) -> {
+            try {
+                return openImageStream(p);
+            } catch (IOException e) {
+                LOG.error("Error opening {}", p, e);
+                throw new IllegalStateException(e);
+            }
+        };
+    }
+
+    private InputStream openImageStream(Path imagePath) throws IOException {
+        FileChannelPool currentFileChannelPool = fileChannelPool;
+        SeekableStream imageStream = currentFileChannelPool != null
+                ? currentFileChannelPool.borrowStream(imagePath)
+                : RequestContext.register(new FileSeekableStream(imagePath.toFile()));
+        TiffIndexCache currentTiffIndexCache = tiffIndexCache;
+        if (currentTiffIndexCache != null && isTiffFile(imagePath)) {
+            return new TiffIndexedSeekableStream(imageStream, () -> currentTiffIndexCache.getTiffIndex(imagePath));
+        } else {
+            return imageStream;
+        }
+    }
+
+    @Nullable
+    private TiffIndex getTiffIndex(Path imagePath) {
+        TiffIndexCache currentTiffIndexCache = tiffIndexCache;
+        return currentTiffIndexCache != null
+                ? currentTiffIndexCache.getTiffIndex(imagePath)
+                : localTiffIndexCache.getTiffIndex(imagePath);
+    }
+
+    private static boolean isTiffFile(Path p) {
+        String fn = p.getFileName().toString().toLowerCase();
+        return fn.endsWith(".tif") || fn.endsWith(".tiff");
     }
 }
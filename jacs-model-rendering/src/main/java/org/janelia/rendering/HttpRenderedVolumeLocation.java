@@ -0,0 +1,326 @@
+package org.janelia.rendering;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.stream.Collectors;
+
+import javax.annotation.Nullable;
+
+import com.google.common.base.Preconditions;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
+import org.apache.commons.lang3.StringUtils;
+import org.janelia.rendering.utils.HttpBlockCache;
+import org.janelia.rendering.utils.HttpRangeSeekableStream;
+import org.janelia.rendering.utils.ImageUtils;
+import org.janelia.rendering.utils.TiffIndex;
+import org.janelia.rendering.utils.TiffIndexedSeekableStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Rendered volume served by an HTTP server. TIFF images are read with range requests for only the directories and
+ * the strips that are needed, through a block cache, instead of downloading the entire image. The server must report
+ * the content length of the images and should support range requests. Absolute paths, such as the raw image paths,
+ * are resolved relative to the server's base URI.
+ * Since HTTP does not support listing, only the top level octree images are listed and they are found by probing
+ * the default image names for every channel.
+ */
+public class HttpRenderedVolumeLocation implements RenderedVolumeLocation {
+
+    private static final Logger LOG = LoggerFactory.getLogger(HttpRenderedVolumeLocation.class);
+    private static final int MAX_PROBED_CHANNELS = 16;
+    private static final int DEFAULT_CONNECT_TIMEOUT_MILLIS = 10000;
+    private static final int DEFAULT_READ_TIMEOUT_MILLIS = 60000;
+
+    private static class ContentInfo {
+        private final URI contentURI;
+        private final long length;
+        private final long lastModified;
+
+        private ContentInfo(URI contentURI, long length, long lastModified) {
+            this.contentURI = contentURI;
+            this.length = length;
+            this.lastModified = lastModified;
+        }
+
+        private String getVersionKey() {
+            return contentURI + "#" + length + ":" + lastModified;
+        }
+    }
+
+    private final URI serverURI;
+    private final String volumeBasePath;
+    // an empty index marks content that cannot be indexed
+    private final Cache<String, Optional<TiffIndex>> tiffIndexes = CacheBuilder.newBuilder()
+            .maximumSize(1000)
+            .build();
+    private HttpBlockCache blockCache = HttpBlockCache.getDefaultInstance();
+    private int connectTimeoutMillis = DEFAULT_CONNECT_TIMEOUT_MILLIS;
+    private int readTimeoutMillis = DEFAULT_READ_TIMEOUT_MILLIS;
+
+    /**
+     * @param serverURI base URI of the HTTP server
+     * @param volumeBasePath path of the volume relative to the server's base URI
+     */
+    public HttpRenderedVolumeLocation(URI serverURI, String volumeBasePath) {
+        Preconditions.checkArgument(serverURI != null, "Server URI is required");
+        this.serverURI = serverURI;
+        this.volumeBasePath = volumeBasePath;
+    }
+
+    public HttpBlockCache getBlockCache() {
+        return blockCache;
+    }
+
+    /**
+     * Set the cache of the blocks retrieved with range requests.
+     *
+     * @param blockCache
+     */
+    public void setBlockCache(HttpBlockCache blockCache) {
+        Preconditions.checkArgument(blockCache != null, "Block cache is required");
+        this.blockCache = blockCache;
+    }
+
+    public int getConnectTimeoutMillis() {
+        return connectTimeoutMillis;
+    }
+
+    public void setConnectTimeoutMillis(int connectTimeoutMillis) {
+        this.connectTimeoutMillis = connectTimeoutMillis;
+    }
+
+    public int getReadTimeoutMillis() {
+        return readTimeoutMillis;
+    }
+
+    public void setReadTimeoutMillis(int readTimeoutMillis) {
+        this.readTimeoutMillis = readTimeoutMillis;
+    }
+
+    @Override
+    public URI getConnectionURI() {
+        return serverURI;
+    }
+
+    @Override
+    public URI getDataStorageURI() {
+        return serverURI;
+    }
+
+    @Override
+    public String getBaseDataStoragePath() {
+        return volumeBasePath;
+    }
+
+    @Override
+    public String getContentURIFromRelativePath(String relativePath) {
+        return getContentURI(StringUtils.defaultString(volumeBasePath), relativePath).toString();
+    }
+
+    @Override
+    public String getContentURIFromAbsolutePath(String absolutePath) {
+        return getContentURI("", absolutePath).toString();
+    }
+
+    @Override
+    public Streamable<InputStream> getContentFromRelativePath(String relativePath) {
+        return openContent(getContentURI(StringUtils.defaultString(volumeBasePath), relativePath));
+    }
+
+    @Override
+    public Streamable<InputStream> getContentFromAbsolutePath(String absolutePath) {
+        Preconditions.checkArgument(StringUtils.isNotBlank(absolutePath));
+        return openContent(getContentURI("", absolutePath));
+    }
+
+    @Override
+    public boolean checkContentAtRelativePath(String relativePath) {
+        return getContentInfo(getContentURI(StringUtils.defaultString(volumeBasePath), relativePath)) != null;
+    }
+
+    @Override
+    public long getContentLastModifiedAtRelativePath(String relativePath) {
+        ContentInfo contentInfo = getContentInfo(getContentURI(StringUtils.defaultString(volumeBasePath), relativePath));
+        return contentInfo == null || contentInfo.lastModified <= 0 ? -1L : contentInfo.lastModified;
+    }
+
+    @Override
+    public boolean checkContentAtAbsolutePath(String absolutePath) {
+        Preconditions.checkArgument(StringUtils.isNotBlank(absolutePath));
+        return getContentInfo(getContentURI("", absolutePath)) != null;
+    }
+
+    @Override
+    public List<URI> listImageUris(int level) {
+        List<URI> imageURIs = new ArrayList<>();
+        for (Coordinate sliceAxis : new Coordinate[] {Coordinate.Z, Coordinate.X, Coordinate.Y}) {
+            for (int channel = 0; channel < MAX_PROBED_CHANNELS; channel++) {
+                URI imageURI = getContentURI(StringUtils.defaultString(volumeBasePath), TileInfo.getImageNameForChannel(sliceAxis, channel));
+                if (getContentInfo(imageURI) == null) {
+                    break;
+                }
+                imageURIs.add(imageURI);
+            }
+        }
+        return imageURIs;
+    }
+
+    @Nullable
+    @Override
+    public RenderedImageInfo readTileImageInfo(String tileRelativePath) {
+        return getContentFromRelativePath(tileRelativePath)
+                .consume(tiffStream -> {
+                    try {
+                        return ImageUtils.loadImageInfoFromTiffStream(tiffStream);
+                    } finally {
+                        try {
+                            tiffStream.close();
+                        } catch (Exception ignore) {
+                        }
+                    }
+                }, (i, l) -> l)
+                .getContent();
+    }
+
+    @Override
+    public Streamable<byte[]> readTiffPageAsTexturedBytes(String imageRelativePath, List<String> channelImageNames, int pageNumber) {
+        String tileBasePath = StringUtils.defaultString(volumeBasePath) + "/" + StringUtils.defaultString(imageRelativePath);
+        List<ContentInfo> channelImages = channelImageNames.stream()
+                .map(channelImageName -> getContentInfo(getContentURI(tileBasePath, channelImageName)))
+                .filter(contentInfo -> contentInfo != null)
+                .collect(Collectors.toList());
+        byte[] imageTextureBytes = ImageUtils.bandMergedTextureBytesFromImageStreams(
+                channelImages.stream()
+                        .map(channelImage -> NamedSupplier.namedSupplier(
+                                channelImage.contentURI.toString(),
+                                () -> openTiffStream(channelImage))),
+                pageNumber);
+        return imageTextureBytes == null ? Streamable.empty() : Streamable.of(imageTextureBytes, imageTextureBytes.length);
+    }
+
+    @Override
+    public Streamable<byte[]> readTiffImageROIPixels(String imagePath, int xCenter, int yCenter, int zCenter, int dimx, int dimy, int dimz) {
+        return getContentFromAbsolutePath(imagePath)
+                .consume(imageStream -> {
+                    try {
+                        return ImageUtils.loadImagePixelBytesFromTiffStream(imageStream, xCenter, yCenter, zCenter, dimx, dimy, dimz);
+                    } finally {
+                        try {
+                            imageStream.close();
+                        } catch (Exception ignore) {
+                        }
+                    }
+                }, (bytes, l) -> (long) bytes.length);
+    }
+
+    private URI getContentURI(String basePath, String path) {
+        StringBuilder contentURIBuilder = new StringBuilder(StringUtils.removeEnd(serverURI.toString(), "/"));
+        for (String pathComponent : new String[] {basePath, path}) {
+            String trimmedPathComponent = StringUtils.strip(StringUtils.defaultString(pathComponent), "/");
+            if (StringUtils.isNotEmpty(trimmedPathComponent)) {
+                contentURIBuilder.append('/').append(trimmedPathComponent);
+            }
+        }
+        return URI.create(contentURIBuilder.toString());
+    }
+
+    private Streamable<InputStream> openContent(URI contentURI) {
+        ContentInfo contentInfo = getContentInfo(contentURI);
+        if (contentInfo == null) {
+            return Streamable.empty();
+        } else if (isTiffContent(contentURI)) {
+            return Streamable.of(openTiffStream(contentInfo), contentInfo.length);
+        } else {
+            try {
+                HttpURLConnection connection = openConnection(contentURI);
+                return Streamable.of(connection.getInputStream(), contentInfo.length);
+            } catch (IOException e) {
+                LOG.error("Error reading {}", contentURI, e);
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    private InputStream openTiffStream(ContentInfo contentInfo) {
+        try {
+            HttpRangeSeekableStream tiffStream = createRangeStream(contentInfo);
+            return new TiffIndexedSeekableStream(tiffStream, () -> getTiffIndex(contentInfo));
+        } catch (IOException e) {
+            LOG.error("Error opening {}", contentInfo.contentURI, e);
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @return the TIFF index or null if the content cannot be indexed, e.g. because it is a BigTIFF or it has
+     * unsupported tags, in which case the decoder locates the pages itself.
+     */
+    @Nullable
+    private TiffIndex getTiffIndex(ContentInfo contentInfo) {
+        try {
+            return tiffIndexes.get(contentInfo.getVersionKey(), () -> {
+                try (HttpRangeSeekableStream tiffStream = createRangeStream(contentInfo)) {
+                    return Optional.of(TiffIndex.build(tiffStream));
+                } catch (IllegalArgumentException e) {
+                    LOG.warn("Cannot index {} - its pages will be located by the decoder", contentInfo.contentURI, e);
+                    return Optional.empty();
+                }
+            }).orElse(null);
+        } catch (ExecutionException | UncheckedExecutionException e) {
+            // read errors are not remembered so the content is indexed again on the next read
+            LOG.warn("Error indexing {} - its pages will be located by the decoder", contentInfo.contentURI, e.getCause());
+            return null;
+        }
+    }
+
+    private HttpRangeSeekableStream createRangeStream(ContentInfo contentInfo) throws IOException {
+        if (contentInfo.length < 0) {
+            throw new IOException("Server did not report the content length of " + contentInfo.contentURI);
+        }
+        return new HttpRangeSeekableStream(contentInfo.contentURI.toURL(), contentInfo.length, String.valueOf(contentInfo.lastModified),
+                blockCache, connectTimeoutMillis, readTimeoutMillis);
+    }
+
+    /**
+     * @return the content info or null if the content does not exist.
+     */
+    @Nullable
+    private ContentInfo getContentInfo(URI contentURI) {
+        try {
+            HttpURLConnection connection = openConnection(contentURI);
+            connection.setRequestMethod("HEAD");
+            int responseCode = connection.getResponseCode();
+            if (responseCode == HttpURLConnection.HTTP_OK) {
+                return new ContentInfo(contentURI, connection.getContentLengthLong(), connection.getLastModified());
+            } else {
+                LOG.trace("HEAD {} returned {}", contentURI, responseCode);
+                return null;
+            }
+        } catch (IOException e) {
+            LOG.error("Error checking {}", contentURI, e);
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private HttpURLConnection openConnection(URI contentURI) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) contentURI.toURL().openConnection();
+        connection.setConnectTimeout(connectTimeoutMillis);
+        connection.setReadTimeout(readTimeoutMillis);
+        return connection;
+    }
+
+    private static boolean isTiffContent(URI contentURI) {
+        String path = StringUtils.defaultString(contentURI.getPath()).toLowerCase();
+        return path.endsWith(".tif") || path.endsWith(".tiff");
+    }
+}
@@ -0,0 +1,167 @@
+package org.janelia.rendering;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Rendering metrics kept in memory as a latency histogram and a byte counter for every stage.
+ * The histogram buckets split every power of two into 4 sub-buckets so the reported percentiles
+ * are within 25% of the recorded value.
+ */
+public class InMemoryRenderingMetrics implements RenderingMetrics {
+
+    private static final int SUB_BUCKET_BITS = 2;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = Long.SIZE * SUB_BUCKETS;
+
+    private static class StageHistogram {
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong totalNanos = new AtomicLong();
+        private final AtomicLong maxNanos = new AtomicLong();
+        private final AtomicLong totalBytes = new AtomicLong();
+
+        private void record(long elapsedNanos, long bytes) {
+            long nanos = Math.max(elapsedNanos, 0L);
+            buckets.incrementAndGet(bucketIndex(nanos));
+            count.incrementAndGet();
+            totalNanos.addAndGet(nanos);
+            maxNanos.accumulateAndGet(nanos, Math::max);
+            totalBytes.addAndGet(bytes);
+        }
+
+        private long percentileNanos(double percentile) {
+            long n = count.get();
+            if (n == 0) {
+                return 0L;
+            }
+            long rank = Math.max(1L, (long) Math.ceil(percentile / 100. * n));
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += buckets.get(i);
+                if (seen >= rank) {
+                    return Math.min(bucketUpperBound(i), maxNanos.get());
+                }
+            }
+            return maxNanos.get();
+        }
+
+        private void reset() {
+            for (int i = 0; i < BUCKETS; i++) {
+                buckets.set(i, 0L);
+            }
+            count.set(0L);
+            totalNanos.set(0L);
+            maxNanos.set(0L);
+            totalBytes.set(0L);
+        }
+    }
+
+    private final Map<RenderingStage, StageHistogram> stageHistograms = new EnumMap<>(RenderingStage.class);
+
+    public InMemoryRenderingMetrics() {
+        for (RenderingStage stage : RenderingStage.values()) {
+            stageHistograms.put(stage, new StageHistogram());
+        }
+    }
+
+    @Override
+    public void recordStage(RenderingStage stage, long elapsedNanos, long bytes) {
+        stageHistograms.get(stage).record(elapsedNanos, bytes);
+    }
+
+    /**
+     * @return the number of times the stage was recorded.
+     */
+    public long getCount(RenderingStage stage) {
+        return stageHistograms.get(stage).count.get();
+    }
+
+    /**
+     * @return the total time spent in the stage.
+     */
+    public long getTotalNanos(RenderingStage stage) {
+        return stageHistograms.get(stage).totalNanos.get();
+    }
+
+    /**
+     * @return the longest time recorded for the stage.
+     */
+    public long getMaxNanos(RenderingStage stage) {
+        return stageHistograms.get(stage).maxNanos.get();
+    }
+
+    /**
+     * @return the total number of bytes produced by the stage.
+     */
+    public long getTotalBytes(RenderingStage stage) {
+        return stageHistograms.get(stage).totalBytes.get();
+    }
+
+    /**
+     * @param stage
+     * @param percentile value between 0 and 100
+     * @return the upper bound of the histogram bucket that holds the percentile or 0 if the stage was never recorded
+     */
+    public long getPercentileNanos(RenderingStage stage, double percentile) {
+        Preconditions.checkArgument(percentile >= 0 && percentile <= 100, "Percentile %s must be between 0 and 100", percentile);
+        return stageHistograms.get(stage).percentileNanos(percentile);
+    }
+
+    /**
+     * @return the throughput of the stage in bytes per second of time spent in the stage.
+     */
+    public double getBytesPerSecond(RenderingStage stage) {
+        long totalNanos = getTotalNanos(stage);
+        return totalNanos == 0 ? 0. : getTotalBytes(stage) * (double) TimeUnit.SECONDS.toNanos(1) / totalNanos;
+    }
+
+    public void reset() {
+        stageHistograms.values().forEach(StageHistogram::reset);
+    }
+
+    static int bucketIndex(long nanos) {
+        if (nanos < SUB_BUCKETS) {
+            return (int) nanos;
+        }
+        int exponent = Long.SIZE - 1 - Long.numberOfLeadingZeros(nanos);
+        int subBucket = (int) (nanos >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    static long bucketUpperBound(int bucketIndex) {
+        if (bucketIndex < SUB_BUCKETS) {
+            return bucketIndex;
+        }
+        int shift = bucketIndex / SUB_BUCKETS - 1;
+        int subBucket = bucketIndex % SUB_BUCKETS;
+        return ((long) (SUB_BUCKETS + subBucket + 1) << shift) - 1;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("InMemoryRenderingMetrics{");
+        String separator = "";
+        for (RenderingStage stage : RenderingStage.values()) {
+            long count = getCount(stage);
+            if (count == 0) {
+                continue;
+            }
+            sb.append(separator)
+                    .append(stage.getLabel())
+                    .append("=[count=").append(count)
+                    .append(", p50=").append(TimeUnit.NANOSECONDS.toMicros(getPercentileNanos(stage, 50))).append("us")
+                    .append(", p99=").append(TimeUnit.NANOSECONDS.toMicros(getPercentileNanos(stage, 99))).append("us")
+                    .append(", max=").append(TimeUnit.NANOSECONDS.toMicros(getMaxNanos(stage))).append("us")
+                    .append(", bytes=").append(getTotalBytes(stage))
+                    .append(']');
+            separator = ", ";
+        }
+        return sb.append('}').toString();
+    }
+}
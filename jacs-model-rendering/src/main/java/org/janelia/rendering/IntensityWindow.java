@@ -0,0 +1,71 @@
+package org.janelia.rendering;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.common.base.Preconditions;
+
+/**
+ * Display window of a channel used for remapping the channel's intensities to 8 bits. Intensities below min
+ * map to 0, intensities above max map to 255 and the intensities in between map to 255 * ((i - min) / (max - min)) ^ gamma.
+ */
+public class IntensityWindow {
+    private final int min;
+    private final int max;
+    private final double gamma;
+
+    @JsonCreator
+    public IntensityWindow(@JsonProperty("min") int min,
+                           @JsonProperty("max") int max,
+                           @JsonProperty("gamma") double gamma) {
+        Preconditions.checkArgument(min < max, "Window min %s must be less than max %s", min, max);
+        Preconditions.checkArgument(gamma > 0, "Gamma must be positive");
+        this.min = min;
+        this.max = max;
+        this.gamma = gamma;
+    }
+
+    public IntensityWindow(int min, int max) {
+        this(min, max, 1.);
+    }
+
+    public int getMin() {
+        return min;
+    }
+
+    public int getMax() {
+        return max;
+    }
+
+    public double getGamma() {
+        return gamma;
+    }
+
+    /**
+     * @param bitDepth source sample size - 8 or 16
+     * @return the 8-bit value for every source intensity
+     */
+    public byte[] createLookupTable(int bitDepth) {
+        Preconditions.checkArgument(bitDepth == 8 || bitDepth == 16, "Only 8-bit and 16-bit samples can be remapped");
+        byte[] lookupTable = new byte[1 << bitDepth];
+        double range = max - min;
+        for (int i = 0; i < lookupTable.length; i++) {
+            int value;
+            if (i <= min) {
+                value = 0;
+            } else if (i >= max) {
+                value = 255;
+            } else if (gamma == 1.) {
+                value = (int) Math.round(255 * (i - min) / range);
+            } else {
+                value = (int) Math.round(255 * Math.pow((i - min) / range, gamma));
+            }
+            lookupTable[i] = (byte) value;
+        }
+        return lookupTable;
+    }
+
+    @Override
+    public String toString() {
+        return "IntensityWindow{min=" + min + ", max=" + max + ", gamma=" + gamma + '}';
+    }
+}
@@ -0,0 +1,15 @@
+package org.janelia.rendering;
+
+/**
+ * How the voxels along the projection axis are combined into a single pixel of a projection.
+ */
+public enum ProjectionType {
+    /**
+     * Maximum intensity projection.
+     */
+    MAX,
+    /**
+     * Rounded mean of the voxels along the projection axis.
+     */
+    MEAN
+}
@@ -7,6 +7,7 @@ import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.builder.EqualsBuilder;
 import org.apache.commons.lang3.builder.HashCodeBuilder;
 import org.apache.commons.lang3.builder.ToStringBuilder;
+import org.janelia.rendering.utils.CoordinateTransform;
 
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -108,6 +109,24 @@ public class RawImage {
         return transformMatrix;
     }
 
+    /**
+     * @return the raw tile transform as a coordinate transform; invert it once and reuse the inverse
+     * for transforming many points in the opposite direction.
+     */
+    @JsonIgnore
+    public CoordinateTransform getTileTransform() {
+        Preconditions.checkArgument(transform != null, "No transform set for %s", this);
+        return new CoordinateTransform(getTransformMatrix());
+    }
+
+    /**
+     * @param points interleaved x, y, z coordinates
+     * @return the interleaved coordinates of the points transformed with the raw tile transform
+     */
+    public double[] transformPoints(double[] points) {
+        return getTileTransform().transformPoints(points);
+    }
+
     public Integer[] getTileDims() {
         return tileDims;
     }
@@ -0,0 +1,254 @@
+package org.janelia.rendering;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Immutable k-d tree over the raw acquisition tiles of a volume. The tree is implicit - the tiles are stored in
+ * primitive arrays ordered such that the node of every sub-range is its middle element - and each node also keeps
+ * the bounding box of its entire subtree so that region queries can skip subtrees that cannot match.
+ * All coordinates are microscope coordinates in nanometers. Tiles that do not have both an origin and a size are not indexed.
+ */
+public class RawImageSpatialIndex {
+
+    private static final int DIMS = 3;
+
+    private static class NearestResult {
+        private double distance = Double.POSITIVE_INFINITY;
+        private int imageIndex = -1;
+    }
+
+    private final List<RawImage> rawImages;
+    private final int size;
+    private final int[] imageIndexes; // original image index of every node
+    private final int[] splitAxes;
+    private final double[] centers; // node centers: x, y, z
+    private final double[] bounds; // node bounds: minX, minY, minZ, maxX, maxY, maxZ
+    private final double[] subtreeBounds; // bounds of the node's subtree in the same layout as bounds
+
+    public RawImageSpatialIndex(List<RawImage> rawImages) {
+        this.rawImages = new ArrayList<>(rawImages);
+        int[] indexedImages = new int[rawImages.size()];
+        int n = 0;
+        for (int i = 0; i < rawImages.size(); i++) {
+            RawImage rawImage = rawImages.get(i);
+            if (rawImage.getOriginInNanos() != null && rawImage.getOriginInNanos().length == DIMS &&
+                    rawImage.getDimsInNanos() != null && rawImage.getDimsInNanos().length == DIMS) {
+                indexedImages[n++] = i;
+            }
+        }
+        this.size = n;
+        double[] imageCenters = new double[DIMS * rawImages.size()];
+        for (int k = 0; k < n; k++) {
+            RawImage rawImage = rawImages.get(indexedImages[k]);
+            for (int d = 0; d < DIMS; d++) {
+                imageCenters[DIMS * indexedImages[k] + d] = rawImage.getOriginInNanos()[d] + rawImage.getDimsInNanos()[d] / 2.;
+            }
+        }
+        this.imageIndexes = Arrays.copyOf(indexedImages, n);
+        this.splitAxes = new int[n];
+        this.centers = new double[DIMS * n];
+        this.bounds = new double[2 * DIMS * n];
+        this.subtreeBounds = new double[2 * DIMS * n];
+        buildTree(0, n, imageCenters);
+    }
+
+    /**
+     * @return the number of indexed tiles.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Find the tile whose center is the closest to the given point. If there are multiple tiles at the same distance
+     * the one that comes first in the original list is returned.
+     */
+    public Optional<RawImage> findNearest(double x, double y, double z) {
+        NearestResult nearestResult = new NearestResult();
+        findNearest(0, size, x, y, z, nearestResult);
+        return nearestResult.imageIndex == -1 ? Optional.empty() : Optional.of(rawImages.get(nearestResult.imageIndex));
+    }
+
+    /**
+     * Find all tiles that contain the given point in the original list order.
+     */
+    public List<RawImage> findContaining(double x, double y, double z) {
+        return findIntersecting(x, y, z, x, y, z);
+    }
+
+    /**
+     * Find all tiles that intersect the given box in the original list order.
+     */
+    public List<RawImage> findIntersecting(double minX, double minY, double minZ, double maxX, double maxY, double maxZ) {
+        double[] box = new double[] {
+                Math.min(minX, maxX), Math.min(minY, maxY), Math.min(minZ, maxZ),
+                Math.max(minX, maxX), Math.max(minY, maxY), Math.max(minZ, maxZ)
+        };
+        int[] matches = new int[size];
+        int matchCount = findIntersecting(0, size, box, matches, 0);
+        if (matchCount == 0) {
+            return Collections.emptyList();
+        }
+        Arrays.sort(matches, 0, matchCount);
+        List<RawImage> result = new ArrayList<>(matchCount);
+        for (int i = 0; i < matchCount; i++) {
+            result.add(rawImages.get(matches[i]));
+        }
+        return result;
+    }
+
+    private void buildTree(int lo, int hi, double[] imageCenters) {
+        if (lo >= hi) {
+            return;
+        }
+        int axis = widestAxis(lo, hi, imageCenters);
+        int mid = (lo + hi) >>> 1;
+        select(lo, hi - 1, mid, axis, imageCenters);
+        splitAxes[mid] = axis;
+        buildTree(lo, mid, imageCenters);
+        buildTree(mid + 1, hi, imageCenters);
+
+        RawImage rawImage = rawImages.get(imageIndexes[mid]);
+        for (int d = 0; d < DIMS; d++) {
+            double origin = rawImage.getOriginInNanos()[d];
+            double end = origin + rawImage.getDimsInNanos()[d];
+            centers[DIMS * mid + d] = imageCenters[DIMS * imageIndexes[mid] + d];
+            bounds[2 * DIMS * mid + d] = Math.min(origin, end);
+            bounds[2 * DIMS * mid + DIMS + d] = Math.max(origin, end);
+            subtreeBounds[2 * DIMS * mid + d] = bounds[2 * DIMS * mid + d];
+            subtreeBounds[2 * DIMS * mid + DIMS + d] = bounds[2 * DIMS * mid + DIMS + d];
+        }
+        if (lo < mid) {
+            extendSubtreeBounds(mid, (lo + mid) >>> 1);
+        }
+        if (mid + 1 < hi) {
+            extendSubtreeBounds(mid, (mid + 1 + hi) >>> 1);
+        }
+    }
+
+    private int widestAxis(int lo, int hi, double[] imageCenters) {
+        int axis = 0;
+        double widestExtent = -1;
+        for (int d = 0; d < DIMS; d++) {
+            double min = Double.POSITIVE_INFINITY;
+            double max = Double.NEGATIVE_INFINITY;
+            for (int i = lo; i < hi; i++) {
+                double c = imageCenters[DIMS * imageIndexes[i] + d];
+                min = Math.min(min, c);
+                max = Math.max(max, c);
+            }
+            if (max - min > widestExtent) {
+                widestExtent = max - min;
+                axis = d;
+            }
+        }
+        return axis;
+    }
+
+    /**
+     * Partially order the node range [left, right] so that the element at position k is the one that would be
+     * there if the range were sorted by the center coordinate along the given axis.
+     */
+    private void select(int left, int right, int k, int axis, double[] imageCenters) {
+        while (left < right) {
+            int pivotIndex = partition(left, right, (left + right) >>> 1, axis, imageCenters);
+            if (k == pivotIndex) {
+                return;
+            } else if (k < pivotIndex) {
+                right = pivotIndex - 1;
+            } else {
+                left = pivotIndex + 1;
+            }
+        }
+    }
+
+    private int partition(int left, int right, int pivotIndex, int axis, double[] imageCenters) {
+        int pivotImage = imageIndexes[pivotIndex];
+        swap(pivotIndex, right);
+        int storeIndex = left;
+        for (int i = left; i < right; i++) {
+            if (compareImages(imageIndexes[i], pivotImage, axis, imageCenters) < 0) {
+                swap(storeIndex, i);
+                storeIndex++;
+            }
+        }
+        swap(right, storeIndex);
+        return storeIndex;
+    }
+
+    private int compareImages(int i1, int i2, int axis, double[] imageCenters) {
+        int result = Double.compare(imageCenters[DIMS * i1 + axis], imageCenters[DIMS * i2 + axis]);
+        return result != 0 ? result : Integer.compare(i1, i2);
+    }
+
+    private void swap(int i, int j) {
+        int tmp = imageIndexes[i];
+        imageIndexes[i] = imageIndexes[j];
+        imageIndexes[j] = tmp;
+    }
+
+    private void extendSubtreeBounds(int node, int child) {
+        for (int d = 0; d < DIMS; d++) {
+            subtreeBounds[2 * DIMS * node + d] = Math.min(subtreeBounds[2 * DIMS * node + d], subtreeBounds[2 * DIMS * child + d]);
+            subtreeBounds[2 * DIMS * node + DIMS + d] = Math.max(subtreeBounds[2 * DIMS * node + DIMS + d], subtreeBounds[2 * DIMS * child + DIMS + d]);
+        }
+    }
+
+    private void findNearest(int lo, int hi, double x, double y, double z, NearestResult nearestResult) {
+        if (lo >= hi) {
+            return;
+        }
+        int mid = (lo + hi) >>> 1;
+        double dx = centers[DIMS * mid] - x;
+        double dy = centers[DIMS * mid + 1] - y;
+        double dz = centers[DIMS * mid + 2] - z;
+        double distance = dx * dx + dy * dy + dz * dz;
+        if (distance < nearestResult.distance ||
+                distance == nearestResult.distance && imageIndexes[mid] < nearestResult.imageIndex) {
+            nearestResult.distance = distance;
+            nearestResult.imageIndex = imageIndexes[mid];
+        }
+        int axis = splitAxes[mid];
+        double axisDiff = (axis == 0 ? x : (axis == 1 ? y : z)) - centers[DIMS * mid + axis];
+        if (axisDiff < 0) {
+            findNearest(lo, mid, x, y, z, nearestResult);
+            if (axisDiff * axisDiff <= nearestResult.distance) {
+                findNearest(mid + 1, hi, x, y, z, nearestResult);
+            }
+        } else {
+            findNearest(mid + 1, hi, x, y, z, nearestResult);
+            if (axisDiff * axisDiff <= nearestResult.distance) {
+                findNearest(lo, mid, x, y, z, nearestResult);
+            }
+        }
+    }
+
+    private int findIntersecting(int lo, int hi, double[] box, int[] matches, int matchCount) {
+        if (lo >= hi) {
+            return matchCount;
+        }
+        int mid = (lo + hi) >>> 1;
+        if (!intersects(subtreeBounds, mid, box)) {
+            return matchCount;
+        }
+        int currentMatchCount = matchCount;
+        if (intersects(bounds, mid, box)) {
+            matches[currentMatchCount++] = imageIndexes[mid];
+        }
+        currentMatchCount = findIntersecting(lo, mid, box, matches, currentMatchCount);
+        return findIntersecting(mid + 1, hi, box, matches, currentMatchCount);
+    }
+
+    private boolean intersects(double[] nodeBounds, int node, double[] box) {
+        for (int d = 0; d < DIMS; d++) {
+            if (nodeBounds[2 * DIMS * node + d] > box[DIMS + d] || nodeBounds[2 * DIMS * node + DIMS + d] < box[d]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -1,8 +1,14 @@
 package org.janelia.rendering;
 
+import java.nio.ByteBuffer;
+import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
+import java.util.stream.Collectors;
 
+import org.janelia.rendering.utils.ImageUtils;
+import org.janelia.rendering.utils.RenderingTrace;
+import org.janelia.rendering.utils.TextureCodec;
 import org.janelia.rendering.ymlrepr.RawVolData;
 
 public interface RenderedVolumeLoader {
@@ -14,19 +20,175 @@ public interface RenderedVolumeLoader {
      * Default tilebase file name.
      */
     String DEFAULT_TILED_VOL_BASE_FILE_NAME = "tilebase.cache.yml";
+    /**
+     * Default precomputed volume manifest file name.
+     */
+    String DEFAULT_VOLUME_MANIFEST_FILE_NAME = "volume.manifest.json";
 
     Optional<RenderedVolumeMetadata> loadVolume(RenderedVolumeLocation rvl);
 
     Streamable<byte[]> loadSlice(RenderedVolumeLocation rvl, RenderedVolumeMetadata renderedVolumeMetadata, TileKey tileKey);
 
+    /**
+     * Load a slice with its intensities remapped to 8 bits using the given per channel display windows.
+     * The lookup tables are computed once per request.
+     * @param channelWindows one window per channel or a single window for all channels; if empty the slice is returned as is.
+     */
+    default Streamable<byte[]> loadSlice(RenderedVolumeLocation rvl, RenderedVolumeMetadata renderedVolumeMetadata, TileKey tileKey,
+                                         List<IntensityWindow> channelWindows) {
+        Streamable<byte[]> slice = loadSlice(rvl, renderedVolumeMetadata, tileKey);
+        byte[] textureBytes = slice.getContent();
+        if (textureBytes == null || channelWindows == null || channelWindows.isEmpty()) {
+            return slice;
+        }
+        int bitDepth = ByteBuffer.wrap(textureBytes).getInt(ImageUtils.TEXTURE_BIT_DEPTH_OFFSET);
+        List<byte[]> channelLookupTables = channelWindows.stream()
+                .map(channelWindow -> channelWindow.createLookupTable(bitDepth))
+                .collect(Collectors.toList());
+        byte[] remappedBytes = ImageUtils.remapTextureBytesTo8Bit(textureBytes, channelLookupTables);
+        return Streamable.of(remappedBytes, remappedBytes.length);
+    }
+
+    /**
+     * Same as {@link #loadSlice(RenderedVolumeLocation, RenderedVolumeMetadata, TileKey, List)} but the texture is
+     * encoded with the given payload encoding on the calling thread. Use {@link TextureCodec#decode} to get the texture back.
+     * The encoding is recorded as the {@link RenderingStage#ENCODE} stage of the current rendering trace.
+     */
+    default Streamable<byte[]> loadSlice(RenderedVolumeLocation rvl, RenderedVolumeMetadata renderedVolumeMetadata, TileKey tileKey,
+                                         List<IntensityWindow> channelWindows, TextureEncoding textureEncoding) {
+        Streamable<byte[]> slice = loadSlice(rvl, renderedVolumeMetadata, tileKey, channelWindows);
+        byte[] textureBytes = slice.getContent();
+        if (textureBytes == null || textureEncoding == TextureEncoding.RAW) {
+            return slice;
+        }
+        long encodeStartNanos = System.nanoTime();
+        byte[] payload = TextureCodec.encode(textureBytes, textureEncoding);
+        RenderingTrace.recordStage(RenderingStage.ENCODE, encodeStartNanos, payload.length);
+        return Streamable.of(payload, payload.length);
+    }
+
+    /**
+     * Load multiple slices at once.
+     * @return the slices in the same order as the tile keys.
+     */
+    default List<Streamable<byte[]>> loadSlices(RenderedVolumeLocation rvl, RenderedVolumeMetadata renderedVolumeMetadata, List<TileKey> tileKeys) {
+        return tileKeys.stream()
+                .map(tileKey -> loadSlice(rvl, renderedVolumeMetadata, tileKey))
+                .collect(Collectors.toList());
+    }
+
     Optional<RawImage> findClosestRawImageFromVoxelCoord(RenderedVolumeLocation rvl, int xVoxel, int yVoxel, int zVoxel);
 
+    /**
+     * Find all raw tiles that contain the given voxel. The default implementation indexes the raw tiles
+     * on every call so implementations should keep the index of a volume between calls.
+     */
+    default List<RawImage> findRawImagesContainingVoxelCoord(RenderedVolumeLocation rvl, int xVoxel, int yVoxel, int zVoxel) {
+        return loadVolume(rvl)
+                .map(rv -> {
+                    double[] stageCoordInNanos = rv.voxelToMicroscopeNanos(new int[]{xVoxel, yVoxel, zVoxel});
+                    return new RawImageSpatialIndex(loadVolumeRawImageTiles(rvl))
+                            .findContaining(stageCoordInNanos[0], stageCoordInNanos[1], stageCoordInNanos[2]);
+                })
+                .orElse(Collections.emptyList());
+    }
+
+    /**
+     * Find all raw tiles that intersect the box between the given start and end voxels. The default implementation
+     * indexes the raw tiles on every call so implementations should keep the index of a volume between calls.
+     */
+    default List<RawImage> findRawImagesIntersectingVoxelBox(RenderedVolumeLocation rvl,
+                                                             int xStartVoxel, int yStartVoxel, int zStartVoxel,
+                                                             int xEndVoxel, int yEndVoxel, int zEndVoxel) {
+        return loadVolume(rvl)
+                .map(rv -> {
+                    double[] startCoordInNanos = rv.voxelToMicroscopeNanos(new int[]{xStartVoxel, yStartVoxel, zStartVoxel});
+                    double[] endCoordInNanos = rv.voxelToMicroscopeNanos(new int[]{xEndVoxel, yEndVoxel, zEndVoxel});
+                    return new RawImageSpatialIndex(loadVolumeRawImageTiles(rvl)).findIntersecting(
+                            startCoordInNanos[0], startCoordInNanos[1], startCoordInNanos[2],
+                            endCoordInNanos[0], endCoordInNanos[1], endCoordInNanos[2]);
+                })
+                .orElse(Collections.emptyList());
+    }
+
     Streamable<byte[]> loadRawImageContentFromVoxelCoord(RenderedVolumeLocation rvl,
                                                          RawImage rawImage,
                                                          int channel,
                                                          int xVoxel, int yVoxel, int zVoxel,
                                                          int dimx, int dimy, int dimz);
 
+    /**
+     * Load the raw image ROI downsampled by the given factors along x, y and z.
+     */
+    default Streamable<byte[]> loadDownsampledRawImageContentFromVoxelCoord(RenderedVolumeLocation rvl,
+                                                                            RawImage rawImage,
+                                                                            int channel,
+                                                                            int xVoxel, int yVoxel, int zVoxel,
+                                                                            int dimx, int dimy, int dimz,
+                                                                            int xFactor, int yFactor, int zFactor,
+                                                                            DownsamplingMethod downsamplingMethod) {
+        return rvl.readDownsampledTiffImageROIPixels(rawImage.getRawImagePath(channel, null),
+                xVoxel, yVoxel, zVoxel, dimx, dimy, dimz,
+                xFactor, yFactor, zFactor, downsamplingMethod);
+    }
+
+    /**
+     * Same as {@link #loadRawImageContentFromVoxelCoord} but the content is written directly to a channel.
+     */
+    default Streamable<ChannelWriter> streamRawImageContentFromVoxelCoord(RenderedVolumeLocation rvl,
+                                                                          RawImage rawImage,
+                                                                          int channel,
+                                                                          int xVoxel, int yVoxel, int zVoxel,
+                                                                          int dimx, int dimy, int dimz) {
+        return rvl.streamTiffImageROIPixels(rawImage.getRawImagePath(channel, null), xVoxel, yVoxel, zVoxel, dimx, dimy, dimz);
+    }
+
+    /**
+     * Project the raw image ROI along the given axis. Only the 2D projection is returned.
+     */
+    default Streamable<byte[]> loadRawImageProjectionFromVoxelCoord(RenderedVolumeLocation rvl,
+                                                                     RawImage rawImage,
+                                                                     int channel,
+                                                                     int xVoxel, int yVoxel, int zVoxel,
+                                                                     int dimx, int dimy, int dimz,
+                                                                     Coordinate projectionAxis,
+                                                                     ProjectionType projectionType) {
+        return rvl.readTiffImageROIProjection(rawImage.getRawImagePath(channel, null),
+                xVoxel, yVoxel, zVoxel, dimx, dimy, dimz,
+                projectionAxis, projectionType);
+    }
+
+    /**
+     * Project a slab of an octree tile along the tile's slice axis. The slab starts at the tile key's slice and
+     * has the given number of slices, truncated at the end of the tile, so the slab near the end of a tile is thinner.
+     * If the depth is not positive the entire tile is projected. The result is the projection of a single channel
+     * with the tile's size.
+     */
+    default Streamable<byte[]> loadTileProjection(RenderedVolumeLocation rvl,
+                                                  RenderedVolumeMetadata renderedVolumeMetadata,
+                                                  TileKey tileKey,
+                                                  int channel,
+                                                  int depth,
+                                                  ProjectionType projectionType) {
+        return renderedVolumeMetadata.getTileInfo(tileKey.getSliceAxis())
+                .flatMap(tileInfo -> renderedVolumeMetadata.getRelativeTilePath(tileKey)
+                        .map(tileRelativePath -> {
+                            int slabDepth = depth > 0 ? Math.min(depth, tileInfo.getNumPages() - tileKey.getSliceIndex()) : depth;
+                            if (depth > 0 && slabDepth <= 0) {
+                                return Streamable.<byte[]>empty();
+                            }
+                            // the ROI is centered on the given slice so the center is chosen such that the slab starts at the tile key's slice
+                            return rvl.readTileImageROIProjection(
+                                    tileRelativePath.isEmpty()
+                                            ? TileInfo.getImageNameForChannel(tileKey.getSliceAxis(), channel)
+                                            : tileRelativePath + "/" + TileInfo.getImageNameForChannel(tileKey.getSliceAxis(), channel),
+                                    -1, -1, tileKey.getSliceIndex() + slabDepth / 2,
+                                    -1, -1, slabDepth,
+                                    Coordinate.Z, projectionType);
+                        }))
+                .orElse(Streamable.empty());
+    }
+
     List<RawImage> loadVolumeRawImageTiles(RenderedVolumeLocation rvl);
 
     RawVolData loadRawVolumeData(RenderedVolumeLocation rvl);
@@ -1,26 +1,46 @@
 package org.janelia.rendering;
 
 import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.UncheckedIOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.function.ToLongFunction;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 
 import com.google.common.base.Splitter;
-import com.google.common.collect.Streams;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.io.ByteStreams;
 
 import org.apache.commons.lang3.StringUtils;
-import org.apache.commons.lang3.tuple.ImmutablePair;
+import org.janelia.rendering.utils.RenderingTrace;
+import org.janelia.rendering.utils.RequestContext;
+import org.janelia.rendering.utils.SingleFlight;
+import org.janelia.rendering.utils.TextureCodec;
 import org.janelia.rendering.ymlrepr.RawVolData;
 import org.janelia.rendering.ymlrepr.RawVolReader;
 import org.slf4j.Logger;
@@ -29,46 +49,473 @@ import org.slf4j.LoggerFactory;
 public class RenderedVolumeLoaderImpl implements RenderedVolumeLoader {
 
     private static final Logger LOG = LoggerFactory.getLogger(RenderedVolumeLoaderImpl.class);
+    // the subdirectories of the volume directory that hold the octants of the next octree level
+    private static final List<String> OCTREE_LEVEL_DIRECTORY_NAMES = Arrays.asList("1", "2", "3", "4", "5", "6", "7", "8");
+
+    private static class TileImageSlices {
+        private final String tileRelativePath;
+        private final List<String> channelImageNames;
+        private final List<Integer> tileKeyIndexes = new ArrayList<>();
+
+        private TileImageSlices(String tileRelativePath, List<String> channelImageNames) {
+            this.tileRelativePath = tileRelativePath;
+            this.channelImageNames = channelImageNames;
+        }
+    }
+
+    private static class RawImageIndexEntry {
+        private final long tileBaseModified;
+        private final long manifestModified;
+        private final RawImageSpatialIndex rawImageIndex;
+
+        private RawImageIndexEntry(long tileBaseModified, long manifestModified, RawImageSpatialIndex rawImageIndex) {
+            this.tileBaseModified = tileBaseModified;
+            this.manifestModified = manifestModified;
+            this.rawImageIndex = rawImageIndex;
+        }
+    }
+
+    private final TextureCache textureCache;
+    private final Cache<String, Integer> lastRequestedSlices = CacheBuilder.newBuilder()
+            .maximumSize(10000)
+            .expireAfterAccess(10, TimeUnit.MINUTES)
+            .build();
+    // the index is rebuilt when the raw tiles' source changes; the expiration bounds the staleness
+    // for locations that cannot report modification times
+    private final Cache<URI, RawImageIndexEntry> rawImageIndexes = CacheBuilder.newBuilder()
+            .maximumSize(100)
+            .expireAfterWrite(10, TimeUnit.MINUTES)
+            .build();
+    private final Set<TextureCacheKey> pendingPrefetches = ConcurrentHashMap.newKeySet();
+    private final SingleFlight<TextureCacheKey, byte[]> sliceLoads = new SingleFlight<>();
+    private final SingleFlight<String, byte[]> rawImageLoads = new SingleFlight<>();
+    private final AtomicLong encodedSliceCount = new AtomicLong();
+    private final AtomicLong encodedSliceRawBytes = new AtomicLong();
+    private final AtomicLong encodedSliceBytes = new AtomicLong();
+    private ExecutorService slicePrefetchExecutor;
+    private int slicePrefetchDepth;
+    private boolean useVolumeManifest = true;
+    private boolean coalesceLoads = true;
+    private RenderingMetrics renderingMetrics = new InMemoryRenderingMetrics();
+    private long slowRequestThresholdMillis;
+
+    public RenderedVolumeLoaderImpl() {
+        this(null);
+    }
+
+    /**
+     * @param textureCache cache used for serving repeated tile requests; if null every tile is read from the volume location.
+     *                     A cached tile is only served while the modification time of its image files is unchanged.
+     */
+    public RenderedVolumeLoaderImpl(@Nullable TextureCache textureCache) {
+        this.textureCache = textureCache;
+    }
+
+    @Nullable
+    public TextureCache getTextureCache() {
+        return textureCache;
+    }
+
+    public ExecutorService getSlicePrefetchExecutor() {
+        return slicePrefetchExecutor;
+    }
+
+    /**
+     * Set the executor used for prefetching neighbouring slices into the texture cache.
+     * Prefetching only happens if the loader has a texture cache.
+     *
+     * @param slicePrefetchExecutor
+     */
+    public void setSlicePrefetchExecutor(ExecutorService slicePrefetchExecutor) {
+        this.slicePrefetchExecutor = slicePrefetchExecutor;
+    }
+
+    public int getSlicePrefetchDepth() {
+        return slicePrefetchDepth;
+    }
+
+    /**
+     * Set how many slices to prefetch along the slice axis after a slice is loaded. The slices are prefetched in the
+     * direction in which the client moved since its previous request for the same tile or on both sides
+     * if the direction is not known. If 0 no slices are prefetched.
+     *
+     * @param slicePrefetchDepth
+     */
+    public void setSlicePrefetchDepth(int slicePrefetchDepth) {
+        this.slicePrefetchDepth = slicePrefetchDepth;
+    }
+
+    public boolean isUseVolumeManifest() {
+        return useVolumeManifest;
+    }
+
+    /**
+     * Enable or disable the use of the precomputed volume manifest. When enabled and the volume has a fresh manifest,
+     * the volume metadata and the raw tiles are read from the manifest instead of being discovered from the volume content.
+     * See {@link VolumeManifest} for when a manifest is considered fresh.
+     *
+     * @param useVolumeManifest
+     */
+    public void setUseVolumeManifest(boolean useVolumeManifest) {
+        this.useVolumeManifest = useVolumeManifest;
+    }
+
+    public boolean isCoalesceLoads() {
+        return coalesceLoads;
+    }
+
+    /**
+     * Enable or disable coalescing of concurrent identical loads. When enabled, concurrent requests for the same
+     * tile slice or the same raw image ROI share a single read of the content.
+     *
+     * @param coalesceLoads
+     */
+    public void setCoalesceLoads(boolean coalesceLoads) {
+        this.coalesceLoads = coalesceLoads;
+    }
+
+    public RenderingMetrics getRenderingMetrics() {
+        return renderingMetrics;
+    }
+
+    /**
+     * Set the sink for the per stage timings and byte counts of the loader's requests. The default is an
+     * {@link InMemoryRenderingMetrics}; {@link RenderingMetrics#NOOP} turns the instrumentation off unless
+     * slow requests are logged.
+     *
+     * @param renderingMetrics
+     */
+    public void setRenderingMetrics(RenderingMetrics renderingMetrics) {
+        this.renderingMetrics = renderingMetrics == null ? RenderingMetrics.NOOP : renderingMetrics;
+    }
+
+    public long getSlowRequestThresholdMillis() {
+        return slowRequestThresholdMillis;
+    }
+
+    /**
+     * Set the duration above which a request is logged together with the breakdown of the time spent
+     * in every stage. If 0 slow requests are not logged.
+     *
+     * @param slowRequestThresholdMillis
+     */
+    public void setSlowRequestThresholdMillis(long slowRequestThresholdMillis) {
+        this.slowRequestThresholdMillis = slowRequestThresholdMillis;
+    }
+
+    /**
+     * @return the number of slice requests that were served by an identical slice load already in flight.
+     */
+    public long getDeduplicatedSliceLoadCount() {
+        return sliceLoads.getDeduplicatedCount();
+    }
+
+    /**
+     * @return the number of raw image ROI requests that were served by an identical ROI load already in flight.
+     */
+    public long getDeduplicatedRawImageLoadCount() {
+        return rawImageLoads.getDeduplicatedCount();
+    }
+
+    /**
+     * @return the number of slices returned with an encoding other than RAW.
+     */
+    public long getEncodedSliceCount() {
+        return encodedSliceCount.get();
+    }
+
+    /**
+     * @return the total size of the encoded slices before encoding.
+     */
+    public long getEncodedSliceRawBytes() {
+        return encodedSliceRawBytes.get();
+    }
+
+    /**
+     * @return the total size of the encoded slice payloads.
+     */
+    public long getEncodedSliceBytes() {
+        return encodedSliceBytes.get();
+    }
 
     @Override
     public Optional<RenderedVolumeMetadata> loadVolume(RenderedVolumeLocation rvl) {
+        return traceRequest(() -> loadVolumeMetadata(rvl, loadFreshVolumeManifest(rvl)), volumeMetadata -> 0L,
+                () -> "loadVolume from " + rvl.getBaseStorageLocationURI());
+    }
+
+    private Optional<RenderedVolumeMetadata> loadVolumeMetadata(RenderedVolumeLocation rvl, @Nullable VolumeManifest volumeManifest) {
         LOG.debug("Load volume from {}", rvl.getBaseStorageLocationURI());
+        if (volumeManifest != null && volumeManifest.getTransform() != null && volumeManifest.getTileInfos() != null) {
+            LOG.debug("Load volume {} from its manifest", rvl.getBaseStorageLocationURI());
+            RawCoord coord = parseTransformStream(new ByteArrayInputStream(volumeManifest.getTransform().getBytes(StandardCharsets.UTF_8)));
+            return createVolumeMetadata(rvl, coord, volumeManifest.getTileInfos());
+        }
         return loadVolumeSizeAndCoord(rvl)
-                .flatMap(coord -> loadTileInfo(rvl)
-                        .map(tileInfos -> {
-                            int scaleFactor = (int) coord.getScaleFactor();
-                            int[] tileVolumeDims = Arrays.stream(tileInfos)
-                                    .filter(tileInfo -> tileInfo != null)
-                                    .findFirst()
-                                    .map(tileInfo -> tileInfo.getVolumeSize())
-                                    .orElseGet(() -> new int[]{0, 0, 0});
-                            int[] volumeSizeInVoxels = Arrays.stream(tileVolumeDims).map(tileDim -> tileDim * scaleFactor).toArray();
-
-                            RenderedVolumeMetadata renderedVolumeMetadata = new RenderedVolumeMetadata();
-                            renderedVolumeMetadata.setConnectionURI(rvl.getConnectionURI().toString());
-                            renderedVolumeMetadata.setDataStorageURI(rvl.getDataStorageURI().toString());
-                            renderedVolumeMetadata.setVolumeBasePath(rvl.getBaseDataStoragePath());
-                            renderedVolumeMetadata.setRenderingType(RenderingType.OCTREE);
-                            renderedVolumeMetadata.setOriginVoxel(coord.getOriginVoxel());
-                            renderedVolumeMetadata.setVolumeSizeInVoxels(volumeSizeInVoxels);
-                            renderedVolumeMetadata.setMicromsPerVoxel(coord.getHighestResMicromsPerVoxel());
-                            renderedVolumeMetadata.setNumZoomLevels(coord.getNumZoomLevels());
-                            renderedVolumeMetadata.setXyTileInfo(tileInfos[Coordinate.Z.index()]);
-                            renderedVolumeMetadata.setYzTileInfo(tileInfos[Coordinate.X.index()]);
-                            renderedVolumeMetadata.setZxTileInfo(tileInfos[Coordinate.Y.index()]);
-
-                            return renderedVolumeMetadata;
-                        }));
+                .flatMap(coord -> loadTileInfo(rvl, listOctreeImageNames(rvl))
+                        .flatMap(tileInfos -> createVolumeMetadata(rvl, coord, tileInfos)));
+    }
+
+    private Optional<RenderedVolumeMetadata> createVolumeMetadata(RenderedVolumeLocation rvl, RawCoord coord, TileInfo[] tileInfos) {
+        int scaleFactor = (int) coord.getScaleFactor();
+        int[] tileVolumeDims = Arrays.stream(tileInfos)
+                .filter(tileInfo -> tileInfo != null)
+                .findFirst()
+                .map(tileInfo -> tileInfo.getVolumeSize())
+                .orElseGet(() -> new int[]{0, 0, 0});
+        int[] volumeSizeInVoxels = Arrays.stream(tileVolumeDims).map(tileDim -> tileDim * scaleFactor).toArray();
+
+        RenderedVolumeMetadata renderedVolumeMetadata = new RenderedVolumeMetadata();
+        renderedVolumeMetadata.setConnectionURI(rvl.getConnectionURI().toString());
+        renderedVolumeMetadata.setDataStorageURI(rvl.getDataStorageURI().toString());
+        renderedVolumeMetadata.setVolumeBasePath(rvl.getBaseDataStoragePath());
+        renderedVolumeMetadata.setRenderingType(RenderingType.OCTREE);
+        renderedVolumeMetadata.setOriginVoxel(coord.getOriginVoxel());
+        renderedVolumeMetadata.setVolumeSizeInVoxels(volumeSizeInVoxels);
+        renderedVolumeMetadata.setMicromsPerVoxel(coord.getHighestResMicromsPerVoxel());
+        renderedVolumeMetadata.setNumZoomLevels(coord.getNumZoomLevels());
+        renderedVolumeMetadata.setXyTileInfo(tileInfos[Coordinate.Z.index()]);
+        renderedVolumeMetadata.setYzTileInfo(tileInfos[Coordinate.X.index()]);
+        renderedVolumeMetadata.setZxTileInfo(tileInfos[Coordinate.Y.index()]);
+
+        return Optional.of(renderedVolumeMetadata);
+    }
+
+    /**
+     * Generate the manifest of the given volume by discovering its content. The manifest is never generated
+     * from an existing manifest.
+     *
+     * @param rvl
+     * @return the volume manifest or null if the volume has no transform file or no octree images.
+     */
+    @Nullable
+    public VolumeManifest generateVolumeManifest(RenderedVolumeLocation rvl) {
+        String transform = rvl.getContentFromRelativePath(DEFAULT_TRANSFORM_FILE_NAME)
+                .consume(transformStream -> {
+                    try (InputStream s = transformStream) {
+                        return new String(ByteStreams.toByteArray(s), StandardCharsets.UTF_8);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }, (c, l) -> l)
+                .getContent();
+        if (transform == null) {
+            LOG.warn("No {} file found at {} - cannot generate the volume manifest", DEFAULT_TRANSFORM_FILE_NAME, rvl.getBaseStorageLocationURI());
+            return null;
+        }
+        List<String> octreeImageNames = listOctreeImageNames(rvl);
+        return loadTileInfo(rvl, octreeImageNames)
+                .map(tileInfos -> {
+                    VolumeManifest volumeManifest = new VolumeManifest();
+                    volumeManifest.setTransform(transform);
+                    volumeManifest.setTileInfos(tileInfos);
+                    volumeManifest.setOctreeImageNames(octreeImageNames);
+                    volumeManifest.setRawVolData(readRawVolumeData(rvl));
+                    return volumeManifest;
+                })
+                .orElse(null);
+    }
+
+    /**
+     * The manifest is compared with the transform file, the tilebase file, the top level octree images it lists and
+     * the octree level directories. Changes deeper in the octree that do not modify any of these, as well as channels
+     * that are added or removed, are not detected, so the manifest must be regenerated whenever the octree is rewritten.
+     *
+     * @return the volume manifest if the manifest use is enabled and the volume has a manifest that is not older than
+     * any of the files and directories it was generated from; otherwise null.
+     */
+    @Nullable
+    private VolumeManifest loadFreshVolumeManifest(RenderedVolumeLocation rvl) {
+        if (!useVolumeManifest) {
+            return null;
+        }
+        long manifestModified = rvl.getContentLastModifiedAtRelativePath(DEFAULT_VOLUME_MANIFEST_FILE_NAME);
+        if (manifestModified < 0) {
+            // either the manifest does not exist or its freshness cannot be checked
+            return null;
+        }
+        VolumeManifest volumeManifest;
+        try {
+            volumeManifest = rvl.getContentFromRelativePath(DEFAULT_VOLUME_MANIFEST_FILE_NAME)
+                    .consume(manifestStream -> {
+                        try (InputStream s = manifestStream) {
+                            return VolumeManifest.readFrom(s);
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    }, (m, l) -> l)
+                    .asOptional()
+                    .filter(m -> m.getVersion() == VolumeManifest.CURRENT_VERSION)
+                    .orElse(null);
+        } catch (Exception e) {
+            LOG.warn("Error reading the volume manifest from {} - the volume content will be discovered", rvl.getBaseStorageLocationURI(), e);
+            return null;
+        }
+        if (volumeManifest == null) {
+            return null;
+        }
+        List<String> sourceRelativePaths = new ArrayList<>();
+        sourceRelativePaths.add(DEFAULT_TRANSFORM_FILE_NAME);
+        sourceRelativePaths.add(DEFAULT_TILED_VOL_BASE_FILE_NAME);
+        if (volumeManifest.getOctreeImageNames() != null) {
+            sourceRelativePaths.addAll(volumeManifest.getOctreeImageNames());
+        }
+        sourceRelativePaths.addAll(OCTREE_LEVEL_DIRECTORY_NAMES);
+        for (String sourceRelativePath : sourceRelativePaths) {
+            if (rvl.getContentLastModifiedAtRelativePath(sourceRelativePath) > manifestModified) {
+                LOG.debug("Volume manifest from {} is older than '{}' - ignore it", rvl.getBaseStorageLocationURI(), sourceRelativePath);
+                return null;
+            }
+        }
+        return volumeManifest;
     }
 
     @Override
     public Streamable<byte[]> loadSlice(RenderedVolumeLocation rvl, RenderedVolumeMetadata renderedVolumeMetada, TileKey tileKey) {
+        return traceRequest(() -> loadSliceContent(rvl, renderedVolumeMetada, tileKey), Streamable::getSize,
+                () -> "loadSlice " + tileKey + " from " + rvl.getBaseStorageLocationURI());
+    }
+
+    private Streamable<byte[]> loadSliceContent(RenderedVolumeLocation rvl, RenderedVolumeMetadata renderedVolumeMetada, TileKey tileKey) {
+        if (textureCache == null) {
+            return readSlice(rvl, renderedVolumeMetada, tileKey);
+        }
+        try {
+            TextureCacheKey textureCacheKey = createTextureCacheKey(rvl, renderedVolumeMetada, tileKey);
+            byte[] cachedTextureBytes = textureCache.get(textureCacheKey);
+            if (cachedTextureBytes != null) {
+                LOG.trace("Found tile {} from {} in the texture cache", tileKey, rvl.getBaseStorageLocationURI());
+                return Streamable.of(cachedTextureBytes, cachedTextureBytes.length);
+            }
+            Streamable<byte[]> sliceContent = readSlice(rvl, renderedVolumeMetada, tileKey);
+            if (sliceContent.getContent() != null) {
+                textureCache.put(textureCacheKey, sliceContent.getContent());
+            }
+            return sliceContent;
+        } finally {
+            prefetchNeighbouringSlices(rvl, renderedVolumeMetada, tileKey);
+        }
+    }
+
+    /**
+     * Encode the slice like the default implementation does, within the request's trace, and record the encoded
+     * and the raw size of the payload.
+     */
+    @Override
+    public Streamable<byte[]> loadSlice(RenderedVolumeLocation rvl, RenderedVolumeMetadata renderedVolumeMetada, TileKey tileKey,
+                                        List<IntensityWindow> channelWindows, TextureEncoding textureEncoding) {
+        return traceRequest(() -> countEncodedSlice(RenderedVolumeLoader.super.loadSlice(rvl, renderedVolumeMetada, tileKey, channelWindows, textureEncoding), textureEncoding),
+                Streamable::getSize,
+                () -> "loadSlice " + tileKey + " from " + rvl.getBaseStorageLocationURI() + " encoded with " + textureEncoding);
+    }
+
+    private Streamable<byte[]> countEncodedSlice(Streamable<byte[]> slice, TextureEncoding textureEncoding) {
+        byte[] payload = slice.getContent();
+        if (payload != null && textureEncoding != TextureEncoding.RAW) {
+            encodedSliceCount.incrementAndGet();
+            encodedSliceRawBytes.addAndGet(TextureCodec.getDecodedLength(payload));
+            encodedSliceBytes.addAndGet(payload.length);
+        }
+        return slice;
+    }
+
+    /**
+     * Load the slices that are not in the texture cache grouped by their tile image so that all slices
+     * from the same image are read in a single pass.
+     */
+    @Override
+    public List<Streamable<byte[]>> loadSlices(RenderedVolumeLocation rvl, RenderedVolumeMetadata renderedVolumeMetada, List<TileKey> tileKeys) {
+        return traceRequest(() -> loadSlicesContent(rvl, renderedVolumeMetada, tileKeys),
+                slices -> slices.stream().mapToLong(Streamable::getSize).sum(),
+                () -> "loadSlices " + tileKeys + " from " + rvl.getBaseStorageLocationURI());
+    }
+
+    private List<Streamable<byte[]>> loadSlicesContent(RenderedVolumeLocation rvl, RenderedVolumeMetadata renderedVolumeMetada, List<TileKey> tileKeys) {
+        List<Streamable<byte[]>> slices = new ArrayList<>(Collections.nCopies(tileKeys.size(), null));
+        List<TextureCacheKey> textureCacheKeys = new ArrayList<>(Collections.nCopies(tileKeys.size(), null));
+        Map<String, TileImageSlices> slicesByTileImage = new LinkedHashMap<>();
+        for (int i = 0; i < tileKeys.size(); i++) {
+            TileKey tileKey = tileKeys.get(i);
+            if (textureCache != null) {
+                textureCacheKeys.set(i, createTextureCacheKey(rvl, renderedVolumeMetada, tileKey));
+                byte[] cachedTextureBytes = textureCache.get(textureCacheKeys.get(i));
+                if (cachedTextureBytes != null) {
+                    slices.set(i, Streamable.of(cachedTextureBytes, cachedTextureBytes.length));
+                    continue;
+                }
+            }
+            Optional<TileInfo> tileInfo = renderedVolumeMetada.getTileInfo(tileKey.getSliceAxis());
+            Optional<String> tileRelativePath = renderedVolumeMetada.getRelativeTilePath(tileKey);
+            if (tileInfo.isPresent() && tileRelativePath.isPresent()) {
+                slicesByTileImage.computeIfAbsent(tileKey.getSliceAxis() + ":" + tileRelativePath.get(),
+                        k -> new TileImageSlices(tileRelativePath.get(), getChannelImageNames(tileInfo.get(), tileKey.getSliceAxis())))
+                        .tileKeyIndexes.add(i);
+            } else {
+                slices.set(i, Streamable.empty());
+            }
+        }
+        for (TileImageSlices tileImageSlices : slicesByTileImage.values()) {
+            if (RequestContext.isCurrentRequestCancelled()) {
+                throw new CancellationException("loadSlices " + tileKeys + " from " + rvl.getBaseStorageLocationURI() + " was cancelled");
+            }
+            List<Integer> pageNumbers = tileImageSlices.tileKeyIndexes.stream()
+                    .map(i -> tileKeys.get(i).getSliceIndex())
+                    .collect(Collectors.toList());
+            LOG.trace("Retrieve pages {} from imagefiles {} from {} and {}",
+                    pageNumbers, tileImageSlices.channelImageNames, rvl.getBaseStorageLocationURI(), tileImageSlices.tileRelativePath);
+            List<Streamable<byte[]>> pages = rvl.readTiffPagesAsTexturedBytes(tileImageSlices.tileRelativePath, tileImageSlices.channelImageNames, pageNumbers);
+            for (int j = 0; j < pages.size(); j++) {
+                int tileKeyIndex = tileImageSlices.tileKeyIndexes.get(j);
+                Streamable<byte[]> sliceContent = pages.get(j);
+                if (textureCache != null && sliceContent.getContent() != null) {
+                    textureCache.put(textureCacheKeys.get(tileKeyIndex), sliceContent.getContent());
+                }
+                slices.set(tileKeyIndex, sliceContent);
+            }
+        }
+        if (!tileKeys.isEmpty()) {
+            prefetchNeighbouringSlices(rvl, renderedVolumeMetada, tileKeys.get(tileKeys.size() - 1));
+        }
+        return slices;
+    }
+
+    /**
+     * Run the request with a rendering trace on the current thread unless the thread already serves a traced request,
+     * and log the stage breakdown if the request took longer than the slow request threshold.
+     */
+    private <T> T traceRequest(Supplier<T> request, ToLongFunction<T> resultSize, Supplier<String> requestDescription) {
+        if (RenderingTrace.current() != null || renderingMetrics == RenderingMetrics.NOOP && slowRequestThresholdMillis <= 0) {
+            return request.get();
+        }
+        RenderingTrace trace = RenderingTrace.begin(renderingMetrics);
+        T result = null;
+        try {
+            result = request.get();
+            return result;
+        } finally {
+            long elapsedNanos = trace.end(result == null ? 0L : resultSize.applyAsLong(result));
+            if (slowRequestThresholdMillis > 0 && elapsedNanos > TimeUnit.MILLISECONDS.toNanos(slowRequestThresholdMillis)) {
+                LOG.warn("Slow request {} took {} ms: {}",
+                        requestDescription.get(), TimeUnit.NANOSECONDS.toMillis(elapsedNanos), trace.formatBreakdown());
+            }
+        }
+    }
+
+    private Streamable<byte[]> readSlice(RenderedVolumeLocation rvl, RenderedVolumeMetadata renderedVolumeMetada, TileKey tileKey) {
+        if (!coalesceLoads) {
+            return readSliceContent(rvl, renderedVolumeMetada, tileKey);
+        }
+        // the content is shared by all waiting callers but every caller gets its own streamable
+        byte[] sliceBytes = sliceLoads.load(new TextureCacheKey(rvl.getTileStorageURI(), tileKey),
+                () -> readSliceContent(rvl, renderedVolumeMetada, tileKey).getContent());
+        return sliceBytes == null ? Streamable.empty() : Streamable.of(sliceBytes, sliceBytes.length);
+    }
+
+    private Streamable<byte[]> readSliceContent(RenderedVolumeLocation rvl, RenderedVolumeMetadata renderedVolumeMetada, TileKey tileKey) {
         return renderedVolumeMetada.getTileInfo(tileKey.getSliceAxis())
                 .flatMap(tileInfo -> renderedVolumeMetada.getRelativeTilePath(tileKey)
                         .map(tileRelativePath -> {
-                            List<String> chanelImageNames = IntStream.range(0, tileInfo.getChannelCount())
-                                    .mapToObj(channel -> TileInfo.getImageNameForChannel(tileKey.getSliceAxis(), channel))
-                                    .collect(Collectors.toList());
+                            List<String> chanelImageNames = getChannelImageNames(tileInfo, tileKey.getSliceAxis());
                             LOG.trace("Retrieve imagefiles {} for tile {} from {} and {}", chanelImageNames, tileKey, rvl.getBaseStorageLocationURI(), tileRelativePath);
                             return rvl.readTiffPageAsTexturedBytes(tileRelativePath, chanelImageNames, tileKey.getSliceIndex());
                         }))
@@ -76,6 +523,101 @@ public class RenderedVolumeLoaderImpl implements RenderedVolumeLoader {
                 ;
     }
 
+    /**
+     * The key includes the modification time of the tile's image files so that a tile image rewritten in place
+     * is read again instead of being served from the texture cache.
+     */
+    private TextureCacheKey createTextureCacheKey(RenderedVolumeLocation rvl, RenderedVolumeMetadata renderedVolumeMetada, TileKey tileKey) {
+        long sourceLastModified = renderedVolumeMetada.getTileInfo(tileKey.getSliceAxis())
+                .flatMap(tileInfo -> renderedVolumeMetada.getRelativeTilePath(tileKey)
+                        .map(tileRelativePath -> getTileImageLastModified(rvl, tileRelativePath, getChannelImageNames(tileInfo, tileKey.getSliceAxis()))))
+                .orElse(-1L);
+        return new TextureCacheKey(rvl.getTileStorageURI(), tileKey, sourceLastModified);
+    }
+
+    /**
+     * @return the latest modification time of the channel images of the tile or -1 if it cannot be determined
+     */
+    private long getTileImageLastModified(RenderedVolumeLocation rvl, String tileRelativePath, List<String> channelImageNames) {
+        long lastModified = -1L;
+        for (String channelImageName : channelImageNames) {
+            String channelImageRelativePath = StringUtils.isBlank(tileRelativePath) ? channelImageName : tileRelativePath + "/" + channelImageName;
+            lastModified = Math.max(lastModified, rvl.getContentLastModifiedAtRelativePath(channelImageRelativePath));
+        }
+        return lastModified;
+    }
+
+    private List<String> getChannelImageNames(TileInfo tileInfo, Coordinate sliceAxis) {
+        return IntStream.range(0, tileInfo.getChannelCount())
+                .mapToObj(channel -> TileInfo.getImageNameForChannel(sliceAxis, channel))
+                .collect(Collectors.toList());
+    }
+
+    private void prefetchNeighbouringSlices(RenderedVolumeLocation rvl, RenderedVolumeMetadata renderedVolumeMetada, TileKey tileKey) {
+        if (textureCache == null || slicePrefetchExecutor == null || slicePrefetchDepth <= 0) {
+            return;
+        }
+        Optional<TileInfo> tileInfo = renderedVolumeMetada.getTileInfo(tileKey.getSliceAxis());
+        Optional<String> tileRelativePath = renderedVolumeMetada.getRelativeTilePath(tileKey);
+        if (!tileInfo.isPresent() || !tileRelativePath.isPresent()) {
+            return;
+        }
+        URI volumeURI = rvl.getTileStorageURI();
+        String tileImageId = volumeURI + "#" + tileKey.getSliceAxis() + ":" + tileRelativePath.get();
+        Integer previousSliceIndex = lastRequestedSlices.getIfPresent(tileImageId);
+        lastRequestedSlices.put(tileImageId, tileKey.getSliceIndex());
+        int direction;
+        if (previousSliceIndex == null || previousSliceIndex == tileKey.getSliceIndex()) {
+            direction = 0;
+        } else {
+            direction = tileKey.getSliceIndex() > previousSliceIndex ? 1 : -1;
+        }
+        int[] tileCoord = tileKey.getCoord();
+        List<String> channelImageNames = getChannelImageNames(tileInfo.get(), tileKey.getSliceAxis());
+        long sourceLastModified = getTileImageLastModified(rvl, tileRelativePath.get(), channelImageNames);
+        List<Integer> prefetchPageNumbers = new ArrayList<>();
+        List<TextureCacheKey> prefetchKeys = new ArrayList<>();
+        for (int k = 1; k <= slicePrefetchDepth; k++) {
+            for (int sliceIndex : new int[] {tileKey.getSliceIndex() + k, tileKey.getSliceIndex() - k}) {
+                if (sliceIndex < 0 || sliceIndex >= tileInfo.get().getNumPages() ||
+                        direction > 0 && sliceIndex < tileKey.getSliceIndex() ||
+                        direction < 0 && sliceIndex > tileKey.getSliceIndex()) {
+                    continue;
+                }
+                TextureCacheKey prefetchKey = new TextureCacheKey(volumeURI, TileKey.fromTileCoord(
+                        tileCoord[0], tileCoord[1], tileCoord[2], tileKey.getZoom(), tileKey.getSliceAxis(), sliceIndex), sourceLastModified);
+                if (!textureCache.contains(prefetchKey) && pendingPrefetches.add(prefetchKey)) {
+                    prefetchPageNumbers.add(sliceIndex);
+                    prefetchKeys.add(prefetchKey);
+                }
+            }
+        }
+        if (prefetchKeys.isEmpty()) {
+            return;
+        }
+        try {
+            slicePrefetchExecutor.execute(() -> {
+                try {
+                    LOG.trace("Prefetch pages {} from {} and {}", prefetchPageNumbers, volumeURI, tileRelativePath.get());
+                    List<Streamable<byte[]>> pages = rvl.readTiffPagesAsTexturedBytes(tileRelativePath.get(), channelImageNames, prefetchPageNumbers);
+                    for (int i = 0; i < pages.size(); i++) {
+                        byte[] textureBytes = pages.get(i).getContent();
+                        if (textureBytes != null) {
+                            textureCache.put(prefetchKeys.get(i), textureBytes);
+                        }
+                    }
+                } catch (Exception e) {
+                    LOG.warn("Error prefetching pages {} from {} and {}", prefetchPageNumbers, volumeURI, tileRelativePath.get(), e);
+                } finally {
+                    pendingPrefetches.removeAll(prefetchKeys);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            LOG.debug("Prefetch of pages {} from {} and {} was rejected", prefetchPageNumbers, volumeURI, tileRelativePath.get());
+            pendingPrefetches.removeAll(prefetchKeys);
+        }
+    }
+
     private Optional<RawCoord> loadVolumeSizeAndCoord(RenderedVolumeLocation rvl) {
         RawCoord rawCoord = rvl.getContentFromRelativePath(DEFAULT_TRANSFORM_FILE_NAME)
                 .consume(transformStream -> {
@@ -144,36 +686,34 @@ public class RenderedVolumeLoaderImpl implements RenderedVolumeLoader {
         }
     }
 
-    private Optional<TileInfo[]> loadTileInfo(RenderedVolumeLocation rvl) {
-        try {
-            Map<Coordinate, List<String>> channelTilesByOrthoProjection = rvl.listImageUris(0).stream()
-                    .map(tileUri -> {
-                        String fn;
-                        if (StringUtils.equalsIgnoreCase("file", tileUri.getScheme())) {
-                            fn = Paths.get(tileUri).getFileName().toString();
-                        } else {
-                            String uriPath = tileUri.getPath();
-                            int fnIndex = uriPath.lastIndexOf('/');
-                            if (fnIndex == -1) {
-                                fn = uriPath;
-                            } else {
-                                fn = uriPath.substring(fnIndex + 1);
-                            }
-                        }
-                        if (StringUtils.isBlank(fn)) {
-                            return null;
+    private List<String> listOctreeImageNames(RenderedVolumeLocation rvl) {
+        long listStartNanos = System.nanoTime();
+        List<URI> octreeImageUris = rvl.listImageUris(0);
+        RenderingTrace.recordStage(RenderingStage.LIST_IMAGES, listStartNanos, 0L);
+        return octreeImageUris.stream()
+                .map(tileUri -> {
+                    String fn;
+                    if (StringUtils.equalsIgnoreCase("file", tileUri.getScheme())) {
+                        fn = Paths.get(tileUri).getFileName().toString();
+                    } else {
+                        String uriPath = tileUri.getPath();
+                        int fnIndex = uriPath.lastIndexOf('/');
+                        if (fnIndex == -1) {
+                            fn = uriPath;
                         } else {
-                            Coordinate sliceAxis = TileInfo.getSliceAxisFromImageNameForChannel(fn);
-                            if (sliceAxis != null) {
-                                return ImmutablePair.of(sliceAxis, fn);
-                            } else {
-                                return null;
-                            }
+                            fn = uriPath.substring(fnIndex + 1);
                         }
-                    })
-                    .filter(tileImageNameWithSliceAxis -> tileImageNameWithSliceAxis != null)
-                    .collect(Collectors.groupingBy(tileImageNameWithSliceAxis -> tileImageNameWithSliceAxis.getLeft(),
-                            Collectors.mapping(tileImageNameWithSliceAxis -> tileImageNameWithSliceAxis.getRight(), Collectors.toList())));
+                    }
+                    return fn;
+                })
+                .filter(fn -> StringUtils.isNotBlank(fn) && TileInfo.getSliceAxisFromImageNameForChannel(fn) != null)
+                .collect(Collectors.toList());
+    }
+
+    private Optional<TileInfo[]> loadTileInfo(RenderedVolumeLocation rvl, List<String> octreeImageNames) {
+        try {
+            Map<Coordinate, List<String>> channelTilesByOrthoProjection = octreeImageNames.stream()
+                    .collect(Collectors.groupingBy(TileInfo::getSliceAxisFromImageNameForChannel));
             if (channelTilesByOrthoProjection.isEmpty()) {
                 return Optional.empty();
             }
@@ -199,28 +739,71 @@ public class RenderedVolumeLoaderImpl implements RenderedVolumeLoader {
 
     @Override
     public Optional<RawImage> findClosestRawImageFromVoxelCoord(RenderedVolumeLocation rvl, int xVoxel, int yVoxel, int zVoxel) {
-        return loadVolume(rvl)
-                .flatMap(rv -> {
-                    Double[] stageCoordInNanos = convertToMicroscopeCoordInNanos(new int[]{xVoxel, yVoxel, zVoxel}, rv.getOriginVoxel(), rv.getMicromsPerVoxel());
-                    return loadVolumeRawImageTiles(rvl).stream()
-                            .min((t1, t2) -> {
-                                Double d1 = squaredMetricDistance(t1.getCenterInNanos(), stageCoordInNanos);
-                                Double d2 = squaredMetricDistance(t2.getCenterInNanos(), stageCoordInNanos);
-                                if (d1 < d2) {
-                                    return -1;
-                                } else if (d1 > d2) {
-                                    return 1;
-                                } else {
-                                    return 0;
-                                }
-                            })
-                            ;
-                });
+        // the manifest is read once for both the volume metadata and the raw tiles
+        VolumeManifest volumeManifest = loadFreshVolumeManifest(rvl);
+        return loadVolumeMetadata(rvl, volumeManifest)
+                .flatMap(rv -> findClosestRawImage(getRawImageIndex(rvl, volumeManifest), rv, xVoxel, yVoxel, zVoxel));
+    }
+
+    @Override
+    public List<RawImage> findRawImagesContainingVoxelCoord(RenderedVolumeLocation rvl, int xVoxel, int yVoxel, int zVoxel) {
+        VolumeManifest volumeManifest = loadFreshVolumeManifest(rvl);
+        return loadVolumeMetadata(rvl, volumeManifest)
+                .map(rv -> findRawImagesContainingVoxel(getRawImageIndex(rvl, volumeManifest), rv, xVoxel, yVoxel, zVoxel))
+                .orElse(Collections.emptyList());
+    }
+
+    @Override
+    public List<RawImage> findRawImagesIntersectingVoxelBox(RenderedVolumeLocation rvl,
+                                                            int xStartVoxel, int yStartVoxel, int zStartVoxel,
+                                                            int xEndVoxel, int yEndVoxel, int zEndVoxel) {
+        VolumeManifest volumeManifest = loadFreshVolumeManifest(rvl);
+        return loadVolumeMetadata(rvl, volumeManifest)
+                .map(rv -> findRawImagesIntersectingVoxelBox(getRawImageIndex(rvl, volumeManifest), rv,
+                        new int[]{xStartVoxel, yStartVoxel, zStartVoxel},
+                        new int[]{xEndVoxel, yEndVoxel, zEndVoxel}))
+                .orElse(Collections.emptyList());
+    }
+
+    /**
+     * @return the spatial index of the volume's raw tiles. The index is kept between calls and it is only rebuilt
+     * when the tilebase file or the volume manifest is modified.
+     */
+    private RawImageSpatialIndex getRawImageIndex(RenderedVolumeLocation rvl, @Nullable VolumeManifest volumeManifest) {
+        URI volumeURI = rvl.getBaseStorageLocationURI();
+        long tileBaseModified = rvl.getContentLastModifiedAtRelativePath(DEFAULT_TILED_VOL_BASE_FILE_NAME);
+        long manifestModified = useVolumeManifest ? rvl.getContentLastModifiedAtRelativePath(DEFAULT_VOLUME_MANIFEST_FILE_NAME) : -1L;
+        RawImageIndexEntry rawImageIndexEntry = rawImageIndexes.getIfPresent(volumeURI);
+        if (rawImageIndexEntry != null
+                && rawImageIndexEntry.tileBaseModified == tileBaseModified
+                && rawImageIndexEntry.manifestModified == manifestModified) {
+            return rawImageIndexEntry.rawImageIndex;
+        }
+        LOG.debug("Index raw tiles of {}", volumeURI);
+        RawImageSpatialIndex rawImageIndex = new RawImageSpatialIndex(loadVolumeRawImageTiles(rvl, volumeManifest));
+        rawImageIndexes.put(volumeURI, new RawImageIndexEntry(tileBaseModified, manifestModified, rawImageIndex));
+        return rawImageIndex;
+    }
+
+    /**
+     * Find the raw tile whose center is the closest to the given voxel.
+     */
+    static Optional<RawImage> findClosestRawImage(RawImageSpatialIndex rawImageIndex, RenderedVolumeMetadata rv, int xVoxel, int yVoxel, int zVoxel) {
+        double[] stageCoordInNanos = rv.voxelToMicroscopeNanos(new int[]{xVoxel, yVoxel, zVoxel});
+        return rawImageIndex.findNearest(stageCoordInNanos[0], stageCoordInNanos[1], stageCoordInNanos[2]);
+    }
+
+    static List<RawImage> findRawImagesContainingVoxel(RawImageSpatialIndex rawImageIndex, RenderedVolumeMetadata rv, int xVoxel, int yVoxel, int zVoxel) {
+        double[] stageCoordInNanos = rv.voxelToMicroscopeNanos(new int[]{xVoxel, yVoxel, zVoxel});
+        return rawImageIndex.findContaining(stageCoordInNanos[0], stageCoordInNanos[1], stageCoordInNanos[2]);
     }
 
-    private Double squaredMetricDistance(Double[] p1, Double[] p2) {
-        return Streams.zip(Arrays.stream(p1), Arrays.stream(p2), (p1_coord, p2_coord) -> Math.pow((p1_coord.doubleValue() - p2_coord.doubleValue()), 2.))
-                .reduce(0., (d1, d2) -> d1 + d2);
+    static List<RawImage> findRawImagesIntersectingVoxelBox(RawImageSpatialIndex rawImageIndex, RenderedVolumeMetadata rv, int[] startVoxel, int[] endVoxel) {
+        double[] startCoordInNanos = rv.voxelToMicroscopeNanos(startVoxel);
+        double[] endCoordInNanos = rv.voxelToMicroscopeNanos(endVoxel);
+        return rawImageIndex.findIntersecting(
+                startCoordInNanos[0], startCoordInNanos[1], startCoordInNanos[2],
+                endCoordInNanos[0], endCoordInNanos[1], endCoordInNanos[2]);
     }
 
     @Override
@@ -229,13 +812,24 @@ public class RenderedVolumeLoaderImpl implements RenderedVolumeLoader {
                                                                 int channel, int xCenter, int yCenter, int zCenter,
                                                                 int dimx, int dimy, int dimz) {
         String rawImagePath = rawImage.getRawImagePath(channel, null);
-        return rvl.readTiffImageROIPixels(rawImagePath, xCenter, yCenter, zCenter, dimx, dimy, dimz);
+        if (!coalesceLoads) {
+            return rvl.readTiffImageROIPixels(rawImagePath, xCenter, yCenter, zCenter, dimx, dimy, dimz);
+        }
+        String roiKey = rvl.getContentURIFromAbsolutePath(rawImagePath) + "@" +
+                xCenter + "," + yCenter + "," + zCenter + ":" + dimx + "," + dimy + "," + dimz;
+        byte[] roiBytes = rawImageLoads.load(roiKey,
+                () -> rvl.readTiffImageROIPixels(rawImagePath, xCenter, yCenter, zCenter, dimx, dimy, dimz).getContent());
+        return roiBytes == null ? Streamable.empty() : Streamable.of(roiBytes, roiBytes.length);
     }
 
     @Override
     public List<RawImage> loadVolumeRawImageTiles(RenderedVolumeLocation rvl) {
+        return loadVolumeRawImageTiles(rvl, loadFreshVolumeManifest(rvl));
+    }
+
+    private List<RawImage> loadVolumeRawImageTiles(RenderedVolumeLocation rvl, @Nullable VolumeManifest volumeManifest) {
         try {
-            RawVolData rawVolData = loadRawVolumeData(rvl);
+            RawVolData rawVolData = loadRawVolumeData(rvl, volumeManifest);
             if (rawVolData == null) {
                 LOG.warn("No rawimages info ({}) found at {}", DEFAULT_TILED_VOL_BASE_FILE_NAME, rvl.getBaseStorageLocationURI());
                 return Collections.emptyList();
@@ -278,6 +872,17 @@ public class RenderedVolumeLoaderImpl implements RenderedVolumeLoader {
 
     @Override
     public RawVolData loadRawVolumeData(RenderedVolumeLocation rvl) {
+        return loadRawVolumeData(rvl, loadFreshVolumeManifest(rvl));
+    }
+
+    private RawVolData loadRawVolumeData(RenderedVolumeLocation rvl, @Nullable VolumeManifest volumeManifest) {
+        if (volumeManifest != null && volumeManifest.getRawVolData() != null) {
+            return volumeManifest.getRawVolData();
+        }
+        return readRawVolumeData(rvl);
+    }
+
+    private RawVolData readRawVolumeData(RenderedVolumeLocation rvl) {
         return rvl.getContentFromRelativePath(DEFAULT_TILED_VOL_BASE_FILE_NAME)
                 .consume(tileBaseStream -> {
                     try {
@@ -297,12 +902,4 @@ public class RenderedVolumeLoaderImpl implements RenderedVolumeLoader {
                 ;
     }
 
-    private Double[] convertToMicroscopeCoordInNanos(int[] screenCoord, int[] origin, double[] microsPerVoxel) {
-        Double[] microscopeCoord = new Double[3];
-        for (int i = 0; i < screenCoord.length; i++) {
-            microscopeCoord[i] = (origin[i] + screenCoord[i]) * microsPerVoxel[i] * 1000.;
-        }
-        return microscopeCoord;
-    }
-
 }
@@ -2,10 +2,22 @@ package org.janelia.rendering;
 
 import java.net.URI;
 import java.util.List;
+import java.util.stream.Collectors;
 
 import javax.annotation.Nullable;
 
+import org.janelia.rendering.utils.ImageUtils;
+
 public interface RenderedVolumeLocation extends DataLocation {
+    /**
+     * The URI of the storage the tile textures are read from. Cached and coalesced tile textures are keyed by it
+     * so locations that share the volume's base location but read the tiles from a different storage must override it.
+     * @return
+     */
+    default URI getTileStorageURI() {
+        return getBaseStorageLocationURI();
+    }
+
     /**
      * List image URIs at the specified detail level.
      */
@@ -23,9 +35,91 @@ public interface RenderedVolumeLocation extends DataLocation {
      */
     Streamable<byte[]> readTiffPageAsTexturedBytes(String imageRelativePath, List<String> channelImageNames, int pageNumber);
 
+    /**
+     * Read multiple pages of the same tile image as texture bytes. Implementations may read all pages in a single pass.
+     * @return the page textures in the same order as the page numbers.
+     */
+    default List<Streamable<byte[]>> readTiffPagesAsTexturedBytes(String imageRelativePath, List<String> channelImageNames, List<Integer> pageNumbers) {
+        return pageNumbers.stream()
+                .map(pageNumber -> readTiffPageAsTexturedBytes(imageRelativePath, channelImageNames, pageNumber))
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Read tile image as texture bytes that are written directly to a channel.
+     */
+    default Streamable<ChannelWriter> streamTiffPageAsTexturedBytes(String imageRelativePath, List<String> channelImageNames, int pageNumber) {
+        return ChannelWriter.fromStreamableBytes(readTiffPageAsTexturedBytes(imageRelativePath, channelImageNames, pageNumber));
+    }
+
     /**
      * Read ROI from the raw image.
      * @return
      */
     Streamable<byte[]> readTiffImageROIPixels(String imagePath, int xCenter, int yCenter, int zCenter, int dimx, int dimy, int dimz);
+
+    /**
+     * Read ROI from the raw image downsampled by the given factors along x, y and z.
+     * The size of the result scales with the downsampled ROI not with the source ROI.
+     */
+    default Streamable<byte[]> readDownsampledTiffImageROIPixels(String imagePath,
+                                                                  int xCenter, int yCenter, int zCenter,
+                                                                  int dimx, int dimy, int dimz,
+                                                                  int xFactor, int yFactor, int zFactor,
+                                                                  DownsamplingMethod downsamplingMethod) {
+        return getContentFromAbsolutePath(imagePath)
+                .consume(imageStream -> {
+                    try {
+                        return ImageUtils.loadDownsampledImagePixelBytesFromTiffStream(imageStream,
+                                xCenter, yCenter, zCenter, dimx, dimy, dimz,
+                                xFactor, yFactor, zFactor, downsamplingMethod);
+                    } finally {
+                        try {
+                            imageStream.close();
+                        } catch (Exception ignore) {
+                        }
+                    }
+                }, (bytes, l) -> (long) bytes.length);
+    }
+
+    /**
+     * Read ROI from the raw image writing it directly to a channel. The size of the returned streamable is the number
+     * of bytes that will be written. Implementations may decode the ROI as it is written instead of loading it in memory.
+     */
+    default Streamable<ChannelWriter> streamTiffImageROIPixels(String imagePath, int xCenter, int yCenter, int zCenter, int dimx, int dimy, int dimz) {
+        return ChannelWriter.fromStreamableBytes(readTiffImageROIPixels(imagePath, xCenter, yCenter, zCenter, dimx, dimy, dimz));
+    }
+
+    /**
+     * Project the ROI of the raw image along the given axis. Only the 2D projection is returned; its layout is
+     * described in {@link ImageUtils#projectImagePixelBytesFromTiffStreams}.
+     */
+    default Streamable<byte[]> readTiffImageROIProjection(String imagePath,
+                                                          int xCenter, int yCenter, int zCenter,
+                                                          int dimx, int dimy, int dimz,
+                                                          Coordinate projectionAxis,
+                                                          ProjectionType projectionType) {
+        byte[] projectionBytes = ImageUtils.projectImagePixelBytesFromTiffStreams(
+                NamedSupplier.namedSupplier(imagePath, () -> getContentFromAbsolutePath(imagePath).getContent()),
+                xCenter, yCenter, zCenter, dimx, dimy, dimz,
+                projectionAxis, projectionType,
+                null, Integer.MAX_VALUE);
+        return projectionBytes == null ? Streamable.empty() : Streamable.of(projectionBytes, projectionBytes.length);
+    }
+
+    /**
+     * Same as {@link #readTiffImageROIProjection} but for a tile image given by its path relative to the volume.
+     */
+    default Streamable<byte[]> readTileImageROIProjection(String tileImageRelativePath,
+                                                          int xCenter, int yCenter, int zCenter,
+                                                          int dimx, int dimy, int dimz,
+                                                          Coordinate projectionAxis,
+                                                          ProjectionType projectionType) {
+        byte[] projectionBytes = ImageUtils.projectImagePixelBytesFromTiffStreams(
+                NamedSupplier.namedSupplier(tileImageRelativePath, () -> getContentFromRelativePath(tileImageRelativePath).getContent()),
+                xCenter, yCenter, zCenter, dimx, dimy, dimz,
+                projectionAxis, projectionType,
+                null, Integer.MAX_VALUE);
+        return projectionBytes == null ? Streamable.empty() : Streamable.of(projectionBytes, projectionBytes.length);
+    }
 }
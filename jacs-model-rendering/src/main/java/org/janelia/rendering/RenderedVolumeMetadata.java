@@ -6,8 +6,10 @@ import java.util.List;
 import java.util.Optional;
 
 import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.google.common.base.Preconditions;
 
 import org.apache.commons.lang3.StringUtils;
+import org.janelia.rendering.utils.CoordinateTransform;
 
 public class RenderedVolumeMetadata {
     private String connectionURI;
@@ -140,6 +142,77 @@ public class RenderedVolumeMetadata {
         return Arrays.stream(volumeSizeInVoxels).map(coord -> coord / 2).toArray();
     }
 
+    /**
+     * @return the transform from voxel coordinates to microscope coordinates in microns. The matrix is the same as
+     * the volume's voxel to micron matrix from {@code MatrixUtilities.buildVoxToMicron}.
+     */
+    @JsonIgnore
+    public CoordinateTransform getVoxelToMicronTransform() {
+        return new CoordinateTransform(new double[][] {
+                {micromsPerVoxel[0], 0.0, 0.0, originVoxel[0] * micromsPerVoxel[0]},
+                {0.0, micromsPerVoxel[1], 0.0, originVoxel[1] * micromsPerVoxel[1]},
+                {0.0, 0.0, micromsPerVoxel[2], originVoxel[2] * micromsPerVoxel[2]}
+        });
+    }
+
+    /**
+     * @return the transform from microscope coordinates in microns to voxel coordinates. The matrix is the same as
+     * the volume's micron to voxel matrix from {@code MatrixUtilities.buildMicronToVox}.
+     */
+    @JsonIgnore
+    public CoordinateTransform getMicronToVoxelTransform() {
+        return new CoordinateTransform(new double[][] {
+                {1.0 / micromsPerVoxel[0], 0.0, 0.0, -originVoxel[0]},
+                {0.0, 1.0 / micromsPerVoxel[1], 0.0, -originVoxel[1]},
+                {0.0, 0.0, 1.0 / micromsPerVoxel[2], -originVoxel[2]}
+        });
+    }
+
+    /**
+     * @param voxelCoords interleaved x, y, z voxel coordinates
+     * @return the interleaved x, y, z microscope coordinates in microns
+     */
+    public double[] voxelsToMicrons(double[] voxelCoords) {
+        return getVoxelToMicronTransform().transformPoints(voxelCoords);
+    }
+
+    /**
+     * @param micronCoords interleaved x, y, z microscope coordinates in microns
+     * @return the interleaved x, y, z voxel coordinates
+     */
+    public double[] micronsToVoxels(double[] micronCoords) {
+        return getMicronToVoxelTransform().transformPoints(micronCoords);
+    }
+
+    /**
+     * @param voxelCoord x, y, z voxel coordinates
+     * @return the x, y, z microscope coordinates in nanometers
+     */
+    public double[] voxelToMicroscopeNanos(int[] voxelCoord) {
+        double[] microscopeCoord = new double[3];
+        for (int i = 0; i < voxelCoord.length; i++) {
+            microscopeCoord[i] = (originVoxel[i] + voxelCoord[i]) * micromsPerVoxel[i] * 1000.;
+        }
+        return microscopeCoord;
+    }
+
+    /**
+     * Batch version of {@link #voxelToMicroscopeNanos(int[])}.
+     *
+     * @param voxelCoords interleaved x, y, z voxel coordinates
+     * @return the interleaved x, y, z microscope coordinates in nanometers
+     */
+    public double[] voxelsToMicroscopeNanos(double[] voxelCoords) {
+        Preconditions.checkArgument(voxelCoords.length % 3 == 0, "The number of coordinates %s is not a multiple of 3", voxelCoords.length);
+        double[] microscopeCoords = new double[voxelCoords.length];
+        for (int i = 0; i < voxelCoords.length; i += 3) {
+            microscopeCoords[i] = (originVoxel[0] + voxelCoords[i]) * micromsPerVoxel[0] * 1000.;
+            microscopeCoords[i + 1] = (originVoxel[1] + voxelCoords[i + 1]) * micromsPerVoxel[1] * 1000.;
+            microscopeCoords[i + 2] = (originVoxel[2] + voxelCoords[i + 2]) * micromsPerVoxel[2] * 1000.;
+        }
+        return microscopeCoords;
+    }
+
     public Optional<String> getRelativeTilePath(TileKey tileKey) {
         int depth = numZoomLevels - tileKey.getZoom();
         if (depth < 0) {
@@ -0,0 +1,20 @@
+package org.janelia.rendering;
+
+/**
+ * Sink for the stage timings of the rendering requests. Implementations are called concurrently from all
+ * threads that serve requests so they must be thread safe and cheap.
+ */
+public interface RenderingMetrics {
+
+    /**
+     * Metrics that discard everything.
+     */
+    RenderingMetrics NOOP = (stage, elapsedNanos, bytes) -> {};
+
+    /**
+     * @param stage
+     * @param elapsedNanos time spent in the stage
+     * @param bytes bytes produced by the stage or 0 if the stage does not produce any content
+     */
+    void recordStage(RenderingStage stage, long elapsedNanos, long bytes);
+}
@@ -0,0 +1,51 @@
+package org.janelia.rendering;
+
+/**
+ * Stages of a rendering request that are timed separately - see {@link RenderingMetrics}.
+ */
+public enum RenderingStage {
+    /**
+     * Listing the octree images of a volume location.
+     */
+    LIST_IMAGES("listImages"),
+    /**
+     * Opening the image stream or file channel.
+     */
+    OPEN_STREAM("openStream"),
+    /**
+     * Walking the TIFF image file directories to locate the requested page. Without a TIFF index JAI reads the
+     * directories when the image is first used so most of that time is attributed to the band merge.
+     */
+    READ_IFD("readIFD"),
+    /**
+     * Decoding the page pixels. JAI decodes lazily so for the sequential channel decoding this also includes
+     * computing the band merged pixels.
+     */
+    DECODE("decode"),
+    /**
+     * Setting up the band merge of the channel images.
+     */
+    BAND_MERGE("bandMerge"),
+    /**
+     * Packing the pixels into the texture layout.
+     */
+    TEXTURE_PACK("texturePack"),
+    /**
+     * Encoding the texture payload.
+     */
+    ENCODE("encode"),
+    /**
+     * The entire request.
+     */
+    REQUEST("request");
+
+    private final String label;
+
+    RenderingStage(String label) {
+        this.label = label;
+    }
+
+    public String getLabel() {
+        return label;
+    }
+}
@@ -0,0 +1,46 @@
+package org.janelia.rendering;
+
+import javax.annotation.Nullable;
+
+/**
+ * Cache for the texture bytes of rendered tiles.
+ */
+public interface TextureCache {
+    /**
+     * Retrieve the cached texture bytes. The returned array is not shared with the cache so the caller may modify it.
+     *
+     * @param key texture key
+     * @return the texture bytes or null if the texture is not in the cache
+     */
+    @Nullable byte[] get(TextureCacheKey key);
+
+    /**
+     * Check if the texture is in the cache without affecting the cache statistics or the eviction order.
+     *
+     * @param key texture key
+     * @return true if the texture is in the cache
+     */
+    boolean contains(TextureCacheKey key);
+
+    /**
+     * Add the texture bytes to the cache. The cache keeps its own copy of the bytes.
+     *
+     * @param key texture key
+     * @param textureBytes texture bytes
+     */
+    void put(TextureCacheKey key, byte[] textureBytes);
+
+    /**
+     * Remove all entries from the cache.
+     */
+    void invalidateAll();
+
+    long getHitCount();
+
+    long getMissCount();
+
+    /**
+     * @return current cache size in bytes
+     */
+    long getSizeInBytes();
+}
@@ -0,0 +1,78 @@
+package org.janelia.rendering;
+
+import java.net.URI;
+
+import org.apache.commons.lang3.builder.EqualsBuilder;
+import org.apache.commons.lang3.builder.HashCodeBuilder;
+import org.apache.commons.lang3.builder.ToStringBuilder;
+
+/**
+ * Identifies a rendered tile texture by the storage the volume's tiles are read from, the tile key and
+ * the modification time of the tile's image files, so a tile image rewritten in place is not served
+ * from a texture cached before the rewrite.
+ */
+public class TextureCacheKey {
+    private final URI volumeBaseURI;
+    private final TileKey tileKey;
+    private final long sourceLastModified;
+
+    public TextureCacheKey(URI volumeBaseURI, TileKey tileKey) {
+        this(volumeBaseURI, tileKey, -1L);
+    }
+
+    /**
+     * @param volumeBaseURI
+     * @param tileKey
+     * @param sourceLastModified latest modification time of the tile's image files or -1 if it is not known
+     */
+    public TextureCacheKey(URI volumeBaseURI, TileKey tileKey, long sourceLastModified) {
+        this.volumeBaseURI = volumeBaseURI;
+        this.tileKey = tileKey;
+        this.sourceLastModified = sourceLastModified;
+    }
+
+    public URI getVolumeBaseURI() {
+        return volumeBaseURI;
+    }
+
+    public TileKey getTileKey() {
+        return tileKey;
+    }
+
+    public long getSourceLastModified() {
+        return sourceLastModified;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+
+        if (o == null || getClass() != o.getClass()) return false;
+
+        TextureCacheKey that = (TextureCacheKey) o;
+
+        return new EqualsBuilder()
+                .append(volumeBaseURI, that.volumeBaseURI)
+                .append(tileKey, that.tileKey)
+                .append(sourceLastModified, that.sourceLastModified)
+                .isEquals();
+    }
+
+    @Override
+    public int hashCode() {
+        return new HashCodeBuilder(17, 37)
+                .append(volumeBaseURI)
+                .append(tileKey)
+                .append(sourceLastModified)
+                .toHashCode();
+    }
+
+    @Override
+    public String toString() {
+        return new ToStringBuilder(this)
+                .append("volumeBaseURI", volumeBaseURI)
+                .append("tileKey", tileKey)
+                .append("sourceLastModified", sourceLastModified)
+                .toString();
+    }
+}
@@ -0,0 +1,20 @@
+package org.janelia.rendering;
+
+/**
+ * Payload encoding of slice textures. Every encoding other than {@link #RAW} prefixes the payload with a header
+ * that identifies the encoding - see {@link org.janelia.rendering.utils.TextureCodec}.
+ */
+public enum TextureEncoding {
+    /**
+     * Texture bytes as they are produced by the loader without any header.
+     */
+    RAW,
+    /**
+     * Runs of zero bytes are replaced by their length; cheap and effective for tiles that are mostly background.
+     */
+    ZERO_RLE,
+    /**
+     * zlib deflate with the fastest compression level.
+     */
+    DEFLATE
+}
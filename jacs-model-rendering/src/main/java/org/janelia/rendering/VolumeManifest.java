@@ -0,0 +1,106 @@
+package org.janelia.rendering;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import org.janelia.rendering.ymlrepr.RawVolData;
+
+/**
+ * Precomputed description of a rendered volume stored at the volume root so that the volume can be opened
+ * without listing the octree and without reading any TIFF header. The manifest records the content of the transform
+ * file, the tile info for every slice axis, the names of the octree images at the top level and the raw tiles.
+ * A manifest is considered fresh as long as none of the transform file, the tilebase file, the top level octree
+ * images or the octree level directories was modified after the manifest. Rewriting octree images deeper in the
+ * octree does not change any of these so the manifest must be regenerated explicitly whenever the octree is rewritten.
+ */
+public class VolumeManifest {
+
+    public static final int CURRENT_VERSION = 1;
+
+    // the mapper is thread safe once configured so there's no need to create one for every manifest
+    private static final ObjectMapper MANIFEST_MAPPER = new ObjectMapper()
+            .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+
+    public static VolumeManifest readFrom(InputStream manifestStream) throws IOException {
+        if (manifestStream == null) {
+            return null;
+        }
+        return MANIFEST_MAPPER.readValue(manifestStream, VolumeManifest.class);
+    }
+
+    private int version = CURRENT_VERSION;
+    private String transform;
+    private TileInfo[] tileInfos; // indexed by the slice axis
+    private List<String> octreeImageNames;
+    private RawVolData rawVolData;
+
+    public int getVersion() {
+        return version;
+    }
+
+    public void setVersion(int version) {
+        this.version = version;
+    }
+
+    public String getTransform() {
+        return transform;
+    }
+
+    public void setTransform(String transform) {
+        this.transform = transform;
+    }
+
+    public TileInfo[] getTileInfos() {
+        return tileInfos;
+    }
+
+    public void setTileInfos(TileInfo[] tileInfos) {
+        this.tileInfos = tileInfos;
+    }
+
+    public List<String> getOctreeImageNames() {
+        return octreeImageNames;
+    }
+
+    public void setOctreeImageNames(List<String> octreeImageNames) {
+        this.octreeImageNames = octreeImageNames;
+    }
+
+    public RawVolData getRawVolData() {
+        return rawVolData;
+    }
+
+    public void setRawVolData(RawVolData rawVolData) {
+        this.rawVolData = rawVolData;
+    }
+
+    public void writeTo(OutputStream manifestStream) throws IOException {
+        MANIFEST_MAPPER.writeValue(manifestStream, this);
+    }
+
+    /**
+     * Write the manifest to the given file replacing it atomically.
+     *
+     * @param manifestPath
+     * @throws IOException
+     */
+    public void writeTo(Path manifestPath) throws IOException {
+        Path tmpManifestPath = manifestPath.resolveSibling(manifestPath.getFileName() + ".tmp");
+        try {
+            try (OutputStream manifestStream = Files.newOutputStream(tmpManifestPath)) {
+                writeTo(manifestStream);
+            }
+            Files.move(tmpManifestPath, manifestPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmpManifestPath);
+        }
+    }
+}
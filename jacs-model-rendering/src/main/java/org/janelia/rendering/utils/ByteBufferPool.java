@@ -0,0 +1,122 @@
+package org.janelia.rendering.utils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Pool of fixed size direct byte buffers used for staging data that is written to or read from channels. Buffers are allocated on
+ * demand and at most maxPooledBuffers are retained after they are released, so the memory held by the pool is bounded.
+ */
+public class ByteBufferPool {
+
+    private static final int DEFAULT_BUFFER_SIZE = 1024 * 1024;
+    private static final int DEFAULT_MAX_POOLED_BUFFERS = 16;
+
+    private static final ByteBufferPool DEFAULT_INSTANCE = new ByteBufferPool(DEFAULT_BUFFER_SIZE, DEFAULT_MAX_POOLED_BUFFERS);
+
+    /**
+     * @return a shared pool of 1MB buffers
+     */
+    public static ByteBufferPool getDefaultInstance() {
+        return DEFAULT_INSTANCE;
+    }
+
+    private final int bufferSize;
+    private final BlockingQueue<ByteBuffer> pooledBuffers;
+
+    /**
+     * @param bufferSize size of every buffer in bytes
+     * @param maxPooledBuffers maximum number of released buffers kept for reuse
+     */
+    public ByteBufferPool(int bufferSize, int maxPooledBuffers) {
+        Preconditions.checkArgument(bufferSize > 0, "Buffer size must be positive");
+        Preconditions.checkArgument(maxPooledBuffers > 0, "The number of pooled buffers must be positive");
+        this.bufferSize = bufferSize;
+        this.pooledBuffers = new ArrayBlockingQueue<>(maxPooledBuffers);
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    /**
+     * @return a cleared direct buffer either from the pool or newly allocated if the pool is empty.
+     */
+    public ByteBuffer acquire() {
+        ByteBuffer buffer = pooledBuffers.poll();
+        if (buffer == null) {
+            return ByteBuffer.allocateDirect(bufferSize);
+        } else {
+            buffer.clear();
+            return buffer;
+        }
+    }
+
+    /**
+     * Return the buffer to the pool. Buffers that were not acquired from this pool are ignored.
+     *
+     * @param buffer
+     */
+    public void release(ByteBuffer buffer) {
+        if (buffer != null && buffer.isDirect() && buffer.capacity() == bufferSize) {
+            pooledBuffers.offer(buffer);
+        }
+    }
+
+    /**
+     * Write the given bytes to the channel staging them through a pooled direct buffer.
+     *
+     * @return the number of bytes written.
+     */
+    public long write(byte[] bytes, int offset, int length, WritableByteChannel channel) throws IOException {
+        ByteBuffer buffer = acquire();
+        try {
+            long nbytes = 0;
+            for (int pos = offset; pos < offset + length; ) {
+                int chunkSize = Math.min(bufferSize, offset + length - pos);
+                buffer.clear();
+                buffer.put(bytes, pos, chunkSize);
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    nbytes += channel.write(buffer);
+                }
+                pos += chunkSize;
+            }
+            return nbytes;
+        } finally {
+            release(buffer);
+        }
+    }
+
+    /**
+     * Read bytes from the given file position into the array staging them through a pooled direct buffer.
+     *
+     * @return the number of bytes read, which is less than length only if the end of the file was reached.
+     */
+    public int read(FileChannel channel, long position, byte[] bytes, int offset, int length) throws IOException {
+        ByteBuffer buffer = acquire();
+        try {
+            int nbytes = 0;
+            while (nbytes < length) {
+                buffer.clear();
+                buffer.limit(Math.min(bufferSize, length - nbytes));
+                int n = channel.read(buffer, position + nbytes);
+                if (n < 0) {
+                    break;
+                }
+                buffer.flip();
+                buffer.get(bytes, offset + nbytes, n);
+                nbytes += n;
+            }
+            return nbytes;
+        } finally {
+            release(buffer);
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package org.janelia.rendering.utils;
+
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nullable;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
+/**
+ * Fixed size cache of decoded chunks of {@link ChunkedDataset}s keyed by the dataset path and the chunk position.
+ * Chunks that do not exist are cached as well so that sparse datasets do not hit the storage for every empty chunk.
+ */
+public class ChunkCache {
+
+    private static final long DEFAULT_CAPACITY_IN_BYTES = 256L * 1024 * 1024;
+    private static final byte[] MISSING_CHUNK = new byte[0];
+
+    private static final ChunkCache DEFAULT_INSTANCE = new ChunkCache(DEFAULT_CAPACITY_IN_BYTES);
+
+    private static class ChunkKey {
+        private final String datasetKey;
+        private final long[] gridPosition;
+
+        private ChunkKey(String datasetKey, long[] gridPosition) {
+            this.datasetKey = datasetKey;
+            this.gridPosition = gridPosition;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            ChunkKey chunkKey = (ChunkKey) o;
+            return datasetKey.equals(chunkKey.datasetKey) && Arrays.equals(gridPosition, chunkKey.gridPosition);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(datasetKey, Arrays.hashCode(gridPosition));
+        }
+    }
+
+    /**
+     * @return a shared chunk cache that holds up to 256MB
+     */
+    public static ChunkCache getDefaultInstance() {
+        return DEFAULT_INSTANCE;
+    }
+
+    private final Cache<ChunkKey, byte[]> chunks;
+    private final AtomicLong hitCount = new AtomicLong(0);
+    private final AtomicLong missCount = new AtomicLong(0);
+
+    /**
+     * @param capacityInBytes maximum size of all cached chunks
+     */
+    public ChunkCache(long capacityInBytes) {
+        Preconditions.checkArgument(capacityInBytes > 0, "Chunk cache capacity must be positive");
+        this.chunks = CacheBuilder.newBuilder()
+                .maximumWeight(capacityInBytes)
+                // count missing chunks as well so that the number of entries is bounded too
+                .weigher((ChunkKey k, byte[] chunk) -> Math.max(chunk.length, 64))
+                .build();
+    }
+
+    /**
+     * Get a decoded chunk reading it from the dataset if it's not in the cache. Concurrent requests for the same chunk
+     * only read it once.
+     *
+     * @param dataset
+     * @param gridPosition chunk position in x, y, z order
+     * @return the chunk as returned by {@link ChunkedDataset#readChunk} or null if the chunk does not exist
+     */
+    @Nullable
+    public byte[] getChunk(ChunkedDataset dataset, long[] gridPosition) {
+        long[] chunkPosition = gridPosition.clone();
+        ChunkKey chunkKey = new ChunkKey(dataset.getDatasetPath().toString(), chunkPosition);
+        byte[] chunk = chunks.getIfPresent(chunkKey);
+        if (chunk != null) {
+            hitCount.incrementAndGet();
+        } else {
+            try {
+                chunk = chunks.get(chunkKey, () -> {
+                    missCount.incrementAndGet();
+                    byte[] chunkBytes = dataset.readChunk(chunkPosition);
+                    return chunkBytes != null ? chunkBytes : MISSING_CHUNK;
+                });
+            } catch (ExecutionException | UncheckedExecutionException e) {
+                Throwables.throwIfUnchecked(e.getCause());
+                throw new IllegalStateException(e.getCause());
+            }
+        }
+        return chunk == MISSING_CHUNK ? null : chunk;
+    }
+
+    /**
+     * Discard the cached chunks of the given dataset, e.g. after the dataset was rewritten.
+     *
+     * @param dataset
+     */
+    public void invalidate(ChunkedDataset dataset) {
+        String datasetKey = dataset.getDatasetPath().toString();
+        chunks.asMap().keySet().removeIf(chunkKey -> chunkKey.datasetKey.equals(datasetKey));
+    }
+
+    public void invalidateAll() {
+        chunks.invalidateAll();
+    }
+
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    public long getMissCount() {
+        return missCount.get();
+    }
+}
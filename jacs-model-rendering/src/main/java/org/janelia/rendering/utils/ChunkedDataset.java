@@ -0,0 +1,592 @@
+package org.janelia.rendering.utils;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import javax.annotation.Nullable;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.base.Preconditions;
+import com.google.common.io.ByteStreams;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A 3D unsigned 8-bit or 16-bit dataset stored as chunks in a local N5 or Zarr (v2) container. Both formats
+ * are exposed with the dimensions in x, y, z order - Zarr stores them in reverse, i.e. z, y, x - and chunk content
+ * is always returned as little endian samples, x varying fastest, padded to the full chunk size.
+ * Chunks can be stored raw or gzip/zlib compressed. A chunk that does not exist is treated as filled with zeros.
+ */
+public class ChunkedDataset {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ChunkedDataset.class);
+    private static final ObjectMapper METADATA_MAPPER = new ObjectMapper();
+    private static final String N5_ATTRIBUTES_FILE = "attributes.json";
+    private static final String ZARR_ARRAY_FILE = ".zarray";
+    private static final String ZARR_GROUP_FILE = ".zgroup";
+    private static final int N5_DEFAULT_MODE = 0;
+    private static final int N5_VARLENGTH_MODE = 1;
+
+    public enum Format {
+        N5,
+        ZARR
+    }
+
+    public enum Compression {
+        RAW,
+        GZIP,
+        ZLIB
+    }
+
+    /**
+     * Lets the compressing streams finish without closing the chunk stream.
+     */
+    private static class NonClosingOutputStream extends FilterOutputStream {
+        NonClosingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
+    }
+
+    /**
+     * Open the dataset at the given path.
+     *
+     * @param datasetPath
+     * @return the dataset or null if there's no N5 or Zarr array at the given path.
+     */
+    @Nullable
+    public static ChunkedDataset open(Path datasetPath) {
+        try {
+            Path n5AttributesPath = datasetPath.resolve(N5_ATTRIBUTES_FILE);
+            Path zarrArrayPath = datasetPath.resolve(ZARR_ARRAY_FILE);
+            if (Files.exists(zarrArrayPath)) {
+                return readZarrMetadata(datasetPath, METADATA_MAPPER.readTree(zarrArrayPath.toFile()));
+            } else if (Files.exists(n5AttributesPath)) {
+                JsonNode attributes = METADATA_MAPPER.readTree(n5AttributesPath.toFile());
+                // group attributes have no dimensions
+                return attributes.has("dimensions") ? readN5Metadata(datasetPath, attributes) : null;
+            } else {
+                return null;
+            }
+        } catch (IOException e) {
+            LOG.error("Error reading chunked dataset metadata from {}", datasetPath, e);
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Create a new dataset at the given path or overwrite the metadata of an existing one.
+     *
+     * @param datasetPath
+     * @param format
+     * @param dims dataset size in x, y, z order
+     * @param blockSize chunk size in x, y, z order
+     * @param bytesPerSample 1 or 2
+     * @param compression
+     * @return
+     */
+    public static ChunkedDataset create(Path datasetPath, Format format, long[] dims, int[] blockSize, int bytesPerSample, Compression compression) {
+        Preconditions.checkArgument(dims.length == 3 && blockSize.length == 3, "Only 3D datasets are supported");
+        Preconditions.checkArgument(bytesPerSample == 1 || bytesPerSample == 2, "Only 8-bit and 16-bit datasets are supported");
+        ChunkedDataset dataset = new ChunkedDataset(datasetPath, format, dims, blockSize, bytesPerSample, compression,
+                format == Format.N5 ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN, ".");
+        try {
+            Files.createDirectories(datasetPath);
+            if (format == Format.N5) {
+                writeMetadata(datasetPath.resolve(N5_ATTRIBUTES_FILE), dataset.n5Metadata());
+            } else {
+                writeMetadata(datasetPath.resolve(ZARR_ARRAY_FILE), dataset.zarrMetadata());
+            }
+            return dataset;
+        } catch (IOException e) {
+            LOG.error("Error creating chunked dataset {}", datasetPath, e);
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Mark the given directory as a group of the container in the given format.
+     *
+     * @param groupPath
+     * @param format
+     */
+    public static void createGroup(Path groupPath, Format format) {
+        try {
+            Files.createDirectories(groupPath);
+            ObjectNode groupMetadata = METADATA_MAPPER.createObjectNode();
+            if (format == Format.N5) {
+                if (!Files.exists(groupPath.resolve(N5_ATTRIBUTES_FILE))) {
+                    writeMetadata(groupPath.resolve(N5_ATTRIBUTES_FILE), groupMetadata.put("n5", "2.0.0"));
+                }
+            } else {
+                writeMetadata(groupPath.resolve(ZARR_GROUP_FILE), groupMetadata.put("zarr_format", 2));
+            }
+        } catch (IOException e) {
+            LOG.error("Error creating chunked dataset group {}", groupPath, e);
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static ChunkedDataset readN5Metadata(Path datasetPath, JsonNode attributes) {
+        long[] dims = readLongs(attributes.get("dimensions"));
+        int[] blockSize = Arrays.stream(readLongs(attributes.get("blockSize"))).mapToInt(l -> (int) l).toArray();
+        int bytesPerSample = getBytesPerSample(datasetPath, attributes.path("dataType").asText());
+        Compression compression;
+        JsonNode compressionNode = attributes.get("compression");
+        String compressionType = compressionNode != null
+                ? compressionNode.path("type").asText("raw")
+                : attributes.path("compressionType").asText("raw"); // attribute used by older N5 versions
+        if ("raw".equals(compressionType)) {
+            compression = Compression.RAW;
+        } else if ("gzip".equals(compressionType)) {
+            compression = compressionNode != null && compressionNode.path("useZlib").asBoolean(false) ? Compression.ZLIB : Compression.GZIP;
+        } else {
+            throw new IllegalArgumentException("Unsupported N5 compression " + compressionType + " for " + datasetPath);
+        }
+        checkDimensions(datasetPath, dims, blockSize);
+        return new ChunkedDataset(datasetPath, Format.N5, dims, blockSize, bytesPerSample, compression, ByteOrder.BIG_ENDIAN, "/");
+    }
+
+    private static ChunkedDataset readZarrMetadata(Path datasetPath, JsonNode zarray) {
+        long[] zyxDims = readLongs(zarray.get("shape"));
+        long[] zyxChunks = readLongs(zarray.get("chunks"));
+        String dtype = zarray.path("dtype").asText();
+        Preconditions.checkArgument(dtype.length() == 3, "Unsupported Zarr dtype %s for %s", dtype, datasetPath);
+        int bytesPerSample = getBytesPerSample(datasetPath, "uint" + (8 * Integer.parseInt(dtype.substring(2))));
+        Preconditions.checkArgument(dtype.charAt(1) == 'u', "Unsupported Zarr dtype %s for %s", dtype, datasetPath);
+        Preconditions.checkArgument("C".equals(zarray.path("order").asText("C")), "Only C order Zarr arrays are supported - %s", datasetPath);
+        Preconditions.checkArgument(zarray.path("fill_value").asLong(0) == 0, "Only Zarr arrays filled with 0 are supported - %s", datasetPath);
+        Preconditions.checkArgument(zarray.path("filters").isNull() || zarray.path("filters").isMissingNode() || zarray.path("filters").size() == 0,
+                "Zarr filters are not supported - %s", datasetPath);
+        Compression compression;
+        JsonNode compressor = zarray.get("compressor");
+        if (compressor == null || compressor.isNull()) {
+            compression = Compression.RAW;
+        } else if ("gzip".equals(compressor.path("id").asText())) {
+            compression = Compression.GZIP;
+        } else if ("zlib".equals(compressor.path("id").asText())) {
+            compression = Compression.ZLIB;
+        } else {
+            throw new IllegalArgumentException("Unsupported Zarr compressor " + compressor + " for " + datasetPath);
+        }
+        long[] dims = reverse(zyxDims);
+        int[] blockSize = Arrays.stream(reverse(zyxChunks)).mapToInt(l -> (int) l).toArray();
+        checkDimensions(datasetPath, dims, blockSize);
+        return new ChunkedDataset(datasetPath, Format.ZARR, dims, blockSize, bytesPerSample, compression,
+                dtype.charAt(0) == '>' ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN,
+                zarray.path("dimension_separator").asText("."));
+    }
+
+    private static int getBytesPerSample(Path datasetPath, String dataType) {
+        switch (dataType) {
+            case "uint8":
+                return 1;
+            case "uint16":
+                return 2;
+            default:
+                throw new IllegalArgumentException("Unsupported data type " + dataType + " for " + datasetPath);
+        }
+    }
+
+    private static void checkDimensions(Path datasetPath, long[] dims, int[] blockSize) {
+        Preconditions.checkArgument(dims.length == 3 && blockSize.length == 3, "Only 3D datasets are supported - %s", datasetPath);
+        Preconditions.checkArgument(Arrays.stream(blockSize).allMatch(s -> s > 0), "Invalid chunk size for %s", datasetPath);
+    }
+
+    private static long[] readLongs(JsonNode arrayNode) {
+        long[] values = new long[arrayNode.size()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = arrayNode.get(i).asLong();
+        }
+        return values;
+    }
+
+    private static long[] reverse(long[] values) {
+        long[] reversed = new long[values.length];
+        for (int i = 0; i < values.length; i++) {
+            reversed[i] = values[values.length - 1 - i];
+        }
+        return reversed;
+    }
+
+    private static void writeMetadata(Path metadataPath, JsonNode metadata) throws IOException {
+        Path tmpMetadataPath = metadataPath.resolveSibling(metadataPath.getFileName() + ".tmp");
+        METADATA_MAPPER.writerWithDefaultPrettyPrinter().writeValue(tmpMetadataPath.toFile(), metadata);
+        Files.move(tmpMetadataPath, metadataPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private final Path datasetPath;
+    private final Format format;
+    private final long[] dims;
+    private final int[] blockSize;
+    private final int bytesPerSample;
+    private final Compression compression;
+    private final ByteOrder byteOrder;
+    private final String separator;
+
+    private ChunkedDataset(Path datasetPath, Format format, long[] dims, int[] blockSize, int bytesPerSample,
+                           Compression compression, ByteOrder byteOrder, String separator) {
+        this.datasetPath = datasetPath;
+        this.format = format;
+        this.dims = dims.clone();
+        this.blockSize = blockSize.clone();
+        this.bytesPerSample = bytesPerSample;
+        this.compression = compression;
+        this.byteOrder = byteOrder;
+        this.separator = separator;
+    }
+
+    public Path getDatasetPath() {
+        return datasetPath;
+    }
+
+    public Format getFormat() {
+        return format;
+    }
+
+    /**
+     * @return dataset size in x, y, z order
+     */
+    public long[] getDims() {
+        return dims.clone();
+    }
+
+    /**
+     * @return chunk size in x, y, z order
+     */
+    public int[] getBlockSize() {
+        return blockSize.clone();
+    }
+
+    public int getBytesPerSample() {
+        return bytesPerSample;
+    }
+
+    public Compression getCompression() {
+        return compression;
+    }
+
+    /**
+     * @return the number of bytes of a decoded chunk
+     */
+    public int getChunkByteSize() {
+        return blockSize[0] * blockSize[1] * blockSize[2] * bytesPerSample;
+    }
+
+    /**
+     * @param gridPosition chunk position in x, y, z order
+     * @return the path of the chunk file
+     */
+    public Path getChunkPath(long[] gridPosition) {
+        if (format == Format.N5) {
+            return datasetPath.resolve(gridPosition[0] + "/" + gridPosition[1] + "/" + gridPosition[2]);
+        } else {
+            return datasetPath.resolve(gridPosition[2] + separator + gridPosition[1] + separator + gridPosition[0]);
+        }
+    }
+
+    /**
+     * Read and decode a chunk.
+     *
+     * @param gridPosition chunk position in x, y, z order
+     * @return the chunk samples in little endian order padded to the full chunk size or null if the chunk does not exist
+     */
+    @Nullable
+    public byte[] readChunk(long[] gridPosition) {
+        Path chunkPath = getChunkPath(gridPosition);
+        byte[] chunkFileContent;
+        try {
+            chunkFileContent = Files.readAllBytes(chunkPath);
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            LOG.error("Error reading chunk {}", chunkPath, e);
+            throw new IllegalStateException(e);
+        }
+        try {
+            if (format == Format.N5) {
+                return decodeN5Chunk(chunkFileContent);
+            } else {
+                byte[] chunkBytes = decompress(new ByteArrayInputStream(chunkFileContent), getChunkByteSize());
+                toLittleEndian(chunkBytes, chunkBytes.length);
+                return chunkBytes;
+            }
+        } catch (IOException e) {
+            LOG.error("Error decoding chunk {}", chunkPath, e);
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Encode and write a chunk. The chunk is written to a temporary file that is then moved in place so readers
+     * never see a partially written chunk.
+     *
+     * @param gridPosition chunk position in x, y, z order
+     * @param chunkBytes little endian samples of the full chunk; for N5 the part of an edge chunk that is outside
+     *                   of the dataset is not stored
+     */
+    public void writeChunk(long[] gridPosition, byte[] chunkBytes) {
+        Preconditions.checkArgument(chunkBytes.length == getChunkByteSize(), "Invalid chunk size %s", chunkBytes.length);
+        Path chunkPath = getChunkPath(gridPosition);
+        Path tmpChunkPath = chunkPath.resolveSibling(chunkPath.getFileName() + ".tmp");
+        try {
+            Files.createDirectories(chunkPath.getParent());
+            try (OutputStream chunkStream = Files.newOutputStream(tmpChunkPath)) {
+                if (format == Format.N5) {
+                    encodeN5Chunk(gridPosition, chunkBytes, chunkStream);
+                } else {
+                    byte[] storedBytes = chunkBytes.clone();
+                    toLittleEndian(storedBytes, storedBytes.length); // swapping is symmetric
+                    writeCompressed(storedBytes, storedBytes.length, chunkStream);
+                }
+            }
+            Files.move(tmpChunkPath, chunkPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            LOG.error("Error writing chunk {}", chunkPath, e);
+            throw new IllegalStateException(e);
+        } finally {
+            try {
+                Files.deleteIfExists(tmpChunkPath);
+            } catch (IOException ignore) {
+            }
+        }
+    }
+
+    /**
+     * Read a region of the dataset. The parts of the region that are outside of the dataset or in chunks
+     * that do not exist are filled with zeros.
+     *
+     * @param offset region start in x, y, z order
+     * @param size region size in x, y, z order
+     * @param dest destination of the little endian region samples, x varying fastest
+     * @param chunkCache cache of decoded chunks; if null the chunks are always read from the storage
+     * @return the number of existing chunks that overlap the region
+     */
+    public int readRegion(long[] offset, int[] size, byte[] dest, @Nullable ChunkCache chunkCache) {
+        Preconditions.checkArgument(dest.length >= size[0] * size[1] * size[2] * bytesPerSample, "Destination is too small");
+        Arrays.fill(dest, 0, size[0] * size[1] * size[2] * bytesPerSample, (byte) 0);
+        long[] start = new long[3];
+        long[] end = new long[3];
+        for (int d = 0; d < 3; d++) {
+            start[d] = Math.max(0, offset[d]);
+            end[d] = Math.min(dims[d], offset[d] + size[d]);
+            if (start[d] >= end[d]) {
+                return 0;
+            }
+        }
+        int existingChunks = 0;
+        long[] gridPosition = new long[3];
+        for (gridPosition[2] = start[2] / blockSize[2]; gridPosition[2] * blockSize[2] < end[2]; gridPosition[2]++) {
+            for (gridPosition[1] = start[1] / blockSize[1]; gridPosition[1] * blockSize[1] < end[1]; gridPosition[1]++) {
+                for (gridPosition[0] = start[0] / blockSize[0]; gridPosition[0] * blockSize[0] < end[0]; gridPosition[0]++) {
+                    byte[] chunkBytes = chunkCache != null ? chunkCache.getChunk(this, gridPosition) : readChunk(gridPosition);
+                    if (chunkBytes != null) {
+                        existingChunks++;
+                        copyChunkRegion(gridPosition, chunkBytes, start, end, offset, size, dest);
+                    }
+                }
+            }
+        }
+        return existingChunks;
+    }
+
+    private void copyChunkRegion(long[] gridPosition, byte[] chunkBytes, long[] start, long[] end, long[] offset, int[] size, byte[] dest) {
+        long[] chunkStart = new long[3];
+        long[] copyStart = new long[3];
+        long[] copyEnd = new long[3];
+        for (int d = 0; d < 3; d++) {
+            chunkStart[d] = gridPosition[d] * blockSize[d];
+            copyStart[d] = Math.max(start[d], chunkStart[d]);
+            copyEnd[d] = Math.min(end[d], chunkStart[d] + blockSize[d]);
+        }
+        int rowBytes = (int) (copyEnd[0] - copyStart[0]) * bytesPerSample;
+        for (long z = copyStart[2]; z < copyEnd[2]; z++) {
+            for (long y = copyStart[1]; y < copyEnd[1]; y++) {
+                int srcOffset = (int) ((((z - chunkStart[2]) * blockSize[1] + (y - chunkStart[1])) * blockSize[0] + (copyStart[0] - chunkStart[0])) * bytesPerSample);
+                int destOffset = (int) ((((z - offset[2]) * size[1] + (y - offset[1])) * size[0] + (copyStart[0] - offset[0])) * bytesPerSample);
+                System.arraycopy(chunkBytes, srcOffset, dest, destOffset, rowBytes);
+            }
+        }
+    }
+
+    private byte[] decodeN5Chunk(byte[] chunkFileContent) throws IOException {
+        DataInputStream chunkStream = new DataInputStream(new ByteArrayInputStream(chunkFileContent));
+        int mode = chunkStream.readUnsignedShort();
+        int nDims = chunkStream.readUnsignedShort();
+        int[] storedSize = new int[nDims];
+        for (int d = 0; d < nDims; d++) {
+            storedSize[d] = chunkStream.readInt();
+        }
+        int numElements;
+        if (mode == N5_VARLENGTH_MODE) {
+            numElements = chunkStream.readInt();
+        } else if (mode == N5_DEFAULT_MODE) {
+            numElements = Arrays.stream(storedSize).reduce(1, (s1, s2) -> s1 * s2);
+        } else {
+            throw new IllegalArgumentException("Unsupported N5 block mode " + mode);
+        }
+        Preconditions.checkArgument(nDims == 3, "Only 3D N5 blocks are supported");
+        byte[] storedBytes = decompress(chunkStream, numElements * bytesPerSample);
+        toLittleEndian(storedBytes, storedBytes.length);
+        if (Arrays.equals(storedSize, blockSize)) {
+            return storedBytes;
+        }
+        // edge blocks only store the part inside the dataset
+        byte[] chunkBytes = new byte[getChunkByteSize()];
+        int rowBytes = storedSize[0] * bytesPerSample;
+        for (int z = 0; z < storedSize[2]; z++) {
+            for (int y = 0; y < storedSize[1]; y++) {
+                System.arraycopy(storedBytes, (z * storedSize[1] + y) * rowBytes,
+                        chunkBytes, ((z * blockSize[1] + y) * blockSize[0]) * bytesPerSample,
+                        rowBytes);
+            }
+        }
+        return chunkBytes;
+    }
+
+    private void encodeN5Chunk(long[] gridPosition, byte[] chunkBytes, OutputStream chunkStream) throws IOException {
+        int[] storedSize = new int[3];
+        for (int d = 0; d < 3; d++) {
+            storedSize[d] = (int) Math.min(blockSize[d], dims[d] - gridPosition[d] * blockSize[d]);
+        }
+        int rowBytes = storedSize[0] * bytesPerSample;
+        byte[] storedBytes = new byte[storedSize[0] * storedSize[1] * storedSize[2] * bytesPerSample];
+        for (int z = 0; z < storedSize[2]; z++) {
+            for (int y = 0; y < storedSize[1]; y++) {
+                System.arraycopy(chunkBytes, ((z * blockSize[1] + y) * blockSize[0]) * bytesPerSample,
+                        storedBytes, (z * storedSize[1] + y) * rowBytes,
+                        rowBytes);
+            }
+        }
+        toLittleEndian(storedBytes, storedBytes.length); // swapping is symmetric
+        DataOutputStream headerStream = new DataOutputStream(chunkStream);
+        headerStream.writeShort(N5_DEFAULT_MODE);
+        headerStream.writeShort(3);
+        for (int s : storedSize) {
+            headerStream.writeInt(s);
+        }
+        headerStream.flush();
+        writeCompressed(storedBytes, storedBytes.length, chunkStream);
+    }
+
+    private byte[] decompress(InputStream compressedStream, int decodedSize) throws IOException {
+        InputStream decodedStream;
+        switch (compression) {
+            case GZIP:
+                decodedStream = new GZIPInputStream(compressedStream);
+                break;
+            case ZLIB:
+                decodedStream = new InflaterInputStream(compressedStream);
+                break;
+            default:
+                decodedStream = compressedStream;
+                break;
+        }
+        byte[] decodedBytes = new byte[decodedSize];
+        ByteStreams.readFully(decodedStream, decodedBytes);
+        return decodedBytes;
+    }
+
+    private void writeCompressed(byte[] bytes, int length, OutputStream chunkStream) throws IOException {
+        switch (compression) {
+            case GZIP:
+                try (GZIPOutputStream gzipStream = new GZIPOutputStream(new NonClosingOutputStream(chunkStream))) {
+                    gzipStream.write(bytes, 0, length);
+                }
+                break;
+            case ZLIB:
+                try (DeflaterOutputStream zlibStream = new DeflaterOutputStream(new NonClosingOutputStream(chunkStream))) {
+                    zlibStream.write(bytes, 0, length);
+                }
+                break;
+            default:
+                chunkStream.write(bytes, 0, length);
+                break;
+        }
+    }
+
+    /**
+     * Swap the sample bytes in place if the stored byte order is not little endian.
+     */
+    private void toLittleEndian(byte[] sampleBytes, int length) {
+        if (bytesPerSample == 2 && byteOrder == ByteOrder.BIG_ENDIAN) {
+            for (int i = 0; i + 1 < length; i += 2) {
+                byte b = sampleBytes[i];
+                sampleBytes[i] = sampleBytes[i + 1];
+                sampleBytes[i + 1] = b;
+            }
+        }
+    }
+
+    private JsonNode n5Metadata() {
+        ObjectNode attributes = METADATA_MAPPER.createObjectNode();
+        ArrayNode dimensionsNode = attributes.putArray("dimensions");
+        Arrays.stream(dims).forEach(dimensionsNode::add);
+        ArrayNode blockSizeNode = attributes.putArray("blockSize");
+        Arrays.stream(blockSize).forEach(blockSizeNode::add);
+        attributes.put("dataType", bytesPerSample == 1 ? "uint8" : "uint16");
+        ObjectNode compressionNode = attributes.putObject("compression");
+        if (compression == Compression.RAW) {
+            compressionNode.put("type", "raw");
+        } else {
+            compressionNode.put("type", "gzip");
+            compressionNode.put("useZlib", compression == Compression.ZLIB);
+        }
+        return attributes;
+    }
+
+    private JsonNode zarrMetadata() {
+        ObjectNode zarray = METADATA_MAPPER.createObjectNode();
+        zarray.put("zarr_format", 2);
+        ArrayNode shapeNode = zarray.putArray("shape");
+        Arrays.stream(reverse(dims)).forEach(shapeNode::add);
+        ArrayNode chunksNode = zarray.putArray("chunks");
+        for (int d = 2; d >= 0; d--) {
+            chunksNode.add(blockSize[d]);
+        }
+        zarray.put("dtype", bytesPerSample == 1 ? "|u1" : "<u2");
+        if (compression == Compression.RAW) {
+            zarray.putNull("compressor");
+        } else {
+            zarray.putObject("compressor").put("id", compression == Compression.GZIP ? "gzip" : "zlib");
+        }
+        zarray.put("fill_value", 0);
+        zarray.put("order", "C");
+        zarray.putNull("filters");
+        zarray.put("dimension_separator", separator);
+        return zarray;
+    }
+
+    @Override
+    public String toString() {
+        return format + ":" + datasetPath;
+    }
+}
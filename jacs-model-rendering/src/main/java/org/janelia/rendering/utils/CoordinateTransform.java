@@ -0,0 +1,138 @@
+package org.janelia.rendering.utils;
+
+import java.util.Arrays;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Affine 3D transform given by a 4x4 homogeneous matrix whose last row is [0, 0, 0, 1]. Points are transformed
+ * with the same sequence of floating point operations as the product of the matrix with the [x, y, z, 1] column
+ * vector in JAMA so the results are identical to transforming the points one at a time with a JAMA matrix.
+ * <p>
+ * The batch methods take the points as a flat array of interleaved x, y, z coordinates.
+ */
+public class CoordinateTransform {
+
+    private final double m00, m01, m02, m03;
+    private final double m10, m11, m12, m13;
+    private final double m20, m21, m22, m23;
+
+    /**
+     * @param matrix 4x4 homogeneous matrix or the 3x4 matrix of its first 3 rows
+     */
+    public CoordinateTransform(double[][] matrix) {
+        Preconditions.checkArgument(matrix.length == 3 || matrix.length == 4, "Transform matrix must have 3 or 4 rows");
+        for (double[] row : matrix) {
+            Preconditions.checkArgument(row.length == 4, "Transform matrix must have 4 columns");
+        }
+        Preconditions.checkArgument(matrix.length == 3 || Arrays.equals(new double[] {0., 0., 0., 1.}, matrix[3]),
+                "The last row of an affine transform matrix must be [0, 0, 0, 1]");
+        m00 = matrix[0][0]; m01 = matrix[0][1]; m02 = matrix[0][2]; m03 = matrix[0][3];
+        m10 = matrix[1][0]; m11 = matrix[1][1]; m12 = matrix[1][2]; m13 = matrix[1][3];
+        m20 = matrix[2][0]; m21 = matrix[2][1]; m22 = matrix[2][2]; m23 = matrix[2][3];
+    }
+
+    /**
+     * @return the 4x4 homogeneous matrix
+     */
+    public double[][] getMatrix() {
+        return new double[][] {
+                {m00, m01, m02, m03},
+                {m10, m11, m12, m13},
+                {m20, m21, m22, m23},
+                {0., 0., 0., 1.}
+        };
+    }
+
+    /**
+     * @return the inverse transform
+     */
+    public CoordinateTransform invert() {
+        double c00 = m11 * m22 - m12 * m21;
+        double c01 = m12 * m20 - m10 * m22;
+        double c02 = m10 * m21 - m11 * m20;
+        double det = m00 * c00 + m01 * c01 + m02 * c02;
+        Preconditions.checkArgument(det != 0 && Double.isFinite(det), "Transform is not invertible");
+        double i00 = c00 / det;
+        double i01 = (m02 * m21 - m01 * m22) / det;
+        double i02 = (m01 * m12 - m02 * m11) / det;
+        double i10 = c01 / det;
+        double i11 = (m00 * m22 - m02 * m20) / det;
+        double i12 = (m02 * m10 - m00 * m12) / det;
+        double i20 = c02 / det;
+        double i21 = (m01 * m20 - m00 * m21) / det;
+        double i22 = (m00 * m11 - m01 * m10) / det;
+        return new CoordinateTransform(new double[][] {
+                {i00, i01, i02, -(i00 * m03 + i01 * m13 + i02 * m23)},
+                {i10, i11, i12, -(i10 * m03 + i11 * m13 + i12 * m23)},
+                {i20, i21, i22, -(i20 * m03 + i21 * m13 + i22 * m23)}
+        });
+    }
+
+    /**
+     * @param point x, y, z coordinates
+     * @return the transformed point
+     */
+    public double[] transformPoint(double[] point) {
+        Preconditions.checkArgument(point.length == 3, "A point must have 3 coordinates");
+        double[] transformedPoint = new double[3];
+        transformPoints(point, 0, transformedPoint, 0, 1);
+        return transformedPoint;
+    }
+
+    /**
+     * @param points interleaved x, y, z coordinates
+     * @return the interleaved coordinates of the transformed points
+     */
+    public double[] transformPoints(double[] points) {
+        Preconditions.checkArgument(points.length % 3 == 0, "The number of coordinates %s is not a multiple of 3", points.length);
+        double[] transformedPoints = new double[points.length];
+        transformPoints(points, 0, transformedPoints, 0, points.length / 3);
+        return transformedPoints;
+    }
+
+    /**
+     * Transform the points in place or into another array.
+     *
+     * @param src interleaved x, y, z source coordinates
+     * @param srcOffset offset of the first source coordinate
+     * @param dst array that receives the interleaved transformed coordinates - it may be the source array
+     * @param dstOffset offset of the first transformed coordinate
+     * @param pointCount number of points to transform
+     */
+    public void transformPoints(double[] src, int srcOffset, double[] dst, int dstOffset, int pointCount) {
+        Preconditions.checkPositionIndexes(srcOffset, srcOffset + 3 * pointCount, src.length);
+        Preconditions.checkPositionIndexes(dstOffset, dstOffset + 3 * pointCount, dst.length);
+        for (int p = 0; p < pointCount; p++) {
+            int si = srcOffset + 3 * p;
+            int di = dstOffset + 3 * p;
+            double x = src[si];
+            double y = src[si + 1];
+            double z = src[si + 2];
+            // accumulate exactly like JAMA's Matrix.times
+            double tx = 0;
+            tx += m00 * x;
+            tx += m01 * y;
+            tx += m02 * z;
+            tx += m03;
+            double ty = 0;
+            ty += m10 * x;
+            ty += m11 * y;
+            ty += m12 * z;
+            ty += m13;
+            double tz = 0;
+            tz += m20 * x;
+            tz += m21 * y;
+            tz += m22 * z;
+            tz += m23;
+            dst[di] = tx;
+            dst[di + 1] = ty;
+            dst[di + 2] = tz;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "CoordinateTransform" + Arrays.deepToString(getMatrix());
+    }
+}
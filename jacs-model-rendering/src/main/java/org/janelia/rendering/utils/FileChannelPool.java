@@ -0,0 +1,230 @@
+package org.janelia.rendering.utils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.google.common.base.Preconditions;
+import com.sun.media.jai.codec.SeekableStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Bounded pool of open read only file channels keyed by the file path. Channels are reference counted so
+ * concurrent readers of the same file share a single descriptor and, since all reads are positional, they do not
+ * contend for the channel's position. A channel is closed when it has not been borrowed for longer than the idle
+ * timeout or when the pool exceeds its capacity and the channel is the least recently used one that is not in use.
+ * Channels in use are never closed by the pool so the number of open channels may temporarily exceed the capacity.
+ * A file that was modified since its channel was opened gets a new channel.
+ * Since interrupting a thread that reads from a channel closes the channel for all its readers, closed channels
+ * are detected and reopened on the next borrow.
+ */
+public class FileChannelPool implements Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(FileChannelPool.class);
+
+    private static class PooledChannel {
+        private final Path path;
+        private final FileChannel channel;
+        private final long fileSize;
+        private final long lastModified;
+        private int refCount;
+        private long lastReleaseTime;
+        private boolean retired;
+
+        private PooledChannel(Path path, FileChannel channel, long fileSize, long lastModified) {
+            this.path = path;
+            this.channel = channel;
+            this.fileSize = fileSize;
+            this.lastModified = lastModified;
+        }
+
+        private boolean matches(BasicFileAttributes fileAttributes) {
+            return channel.isOpen() &&
+                    fileSize == fileAttributes.size() &&
+                    lastModified == fileAttributes.lastModifiedTime().toMillis();
+        }
+    }
+
+    /**
+     * A borrowed channel. The lease must be closed when the channel is no longer needed.
+     */
+    public class Lease implements Closeable {
+        private final PooledChannel pooledChannel;
+        private final AtomicBoolean released = new AtomicBoolean(false);
+
+        private Lease(PooledChannel pooledChannel) {
+            this.pooledChannel = pooledChannel;
+        }
+
+        public FileChannel getChannel() {
+            return pooledChannel.channel;
+        }
+
+        @Override
+        public void close() {
+            if (released.compareAndSet(false, true)) {
+                release(pooledChannel);
+            }
+        }
+    }
+
+    private final int maxOpenChannels;
+    private final long idleTimeoutMillis;
+    private final Map<Path, PooledChannel> openChannels = new LinkedHashMap<>(16, 0.75f, true);
+    private boolean closed;
+
+    /**
+     * @param maxOpenChannels maximum number of channels kept open
+     * @param idleTimeoutMillis how long a channel that is not in use is kept open
+     */
+    public FileChannelPool(int maxOpenChannels, long idleTimeoutMillis) {
+        Preconditions.checkArgument(maxOpenChannels > 0, "The maximum number of open channels must be positive");
+        Preconditions.checkArgument(idleTimeoutMillis >= 0, "The idle timeout cannot be negative");
+        this.maxOpenChannels = maxOpenChannels;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+    }
+
+    /**
+     * Borrow the channel of the given file opening it if necessary.
+     *
+     * @param filePath
+     * @return
+     * @throws IOException
+     */
+    public Lease borrow(Path filePath) throws IOException {
+        BasicFileAttributes fileAttributes = Files.readAttributes(filePath, BasicFileAttributes.class);
+        synchronized (this) {
+            Preconditions.checkState(!closed, "File channel pool is closed");
+            evictIdleChannels(System.currentTimeMillis());
+            PooledChannel pooledChannel = openChannels.get(filePath);
+            if (pooledChannel != null) {
+                if (pooledChannel.matches(fileAttributes)) {
+                    pooledChannel.refCount++;
+                    return new Lease(pooledChannel);
+                }
+                retire(pooledChannel);
+            }
+        }
+        // open the file without holding the lock
+        FileChannel channel = FileChannel.open(filePath, StandardOpenOption.READ);
+        synchronized (this) {
+            if (closed) {
+                closeChannel(filePath, channel);
+                throw new IllegalStateException("File channel pool is closed");
+            }
+            PooledChannel pooledChannel = openChannels.get(filePath);
+            if (pooledChannel != null) {
+                if (pooledChannel.matches(fileAttributes)) {
+                    // another reader opened the file in the meantime
+                    closeChannel(filePath, channel);
+                    pooledChannel.refCount++;
+                    return new Lease(pooledChannel);
+                }
+                retire(pooledChannel);
+            }
+            PooledChannel newPooledChannel = new PooledChannel(filePath, channel, fileAttributes.size(), fileAttributes.lastModifiedTime().toMillis());
+            newPooledChannel.refCount = 1;
+            openChannels.put(filePath, newPooledChannel);
+            trimToCapacity();
+            return new Lease(newPooledChannel);
+        }
+    }
+
+    /**
+     * Borrow a seekable stream of the given file. The stream reads the shared channel using positional reads
+     * and it returns the channel to the pool when it is closed.
+     *
+     * @param filePath
+     * @return
+     * @throws IOException
+     */
+    public SeekableStream borrowStream(Path filePath) throws IOException {
+        Lease lease = borrow(filePath);
+        return new FileChannelSeekableStream(lease.getChannel(), lease);
+    }
+
+    /**
+     * @return the number of channels currently open.
+     */
+    public synchronized int getOpenChannelCount() {
+        return openChannels.size();
+    }
+
+    /**
+     * Close all channels that are not in use and have been idle for longer than the idle timeout.
+     */
+    public synchronized void evictIdleChannels() {
+        evictIdleChannels(System.currentTimeMillis());
+    }
+
+    /**
+     * Close all channels. The channels that are in use are closed when they are returned.
+     */
+    @Override
+    public synchronized void close() {
+        closed = true;
+        List<PooledChannel> pooledChannels = new ArrayList<>(openChannels.values());
+        pooledChannels.forEach(this::retire);
+    }
+
+    private synchronized void release(PooledChannel pooledChannel) {
+        pooledChannel.refCount--;
+        pooledChannel.lastReleaseTime = System.currentTimeMillis();
+        if (pooledChannel.refCount == 0) {
+            if (pooledChannel.retired) {
+                closeChannel(pooledChannel.path, pooledChannel.channel);
+            } else {
+                trimToCapacity();
+            }
+        }
+    }
+
+    private void evictIdleChannels(long currentTime) {
+        for (Iterator<PooledChannel> channelsItr = openChannels.values().iterator(); channelsItr.hasNext(); ) {
+            PooledChannel pooledChannel = channelsItr.next();
+            if (pooledChannel.refCount == 0 && currentTime - pooledChannel.lastReleaseTime >= idleTimeoutMillis) {
+                channelsItr.remove();
+                closeChannel(pooledChannel.path, pooledChannel.channel);
+            }
+        }
+    }
+
+    private void trimToCapacity() {
+        // the iteration order is from the least recently used channel to the most recently used one
+        for (Iterator<PooledChannel> channelsItr = openChannels.values().iterator(); channelsItr.hasNext() && openChannels.size() > maxOpenChannels; ) {
+            PooledChannel pooledChannel = channelsItr.next();
+            if (pooledChannel.refCount == 0) {
+                channelsItr.remove();
+                closeChannel(pooledChannel.path, pooledChannel.channel);
+            }
+        }
+    }
+
+    private void retire(PooledChannel pooledChannel) {
+        openChannels.remove(pooledChannel.path, pooledChannel);
+        pooledChannel.retired = true;
+        if (pooledChannel.refCount == 0) {
+            closeChannel(pooledChannel.path, pooledChannel.channel);
+        }
+    }
+
+    private void closeChannel(Path filePath, FileChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            LOG.debug("Error closing channel for {}", filePath, e);
+        }
+    }
+}
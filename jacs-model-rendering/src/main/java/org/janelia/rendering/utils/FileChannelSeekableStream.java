@@ -0,0 +1,109 @@
+package org.janelia.rendering.utils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import javax.annotation.Nullable;
+
+import com.sun.media.jai.codec.SeekableStream;
+
+/**
+ * Seekable stream that reads a file channel only with positional reads, so multiple streams can share the same
+ * channel concurrently. The stream keeps its own position and a small read buffer since the TIFF decoder performs
+ * many small reads. Closing the stream does not close the channel, only the given release handle.
+ */
+public class FileChannelSeekableStream extends SeekableStream {
+    private static final int DEFAULT_BUFFER_SIZE = 8192;
+
+    private final FileChannel fileChannel;
+    private final Closeable releaseHandle;
+    private final ByteBuffer readBuffer;
+    private long readBufferStart;
+    private long position;
+
+    public FileChannelSeekableStream(FileChannel fileChannel, @Nullable Closeable releaseHandle) {
+        this.fileChannel = fileChannel;
+        this.releaseHandle = releaseHandle;
+        this.readBuffer = ByteBuffer.allocate(DEFAULT_BUFFER_SIZE);
+        this.readBuffer.limit(0);
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!isBuffered(position) && fillBuffer(position) <= 0) {
+            return -1;
+        }
+        int b = readBuffer.get((int) (position - readBufferStart)) & 0xFF;
+        position++;
+        return b;
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (len >= readBuffer.capacity() && !isBuffered(position)) {
+            // large reads go directly to the destination
+            int nbytes = fileChannel.read(ByteBuffer.wrap(bytes, offset, len), position);
+            if (nbytes > 0) {
+                position += nbytes;
+            }
+            return nbytes;
+        }
+        if (!isBuffered(position) && fillBuffer(position) <= 0) {
+            return -1;
+        }
+        int bufferOffset = (int) (position - readBufferStart);
+        int nbytes = Math.min(len, readBuffer.limit() - bufferOffset);
+        // position is set on its own because on Java 8 Buffer.position does not return a ByteBuffer
+        ByteBuffer bufferedBytes = readBuffer.duplicate();
+        bufferedBytes.position(bufferOffset);
+        bufferedBytes.get(bytes, offset, nbytes);
+        position += nbytes;
+        return nbytes;
+    }
+
+    @Override
+    public long getFilePointer() {
+        return position;
+    }
+
+    @Override
+    public void seek(long pos) throws IOException {
+        if (pos < 0) {
+            throw new IOException("Invalid seek position " + pos);
+        }
+        position = pos;
+    }
+
+    @Override
+    public boolean canSeekBackwards() {
+        return true;
+    }
+
+    public long length() throws IOException {
+        return fileChannel.size();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (releaseHandle != null) {
+            releaseHandle.close();
+        }
+    }
+
+    private boolean isBuffered(long pos) {
+        return pos >= readBufferStart && pos < readBufferStart + readBuffer.limit();
+    }
+
+    private int fillBuffer(long pos) throws IOException {
+        readBuffer.clear();
+        readBufferStart = pos;
+        int nbytes = fileChannel.read(readBuffer, pos);
+        readBuffer.flip();
+        return nbytes;
+    }
+}
@@ -0,0 +1,83 @@
+package org.janelia.rendering.utils;
+
+import java.util.Objects;
+
+import com.google.common.base.Preconditions;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * Fixed size cache of content blocks retrieved with HTTP range requests. Blocks are keyed by the content URI,
+ * the version of the content, typically its length and last modification time, and the block index, so blocks of
+ * content that changed on the server are never returned.
+ */
+public class HttpBlockCache {
+
+    private static final int DEFAULT_BLOCK_SIZE = 64 * 1024;
+    private static final long DEFAULT_CAPACITY_IN_BYTES = 256L * 1024 * 1024;
+
+    private static final HttpBlockCache DEFAULT_INSTANCE = new HttpBlockCache(DEFAULT_BLOCK_SIZE, DEFAULT_CAPACITY_IN_BYTES);
+
+    private static class BlockKey {
+        private final String contentKey;
+        private final long blockIndex;
+
+        private BlockKey(String contentKey, long blockIndex) {
+            this.contentKey = contentKey;
+            this.blockIndex = blockIndex;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            BlockKey blockKey = (BlockKey) o;
+            return blockIndex == blockKey.blockIndex && contentKey.equals(blockKey.contentKey);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(contentKey, blockIndex);
+        }
+    }
+
+    /**
+     * @return a shared cache of 64KB blocks that holds up to 256MB
+     */
+    public static HttpBlockCache getDefaultInstance() {
+        return DEFAULT_INSTANCE;
+    }
+
+    private final int blockSize;
+    private final Cache<BlockKey, byte[]> blocks;
+
+    /**
+     * @param blockSize size of a block in bytes; this is also the granularity of the range requests
+     * @param capacityInBytes maximum size of all cached blocks
+     */
+    public HttpBlockCache(int blockSize, long capacityInBytes) {
+        Preconditions.checkArgument(blockSize > 0, "Block size must be positive");
+        Preconditions.checkArgument(capacityInBytes >= blockSize, "Block cache capacity must be at least one block");
+        this.blockSize = blockSize;
+        this.blocks = CacheBuilder.newBuilder()
+                .maximumWeight(capacityInBytes)
+                .weigher((BlockKey k, byte[] block) -> block.length)
+                .build();
+    }
+
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    public byte[] getBlock(String contentKey, long blockIndex) {
+        return blocks.getIfPresent(new BlockKey(contentKey, blockIndex));
+    }
+
+    public void putBlock(String contentKey, long blockIndex, byte[] block) {
+        blocks.put(new BlockKey(contentKey, blockIndex), block);
+    }
+
+    public void invalidateAll() {
+        blocks.invalidateAll();
+    }
+}
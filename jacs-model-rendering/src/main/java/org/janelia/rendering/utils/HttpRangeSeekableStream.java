@@ -0,0 +1,185 @@
+package org.janelia.rendering.utils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Arrays;
+
+import com.google.common.io.ByteStreams;
+import com.sun.media.jai.codec.SeekableStream;
+
+/**
+ * Seekable stream over content served by an HTTP server that supports range requests. The content is read in
+ * fixed size blocks that are kept in a block cache, and consecutive blocks that are not cached are retrieved
+ * with a single range request, so only the byte ranges that are actually read are transferred.
+ * If the server ignores the range header the first response, which has the entire content, is kept and all
+ * further reads are served from it without any other request. Content larger than {@link #MAX_FULL_CONTENT_LENGTH}
+ * cannot be read from such a server.
+ */
+public class HttpRangeSeekableStream extends SeekableStream {
+
+    public static final long MAX_FULL_CONTENT_LENGTH = Integer.MAX_VALUE - 8;
+
+    private final URL contentURL;
+    private final long contentLength;
+    private final String contentKey;
+    private final HttpBlockCache blockCache;
+    private final int connectTimeoutMillis;
+    private final int readTimeoutMillis;
+    private long position;
+    private byte[] fullContent; // set once the server ignored a range request
+
+    /**
+     * @param contentURL
+     * @param contentLength length of the content
+     * @param contentVersion version of the content used for identifying its cached blocks, e.g. the last modification time
+     * @param blockCache
+     * @param connectTimeoutMillis
+     * @param readTimeoutMillis
+     */
+    public HttpRangeSeekableStream(URL contentURL, long contentLength, String contentVersion, HttpBlockCache blockCache,
+                                   int connectTimeoutMillis, int readTimeoutMillis) {
+        this.contentURL = contentURL;
+        this.contentLength = contentLength;
+        this.contentKey = contentURL + "#" + contentLength + ":" + contentVersion;
+        this.blockCache = blockCache;
+        this.connectTimeoutMillis = connectTimeoutMillis;
+        this.readTimeoutMillis = readTimeoutMillis;
+    }
+
+    public long length() {
+        return contentLength;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (position >= contentLength) {
+            return -1;
+        }
+        int blockSize = blockCache.getBlockSize();
+        long blockIndex = position / blockSize;
+        byte[] block = loadBlocks(blockIndex, blockIndex)[0];
+        int b = block[(int) (position - blockIndex * blockSize)] & 0xFF;
+        position++;
+        return b;
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (position >= contentLength) {
+            return -1;
+        }
+        int nbytes = (int) Math.min(len, contentLength - position);
+        int blockSize = blockCache.getBlockSize();
+        long firstBlockIndex = position / blockSize;
+        long lastBlockIndex = (position + nbytes - 1) / blockSize;
+        byte[][] blocks = loadBlocks(firstBlockIndex, lastBlockIndex);
+        int copied = 0;
+        while (copied < nbytes) {
+            long currentPosition = position + copied;
+            byte[] block = blocks[(int) (currentPosition / blockSize - firstBlockIndex)];
+            int blockOffset = (int) (currentPosition % blockSize);
+            int chunkSize = Math.min(nbytes - copied, block.length - blockOffset);
+            System.arraycopy(block, blockOffset, bytes, offset + copied, chunkSize);
+            copied += chunkSize;
+        }
+        position += nbytes;
+        return nbytes;
+    }
+
+    @Override
+    public long getFilePointer() {
+        return position;
+    }
+
+    @Override
+    public void seek(long pos) throws IOException {
+        if (pos < 0) {
+            throw new IOException("Invalid seek position " + pos);
+        }
+        position = pos;
+    }
+
+    @Override
+    public boolean canSeekBackwards() {
+        return true;
+    }
+
+    private byte[][] loadBlocks(long firstBlockIndex, long lastBlockIndex) throws IOException {
+        byte[][] blocks = new byte[(int) (lastBlockIndex - firstBlockIndex + 1)][];
+        long missingRunStart = -1;
+        for (long blockIndex = firstBlockIndex; blockIndex <= lastBlockIndex; blockIndex++) {
+            byte[] block = blockCache.getBlock(contentKey, blockIndex);
+            if (block != null) {
+                blocks[(int) (blockIndex - firstBlockIndex)] = block;
+                if (missingRunStart != -1) {
+                    fetchBlocks(missingRunStart, blockIndex - 1, blocks, firstBlockIndex);
+                    missingRunStart = -1;
+                }
+            } else if (missingRunStart == -1) {
+                missingRunStart = blockIndex;
+            }
+        }
+        if (missingRunStart != -1) {
+            fetchBlocks(missingRunStart, lastBlockIndex, blocks, firstBlockIndex);
+        }
+        return blocks;
+    }
+
+    private void fetchBlocks(long fromBlockIndex, long toBlockIndex, byte[][] blocks, long firstBlockIndex) throws IOException {
+        int blockSize = blockCache.getBlockSize();
+        long rangeStart = fromBlockIndex * blockSize;
+        long rangeEnd = Math.min(contentLength, (toBlockIndex + 1) * blockSize);
+        byte[] rangeContent = readRange(rangeStart, rangeEnd);
+        for (long blockIndex = fromBlockIndex; blockIndex <= toBlockIndex; blockIndex++) {
+            int blockStart = (int) ((blockIndex - fromBlockIndex) * blockSize);
+            int blockEnd = Math.min(rangeContent.length, blockStart + blockSize);
+            byte[] block = new byte[blockEnd - blockStart];
+            System.arraycopy(rangeContent, blockStart, block, 0, block.length);
+            blockCache.putBlock(contentKey, blockIndex, block);
+            blocks[(int) (blockIndex - firstBlockIndex)] = block;
+        }
+    }
+
+    private byte[] readRange(long rangeStart, long rangeEnd) throws IOException {
+        if (fullContent != null) {
+            return Arrays.copyOfRange(fullContent, (int) rangeStart, (int) rangeEnd);
+        }
+        HttpURLConnection connection = (HttpURLConnection) contentURL.openConnection();
+        try {
+            connection.setConnectTimeout(connectTimeoutMillis);
+            connection.setReadTimeout(readTimeoutMillis);
+            connection.setRequestProperty("Range", "bytes=" + rangeStart + "-" + (rangeEnd - 1));
+            int responseCode = connection.getResponseCode();
+            if (responseCode == HttpURLConnection.HTTP_OK) {
+                // the server ignored the range and it sends the entire content
+                if (contentLength > MAX_FULL_CONTENT_LENGTH) {
+                    connection.disconnect();
+                    throw new IOException(contentURL + " does not support range requests and its length " + contentLength + " is too large to read it entirely");
+                }
+                byte[] content = new byte[(int) contentLength];
+                try (InputStream responseStream = connection.getInputStream()) {
+                    ByteStreams.readFully(responseStream, content);
+                }
+                fullContent = content;
+                return Arrays.copyOfRange(fullContent, (int) rangeStart, (int) rangeEnd);
+            } else if (responseCode != HttpURLConnection.HTTP_PARTIAL) {
+                connection.disconnect();
+                throw new IOException("Unexpected response " + responseCode + " while reading bytes " + rangeStart + "-" + rangeEnd + " from " + contentURL);
+            }
+            byte[] rangeContent = new byte[(int) (rangeEnd - rangeStart)];
+            // fully reading and closing the response lets the connection be reused
+            try (InputStream responseStream = connection.getInputStream()) {
+                ByteStreams.readFully(responseStream, rangeContent);
+            }
+            return rangeContent;
+        } catch (IOException e) {
+            connection.disconnect();
+            throw e;
+        }
+    }
+}
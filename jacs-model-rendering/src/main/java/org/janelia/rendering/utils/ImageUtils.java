@@ -3,6 +3,7 @@ package org.janelia.rendering.utils;
 import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
 import java.awt.image.ColorModel;
+import java.awt.image.ComponentSampleModel;
 import java.awt.image.DataBufferByte;
 import java.awt.image.DataBufferUShort;
 import java.awt.image.IndexColorModel;
@@ -12,15 +13,26 @@ import java.awt.image.renderable.ParameterBlock;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.ShortBuffer;
+import java.nio.channels.WritableByteChannel;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.BiFunction;
 import java.util.function.Function;
+import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 import java.util.stream.Stream;
 
@@ -29,28 +41,44 @@ import javax.annotation.Nullable;
 import javax.media.jai.JAI;
 import javax.media.jai.NullOpImage;
 import javax.media.jai.RenderedImageAdapter;
-import javax.media.jai.RenderedOp;
 
+import com.google.common.base.Preconditions;
 import com.google.common.base.Stopwatch;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.sun.media.jai.codec.FileSeekableStream;
 import com.sun.media.jai.codec.ImageCodec;
 import com.sun.media.jai.codec.ImageDecoder;
 import com.sun.media.jai.codec.ImageEncoder;
 import com.sun.media.jai.codec.MemoryCacheSeekableStream;
 import com.sun.media.jai.codec.SeekableStream;
+import com.sun.media.jai.codec.TIFFDecodeParam;
 import com.sun.media.jai.codec.TIFFDirectory;
 import com.sun.media.jai.codec.TIFFEncodeParam;
+import com.sun.media.jai.codecimpl.TIFFImage;
 import com.sun.media.jai.codecimpl.TIFFImageDecoder;
+import org.janelia.rendering.Coordinate;
+import org.janelia.rendering.DownsamplingMethod;
 import org.janelia.rendering.NamedSupplier;
+import org.janelia.rendering.ProjectionType;
 import org.janelia.rendering.RenderedImageInfo;
 import org.janelia.rendering.RenderedImageWithStream;
 import org.janelia.rendering.RenderedImagesWithStreams;
+import org.janelia.rendering.RenderingStage;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 public class ImageUtils {
 
     private static final int DEFAULT_BORDER = 0;
+
+    // texture header: mipmap level, width, used width, height, border, srgb, bit depth, channel count - all ints -
+    // and the float x texture coordinate, followed by the pixels in native byte order
+    public static final int TEXTURE_WIDTH_OFFSET = 4;
+    public static final int TEXTURE_USED_WIDTH_OFFSET = 8;
+    public static final int TEXTURE_HEIGHT_OFFSET = 12;
+    public static final int TEXTURE_BIT_DEPTH_OFFSET = 24;
+    public static final int TEXTURE_CHANNEL_COUNT_OFFSET = 28;
+    public static final int TEXTURE_HEADER_SIZE = (Integer.SIZE / 8) * 8 + (Float.SIZE / 8);
     private static final Logger LOG = LoggerFactory.getLogger(ImageUtils.class);
 
     private static class TiffROI {
@@ -79,6 +107,18 @@ public class ImageUtils {
             };
         }
 
+        /**
+         * @return the TIFF index if the source stream provides one, otherwise null
+         */
+        @Nullable
+        private TiffIndex getTiffIndex() {
+            if (sourceStream instanceof TiffIndexedSeekableStream) {
+                return ((TiffIndexedSeekableStream) sourceStream).getTiffIndex();
+            } else {
+                return null;
+            }
+        }
+
         @Override
         public int read() throws IOException {
             return seekableDelegate.read();
@@ -114,6 +154,11 @@ public class ImageUtils {
         }
     }
 
+    @FunctionalInterface
+    private interface TiffPageDecoder {
+        RenderedImage decodePage(int pageNumber) throws IOException;
+    }
+
     @FunctionalInterface
     private interface DataCopier<B> {
         /**
@@ -165,14 +210,23 @@ public class ImageUtils {
         if (inputStream == null) {
             return null;
         }
-        try (SeekableStream tiffStream = new SeekableStreamWrapper(inputStream)) {
-            TIFFDirectory tiffDirectory = new TIFFDirectory(tiffStream, 0);
-            int imageWidth = (int) tiffDirectory.getFieldAsLong(TIFFImageDecoder.TIFF_IMAGE_WIDTH);
-            int imageHeight = (int) tiffDirectory.getFieldAsLong(TIFFImageDecoder.TIFF_IMAGE_LENGTH);
-            int numSlices = TIFFDirectory.getNumDirectories(tiffStream);
-
-            ImageDecoder decoder = ImageCodec.createImageDecoder("tiff", tiffStream, null);
-            RenderedImageAdapter ria = new RenderedImageAdapter(decoder.decodeAsRenderedImage(0));
+        try (SeekableStreamWrapper tiffStream = new SeekableStreamWrapper(inputStream)) {
+            TiffIndex tiffIndex = tiffStream.getTiffIndex();
+            int imageWidth;
+            int imageHeight;
+            int numSlices;
+            if (tiffIndex != null) {
+                imageWidth = tiffIndex.getPage(0).getWidth();
+                imageHeight = tiffIndex.getPage(0).getHeight();
+                numSlices = tiffIndex.getNumPages();
+            } else {
+                TIFFDirectory tiffDirectory = new TIFFDirectory(tiffStream, 0);
+                imageWidth = (int) tiffDirectory.getFieldAsLong(TIFFImageDecoder.TIFF_IMAGE_WIDTH);
+                imageHeight = (int) tiffDirectory.getFieldAsLong(TIFFImageDecoder.TIFF_IMAGE_LENGTH);
+                numSlices = TIFFDirectory.getNumDirectories(tiffStream);
+            }
+            TiffPageDecoder decoder = createTiffPageDecoder(tiffStream, tiffIndex);
+            RenderedImageAdapter ria = new RenderedImageAdapter(decoder.decodePage(0));
             ColorModel colorModel = ria.getColorModel();
             return new RenderedImageInfo(imageWidth, imageHeight, numSlices, colorModel.getPixelSize(), colorModel.getColorSpace().isCS_sRGB());
         } catch (Exception e) {
@@ -199,7 +253,7 @@ public class ImageUtils {
                                                            int x0, int y0, int z0,
                                                            int deltax, int deltay, int deltaz) {
         if (inputStream == null) return null;
-        try (SeekableStream tiffStream = new SeekableStreamWrapper(inputStream)) {
+        try (SeekableStreamWrapper tiffStream = new SeekableStreamWrapper(inputStream)) {
             TiffROI tiffROI = getROIFromTiffStream(tiffStream, x0, y0, z0, deltax, deltay, deltaz);
             // allocate the buffer
             int sliceSize = (tiffROI.endX - tiffROI.startX) * (tiffROI.endY - tiffROI.startY);
@@ -208,24 +262,8 @@ public class ImageUtils {
 
             PixelDataHandlers<?> pixelDataHandlers = createDataHandlers(tiffROI.imageWidth, tiffROI.imageHeight, tiffROI.bytesPerPixel);;
 
-            ImageDecoder decoder = ImageCodec.createImageDecoder("tiff", tiffStream, null);
-            IntStream.range(0, tiffROI.endZ - tiffROI.startZ)
-                    .forEach(sliceIndex -> {
-                        try {
-                            BufferedImage sliceImage = ImageUtils.renderedImageToBufferedImage(
-                                    new NullOpImage(
-                                    decoder.decodeAsRenderedImage(tiffROI.startZ + sliceIndex),
-                                    null,
-                                    null,
-                                    NullOpImage.OP_IO_BOUND),
-                                    0, 0, -1, -1);
-                            transferPixels(sliceImage, tiffROI.startX, tiffROI.startY, tiffROI.endX, tiffROI.endY, rgbBuffer,
-                                    sliceIndex * sliceSize * tiffROI.bytesPerPixel, pixelDataHandlers);
-                        } catch (IOException e) {
-                            LOG.error("Error reading slice {}", sliceIndex, e);
-                            throw new IllegalStateException(e);
-                        }
-                    });
+            TiffPageDecoder decoder = createTiffPageDecoder(tiffStream, tiffStream.getTiffIndex());
+            transferROISlices(decoder, tiffROI, 0, tiffROI.endZ - tiffROI.startZ, rgbBuffer, pixelDataHandlers);
             return rgbBuffer;
         } catch (Exception e) {
             LOG.error("Error reading TIFF image stream", e);
@@ -233,13 +271,402 @@ public class ImageUtils {
         }
     }
 
+    /**
+     * Same as {@link #loadImagePixelBytesFromTiffStream(InputStream, int, int, int, int, int, int)} but the Z range
+     * of the ROI is split into slabs of at most slabDepth slices and the slabs are decoded concurrently, each one
+     * from its own stream obtained from the stream supplier. Every slab is written to its own region of the result
+     * so the output is identical to the one of the sequential decoding. The first slab is decoded on the calling thread.
+     *
+     * @param imageStreamSupplier supplier that opens a new stream of the image every time it is invoked
+     * @param roiDecodeExecutor executor used for decoding the slabs; if null the ROI is decoded sequentially
+     * @param slabDepth maximum number of slices decoded by a single task
+     */
+    @Nullable
+    public static byte[] loadImagePixelBytesFromTiffStreams(NamedSupplier<InputStream> imageStreamSupplier,
+                                                            int x0, int y0, int z0,
+                                                            int deltax, int deltay, int deltaz,
+                                                            @Nullable ExecutorService roiDecodeExecutor,
+                                                            int slabDepth) {
+        Preconditions.checkArgument(slabDepth > 0, "The slab depth must be positive");
+        if (roiDecodeExecutor == null) {
+            return loadImagePixelBytesFromTiffStream(imageStreamSupplier.get(), x0, y0, z0, deltax, deltay, deltaz);
+        }
+        InputStream inputStream = imageStreamSupplier.get();
+        if (inputStream == null) return null;
+        Stopwatch stopwatch = Stopwatch.createStarted();
+        List<Future<?>> slabDecodeResults = new ArrayList<>();
+        AtomicBoolean slabsCancelled = new AtomicBoolean(false);
+        try (SeekableStreamWrapper tiffStream = new SeekableStreamWrapper(inputStream)) {
+            TiffROI tiffROI = getROIFromTiffStream(tiffStream, x0, y0, z0, deltax, deltay, deltaz);
+            int sliceSize = (tiffROI.endX - tiffROI.startX) * (tiffROI.endY - tiffROI.startY);
+            int numSlices = tiffROI.endZ - tiffROI.startZ;
+            byte[] rgbBuffer = new byte[sliceSize * numSlices * tiffROI.bytesPerPixel];
+
+            PixelDataHandlers<?> pixelDataHandlers = createDataHandlers(tiffROI.imageWidth, tiffROI.imageHeight, tiffROI.bytesPerPixel);
+
+            for (int slabStart = slabDepth; slabStart < numSlices; slabStart += slabDepth) {
+                int fromSlice = slabStart;
+                int toSlice = Math.min(numSlices, slabStart + slabDepth);
+                slabDecodeResults.add(roiDecodeExecutor.submit(RequestContext.propagate(() -> {
+                    try (SeekableStreamWrapper slabStream = new SeekableStreamWrapper(imageStreamSupplier.get())) {
+                        TiffPageDecoder slabDecoder = createTiffPageDecoder(slabStream, slabStream.getTiffIndex());
+                        transferROISlices(slabDecoder, tiffROI, fromSlice, toSlice, rgbBuffer, pixelDataHandlers, slabsCancelled);
+                    }
+                    return null;
+                })));
+            }
+            TiffPageDecoder decoder = createTiffPageDecoder(tiffStream, tiffStream.getTiffIndex());
+            transferROISlices(decoder, tiffROI, 0, Math.min(numSlices, slabDepth), rgbBuffer, pixelDataHandlers, slabsCancelled);
+            for (Future<?> slabDecodeResult : slabDecodeResults) {
+                slabDecodeResult.get();
+            }
+            LOG.debug("Concurrent decoding of {} slices from {} in {} slabs took {} ms",
+                    numSlices, imageStreamSupplier.getName(), slabDecodeResults.size() + 1, stopwatch.elapsed(TimeUnit.MILLISECONDS));
+            return rgbBuffer;
+        } catch (Exception e) {
+            throw cancelSlabs(slabDecodeResults, slabsCancelled, imageStreamSupplier.getName(), e);
+        }
+    }
+
+    /**
+     * Cancel the slabs that have not started yet and tell the running ones to stop after their current slice. Running
+     * slabs are not interrupted because interrupting a read from a pooled file channel closes the channel for all its
+     * readers.
+     *
+     * @return the exception to be thrown for the error that caused the cancellation
+     */
+    private static IllegalStateException cancelSlabs(List<? extends Future<?>> slabResults, AtomicBoolean slabsCancelled,
+                                                     String imageName, Exception e) {
+        slabsCancelled.set(true);
+        slabResults.forEach(f -> f.cancel(false));
+        if (e instanceof InterruptedException) {
+            Thread.currentThread().interrupt();
+            return new IllegalStateException(e);
+        } else if (e instanceof ExecutionException) {
+            LOG.error("Error processing a slab of {}", imageName, e.getCause());
+            return new IllegalStateException(e.getCause());
+        } else {
+            LOG.error("Error reading TIFF image stream {}", imageName, e);
+            return new IllegalStateException(e);
+        }
+    }
+
+    private static void transferROISlices(TiffPageDecoder decoder, TiffROI tiffROI, int fromSlice, int toSlice,
+                                          byte[] destBuffer, PixelDataHandlers<?> pixelDataHandlers) throws IOException {
+        transferROISlices(decoder, tiffROI, fromSlice, toSlice, destBuffer, pixelDataHandlers, new AtomicBoolean(false));
+    }
+
+    /**
+     * Decode the ROI slices in the range [fromSlice, toSlice), relative to the start of the ROI, and copy their pixels
+     * at the corresponding offsets in the destination buffer. The transfer stops early once the slabs are cancelled.
+     */
+    private static void transferROISlices(TiffPageDecoder decoder, TiffROI tiffROI, int fromSlice, int toSlice,
+                                          byte[] destBuffer, PixelDataHandlers<?> pixelDataHandlers,
+                                          AtomicBoolean slabsCancelled) throws IOException {
+        int sliceBytes = (tiffROI.endX - tiffROI.startX) * (tiffROI.endY - tiffROI.startY) * tiffROI.bytesPerPixel;
+        for (int sliceIndex = fromSlice; sliceIndex < toSlice && !slabsCancelled.get(); sliceIndex++) {
+            try {
+                BufferedImage sliceImage = ImageUtils.renderedImageToBufferedImage(
+                        new NullOpImage(
+                                decoder.decodePage(tiffROI.startZ + sliceIndex),
+                                null,
+                                null,
+                                NullOpImage.OP_IO_BOUND),
+                        0, 0, -1, -1);
+                transferPixels(sliceImage, tiffROI.startX, tiffROI.startY, tiffROI.endX, tiffROI.endY, destBuffer,
+                        sliceIndex * sliceBytes, pixelDataHandlers);
+            } catch (IOException e) {
+                LOG.error("Error reading slice {}", sliceIndex, e);
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Write the pixels of the selected ROI directly to the given channel one slice at a time, so that at most one
+     * slice is held in memory regardless of the ROI depth. The bytes written are identical to the ones returned by
+     * {@link #loadImagePixelBytesFromTiffStream(InputStream, int, int, int, int, int, int)}.
+     *
+     * @return the number of bytes written.
+     */
+    public static long writeImagePixelBytesFromTiffStream(@Nullable InputStream inputStream,
+                                                          int x0, int y0, int z0,
+                                                          int deltax, int deltay, int deltaz,
+                                                          WritableByteChannel channel,
+                                                          ByteBufferPool bufferPool) {
+        if (inputStream == null) return 0L;
+        try (SeekableStreamWrapper tiffStream = new SeekableStreamWrapper(inputStream)) {
+            TiffROI tiffROI = getROIFromTiffStream(tiffStream, x0, y0, z0, deltax, deltay, deltaz);
+            int sliceBytes = (tiffROI.endX - tiffROI.startX) * (tiffROI.endY - tiffROI.startY) * tiffROI.bytesPerPixel;
+            byte[] sliceBuffer = new byte[sliceBytes];
+
+            PixelDataHandlers<?> pixelDataHandlers = createDataHandlers(tiffROI.imageWidth, tiffROI.imageHeight, tiffROI.bytesPerPixel);
+
+            TiffPageDecoder decoder = createTiffPageDecoder(tiffStream, tiffStream.getTiffIndex());
+            long nbytes = 0;
+            for (int sliceIndex = 0; sliceIndex < tiffROI.endZ - tiffROI.startZ; sliceIndex++) {
+                BufferedImage sliceImage = ImageUtils.renderedImageToBufferedImage(
+                        new NullOpImage(
+                                decoder.decodePage(tiffROI.startZ + sliceIndex),
+                                null,
+                                null,
+                                NullOpImage.OP_IO_BOUND),
+                        0, 0, -1, -1);
+                transferPixels(sliceImage, tiffROI.startX, tiffROI.startY, tiffROI.endX, tiffROI.endY, sliceBuffer, 0, pixelDataHandlers);
+                nbytes += bufferPool.write(sliceBuffer, 0, sliceBytes, channel);
+            }
+            return nbytes;
+        } catch (Exception e) {
+            LOG.error("Error writing TIFF image ROI", e);
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Read the selected ROI downsampled by the given factors along every axis. The ROI is selected exactly as in
+     * {@link #loadImagePixelBytesFromTiffStream(InputStream, int, int, int, int, int, int)} and it is then divided
+     * into blocks of xFactor x yFactor x zFactor voxels, each one producing a single voxel of the result; the blocks
+     * at the upper edges of the ROI may be partial. The result has the same voxel layout and byte order as the full
+     * resolution ROI. With SUBSAMPLE only one slice per block is decoded and from that slice only the strips or tiles
+     * that hold the sampled rows.
+     *
+     * @return the downsampled pixels or null if the stream is null
+     */
+    @Nullable
+    public static byte[] loadDownsampledImagePixelBytesFromTiffStream(@Nullable InputStream inputStream,
+                                                                      int x0, int y0, int z0,
+                                                                      int deltax, int deltay, int deltaz,
+                                                                      int xFactor, int yFactor, int zFactor,
+                                                                      DownsamplingMethod downsamplingMethod) {
+        Preconditions.checkArgument(xFactor > 0 && yFactor > 0 && zFactor > 0, "Downsampling factors must be positive");
+        Preconditions.checkArgument(downsamplingMethod != null, "Downsampling method is required");
+        if (inputStream == null) return null;
+        try (SeekableStreamWrapper tiffStream = new SeekableStreamWrapper(inputStream)) {
+            TiffROI tiffROI = getROIFromTiffStream(tiffStream, x0, y0, z0, deltax, deltay, deltaz);
+            int roiWidth = tiffROI.endX - tiffROI.startX;
+            int roiHeight = tiffROI.endY - tiffROI.startY;
+            int outWidth = (roiWidth + xFactor - 1) / xFactor;
+            int outHeight = (roiHeight + yFactor - 1) / yFactor;
+            int outDepth = (tiffROI.endZ - tiffROI.startZ + zFactor - 1) / zFactor;
+            int outSliceSize = outWidth * outHeight;
+            byte[] outBuffer = new byte[outSliceSize * outDepth * tiffROI.bytesPerPixel];
+
+            long[] blockValues = new long[outSliceSize];
+            int[] blockCounts = new int[outSliceSize];
+            int[] rowSamples = new int[roiWidth];
+            Rectangle roiRect = new Rectangle(tiffROI.startX, tiffROI.startY, roiWidth, roiHeight);
+            int rowStep = downsamplingMethod == DownsamplingMethod.SUBSAMPLE ? yFactor : 1;
+            TiffPageDecoder decoder = createTiffPageDecoder(tiffStream, tiffStream.getTiffIndex());
+            for (int outZ = 0; outZ < outDepth; outZ++) {
+                int fromSlice = tiffROI.startZ + outZ * zFactor;
+                int toSlice = downsamplingMethod == DownsamplingMethod.SUBSAMPLE
+                        ? fromSlice + 1
+                        : Math.min(tiffROI.endZ, fromSlice + zFactor);
+                Arrays.fill(blockValues, 0L);
+                Arrays.fill(blockCounts, 0);
+                for (int z = fromSlice; z < toSlice; z++) {
+                    RenderedImage sliceImage = decoder.decodePage(z);
+                    Raster sliceRaster = null;
+                    for (int y = 0; y < roiHeight; y += rowStep) {
+                        int imageY = tiffROI.startY + y;
+                        if (sliceRaster == null || imageY >= sliceRaster.getMinY() + sliceRaster.getHeight()) {
+                            sliceRaster = downsamplingMethod == DownsamplingMethod.SUBSAMPLE
+                                    ? getROIRowsUpToTileRowEnd(sliceImage, roiRect, imageY)
+                                    : sliceImage.getData(roiRect);
+                        }
+                        sliceRaster.getSamples(tiffROI.startX, imageY, roiWidth, 1, 0, rowSamples);
+                        int outRowOffset = (y / yFactor) * outWidth;
+                        if (downsamplingMethod == DownsamplingMethod.SUBSAMPLE) {
+                            for (int outX = 0; outX < outWidth; outX++) {
+                                blockValues[outRowOffset + outX] = rowSamples[outX * xFactor] & 0xFFFFFFFFL;
+                                blockCounts[outRowOffset + outX] = 1;
+                            }
+                        } else {
+                            for (int x = 0; x < roiWidth; x++) {
+                                int blockIndex = outRowOffset + x / xFactor;
+                                long sample = rowSamples[x] & 0xFFFFFFFFL;
+                                if (downsamplingMethod == DownsamplingMethod.MAX) {
+                                    blockValues[blockIndex] = Math.max(blockValues[blockIndex], sample);
+                                } else {
+                                    blockValues[blockIndex] += sample;
+                                }
+                                blockCounts[blockIndex]++;
+                            }
+                        }
+                    }
+                }
+                int outOffset = outZ * outSliceSize * tiffROI.bytesPerPixel;
+                for (int i = 0; i < outSliceSize; i++) {
+                    long value = downsamplingMethod == DownsamplingMethod.BOX && blockCounts[i] > 0
+                            ? (blockValues[i] + blockCounts[i] / 2) / blockCounts[i]
+                            : blockValues[i];
+                    for (int b = 0; b < tiffROI.bytesPerPixel; b++) {
+                        outBuffer[outOffset++] = (byte) ((value >>> (8 * b)) & 0xFF);
+                    }
+                }
+            }
+            return outBuffer;
+        } catch (Exception e) {
+            LOG.error("Error reading downsampled ROI from TIFF image stream", e);
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @return the ROI rows of the image starting at the given row and ending with the last row of the image's strip
+     * or tile row that contains it, so that only the strips or tiles holding the requested rows are decoded.
+     */
+    private static Raster getROIRowsUpToTileRowEnd(RenderedImage image, Rectangle roiRect, int fromRow) {
+        int tileRow = Math.floorDiv(fromRow - image.getTileGridYOffset(), image.getTileHeight());
+        int tileRowEnd = image.getTileGridYOffset() + (tileRow + 1) * image.getTileHeight();
+        int toRow = Math.min(tileRowEnd, roiRect.y + roiRect.height);
+        return image.getData(new Rectangle(roiRect.x, fromRow, roiRect.width, toRow - fromRow));
+    }
+
+    /**
+     * Project the selected ROI along the given axis. The ROI is selected exactly as in
+     * {@link #loadImagePixelBytesFromTiffStream(InputStream, int, int, int, int, int, int)}. The result is a single
+     * 2D image with the same pixel size and byte order as the ROI: for a Z projection it has the ROI's width and
+     * height, for a Y projection it has the ROI's width and one row per slice and for an X projection it has
+     * the ROI's height as width and one row per slice.
+     * The slices are decoded one at a time and accumulated into the projection so only the projection is held in
+     * memory. If an executor is given the Z range is split into slabs of at most slabDepth slices, projected
+     * concurrently, each one from its own stream obtained from the stream supplier, and then combined.
+     *
+     * @param imageStreamSupplier supplier that opens a new stream of the image every time it is invoked
+     * @param projectionExecutor executor used for projecting the slabs; if null the ROI is projected sequentially
+     * @param slabDepth maximum number of slices projected by a single task
+     * @return the projection or null if the image does not exist or the ROI is empty
+     */
+    @Nullable
+    public static byte[] projectImagePixelBytesFromTiffStreams(NamedSupplier<InputStream> imageStreamSupplier,
+                                                               int x0, int y0, int z0,
+                                                               int deltax, int deltay, int deltaz,
+                                                               Coordinate projectionAxis,
+                                                               ProjectionType projectionType,
+                                                               @Nullable ExecutorService projectionExecutor,
+                                                               int slabDepth) {
+        Preconditions.checkArgument(projectionAxis != null, "Projection axis is required");
+        Preconditions.checkArgument(projectionType != null, "Projection type is required");
+        Preconditions.checkArgument(slabDepth > 0, "The slab depth must be positive");
+        InputStream inputStream = imageStreamSupplier.get();
+        if (inputStream == null) return null;
+        Stopwatch stopwatch = Stopwatch.createStarted();
+        List<Future<long[]>> slabProjectionResults = new ArrayList<>();
+        AtomicBoolean slabsCancelled = new AtomicBoolean(false);
+        try (SeekableStreamWrapper tiffStream = new SeekableStreamWrapper(inputStream)) {
+            TiffROI tiffROI = getROIFromTiffStream(tiffStream, x0, y0, z0, deltax, deltay, deltaz);
+            if (tiffROI == null) {
+                return null;
+            }
+            int roiWidth = tiffROI.endX - tiffROI.startX;
+            int roiHeight = tiffROI.endY - tiffROI.startY;
+            int numSlices = tiffROI.endZ - tiffROI.startZ;
+            int projectionWidth = projectionAxis == Coordinate.X ? roiHeight : roiWidth;
+            int projectionHeight = projectionAxis == Coordinate.Z ? roiHeight : numSlices;
+            int projectedVoxels;
+            switch (projectionAxis) {
+                case X:
+                    projectedVoxels = roiWidth;
+                    break;
+                case Y:
+                    projectedVoxels = roiHeight;
+                    break;
+                default:
+                    projectedVoxels = numSlices;
+                    break;
+            }
+            int firstSlabDepth = projectionExecutor == null ? numSlices : Math.min(numSlices, slabDepth);
+            for (int slabStart = firstSlabDepth; slabStart < numSlices; slabStart += slabDepth) {
+                int fromSlice = slabStart;
+                int toSlice = Math.min(numSlices, slabStart + slabDepth);
+                slabProjectionResults.add(projectionExecutor.submit(RequestContext.propagate(() -> {
+                    try (SeekableStreamWrapper slabStream = new SeekableStreamWrapper(imageStreamSupplier.get())) {
+                        long[] slabProjection = new long[projectionWidth * projectionHeight];
+                        projectROISlices(createTiffPageDecoder(slabStream, slabStream.getTiffIndex()), tiffROI, fromSlice, toSlice,
+                                projectionAxis, projectionType, slabProjection, projectionWidth, slabsCancelled);
+                        return slabProjection;
+                    }
+                })));
+            }
+            long[] projection = new long[projectionWidth * projectionHeight];
+            projectROISlices(createTiffPageDecoder(tiffStream, tiffStream.getTiffIndex()), tiffROI, 0, firstSlabDepth,
+                    projectionAxis, projectionType, projection, projectionWidth, slabsCancelled);
+            for (Future<long[]> slabProjectionResult : slabProjectionResults) {
+                long[] slabProjection = slabProjectionResult.get();
+                for (int i = 0; i < projection.length; i++) {
+                    projection[i] = projectionType == ProjectionType.MAX
+                            ? Math.max(projection[i], slabProjection[i])
+                            : projection[i] + slabProjection[i];
+                }
+            }
+            byte[] projectionBytes = new byte[projection.length * tiffROI.bytesPerPixel];
+            int outOffset = 0;
+            for (long projectedValue : projection) {
+                long value = projectionType == ProjectionType.MEAN
+                        ? (projectedValue + projectedVoxels / 2) / projectedVoxels
+                        : projectedValue;
+                for (int b = 0; b < tiffROI.bytesPerPixel; b++) {
+                    projectionBytes[outOffset++] = (byte) ((value >>> (8 * b)) & 0xFF);
+                }
+            }
+            LOG.debug("{} projection along {} of {} slices from {} in {} slabs took {} ms",
+                    projectionType, projectionAxis, numSlices, imageStreamSupplier.getName(), slabProjectionResults.size() + 1,
+                    stopwatch.elapsed(TimeUnit.MILLISECONDS));
+            return projectionBytes;
+        } catch (Exception e) {
+            throw cancelSlabs(slabProjectionResults, slabsCancelled, imageStreamSupplier.getName(), e);
+        }
+    }
+
+    /**
+     * Decode the ROI slices in the range [fromSlice, toSlice), relative to the start of the ROI, and accumulate them
+     * into the projection - the maximum for MAX projections and the sum for MEAN projections. The projection stops
+     * early once the slabs are cancelled.
+     */
+    private static void projectROISlices(TiffPageDecoder decoder, TiffROI tiffROI, int fromSlice, int toSlice,
+                                         Coordinate projectionAxis, ProjectionType projectionType,
+                                         long[] projection, int projectionWidth,
+                                         AtomicBoolean slabsCancelled) throws IOException {
+        int roiWidth = tiffROI.endX - tiffROI.startX;
+        int roiHeight = tiffROI.endY - tiffROI.startY;
+        Rectangle roiRect = new Rectangle(tiffROI.startX, tiffROI.startY, roiWidth, roiHeight);
+        int[] rowSamples = new int[roiWidth];
+        for (int sliceIndex = fromSlice; sliceIndex < toSlice && !slabsCancelled.get(); sliceIndex++) {
+            Raster sliceRaster = decoder.decodePage(tiffROI.startZ + sliceIndex).getData(roiRect);
+            for (int y = 0; y < roiHeight; y++) {
+                sliceRaster.getSamples(tiffROI.startX, tiffROI.startY + y, roiWidth, 1, 0, rowSamples);
+                for (int x = 0; x < roiWidth; x++) {
+                    int projectionIndex;
+                    switch (projectionAxis) {
+                        case X:
+                            projectionIndex = sliceIndex * projectionWidth + y;
+                            break;
+                        case Y:
+                            projectionIndex = sliceIndex * projectionWidth + x;
+                            break;
+                        default:
+                            projectionIndex = y * projectionWidth + x;
+                            break;
+                    }
+                    long sample = rowSamples[x] & 0xFFFFFFFFL;
+                    if (projectionType == ProjectionType.MAX) {
+                        projection[projectionIndex] = Math.max(projection[projectionIndex], sample);
+                    } else {
+                        projection[projectionIndex] += sample;
+                    }
+                }
+            }
+        }
+    }
+
     public static long sizeImagePixelBytesFromTiffStream(InputStream inputStream,
                                                          int x0, int y0, int z0,
                                                          int deltax, int deltay, int deltaz) {
         if (inputStream == null) {
             return 0L;
         }
-        try (SeekableStream tiffStream = new SeekableStreamWrapper(inputStream)) {
+        try (SeekableStreamWrapper tiffStream = new SeekableStreamWrapper(inputStream)) {
             TiffROI tiffROI = getROIFromTiffStream(tiffStream, x0, y0, z0, deltax, deltay, deltaz);
             return (long) (tiffROI.endX - tiffROI.startX) *
                     (tiffROI.endY - tiffROI.startY) *
@@ -251,15 +678,28 @@ public class ImageUtils {
     }
 
     @Nonnull
-    private static TiffROI getROIFromTiffStream(@Nonnull SeekableStream tiffStream,
+    private static TiffROI getROIFromTiffStream(@Nonnull SeekableStreamWrapper tiffStream,
                                                 int x0, int y0, int z0,
                                                 int deltax, int deltay, int deltaz) {
         try {
-            TIFFDirectory tiffDirectory = new TIFFDirectory(tiffStream, 0);
-            int imageWidth = (int) tiffDirectory.getFieldAsLong(TIFFImageDecoder.TIFF_IMAGE_WIDTH);
-            int imageHeight = (int) tiffDirectory.getFieldAsLong(TIFFImageDecoder.TIFF_IMAGE_LENGTH);
-            int numSlices = TIFFDirectory.getNumDirectories(tiffStream);
-            int bitsPerPixel = (int) tiffDirectory.getFieldAsLong(TIFFImageDecoder.TIFF_BITS_PER_SAMPLE);
+            TiffIndex tiffIndex = tiffStream.getTiffIndex();
+            int imageWidth;
+            int imageHeight;
+            int numSlices;
+            int bitsPerPixel;
+            if (tiffIndex != null) {
+                TiffIndex.Page firstPage = tiffIndex.getPage(0);
+                imageWidth = firstPage.getWidth();
+                imageHeight = firstPage.getHeight();
+                numSlices = tiffIndex.getNumPages();
+                bitsPerPixel = firstPage.getBitsPerSample();
+            } else {
+                TIFFDirectory tiffDirectory = new TIFFDirectory(tiffStream, 0);
+                imageWidth = (int) tiffDirectory.getFieldAsLong(TIFFImageDecoder.TIFF_IMAGE_WIDTH);
+                imageHeight = (int) tiffDirectory.getFieldAsLong(TIFFImageDecoder.TIFF_IMAGE_LENGTH);
+                numSlices = TIFFDirectory.getNumDirectories(tiffStream);
+                bitsPerPixel = (int) tiffDirectory.getFieldAsLong(TIFFImageDecoder.TIFF_BITS_PER_SAMPLE);
+            }
             int bytesPerPixel = bitsPerPixel / 8;
 
             int startX;
@@ -318,11 +758,31 @@ public class ImageUtils {
     public static byte[] loadRenderedImageBytesFromTiffStream(@Nullable InputStream inputStream,
                                                               int x0, int y0, int z0,
                                                               int deltax, int deltay, int deltaz) {
-        if (inputStream == null) {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        if (writeRenderedImageBytesFromTiffStream(inputStream, x0, y0, z0, deltax, deltay, deltaz, outputStream)) {
+            return outputStream.toByteArray();
+        } else {
             return null;
         }
-        try (SeekableStream tiffStream = new SeekableStreamWrapper(inputStream)) {
-            int numSlices = TIFFDirectory.getNumDirectories(tiffStream);
+    }
+
+    /**
+     * Encode the selected region of the TIFF stream as a TIFF image directly into the given output stream.
+     * If the region is not cropped in XY the selected pages are copied without being decoded and re-encoded.
+     * The output stream is flushed but not closed.
+     *
+     * @return true if anything was written.
+     */
+    public static boolean writeRenderedImageBytesFromTiffStream(@Nullable InputStream inputStream,
+                                                                int x0, int y0, int z0,
+                                                                int deltax, int deltay, int deltaz,
+                                                                OutputStream outputStream) {
+        if (inputStream == null) {
+            return false;
+        }
+        try (SeekableStreamWrapper tiffStream = new SeekableStreamWrapper(inputStream)) {
+            TiffIndex tiffIndex = tiffStream.getTiffIndex();
+            int numSlices = tiffIndex != null ? tiffIndex.getNumPages() : TIFFDirectory.getNumDirectories(tiffStream);
             int startZ;
             int endZ;
             if (deltaz > 0) {
@@ -332,13 +792,21 @@ public class ImageUtils {
                 startZ = 0;
                 endZ = numSlices;
             }
-            ImageDecoder decoder = ImageCodec.createImageDecoder("tiff", tiffStream, null);
+            if (endZ > startZ && x0 <= 0 && y0 <= 0 && deltax != 0 && deltay != 0) {
+                // whole pages are copied verbatim without decoding and re-encoding them
+                TiffPageCopier tiffPageCopier = TiffPageCopier.create(tiffStream, tiffIndex, startZ, endZ);
+                if (tiffPageCopier != null && tiffPageCopier.isCoveredBy(x0, y0, deltax, deltay)) {
+                    tiffPageCopier.copyPages(tiffStream, outputStream);
+                    return true;
+                }
+            }
+            TiffPageDecoder decoder = createTiffPageDecoder(tiffStream, tiffIndex);
             Iterator<BufferedImage> pagesIterator = IntStream.range(0, endZ - startZ)
                     .mapToObj(sliceIndex -> {
                         try {
                             return ImageUtils.renderedImageToBufferedImage(
                                     new NullOpImage(
-                                            decoder.decodeAsRenderedImage(startZ + sliceIndex),
+                                            decoder.decodePage(startZ + sliceIndex),
                                             null,
                                             null,
                                             NullOpImage.OP_IO_BOUND),
@@ -350,15 +818,14 @@ public class ImageUtils {
                     })
                     .iterator();
             if (endZ - startZ <= 0) {
-                return null;
+                return false;
             } else {
-                ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
                 TIFFEncodeParam param = new TIFFEncodeParam();
                 ImageEncoder encoder = ImageCodec.createImageEncoder("tiff", outputStream, param);
                 param.setExtraImages(pagesIterator);
                 encoder.encode(pagesIterator.next());
                 outputStream.flush();
-                return outputStream.toByteArray();
+                return true;
             }
         } catch (Exception e) {
             LOG.error("Error reading TIFF image stream", e);
@@ -378,7 +845,9 @@ public class ImageUtils {
                     }
                 });
         RenderedImagesWithStreams mergedImages = ImageUtils.mergeImages(imageSuppliers);
+        long bandMergeStartNanos = System.nanoTime();
         RenderedImageWithStream imageResult = mergedImages.combine("bandmerge");
+        RenderingTrace.recordStage(RenderingStage.BAND_MERGE, bandMergeStartNanos, 0L);
         if (imageResult == null) {
             return null;
         } else {
@@ -391,6 +860,93 @@ public class ImageUtils {
         }
     }
 
+    /**
+     * Same as {@link #bandMergedTextureBytesFromImageStreams(Stream, int)} but if an executor is provided, the channel
+     * pages are decoded concurrently before they are band merged. The calling thread decodes the first channel
+     * while the remaining channels are decoded on the executor so the executor should not be shared with tasks
+     * that wait for this method to complete.
+     *
+     * @param imageStreamsSuppliers channel image streams
+     * @param pageNumber page to decode from each channel image
+     * @param channelDecodeExecutor executor used for decoding the channels - if null the channels are decoded sequentially
+     * @return texture bytes
+     */
+    public static byte[] bandMergedTextureBytesFromImageStreams(Stream<NamedSupplier<InputStream>> imageStreamsSuppliers,
+                                                                int pageNumber,
+                                                                @Nullable ExecutorService channelDecodeExecutor) {
+        if (channelDecodeExecutor == null) {
+            return bandMergedTextureBytesFromImageStreams(imageStreamsSuppliers, pageNumber);
+        }
+        Stopwatch stopwatch = Stopwatch.createStarted();
+        List<NamedSupplier<InputStream>> channelStreamSuppliers = imageStreamsSuppliers.collect(Collectors.toList());
+        List<Future<RenderedImagesWithStreams>> channelDecodeResults = new ArrayList<>();
+        RenderedImagesWithStreams mergedImages = RenderedImagesWithStreams.empty();
+        try {
+            for (int channel = 1; channel < channelStreamSuppliers.size(); channel++) {
+                NamedSupplier<InputStream> channelStreamSupplier = channelStreamSuppliers.get(channel);
+                channelDecodeResults.add(channelDecodeExecutor.submit(
+                        RequestContext.propagate(RenderingTrace.propagate(() -> decodeRenderedImageFromTiffStream(channelStreamSupplier, pageNumber)))));
+            }
+            if (!channelStreamSuppliers.isEmpty()) {
+                RenderedImagesWithStreams firstChannelImage = decodeRenderedImageFromTiffStream(channelStreamSuppliers.get(0), pageNumber);
+                if (firstChannelImage != null) {
+                    mergedImages.append(firstChannelImage);
+                }
+            }
+            for (Future<RenderedImagesWithStreams> channelDecodeResult : channelDecodeResults) {
+                RenderedImagesWithStreams channelImage = channelDecodeResult.get();
+                if (channelImage != null) {
+                    mergedImages.append(channelImage);
+                }
+            }
+        } catch (InterruptedException e) {
+            cancelChannelDecodes(channelDecodeResults);
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        } catch (ExecutionException e) {
+            cancelChannelDecodes(channelDecodeResults);
+            LOG.error("Error decoding page {} from {}", pageNumber, channelStreamSuppliers.stream().map(NamedSupplier::getName).collect(Collectors.toList()), e.getCause());
+            throw new IllegalStateException(e.getCause());
+        } catch (RuntimeException e) {
+            // the channel decoded on the calling thread failed
+            cancelChannelDecodes(channelDecodeResults);
+            throw e;
+        }
+        LOG.debug("Concurrent decoding of page {} from {} took {} ms", pageNumber, mergedImages.getRenderedImageNames(), stopwatch.elapsed(TimeUnit.MILLISECONDS));
+        long bandMergeStartNanos = System.nanoTime();
+        RenderedImageWithStream imageResult = mergedImages.combine("bandmerge");
+        RenderingTrace.recordStage(RenderingStage.BAND_MERGE, bandMergeStartNanos, 0L);
+        if (imageResult == null) {
+            return null;
+        } else {
+            try {
+                return ImageUtils.renderedImageToTextureBytes(imageResult.getRenderedImage());
+            } finally {
+                imageResult.close();
+                LOG.debug("bandMergedTextureBytesFromImageStreams page {} for {} using concurrent channel decoding took {} ms", pageNumber, mergedImages.getRenderedImageNames(), stopwatch.elapsed(TimeUnit.MILLISECONDS));
+            }
+        }
+    }
+
+    /**
+     * Cancel the channel decodes that have not started yet. Running decodes are not interrupted because
+     * interrupting a read from a pooled file channel closes the channel for all its readers.
+     */
+    private static void cancelChannelDecodes(List<Future<RenderedImagesWithStreams>> channelDecodeResults) {
+        channelDecodeResults.forEach(f -> f.cancel(false));
+    }
+
+    /**
+     * Creates a bounded executor that can be used for decoding image channels concurrently.
+     *
+     * @param nThreads number of decoding threads
+     * @return
+     */
+    public static ExecutorService createImageDecodeExecutor(int nThreads) {
+        Preconditions.checkArgument(nThreads > 0, "The number of decoding threads must be positive");
+        return Executors.newFixedThreadPool(nThreads, new ThreadFactoryBuilder().setNameFormat("ImageDecoder-%d").setDaemon(true).build());
+    }
+
     public static long sizeBandMergedTextureBytesFromImageStreams(Stream<NamedSupplier<InputStream>> imageStreamsSuppliers, int pageNumber) {
         Stopwatch stopwatch = Stopwatch.createStarted();
         Stream<RenderedImagesWithStreamsSupplier> imageSuppliers = imageStreamsSuppliers
@@ -430,18 +986,30 @@ public class ImageUtils {
     @Nullable
     private static RenderedImagesWithStreams loadRenderedImageFromTiffStream(NamedSupplier<InputStream> namedInputStreamSupplier, int pageNumber) {
         Stopwatch stopwatch = Stopwatch.createStarted();
+        long openStartNanos = System.nanoTime();
         InputStream inputStream = namedInputStreamSupplier.get();
+        RenderingTrace.recordStage(RenderingStage.OPEN_STREAM, openStartNanos, 0L);
         if (inputStream == null) {
             return null;
         }
-        SeekableStream tiffStream = new SeekableStreamWrapper(inputStream);
+        SeekableStreamWrapper tiffStream = new SeekableStreamWrapper(inputStream);
         try {
             LOG.debug("Load page {} from {}", pageNumber, namedInputStreamSupplier.getName());
-            ParameterBlock decodeTiffPB = new ParameterBlock()
-                    .add(tiffStream)
-                    .add(null)
-                    .add(pageNumber);
-            RenderedOp renderedImage = JAI.create("tiff", decodeTiffPB);
+            // the pixels are decoded lazily so this only reads the page's directory
+            // (JAI's tiff operator defers even that until the image is first used)
+            long readIFDStartNanos = System.nanoTime();
+            TiffIndex tiffIndex = tiffStream.getTiffIndex();
+            RenderedImage renderedImage;
+            if (tiffIndex != null) {
+                renderedImage = decodeIndexedTiffPage(tiffStream, tiffIndex, pageNumber);
+            } else {
+                ParameterBlock decodeTiffPB = new ParameterBlock()
+                        .add(tiffStream)
+                        .add(null)
+                        .add(pageNumber);
+                renderedImage = JAI.create("tiff", decodeTiffPB);
+            }
+            RenderingTrace.recordStage(RenderingStage.READ_IFD, readIFDStartNanos, 0L);
             return RenderedImagesWithStreams.withImageAndStream(namedInputStreamSupplier.getName() + ":" + pageNumber, renderedImage, tiffStream);
         } catch (Exception e) {
             LOG.error("Error reading TIFF image stream", e);
@@ -451,6 +1019,48 @@ public class ImageUtils {
         }
     }
 
+    /**
+     * Load the page and decode it eagerly so that the decoding happens on the current thread.
+     * The source stream is closed as soon as the page is decoded.
+     */
+    @Nullable
+    private static RenderedImagesWithStreams decodeRenderedImageFromTiffStream(NamedSupplier<InputStream> namedInputStreamSupplier, int pageNumber) {
+        Stopwatch stopwatch = Stopwatch.createStarted();
+        RenderedImagesWithStreams rims = loadRenderedImageFromTiffStream(namedInputStreamSupplier, pageNumber);
+        if (rims == null) {
+            return null;
+        }
+        try {
+            RenderedImageWithStream pageImage = rims.combine("bandmerge");
+            long decodeStartNanos = System.nanoTime();
+            BufferedImage decodedPage = renderedImageToBufferedImage(pageImage.getRenderedImage(), 0, 0, -1, -1);
+            RenderingTrace.recordStage(RenderingStage.DECODE, decodeStartNanos, 0L);
+            return RenderedImagesWithStreams.withImageAndStream(namedInputStreamSupplier.getName() + ":" + pageNumber, decodedPage, null);
+        } finally {
+            rims.close();
+            LOG.debug("Decoded page {} from channel {} in {} ms", pageNumber, namedInputStreamSupplier.getName(), stopwatch.elapsed(TimeUnit.MILLISECONDS));
+        }
+    }
+
+    private static TiffPageDecoder createTiffPageDecoder(SeekableStream tiffStream, @Nullable TiffIndex tiffIndex) throws IOException {
+        if (tiffIndex != null) {
+            return pageNumber -> decodeIndexedTiffPage(tiffStream, tiffIndex, pageNumber);
+        } else {
+            ImageDecoder decoder = ImageCodec.createImageDecoder("tiff", tiffStream, null);
+            return decoder::decodeAsRenderedImage;
+        }
+    }
+
+    /**
+     * Decode the page directly from its IFD offset. This avoids the TIFF decoder walking the entire IFD chain
+     * only to find out the number of pages.
+     */
+    private static RenderedImage decodeIndexedTiffPage(SeekableStream tiffStream, TiffIndex tiffIndex, int pageNumber) throws IOException {
+        TIFFDecodeParam decodeParam = new TIFFDecodeParam();
+        decodeParam.setIFDOffset(tiffIndex.getPage(pageNumber).getIfdOffset());
+        return new TIFFImage(tiffStream, decodeParam, 0);
+    }
+
     private static int clamp(int min, int max, int startingValue) {
         int rtnVal = startingValue;
         if (startingValue < min) {
@@ -557,7 +1167,9 @@ public class ImageUtils {
             // If input image uses indexed color table, convert to RGB first.
             if (renderedImage.getColorModel() instanceof IndexColorModel) {
                 IndexColorModel indexColorModel = (IndexColorModel) renderedImage.getColorModel();
+                long decodeStartNanos = System.nanoTime();
                 Raster renderedImageData = renderedImage.getData();
+                RenderingTrace.recordStage(RenderingStage.DECODE, decodeStartNanos, 0L);
                 LOG.debug("renderedImageToTextureBytes.getRenderedImageData after {} ms", stopwatch.elapsed(TimeUnit.MILLISECONDS));
                 rgbImage = indexColorModel.convertToIntDiscrete(renderedImageData, false);
                 colorModel = rgbImage.getColorModel();
@@ -590,7 +1202,7 @@ public class ImageUtils {
             int imageByteCount = height * rowByteCount;
             LOG.debug("renderedImageToTextureBytes.getImageSize after {} ms", stopwatch.elapsed(TimeUnit.MILLISECONDS));
 
-            int byteBufferSize = (Integer.SIZE / 8) * 8 + (Float.SIZE / 8) + imageByteCount;
+            int byteBufferSize = TEXTURE_HEADER_SIZE + imageByteCount;
             byte[] dataBytesArray = new byte[byteBufferSize];
             ByteBuffer dataBytesBuffer = ByteBuffer.wrap(dataBytesArray);
 
@@ -607,8 +1219,16 @@ public class ImageUtils {
             ByteBuffer pixelsBuffer = ByteBuffer.wrap(dataBytesArray, dataBytesBuffer.position(), dataBytesBuffer.capacity() - dataBytesBuffer.position());
             pixelsBuffer.order(ByteOrder.nativeOrder());
 
+            long decodeStartNanos = System.nanoTime();
             Raster raster = rgbImage.getData();
+            RenderingTrace.recordStage(RenderingStage.DECODE, decodeStartNanos, 0L);
 
+            long packStartNanos = System.nanoTime();
+            if (copyRasterToTextureBuffer(raster, usedWidth, width, height, channelCount, bitDepth, pixelsBuffer)) {
+                RenderingTrace.recordStage(RenderingStage.TEXTURE_PACK, packStartNanos, dataBytesArray.length);
+                return dataBytesArray;
+            }
+            // generic path for color models that do not store each sample in its own array element
             int pixelData[] = new int[channelCount];
             int padData[] = new int[channelCount]; // color for edge padding
             final boolean is16Bit = bitDepth == 16;
@@ -648,12 +1268,294 @@ public class ImageUtils {
                     }
                 }
             }
+            RenderingTrace.recordStage(RenderingStage.TEXTURE_PACK, packStartNanos, dataBytesArray.length);
             return dataBytesArray;
         } finally {
             LOG.debug("Render texture bytes took {} ms", stopwatch.elapsed(TimeUnit.MILLISECONDS));
         }
     }
 
+    /**
+     * Pack single channel planes of little endian samples into texture bytes with the same layout as
+     * {@link #renderedImageToTextureBytes} produces for the band merged image of the channels.
+     *
+     * @param channelPlanes one plane per channel, each one holding width x height samples with x varying fastest
+     * @param usedWidth plane width
+     * @param height plane height
+     * @param bytesPerSample 1 or 2
+     * @return
+     */
+    public static byte[] channelPlanesToTextureBytes(List<byte[]> channelPlanes, int usedWidth, int height, int bytesPerSample) {
+        Preconditions.checkArgument(!channelPlanes.isEmpty(), "At least one channel is required");
+        Preconditions.checkArgument(bytesPerSample == 1 || bytesPerSample == 2, "Only 8-bit and 16-bit samples are supported");
+        int channelCount = channelPlanes.size();
+        int bitDepth = bytesPerSample * 8;
+        int width;
+        float textureCoordX;
+        if ((usedWidth % 8) != 0) {
+            width = usedWidth + 8 - (usedWidth % 8);
+            textureCoordX = usedWidth / (float) width;
+        } else {
+            width = usedWidth;
+            textureCoordX = 1.0f;
+        }
+        // same as the color space of the image generated by JAI's bandmerge: gray for 1 or 2 bands and sRGB for 3 or 4 bands
+        int srgb = channelCount >= 3 ? 1 : 0;
+        int imageByteCount = height * width * channelCount * bytesPerSample;
+
+        byte[] dataBytesArray = new byte[TEXTURE_HEADER_SIZE + imageByteCount];
+        ByteBuffer dataBytesBuffer = ByteBuffer.wrap(dataBytesArray);
+        dataBytesBuffer.putInt(0); // mipmap level
+        dataBytesBuffer.putInt(width);
+        dataBytesBuffer.putInt(usedWidth);
+        dataBytesBuffer.putInt(height);
+        dataBytesBuffer.putInt(DEFAULT_BORDER);
+        dataBytesBuffer.putInt(srgb);
+        dataBytesBuffer.putInt(bitDepth);
+        dataBytesBuffer.putInt(channelCount);
+        dataBytesBuffer.putFloat(textureCoordX);
+
+        ByteBuffer pixelsBuffer = ByteBuffer.wrap(dataBytesArray, dataBytesBuffer.position(), imageByteCount).slice();
+        pixelsBuffer.order(ByteOrder.nativeOrder());
+        if (bytesPerSample == 2) {
+            ShortBuffer texturePixels = pixelsBuffer.asShortBuffer();
+            ShortBuffer[] channelSamples = channelPlanes.stream()
+                    .map(plane -> ByteBuffer.wrap(plane).order(ByteOrder.LITTLE_ENDIAN).asShortBuffer())
+                    .toArray(ShortBuffer[]::new);
+            for (int y = 0; y < height; y++) {
+                int rowStart = y * usedWidth;
+                for (int x = 0; x < width; x++) {
+                    // pad the right edge with the last used pixel
+                    int sampleIndex = rowStart + Math.min(x, usedWidth - 1);
+                    for (int c = 0; c < channelCount; c++) {
+                        texturePixels.put(channelSamples[c].get(sampleIndex));
+                    }
+                }
+            }
+        } else {
+            for (int y = 0; y < height; y++) {
+                int rowStart = y * usedWidth;
+                for (int x = 0; x < width; x++) {
+                    int sampleIndex = rowStart + Math.min(x, usedWidth - 1);
+                    for (int c = 0; c < channelCount; c++) {
+                        pixelsBuffer.put(channelPlanes.get(c)[sampleIndex]);
+                    }
+                }
+            }
+        }
+        return dataBytesArray;
+    }
+
+    /**
+     * Unpack texture bytes into one plane of little endian samples per channel without the right edge padding.
+     * This is the inverse of {@link #channelPlanesToTextureBytes}.
+     *
+     * @param textureBytes
+     * @return
+     */
+    public static List<byte[]> textureBytesToChannelPlanes(byte[] textureBytes) {
+        ByteBuffer dataBytesBuffer = ByteBuffer.wrap(textureBytes);
+        dataBytesBuffer.getInt(); // mipmap level
+        int width = dataBytesBuffer.getInt();
+        int usedWidth = dataBytesBuffer.getInt();
+        int height = dataBytesBuffer.getInt();
+        dataBytesBuffer.getInt(); // border
+        dataBytesBuffer.getInt(); // srgb
+        int bytesPerSample = dataBytesBuffer.getInt() / 8;
+        int channelCount = dataBytesBuffer.getInt();
+        dataBytesBuffer.getFloat(); // texture coord x
+        ByteBuffer pixelsBuffer = dataBytesBuffer.slice().order(ByteOrder.nativeOrder());
+        List<byte[]> channelPlanes = new ArrayList<>();
+        for (int c = 0; c < channelCount; c++) {
+            channelPlanes.add(new byte[usedWidth * height * bytesPerSample]);
+        }
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < usedWidth; x++) {
+                for (int c = 0; c < channelCount; c++) {
+                    int textureOffset = ((y * width + x) * channelCount + c) * bytesPerSample;
+                    int planeOffset = (y * usedWidth + x) * bytesPerSample;
+                    if (bytesPerSample == 2) {
+                        short sample = pixelsBuffer.getShort(textureOffset);
+                        channelPlanes.get(c)[planeOffset] = (byte) sample;
+                        channelPlanes.get(c)[planeOffset + 1] = (byte) (sample >> 8);
+                    } else {
+                        channelPlanes.get(c)[planeOffset] = pixelsBuffer.get(textureOffset);
+                    }
+                }
+            }
+        }
+        return channelPlanes;
+    }
+
+    /**
+     * Remap the samples of texture bytes to 8 bits using one lookup table per channel. The header of the result
+     * is the same as the source's except for the bit depth.
+     *
+     * @param textureBytes 8-bit or 16-bit texture bytes
+     * @param channelLookupTables lookup tables indexed by the source sample; if there's a single table it is used for all channels
+     * @return
+     */
+    public static byte[] remapTextureBytesTo8Bit(byte[] textureBytes, List<byte[]> channelLookupTables) {
+        ByteBuffer sourceBuffer = ByteBuffer.wrap(textureBytes);
+        int width = sourceBuffer.getInt(TEXTURE_WIDTH_OFFSET);
+        int height = sourceBuffer.getInt(TEXTURE_HEIGHT_OFFSET);
+        int bytesPerSample = sourceBuffer.getInt(TEXTURE_BIT_DEPTH_OFFSET) / 8;
+        int channelCount = sourceBuffer.getInt(TEXTURE_CHANNEL_COUNT_OFFSET);
+        Preconditions.checkArgument(bytesPerSample == 1 || bytesPerSample == 2, "Only 8-bit and 16-bit textures can be remapped");
+        Preconditions.checkArgument(channelLookupTables.size() == 1 || channelLookupTables.size() == channelCount,
+                "Expected 1 or %s lookup tables but got %s", channelCount, channelLookupTables.size());
+        byte[][] lookupTables = new byte[channelCount][];
+        for (int c = 0; c < channelCount; c++) {
+            lookupTables[c] = channelLookupTables.get(channelLookupTables.size() == 1 ? 0 : c);
+            Preconditions.checkArgument(lookupTables[c].length >= 1 << (bytesPerSample * 8), "Lookup table for channel %s is too small", c);
+        }
+        int headerSize = TEXTURE_HEADER_SIZE;
+        int sampleCount = width * height * channelCount;
+        byte[] remappedBytes = new byte[headerSize + sampleCount];
+        System.arraycopy(textureBytes, 0, remappedBytes, 0, headerSize);
+        ByteBuffer.wrap(remappedBytes).putInt(TEXTURE_BIT_DEPTH_OFFSET, 8);
+        if (bytesPerSample == 2) {
+            ShortBuffer sourceSamples = ByteBuffer.wrap(textureBytes, headerSize, sampleCount * 2).slice()
+                    .order(ByteOrder.nativeOrder())
+                    .asShortBuffer();
+            for (int i = 0; i < sampleCount; i++) {
+                remappedBytes[headerSize + i] = lookupTables[i % channelCount][sourceSamples.get(i) & 0xFFFF];
+            }
+        } else {
+            for (int i = 0; i < sampleCount; i++) {
+                remappedBytes[headerSize + i] = lookupTables[i % channelCount][textureBytes[headerSize + i] & 0xFF];
+            }
+        }
+        return remappedBytes;
+    }
+
+    /**
+     * Copy the raster samples to the texture buffer whole scan lines at a time directly from the raster's data arrays.
+     * This only handles rasters that store one sample per data element in 8-bit or 16-bit arrays, i.e. the samples
+     * are stored exactly as they are written to the texture.
+     *
+     * @return true if the raster could be copied, false if the raster layout is not supported
+     * and the texture must be written one pixel at a time.
+     */
+    private static boolean copyRasterToTextureBuffer(Raster raster, int usedWidth, int width, int height,
+                                                     int channelCount, int bitDepth,
+                                                     ByteBuffer pixelsBuffer) {
+        if (!(raster.getSampleModel() instanceof ComponentSampleModel)
+                || raster.getNumBands() != channelCount
+                || usedWidth == 0
+                || raster.getMinX() > 0 || raster.getMinX() + raster.getWidth() < usedWidth
+                || raster.getMinY() > 0 || raster.getMinY() + raster.getHeight() < height) {
+            return false;
+        }
+        RasterLayout rasterLayout = new RasterLayout(raster, channelCount);
+        if (bitDepth == 16 && raster.getDataBuffer() instanceof DataBufferUShort) {
+            copyUShortRasterRows(((DataBufferUShort) raster.getDataBuffer()).getBankData(), rasterLayout,
+                    usedWidth, width, height, channelCount, pixelsBuffer.asShortBuffer());
+            return true;
+        } else if (bitDepth == 8 && raster.getDataBuffer() instanceof DataBufferByte) {
+            copyByteRasterRows(((DataBufferByte) raster.getDataBuffer()).getBankData(), rasterLayout,
+                    usedWidth, width, height, channelCount, pixelsBuffer);
+            return true;
+        } else {
+            return false;
+        }
+    }
+
+    /**
+     * Location of the samples of a component raster in the raster's data arrays.
+     */
+    private static class RasterLayout {
+        private final int pixelStride;
+        private final int[] bankIndices;
+        private final int[] rowStartOffsets; // offset of the first sample in the first row for each band
+        private final int scanlineStride;
+        // true if all samples of a scan line are stored contiguously in the same bank in the texture's order
+        private final boolean contiguousSamples;
+
+        RasterLayout(Raster raster, int channelCount) {
+            ComponentSampleModel sampleModel = (ComponentSampleModel) raster.getSampleModel();
+            int[] bandOffsets = sampleModel.getBandOffsets();
+            int[] dataOffsets = raster.getDataBuffer().getOffsets();
+            // the texture starts at the raster coordinates (0, 0)
+            int startX = -raster.getSampleModelTranslateX();
+            int startY = -raster.getSampleModelTranslateY();
+            this.pixelStride = sampleModel.getPixelStride();
+            this.scanlineStride = sampleModel.getScanlineStride();
+            this.bankIndices = sampleModel.getBankIndices();
+            this.rowStartOffsets = new int[channelCount];
+            boolean contiguous = pixelStride == channelCount;
+            for (int b = 0; b < channelCount; b++) {
+                rowStartOffsets[b] = dataOffsets[bankIndices[b]] + startY * scanlineStride + startX * pixelStride + bandOffsets[b];
+                if (b > 0) {
+                    contiguous = contiguous && bankIndices[b] == bankIndices[0] && bandOffsets[b] == bandOffsets[0] + b;
+                }
+            }
+            this.contiguousSamples = contiguous;
+        }
+    }
+
+    private static void copyUShortRasterRows(short[][] banks, RasterLayout rasterLayout,
+                                             int usedWidth, int width, int height, int channelCount,
+                                             ShortBuffer shortPixelsBuffer) {
+        short[] rowBuffer = rasterLayout.contiguousSamples ? null : new short[width * channelCount];
+        for (int y = 0; y < height; y++) {
+            if (rasterLayout.contiguousSamples) {
+                short[] bank = banks[rasterLayout.bankIndices[0]];
+                int rowStart = rasterLayout.rowStartOffsets[0] + y * rasterLayout.scanlineStride;
+                shortPixelsBuffer.put(bank, rowStart, usedWidth * channelCount);
+                // pad the right edge with the last pixel of the used portion of the scan line
+                int padPixelStart = rowStart + (usedWidth - 1) * channelCount;
+                for (int x = usedWidth; x < width; x++) {
+                    shortPixelsBuffer.put(bank, padPixelStart, channelCount);
+                }
+            } else {
+                for (int b = 0; b < channelCount; b++) {
+                    short[] bank = banks[rasterLayout.bankIndices[b]];
+                    int sampleOffset = rasterLayout.rowStartOffsets[b] + y * rasterLayout.scanlineStride;
+                    for (int x = 0; x < usedWidth; x++, sampleOffset += rasterLayout.pixelStride) {
+                        rowBuffer[x * channelCount + b] = bank[sampleOffset];
+                    }
+                    short padSample = rowBuffer[(usedWidth - 1) * channelCount + b];
+                    for (int x = usedWidth; x < width; x++) {
+                        rowBuffer[x * channelCount + b] = padSample;
+                    }
+                }
+                shortPixelsBuffer.put(rowBuffer);
+            }
+        }
+    }
+
+    private static void copyByteRasterRows(byte[][] banks, RasterLayout rasterLayout,
+                                           int usedWidth, int width, int height, int channelCount,
+                                           ByteBuffer pixelsBuffer) {
+        byte[] rowBuffer = rasterLayout.contiguousSamples ? null : new byte[width * channelCount];
+        for (int y = 0; y < height; y++) {
+            if (rasterLayout.contiguousSamples) {
+                byte[] bank = banks[rasterLayout.bankIndices[0]];
+                int rowStart = rasterLayout.rowStartOffsets[0] + y * rasterLayout.scanlineStride;
+                pixelsBuffer.put(bank, rowStart, usedWidth * channelCount);
+                // pad the right edge with the last pixel of the used portion of the scan line
+                int padPixelStart = rowStart + (usedWidth - 1) * channelCount;
+                for (int x = usedWidth; x < width; x++) {
+                    pixelsBuffer.put(bank, padPixelStart, channelCount);
+                }
+            } else {
+                for (int b = 0; b < channelCount; b++) {
+                    byte[] bank = banks[rasterLayout.bankIndices[b]];
+                    int sampleOffset = rasterLayout.rowStartOffsets[b] + y * rasterLayout.scanlineStride;
+                    for (int x = 0; x < usedWidth; x++, sampleOffset += rasterLayout.pixelStride) {
+                        rowBuffer[x * channelCount + b] = bank[sampleOffset];
+                    }
+                    byte padSample = rowBuffer[(usedWidth - 1) * channelCount + b];
+                    for (int x = usedWidth; x < width; x++) {
+                        rowBuffer[x * channelCount + b] = padSample;
+                    }
+                }
+                pixelsBuffer.put(rowBuffer);
+            }
+        }
+    }
+
     private static long sizeOfRenderedImageAsTextureBytes(RenderedImage renderedImage) {
         RenderedImage rgbImage;
         Stopwatch stopwatch = Stopwatch.createStarted();
@@ -689,7 +1591,7 @@ public class ImageUtils {
         int imageByteCount = height * rowByteCount;
         LOG.debug("sizeOfRenderedImageAsTextureBytes.getImageSize after {} ms", stopwatch.elapsed(TimeUnit.MILLISECONDS));
 
-        return (Integer.SIZE / 8) * 8 + (Float.SIZE / 8) + imageByteCount;
+        return TEXTURE_HEADER_SIZE + imageByteCount;
     }
 
     private static BufferedImage renderedImageToBufferedImage(RenderedImage img, int x0, int y0, int width, int height) {
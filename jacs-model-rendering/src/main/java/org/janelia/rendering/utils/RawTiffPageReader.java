@@ -0,0 +1,324 @@
+package org.janelia.rendering.utils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nullable;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Stopwatch;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Reads uncompressed TIFF pages directly into the texture bytes, without going through the JAI decoder. The page
+ * data is read with positional reads staged through a {@link ByteBufferPool}, so the native memory used for reading
+ * is bounded by the pool. Only grayscale ("BlackIsZero"), single sample, unsigned 8 or 16 bit pages stored in strips
+ * are supported. For any other layout the reader returns null and the caller is expected to use the JAI decoder.
+ * The generated texture is identical to the one generated by
+ * {@link ImageUtils#bandMergedTextureBytesFromImageStreams}.
+ */
+public class RawTiffPageReader {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RawTiffPageReader.class);
+    private static final int BLACK_IS_ZERO = 1;
+    private static final int UNSIGNED_INTEGER_SAMPLE_FORMAT = 1;
+    private static final int MAX_CHANNELS = 4; // the maximum number of bands for which JAI bandmerge creates a color model
+
+    private static class PageData {
+        private final TiffIndex.Page page;
+        private final ByteBuffer pageBuffer;
+        private final long pageBufferOffset;
+        private final int rowByteCount;
+
+        private PageData(TiffIndex.Page page, ByteBuffer pageBuffer, long pageBufferOffset) {
+            this.page = page;
+            this.pageBuffer = pageBuffer;
+            this.pageBufferOffset = pageBufferOffset;
+            this.rowByteCount = page.getWidth() * page.getBytesPerPixel();
+        }
+
+        private int getRowPosition(int row) {
+            int strip = row / page.getRowsPerStrip();
+            return (int) (page.getDataOffset(strip) - pageBufferOffset) + (row - strip * page.getRowsPerStrip()) * rowByteCount;
+        }
+
+        private ByteBuffer getRowBytes(int row) {
+            ByteBuffer rowBuffer = pageBuffer.duplicate();
+            int rowPosition = getRowPosition(row);
+            rowBuffer.limit(rowPosition + rowByteCount);
+            rowBuffer.position(rowPosition);
+            return rowBuffer.slice().order(pageBuffer.order());
+        }
+
+        private ShortBuffer getRowShorts(int row) {
+            return getRowBytes(row).asShortBuffer();
+        }
+    }
+
+    /**
+     * @param page
+     * @return true if the page can be read without decoding.
+     */
+    public static boolean isSupported(TiffIndex.Page page) {
+        return page.getCompression() == TiffIndex.NO_COMPRESSION
+                && !page.isTiled()
+                && page.getSamplesPerPixel() == 1
+                && (page.getBitsPerSample() == 8 || page.getBitsPerSample() == 16)
+                && page.getPhotometricInterpretation() == BLACK_IS_ZERO
+                && page.getSampleFormat() == UNSIGNED_INTEGER_SAMPLE_FORMAT
+                && page.getWidth() > 0
+                && page.getHeight() > 0
+                && page.getRowsPerStrip() > 0
+                && page.getDataBlockCount() == (page.getHeight() + page.getRowsPerStrip() - 1) / page.getRowsPerStrip();
+    }
+
+    /**
+     * Read the given page from all channel images and band merge them into texture bytes.
+     *
+     * @param channelImagePaths channel image files
+     * @param channelTiffIndexes the indexes of the channel image files in the same order as the paths;
+     *                           null for the files that cannot be indexed
+     * @param pageNumber
+     * @return the texture bytes or null if the pages cannot be read without decoding them.
+     */
+    @Nullable
+    public static byte[] readTextureBytes(List<Path> channelImagePaths, List<TiffIndex> channelTiffIndexes, int pageNumber) {
+        Preconditions.checkArgument(channelImagePaths.size() == channelTiffIndexes.size(),
+                "The number of channel images and the number of TIFF indexes must be the same");
+        if (getSupportedChannelPages(channelTiffIndexes, pageNumber) == null) {
+            return null;
+        }
+        List<FileChannel> channelImageFiles = new ArrayList<>();
+        try {
+            for (Path channelImagePath : channelImagePaths) {
+                channelImageFiles.add(FileChannel.open(channelImagePath, StandardOpenOption.READ));
+            }
+            return readTextureBytesFromChannels(channelImageFiles, channelTiffIndexes, pageNumber);
+        } catch (IOException e) {
+            LOG.error("Error opening {}", channelImagePaths, e);
+            throw new IllegalStateException(e);
+        } finally {
+            for (FileChannel channelImageFile : channelImageFiles) {
+                try {
+                    channelImageFile.close();
+                } catch (IOException ignore) {
+                }
+            }
+        }
+    }
+
+    /**
+     * Read the given page from channel images that are already open. This allows callers that read multiple pages
+     * from the same files to open them only once. The channels are not closed.
+     *
+     * @param channelImageFiles open channel image files
+     * @param channelTiffIndexes the indexes of the channel image files in the same order as the files;
+     *                           null for the files that cannot be indexed
+     * @param pageNumber
+     * @return the texture bytes or null if the pages cannot be read without decoding them.
+     */
+    @Nullable
+    public static byte[] readTextureBytesFromChannels(List<FileChannel> channelImageFiles, List<TiffIndex> channelTiffIndexes, int pageNumber) {
+        return readTextureBytesFromChannels(channelImageFiles, channelTiffIndexes, pageNumber, ByteBufferPool.getDefaultInstance());
+    }
+
+    /**
+     * Read the given page from channel images that are already open staging the reads through the given buffer pool.
+     * The channels are not closed.
+     *
+     * @param channelImageFiles open channel image files
+     * @param channelTiffIndexes the indexes of the channel image files in the same order as the files;
+     *                           null for the files that cannot be indexed
+     * @param pageNumber
+     * @param byteBufferPool pool of the direct buffers used for reading from the channels
+     * @return the texture bytes or null if the pages cannot be read without decoding them.
+     */
+    @Nullable
+    public static byte[] readTextureBytesFromChannels(List<FileChannel> channelImageFiles, List<TiffIndex> channelTiffIndexes, int pageNumber,
+                                                      ByteBufferPool byteBufferPool) {
+        Preconditions.checkArgument(channelImageFiles.size() == channelTiffIndexes.size(),
+                "The number of channel images and the number of TIFF indexes must be the same");
+        List<TiffIndex.Page> channelPages = getSupportedChannelPages(channelTiffIndexes, pageNumber);
+        if (channelPages == null) {
+            return null;
+        }
+        Stopwatch stopwatch = Stopwatch.createStarted();
+        List<PageData> channelPagesData = new ArrayList<>();
+        for (int channel = 0; channel < channelPages.size(); channel++) {
+            PageData pageData = readPage(channelImageFiles.get(channel), channelPages.get(channel), channelTiffIndexes.get(channel).getByteOrder(), byteBufferPool);
+            if (pageData == null) {
+                return null;
+            }
+            channelPagesData.add(pageData);
+        }
+        try {
+            return pagesToTextureBytes(channelPagesData);
+        } finally {
+            LOG.debug("Read page {} from {} channels in {} ms", pageNumber, channelPages.size(), stopwatch.elapsed(TimeUnit.MILLISECONDS));
+        }
+    }
+
+    @Nullable
+    private static List<TiffIndex.Page> getSupportedChannelPages(List<TiffIndex> channelTiffIndexes, int pageNumber) {
+        int channelCount = channelTiffIndexes.size();
+        if (channelCount == 0 || channelCount > MAX_CHANNELS) {
+            return null;
+        }
+        List<TiffIndex.Page> channelPages = new ArrayList<>();
+        for (TiffIndex channelTiffIndex : channelTiffIndexes) {
+            if (channelTiffIndex == null || pageNumber < 0 || pageNumber >= channelTiffIndex.getNumPages()) {
+                return null;
+            }
+            TiffIndex.Page channelPage = channelTiffIndex.getPage(pageNumber);
+            if (!isSupported(channelPage)) {
+                return null;
+            }
+            if (!channelPages.isEmpty() && !hasSameLayout(channelPages.get(0), channelPage)) {
+                return null;
+            }
+            channelPages.add(channelPage);
+        }
+        return channelPages;
+    }
+
+    private static boolean hasSameLayout(TiffIndex.Page p1, TiffIndex.Page p2) {
+        return p1.getWidth() == p2.getWidth()
+                && p1.getHeight() == p2.getHeight()
+                && p1.getBitsPerSample() == p2.getBitsPerSample();
+    }
+
+    @Nullable
+    private static PageData readPage(FileChannel imageFile, TiffIndex.Page page, ByteOrder byteOrder, ByteBufferPool byteBufferPool) {
+        int rowByteCount = page.getWidth() * page.getBytesPerPixel();
+        long startOffset = Long.MAX_VALUE;
+        long endOffset = 0L;
+        for (int strip = 0; strip < page.getDataBlockCount(); strip++) {
+            int stripRows = Math.min(page.getRowsPerStrip(), page.getHeight() - strip * page.getRowsPerStrip());
+            long stripByteCount = (long) stripRows * rowByteCount;
+            if (page.getDataByteCount(strip) != 0 && page.getDataByteCount(strip) < stripByteCount) {
+                // not enough data for the strip - let the decoder deal with it
+                return null;
+            }
+            startOffset = Math.min(startOffset, page.getDataOffset(strip));
+            endOffset = Math.max(endOffset, page.getDataOffset(strip) + stripByteCount);
+        }
+        if (endOffset - startOffset > Integer.MAX_VALUE) {
+            return null;
+        }
+        try {
+            if (endOffset > imageFile.size()) {
+                LOG.warn("Page data at {} is outside of the file", page.getIfdOffset());
+                return null;
+            }
+            byte[] pageBytes = new byte[(int) (endOffset - startOffset)];
+            if (byteBufferPool.read(imageFile, startOffset, pageBytes, 0, pageBytes.length) < pageBytes.length) {
+                LOG.warn("Unexpected end of file while reading page data at {}", page.getIfdOffset());
+                return null;
+            }
+            return new PageData(page, ByteBuffer.wrap(pageBytes).order(byteOrder), startOffset);
+        } catch (IOException e) {
+            LOG.error("Error reading page at {}", page.getIfdOffset(), e);
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static byte[] pagesToTextureBytes(List<PageData> channelPagesData) {
+        TiffIndex.Page firstPage = channelPagesData.get(0).page;
+        int channelCount = channelPagesData.size();
+        int bitDepth = firstPage.getBitsPerSample();
+        int usedWidth = firstPage.getWidth();
+        int height = firstPage.getHeight();
+        int width;
+        float textureCoordX;
+        if ((usedWidth % 8) != 0) {
+            width = usedWidth + 8 - (usedWidth % 8);
+            textureCoordX = usedWidth / (float) width;
+        } else {
+            width = usedWidth;
+            textureCoordX = 1.0f;
+        }
+        // this is the color space of the image generated by JAI's bandmerge: gray for 1 or 2 bands and sRGB for 3 or 4 bands
+        int srgb = channelCount >= 3 ? 1 : 0;
+        int imageByteCount = height * width * channelCount * (bitDepth / 8);
+
+        byte[] dataBytesArray = new byte[ImageUtils.TEXTURE_HEADER_SIZE + imageByteCount];
+        ByteBuffer dataBytesBuffer = ByteBuffer.wrap(dataBytesArray);
+        dataBytesBuffer.putInt(0); // mipmap level
+        dataBytesBuffer.putInt(width);
+        dataBytesBuffer.putInt(usedWidth);
+        dataBytesBuffer.putInt(height);
+        dataBytesBuffer.putInt(0); // border
+        dataBytesBuffer.putInt(srgb);
+        dataBytesBuffer.putInt(bitDepth);
+        dataBytesBuffer.putInt(channelCount);
+        dataBytesBuffer.putFloat(textureCoordX);
+
+        ByteBuffer pixelsBuffer = ByteBuffer.wrap(dataBytesArray, dataBytesBuffer.position(), imageByteCount).slice();
+        pixelsBuffer.order(ByteOrder.nativeOrder());
+        if (bitDepth == 16) {
+            copyShortRows(channelPagesData, usedWidth, width, height, pixelsBuffer.asShortBuffer());
+        } else {
+            copyByteRows(channelPagesData, usedWidth, width, height, pixelsBuffer);
+        }
+        return dataBytesArray;
+    }
+
+    private static void copyShortRows(List<PageData> channelPagesData, int usedWidth, int width, int height, ShortBuffer textureBuffer) {
+        int channelCount = channelPagesData.size();
+        ShortBuffer[] channelRows = new ShortBuffer[channelCount];
+        short[] rowBuffer = new short[width * channelCount];
+        for (int y = 0; y < height; y++) {
+            for (int c = 0; c < channelCount; c++) {
+                channelRows[c] = channelPagesData.get(c).getRowShorts(y);
+            }
+            if (channelCount == 1) {
+                channelRows[0].get(rowBuffer, 0, usedWidth);
+            } else {
+                for (int x = 0; x < usedWidth; x++) {
+                    for (int c = 0; c < channelCount; c++) {
+                        rowBuffer[x * channelCount + c] = channelRows[c].get(x);
+                    }
+                }
+            }
+            // pad the right edge with the last used pixel
+            for (int x = usedWidth; x < width; x++) {
+                System.arraycopy(rowBuffer, (usedWidth - 1) * channelCount, rowBuffer, x * channelCount, channelCount);
+            }
+            textureBuffer.put(rowBuffer);
+        }
+    }
+
+    private static void copyByteRows(List<PageData> channelPagesData, int usedWidth, int width, int height, ByteBuffer textureBuffer) {
+        int channelCount = channelPagesData.size();
+        ByteBuffer[] channelRows = new ByteBuffer[channelCount];
+        byte[] rowBuffer = new byte[width * channelCount];
+        for (int y = 0; y < height; y++) {
+            for (int c = 0; c < channelCount; c++) {
+                channelRows[c] = channelPagesData.get(c).getRowBytes(y);
+            }
+            if (channelCount == 1) {
+                channelRows[0].get(rowBuffer, 0, usedWidth);
+            } else {
+                for (int x = 0; x < usedWidth; x++) {
+                    for (int c = 0; c < channelCount; c++) {
+                        rowBuffer[x * channelCount + c] = channelRows[c].get(x);
+                    }
+                }
+            }
+            for (int x = usedWidth; x < width; x++) {
+                System.arraycopy(rowBuffer, (usedWidth - 1) * channelCount, rowBuffer, x * channelCount, channelCount);
+            }
+            textureBuffer.put(rowBuffer);
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package org.janelia.rendering.utils;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.annotation.Nullable;
+
+import org.janelia.rendering.RenderingMetrics;
+import org.janelia.rendering.RenderingStage;
+
+/**
+ * Stage timings of the rendering request served by the current thread. The loader begins a trace when a request
+ * starts and the pipeline stages record their timings with {@link #recordStage(RenderingStage, long, long)} which
+ * forwards them to the trace's metrics and accumulates them for the request breakdown. Recording a stage when
+ * no trace is active does nothing. Work handed to other threads on behalf of the request must be wrapped
+ * with {@link #propagate(Callable)} for its stages to be recorded.
+ */
+public class RenderingTrace {
+
+    private static final ThreadLocal<RenderingTrace> CURRENT = new ThreadLocal<>();
+
+    private final RenderingMetrics metrics;
+    private final long startNanos;
+    private final AtomicLongArray stageNanos = new AtomicLongArray(RenderingStage.values().length);
+    private final AtomicLongArray stageBytes = new AtomicLongArray(RenderingStage.values().length);
+
+    private RenderingTrace(RenderingMetrics metrics) {
+        this.metrics = metrics;
+        this.startNanos = System.nanoTime();
+    }
+
+    /**
+     * Begin a trace on the current thread. The caller must {@link #end()} it on the same thread.
+     *
+     * @param metrics
+     * @return the new trace
+     */
+    public static RenderingTrace begin(RenderingMetrics metrics) {
+        RenderingTrace trace = new RenderingTrace(metrics);
+        CURRENT.set(trace);
+        return trace;
+    }
+
+    /**
+     * @return the trace of the current thread or null if no request is traced.
+     */
+    @Nullable
+    public static RenderingTrace current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Record a stage of the current request.
+     *
+     * @param stage
+     * @param stageStartNanos {@link System#nanoTime()} when the stage started
+     * @param bytes bytes produced by the stage
+     */
+    public static void recordStage(RenderingStage stage, long stageStartNanos, long bytes) {
+        RenderingTrace trace = CURRENT.get();
+        if (trace != null) {
+            trace.record(stage, System.nanoTime() - stageStartNanos, bytes);
+        }
+    }
+
+    /**
+     * @param task
+     * @return a task that records its stages in the current trace regardless of the thread that runs it
+     */
+    public static <T> Callable<T> propagate(Callable<T> task) {
+        RenderingTrace trace = CURRENT.get();
+        if (trace == null) {
+            return task;
+        }
+        return () -> {
+            RenderingTrace previousTrace = CURRENT.get();
+            CURRENT.set(trace);
+            try {
+                return task.call();
+            } finally {
+                if (previousTrace == null) {
+                    CURRENT.remove();
+                } else {
+                    CURRENT.set(previousTrace);
+                }
+            }
+        };
+    }
+
+    public void record(RenderingStage stage, long elapsedNanos, long bytes) {
+        stageNanos.addAndGet(stage.ordinal(), elapsedNanos);
+        stageBytes.addAndGet(stage.ordinal(), bytes);
+        metrics.recordStage(stage, elapsedNanos, bytes);
+    }
+
+    /**
+     * End the trace and record the entire request.
+     *
+     * @param bytes bytes returned by the request
+     * @return the request's duration
+     */
+    public long end(long bytes) {
+        CURRENT.remove();
+        long elapsedNanos = System.nanoTime() - startNanos;
+        record(RenderingStage.REQUEST, elapsedNanos, bytes);
+        return elapsedNanos;
+    }
+
+    public long getStageNanos(RenderingStage stage) {
+        return stageNanos.get(stage.ordinal());
+    }
+
+    public long getStageBytes(RenderingStage stage) {
+        return stageBytes.get(stage.ordinal());
+    }
+
+    /**
+     * @return the time and the bytes of every recorded stage. Stages that ran concurrently on different threads
+     * may add up to more than the request time.
+     */
+    public String formatBreakdown() {
+        StringBuilder sb = new StringBuilder();
+        for (RenderingStage stage : RenderingStage.values()) {
+            long nanos = getStageNanos(stage);
+            long bytes = getStageBytes(stage);
+            if (stage == RenderingStage.REQUEST || nanos == 0 && bytes == 0) {
+                continue;
+            }
+            if (sb.length() > 0) {
+                sb.append(", ");
+            }
+            sb.append(stage.getLabel()).append('=').append(TimeUnit.NANOSECONDS.toMicros(nanos)).append("us");
+            if (bytes > 0) {
+                sb.append('/').append(bytes).append('B');
+            }
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,131 @@
+package org.janelia.rendering.utils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+import javax.annotation.Nullable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Cancellation state of the request served by the current thread. A running request is never interrupted, because
+ * interrupting a read from a pooled file channel closes the channel for all its readers. Instead the request is
+ * flagged as cancelled, so it may check {@link #isCurrentRequestCancelled()} between reads to stop early, and the
+ * resources that the request opened only for itself and registered with {@link #register(Closeable)} are closed,
+ * which makes a read blocked on them fail. Work handed to other threads on behalf of the request must be wrapped
+ * with {@link #propagate(Callable)} to see the cancellation and to register its resources.
+ */
+public class RequestContext {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RequestContext.class);
+    private static final ThreadLocal<RequestContext> CURRENT = new ThreadLocal<>();
+
+    private final Set<Closeable> resources = ConcurrentHashMap.newKeySet();
+    private volatile boolean cancelled;
+
+    /**
+     * @return the context of the current thread or null if the thread does not run a request.
+     */
+    @Nullable
+    public static RequestContext current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * @return true if the current thread runs a request that was cancelled. The result of such a request
+     * is discarded so the request may stop early, e.g. by throwing a {@link java.util.concurrent.CancellationException}.
+     */
+    public static boolean isCurrentRequestCancelled() {
+        RequestContext context = CURRENT.get();
+        return context != null && context.isCancelled();
+    }
+
+    /**
+     * Register a resource opened by the current request only for itself so that it is closed if the request is
+     * cancelled. Pooled resources shared with other requests must not be registered. The resources are held until
+     * the request completes, so the owner must still close them.
+     *
+     * @param resource
+     * @return the resource
+     */
+    public static <T extends Closeable> T register(T resource) {
+        RequestContext context = CURRENT.get();
+        if (context != null && resource != null) {
+            context.resources.add(resource);
+            if (context.cancelled) {
+                // the request was cancelled while the resource was being opened
+                context.closeResources();
+            }
+        }
+        return resource;
+    }
+
+    /**
+     * @param task
+     * @return a task that runs in the current request's context regardless of the thread that runs it
+     */
+    public static <T> Callable<T> propagate(Callable<T> task) {
+        RequestContext context = CURRENT.get();
+        if (context == null) {
+            return task;
+        }
+        return () -> {
+            RequestContext previousContext = CURRENT.get();
+            CURRENT.set(context);
+            try {
+                return task.call();
+            } finally {
+                if (previousContext == null) {
+                    CURRENT.remove();
+                } else {
+                    CURRENT.set(previousContext);
+                }
+            }
+        };
+    }
+
+    /**
+     * Run the request on the current thread in this context.
+     *
+     * @param request
+     * @return the request's result
+     */
+    public <T> T run(Supplier<T> request) {
+        CURRENT.set(this);
+        try {
+            return request.get();
+        } finally {
+            CURRENT.remove();
+            resources.clear();
+        }
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Flag the request as cancelled and close the resources it registered.
+     */
+    public void cancel() {
+        cancelled = true;
+        closeResources();
+    }
+
+    private void closeResources() {
+        for (Closeable resource : resources) {
+            if (resources.remove(resource)) {
+                try {
+                    resource.close();
+                } catch (IOException e) {
+                    LOG.debug("Error closing a resource of a cancelled request", e);
+                }
+            }
+        }
+    }
+}
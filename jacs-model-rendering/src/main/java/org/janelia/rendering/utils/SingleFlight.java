@@ -0,0 +1,118 @@
+package org.janelia.rendering.utils;
+
+import java.io.InterruptedIOException;
+import java.nio.channels.ClosedByInterruptException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Coalesces concurrent loads of the same key: the first caller for a key runs the load and every caller that asks
+ * for the same key while the load is in flight waits for it and receives the same result or the same exception.
+ * A load that fails because the thread running it was interrupted or cancelled is not shared - the waiting callers
+ * retry it instead, so one caller's cancellation does not fail the others. Waiting callers can be interrupted.
+ * Nothing is cached - once the load completes the next request for the key starts a new load.
+ *
+ * @param <K> key type
+ * @param <V> result type; since the result is shared it should not be consumed destructively by the callers
+ */
+public class SingleFlight<K, V> {
+
+    private final ConcurrentMap<K, CompletableFuture<V>> inFlightLoads = new ConcurrentHashMap<>();
+    private final AtomicLong loadCount = new AtomicLong(0);
+    private final AtomicLong deduplicatedCount = new AtomicLong(0);
+
+    /**
+     * Run the loader for the key unless a load for the same key is already in flight, in which case
+     * wait for that load and return its result. If the waiting thread is interrupted it stops waiting
+     * with an IllegalStateException and its interrupt status set.
+     *
+     * @param key
+     * @param loader
+     * @return the result of the load
+     */
+    public V load(K key, Supplier<V> loader) {
+        for (;;) {
+            CompletableFuture<V> newLoad = new CompletableFuture<>();
+            CompletableFuture<V> inFlightLoad = inFlightLoads.putIfAbsent(key, newLoad);
+            if (inFlightLoad != null) {
+                deduplicatedCount.incrementAndGet();
+                try {
+                    return waitFor(inFlightLoad);
+                } catch (CancellationException e) {
+                    // the load was interrupted - retry it
+                    continue;
+                }
+            }
+            loadCount.incrementAndGet();
+            try {
+                V result = loader.get();
+                newLoad.complete(result);
+                return result;
+            } catch (RuntimeException | Error e) {
+                if (Thread.currentThread().isInterrupted() || isCausedByInterruption(e)) {
+                    // the failure belongs to this caller only
+                    newLoad.cancel(false);
+                } else {
+                    newLoad.completeExceptionally(e);
+                }
+                throw e;
+            } finally {
+                inFlightLoads.remove(key, newLoad);
+            }
+        }
+    }
+
+    /**
+     * @return the number of loads that were actually run.
+     */
+    public long getLoadCount() {
+        return loadCount.get();
+    }
+
+    /**
+     * @return the number of requests that were served by a load already in flight.
+     */
+    public long getDeduplicatedCount() {
+        return deduplicatedCount.get();
+    }
+
+    /**
+     * @return the number of loads currently in flight.
+     */
+    public int getInFlightCount() {
+        return inFlightLoads.size();
+    }
+
+    private V waitFor(CompletableFuture<V> inFlightLoad) {
+        try {
+            return inFlightLoad.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            } else {
+                throw new IllegalStateException(cause);
+            }
+        }
+    }
+
+    private static boolean isCausedByInterruption(Throwable e) {
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            if (t instanceof InterruptedException || t instanceof InterruptedIOException
+                    || t instanceof ClosedByInterruptException || t instanceof CancellationException) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
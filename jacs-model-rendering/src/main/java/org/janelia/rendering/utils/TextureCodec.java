@@ -0,0 +1,224 @@
+package org.janelia.rendering.utils;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import com.google.common.base.Preconditions;
+
+import org.janelia.rendering.TextureEncoding;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Encodes and decodes slice texture payloads. An encoded payload starts with a 12 byte big endian header:
+ * <pre>
+ *   magic "JTXC" | version (1 byte) | encoding ordinal (1 byte) | reserved (2 bytes) | decoded length (4 bytes)
+ * </pre>
+ * followed by the encoded texture bytes. {@link TextureEncoding#RAW} payloads have no header; since textures start
+ * with a zero mipmap level a payload that does not start with the magic is the texture itself.
+ * <p>
+ * The {@link TextureEncoding#ZERO_RLE} payload is a sequence of (literal count, literal bytes, zero count) records
+ * with the counts written as unsigned LEB128 varints.
+ */
+public class TextureCodec {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TextureCodec.class);
+    private static final byte[] MAGIC = new byte[] {'J', 'T', 'X', 'C'};
+    private static final byte VERSION = 1;
+    public static final int HEADER_SIZE = 12;
+    private static final int VERSION_OFFSET = 4;
+    private static final int ENCODING_OFFSET = 5;
+    private static final int DECODED_LENGTH_OFFSET = 8;
+    // shorter zero runs are cheaper to keep as literals than to encode as a run
+    private static final int MIN_ZERO_RUN = 4;
+
+    /**
+     * @param textureBytes
+     * @param encoding
+     * @return the encoded payload; for RAW the texture bytes themselves
+     */
+    public static byte[] encode(byte[] textureBytes, TextureEncoding encoding) {
+        switch (encoding) {
+            case RAW:
+                return textureBytes;
+            case ZERO_RLE:
+                return withHeader(encoding, textureBytes.length, encodeZeroRuns(textureBytes));
+            case DEFLATE:
+                return withHeader(encoding, textureBytes.length, deflate(textureBytes));
+            default:
+                throw new IllegalArgumentException("Unsupported texture encoding " + encoding);
+        }
+    }
+
+    /**
+     * @param payload
+     * @return the encoding of the payload; RAW if the payload has no encoding header
+     */
+    public static TextureEncoding getEncoding(byte[] payload) {
+        if (payload.length < HEADER_SIZE || !Arrays.equals(MAGIC, Arrays.copyOf(payload, MAGIC.length))) {
+            return TextureEncoding.RAW;
+        }
+        int encodingOrdinal = payload[ENCODING_OFFSET];
+        Preconditions.checkArgument(payload[VERSION_OFFSET] == VERSION, "Unsupported texture payload version %s", payload[VERSION_OFFSET]);
+        Preconditions.checkArgument(encodingOrdinal >= 0 && encodingOrdinal < TextureEncoding.values().length,
+                "Unknown texture encoding %s", encodingOrdinal);
+        return TextureEncoding.values()[encodingOrdinal];
+    }
+
+    /**
+     * @param payload
+     * @return the size of the decoded texture
+     */
+    public static int getDecodedLength(byte[] payload) {
+        if (getEncoding(payload) == TextureEncoding.RAW) {
+            return payload.length;
+        }
+        return ByteBuffer.wrap(payload).getInt(DECODED_LENGTH_OFFSET);
+    }
+
+    /**
+     * @param payload encoded or raw payload
+     * @return the texture bytes
+     */
+    public static byte[] decode(byte[] payload) {
+        TextureEncoding encoding = getEncoding(payload);
+        if (encoding == TextureEncoding.RAW) {
+            return payload;
+        }
+        int decodedLength = getDecodedLength(payload);
+        switch (encoding) {
+            case ZERO_RLE:
+                return decodeZeroRuns(payload, HEADER_SIZE, decodedLength);
+            case DEFLATE:
+                return inflate(payload, HEADER_SIZE, decodedLength);
+            default:
+                throw new IllegalArgumentException("Unsupported texture encoding " + encoding);
+        }
+    }
+
+    private static byte[] withHeader(TextureEncoding encoding, int decodedLength, byte[] encodedBytes) {
+        ByteBuffer payloadBuffer = ByteBuffer.allocate(HEADER_SIZE + encodedBytes.length);
+        payloadBuffer.put(MAGIC)
+                .put(VERSION)
+                .put((byte) encoding.ordinal())
+                .putShort((short) 0)
+                .putInt(decodedLength)
+                .put(encodedBytes);
+        return payloadBuffer.array();
+    }
+
+    private static byte[] encodeZeroRuns(byte[] textureBytes) {
+        ByteArrayOutputStream encodedStream = new ByteArrayOutputStream(textureBytes.length / 4 + 16);
+        int literalStart = 0;
+        int pos = 0;
+        while (pos < textureBytes.length) {
+            if (textureBytes[pos] != 0) {
+                pos++;
+                continue;
+            }
+            int zeroRunEnd = pos;
+            while (zeroRunEnd < textureBytes.length && textureBytes[zeroRunEnd] == 0) {
+                zeroRunEnd++;
+            }
+            if (zeroRunEnd - pos >= MIN_ZERO_RUN || zeroRunEnd == textureBytes.length) {
+                writeVarint(encodedStream, pos - literalStart);
+                encodedStream.write(textureBytes, literalStart, pos - literalStart);
+                writeVarint(encodedStream, zeroRunEnd - pos);
+                literalStart = zeroRunEnd;
+            }
+            pos = zeroRunEnd;
+        }
+        if (literalStart < textureBytes.length) {
+            writeVarint(encodedStream, textureBytes.length - literalStart);
+            encodedStream.write(textureBytes, literalStart, textureBytes.length - literalStart);
+            writeVarint(encodedStream, 0);
+        }
+        return encodedStream.toByteArray();
+    }
+
+    private static byte[] decodeZeroRuns(byte[] payload, int offset, int decodedLength) {
+        byte[] textureBytes = new byte[decodedLength];
+        int[] pos = new int[] {offset};
+        int texturePos = 0;
+        while (pos[0] < payload.length) {
+            int literalCount = readVarint(payload, pos);
+            Preconditions.checkArgument(texturePos + literalCount <= decodedLength && pos[0] + literalCount <= payload.length,
+                    "Corrupted zero run encoded texture");
+            System.arraycopy(payload, pos[0], textureBytes, texturePos, literalCount);
+            pos[0] += literalCount;
+            texturePos += literalCount;
+            int zeroCount = readVarint(payload, pos);
+            Preconditions.checkArgument(texturePos + zeroCount <= decodedLength, "Corrupted zero run encoded texture");
+            // the array is already zero filled
+            texturePos += zeroCount;
+        }
+        Preconditions.checkArgument(texturePos == decodedLength, "Zero run encoded texture decoded to %s bytes instead of %s", texturePos, decodedLength);
+        return textureBytes;
+    }
+
+    private static void writeVarint(ByteArrayOutputStream stream, int value) {
+        int remaining = value;
+        while ((remaining & ~0x7F) != 0) {
+            stream.write((remaining & 0x7F) | 0x80);
+            remaining >>>= 7;
+        }
+        stream.write(remaining);
+    }
+
+    private static int readVarint(byte[] bytes, int[] pos) {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            Preconditions.checkArgument(pos[0] < bytes.length, "Truncated zero run encoded texture");
+            int b = bytes[pos[0]++];
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Invalid varint in zero run encoded texture");
+    }
+
+    private static byte[] deflate(byte[] textureBytes) {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(textureBytes);
+            deflater.finish();
+            ByteArrayOutputStream deflatedStream = new ByteArrayOutputStream(textureBytes.length / 4 + 16);
+            byte[] buffer = new byte[64 * 1024];
+            while (!deflater.finished()) {
+                int n = deflater.deflate(buffer);
+                deflatedStream.write(buffer, 0, n);
+            }
+            return deflatedStream.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static byte[] inflate(byte[] payload, int offset, int decodedLength) {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(payload, offset, payload.length - offset);
+            byte[] textureBytes = new byte[decodedLength];
+            int inflated = 0;
+            while (inflated < decodedLength && !inflater.finished()) {
+                int n = inflater.inflate(textureBytes, inflated, decodedLength - inflated);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                inflated += n;
+            }
+            Preconditions.checkArgument(inflated == decodedLength, "Deflated texture inflated to %s bytes instead of %s", inflated, decodedLength);
+            return textureBytes;
+        } catch (DataFormatException e) {
+            LOG.error("Error inflating texture payload", e);
+            throw new IllegalArgumentException(e);
+        } finally {
+            inflater.end();
+        }
+    }
+}
@@ -0,0 +1,458 @@
+package org.janelia.rendering.utils;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import com.sun.media.jai.codec.SeekableStream;
+
+/**
+ * Table of the image file directories (IFDs) of a TIFF file. For every page it holds the offset of the page's IFD,
+ * the image dimensions and sample layout and the offsets of the page's strips or tiles, so that a page can be
+ * reached with a single seek instead of walking the IFD chain.
+ */
+public class TiffIndex {
+
+    private static final int INDEX_FORMAT_VERSION = 1;
+
+    // TIFF tags
+    static final int IMAGE_WIDTH_TAG = 256;
+    static final int IMAGE_LENGTH_TAG = 257;
+    static final int BITS_PER_SAMPLE_TAG = 258;
+    static final int COMPRESSION_TAG = 259;
+    static final int PHOTOMETRIC_INTERPRETATION_TAG = 262;
+    static final int STRIP_OFFSETS_TAG = 273;
+    static final int SAMPLES_PER_PIXEL_TAG = 277;
+    static final int ROWS_PER_STRIP_TAG = 278;
+    static final int STRIP_BYTE_COUNTS_TAG = 279;
+    static final int PLANAR_CONFIGURATION_TAG = 284;
+    static final int PREDICTOR_TAG = 317;
+    static final int TILE_WIDTH_TAG = 322;
+    static final int TILE_LENGTH_TAG = 323;
+    static final int TILE_OFFSETS_TAG = 324;
+    static final int TILE_BYTE_COUNTS_TAG = 325;
+    static final int SAMPLE_FORMAT_TAG = 339;
+
+    // TIFF field types
+    static final int BYTE_TYPE = 1;
+    static final int SHORT_TYPE = 3;
+    static final int LONG_TYPE = 4;
+
+    static final int[] FIELD_TYPE_SIZES = {0, 1, 1, 2, 4, 8, 1, 1, 2, 4, 8, 4, 8};
+
+    public static final int NO_COMPRESSION = 1;
+
+    /**
+     * Index entry for a single TIFF page.
+     */
+    public static class Page {
+        private final long ifdOffset;
+        private final int width;
+        private final int height;
+        private final int bitsPerSample;
+        private final int samplesPerPixel;
+        private final int compression;
+        private final int photometricInterpretation;
+        private final int planarConfiguration;
+        private final int predictor;
+        private final int sampleFormat;
+        private final int rowsPerStrip;
+        private final int tileWidth;
+        private final int tileHeight;
+        // strip or tile offsets and byte counts - they are stored as ints since classic TIFF offsets are unsigned 32-bit values
+        private final int[] dataOffsets;
+        private final int[] dataByteCounts;
+
+        Page(long ifdOffset, int width, int height, int bitsPerSample, int samplesPerPixel,
+             int compression, int photometricInterpretation, int planarConfiguration, int predictor, int sampleFormat,
+             int rowsPerStrip, int tileWidth, int tileHeight,
+             int[] dataOffsets, int[] dataByteCounts) {
+            this.ifdOffset = ifdOffset;
+            this.width = width;
+            this.height = height;
+            this.bitsPerSample = bitsPerSample;
+            this.samplesPerPixel = samplesPerPixel;
+            this.compression = compression;
+            this.photometricInterpretation = photometricInterpretation;
+            this.planarConfiguration = planarConfiguration;
+            this.predictor = predictor;
+            this.sampleFormat = sampleFormat;
+            this.rowsPerStrip = rowsPerStrip;
+            this.tileWidth = tileWidth;
+            this.tileHeight = tileHeight;
+            this.dataOffsets = dataOffsets;
+            this.dataByteCounts = dataByteCounts;
+        }
+
+        public long getIfdOffset() {
+            return ifdOffset;
+        }
+
+        public int getWidth() {
+            return width;
+        }
+
+        public int getHeight() {
+            return height;
+        }
+
+        public int getBitsPerSample() {
+            return bitsPerSample;
+        }
+
+        public int getSamplesPerPixel() {
+            return samplesPerPixel;
+        }
+
+        public int getCompression() {
+            return compression;
+        }
+
+        public int getPhotometricInterpretation() {
+            return photometricInterpretation;
+        }
+
+        public int getPlanarConfiguration() {
+            return planarConfiguration;
+        }
+
+        public int getPredictor() {
+            return predictor;
+        }
+
+        public int getSampleFormat() {
+            return sampleFormat;
+        }
+
+        public int getRowsPerStrip() {
+            return rowsPerStrip;
+        }
+
+        public boolean isTiled() {
+            return tileWidth > 0 && tileHeight > 0;
+        }
+
+        public int getTileWidth() {
+            return tileWidth;
+        }
+
+        public int getTileHeight() {
+            return tileHeight;
+        }
+
+        /**
+         * @return the number of strips or tiles
+         */
+        public int getDataBlockCount() {
+            return dataOffsets.length;
+        }
+
+        /**
+         * @param blockIndex strip or tile index
+         * @return the file offset of the strip or tile
+         */
+        public long getDataOffset(int blockIndex) {
+            return dataOffsets[blockIndex] & 0xFFFFFFFFL;
+        }
+
+        /**
+         * @param blockIndex strip or tile index
+         * @return the number of bytes of the strip or tile
+         */
+        public long getDataByteCount(int blockIndex) {
+            return dataByteCounts[blockIndex] & 0xFFFFFFFFL;
+        }
+
+        public int getBytesPerPixel() {
+            return bitsPerSample * samplesPerPixel / 8;
+        }
+
+        long estimateSizeInBytes() {
+            return 64L + 4L * dataOffsets.length + 4L * dataByteCounts.length;
+        }
+    }
+
+    private final boolean bigEndian;
+    private final List<Page> pages;
+
+    TiffIndex(boolean bigEndian, List<Page> pages) {
+        this.bigEndian = bigEndian;
+        this.pages = Collections.unmodifiableList(pages);
+    }
+
+    public boolean isBigEndian() {
+        return bigEndian;
+    }
+
+    public ByteOrder getByteOrder() {
+        return bigEndian ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN;
+    }
+
+    public int getNumPages() {
+        return pages.size();
+    }
+
+    public Page getPage(int pageNumber) {
+        if (pageNumber < 0 || pageNumber >= pages.size()) {
+            throw new IllegalArgumentException("Invalid page number " + pageNumber + " - the image has " + pages.size() + " pages");
+        }
+        return pages.get(pageNumber);
+    }
+
+    public List<Page> getPages() {
+        return pages;
+    }
+
+    long estimateSizeInBytes() {
+        return 32L + pages.stream().mapToLong(Page::estimateSizeInBytes).sum();
+    }
+
+    /**
+     * Build the index by walking the IFD chain of the TIFF stream.
+     *
+     * @param tiffStream
+     * @return
+     * @throws IOException
+     */
+    public static TiffIndex build(SeekableStream tiffStream) throws IOException {
+        tiffStream.seek(0L);
+        byte[] headerBytes = new byte[8];
+        tiffStream.readFully(headerBytes);
+        boolean bigEndian;
+        if (headerBytes[0] == 'I' && headerBytes[1] == 'I') {
+            bigEndian = false;
+        } else if (headerBytes[0] == 'M' && headerBytes[1] == 'M') {
+            bigEndian = true;
+        } else {
+            throw new IllegalArgumentException("Invalid TIFF byte order marker");
+        }
+        ByteBuffer header = ByteBuffer.wrap(headerBytes).order(bigEndian ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN);
+        int magic = header.getShort(2) & 0xFFFF;
+        if (magic != 42) {
+            throw new IllegalArgumentException("Unsupported TIFF version " + magic);
+        }
+        List<Page> pages = new ArrayList<>();
+        Set<Long> visitedIFDs = new HashSet<>();
+        long ifdOffset = header.getInt(4) & 0xFFFFFFFFL;
+        while (ifdOffset != 0L && visitedIFDs.add(ifdOffset)) {
+            ifdOffset = readPage(tiffStream, ifdOffset, header.order(), pages);
+        }
+        return new TiffIndex(bigEndian, pages);
+    }
+
+    /**
+     * Read the page at the given IFD offset and returns the offset of the next IFD.
+     */
+    private static long readPage(SeekableStream tiffStream, long ifdOffset, ByteOrder byteOrder, List<Page> pages) throws IOException {
+        tiffStream.seek(ifdOffset);
+        byte[] entryCountBytes = new byte[2];
+        tiffStream.readFully(entryCountBytes);
+        int entryCount = ByteBuffer.wrap(entryCountBytes).order(byteOrder).getShort() & 0xFFFF;
+        byte[] ifdBytes = new byte[entryCount * 12 + 4];
+        tiffStream.readFully(ifdBytes);
+        ByteBuffer ifd = ByteBuffer.wrap(ifdBytes).order(byteOrder);
+
+        int width = 0, height = 0, bitsPerSample = 1, samplesPerPixel = 1;
+        int compression = NO_COMPRESSION, photometricInterpretation = -1, planarConfiguration = 1, predictor = 1, sampleFormat = 1;
+        int rowsPerStrip = -1, tileWidth = 0, tileHeight = 0;
+        int[] stripOffsets = null, stripByteCounts = null, tileOffsets = null, tileByteCounts = null;
+        for (int i = 0; i < entryCount; i++) {
+            int entryOffset = i * 12;
+            int tag = ifd.getShort(entryOffset) & 0xFFFF;
+            int type = ifd.getShort(entryOffset + 2) & 0xFFFF;
+            int count = ifd.getInt(entryOffset + 4);
+            switch (tag) {
+                case IMAGE_WIDTH_TAG:
+                    width = (int) readFieldValue(ifd, entryOffset, type);
+                    break;
+                case IMAGE_LENGTH_TAG:
+                    height = (int) readFieldValue(ifd, entryOffset, type);
+                    break;
+                case BITS_PER_SAMPLE_TAG:
+                    bitsPerSample = (int) readFieldValues(tiffStream, ifd, entryOffset, type, count)[0];
+                    break;
+                case COMPRESSION_TAG:
+                    compression = (int) readFieldValue(ifd, entryOffset, type);
+                    break;
+                case PHOTOMETRIC_INTERPRETATION_TAG:
+                    photometricInterpretation = (int) readFieldValue(ifd, entryOffset, type);
+                    break;
+                case STRIP_OFFSETS_TAG:
+                    stripOffsets = readFieldValues(tiffStream, ifd, entryOffset, type, count);
+                    break;
+                case SAMPLES_PER_PIXEL_TAG:
+                    samplesPerPixel = (int) readFieldValue(ifd, entryOffset, type);
+                    break;
+                case ROWS_PER_STRIP_TAG:
+                    rowsPerStrip = (int) readFieldValue(ifd, entryOffset, type);
+                    break;
+                case STRIP_BYTE_COUNTS_TAG:
+                    stripByteCounts = readFieldValues(tiffStream, ifd, entryOffset, type, count);
+                    break;
+                case PLANAR_CONFIGURATION_TAG:
+                    planarConfiguration = (int) readFieldValue(ifd, entryOffset, type);
+                    break;
+                case PREDICTOR_TAG:
+                    predictor = (int) readFieldValue(ifd, entryOffset, type);
+                    break;
+                case TILE_WIDTH_TAG:
+                    tileWidth = (int) readFieldValue(ifd, entryOffset, type);
+                    break;
+                case TILE_LENGTH_TAG:
+                    tileHeight = (int) readFieldValue(ifd, entryOffset, type);
+                    break;
+                case TILE_OFFSETS_TAG:
+                    tileOffsets = readFieldValues(tiffStream, ifd, entryOffset, type, count);
+                    break;
+                case TILE_BYTE_COUNTS_TAG:
+                    tileByteCounts = readFieldValues(tiffStream, ifd, entryOffset, type, count);
+                    break;
+                case SAMPLE_FORMAT_TAG:
+                    sampleFormat = (int) readFieldValues(tiffStream, ifd, entryOffset, type, count)[0];
+                    break;
+                default:
+                    break;
+            }
+        }
+        if (rowsPerStrip <= 0 || rowsPerStrip > height) {
+            rowsPerStrip = height;
+        }
+        boolean tiled = tileOffsets != null && tileWidth > 0 && tileHeight > 0;
+        int[] dataOffsets = tiled ? tileOffsets : stripOffsets;
+        int[] dataByteCounts = tiled ? tileByteCounts : stripByteCounts;
+        if (dataOffsets == null) {
+            throw new IllegalArgumentException("No strip or tile offsets found for the TIFF page at " + ifdOffset);
+        }
+        if (dataByteCounts == null || dataByteCounts.length != dataOffsets.length) {
+            // byte counts are required but some writers omit them for uncompressed images
+            dataByteCounts = new int[dataOffsets.length];
+        }
+        pages.add(new Page(ifdOffset, width, height, bitsPerSample, samplesPerPixel,
+                compression, photometricInterpretation, planarConfiguration, predictor, sampleFormat,
+                tiled ? 0 : rowsPerStrip, tiled ? tileWidth : 0, tiled ? tileHeight : 0,
+                dataOffsets, dataByteCounts));
+        return ifd.getInt(entryCount * 12) & 0xFFFFFFFFL;
+    }
+
+    private static long readFieldValue(ByteBuffer ifd, int entryOffset, int type) {
+        switch (type) {
+            case BYTE_TYPE:
+                return ifd.get(entryOffset + 8) & 0xFF;
+            case SHORT_TYPE:
+                return ifd.getShort(entryOffset + 8) & 0xFFFF;
+            case LONG_TYPE:
+                return ifd.getInt(entryOffset + 8) & 0xFFFFFFFFL;
+            default:
+                throw new IllegalArgumentException("Unsupported field type " + type + " for tag " + (ifd.getShort(entryOffset) & 0xFFFF));
+        }
+    }
+
+    private static int[] readFieldValues(SeekableStream tiffStream, ByteBuffer ifd, int entryOffset, int type, int count) throws IOException {
+        if (type != BYTE_TYPE && type != SHORT_TYPE && type != LONG_TYPE) {
+            throw new IllegalArgumentException("Unsupported field type " + type + " for tag " + (ifd.getShort(entryOffset) & 0xFFFF));
+        }
+        int valueSize = FIELD_TYPE_SIZES[type];
+        ByteBuffer values;
+        if (count * valueSize <= 4) {
+            values = ifd.duplicate().order(ifd.order());
+            values.position(entryOffset + 8);
+        } else {
+            long valuesOffset = ifd.getInt(entryOffset + 8) & 0xFFFFFFFFL;
+            byte[] valueBytes = new byte[count * valueSize];
+            tiffStream.seek(valuesOffset);
+            tiffStream.readFully(valueBytes);
+            values = ByteBuffer.wrap(valueBytes).order(ifd.order());
+        }
+        int[] result = new int[count];
+        for (int i = 0; i < count; i++) {
+            switch (type) {
+                case BYTE_TYPE:
+                    result[i] = values.get() & 0xFF;
+                    break;
+                case SHORT_TYPE:
+                    result[i] = values.getShort() & 0xFFFF;
+                    break;
+                default:
+                    result[i] = values.getInt();
+                    break;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Serialize the index.
+     */
+    void write(DataOutput output) throws IOException {
+        output.writeInt(INDEX_FORMAT_VERSION);
+        output.writeBoolean(bigEndian);
+        output.writeInt(pages.size());
+        for (Page page : pages) {
+            output.writeLong(page.ifdOffset);
+            output.writeInt(page.width);
+            output.writeInt(page.height);
+            output.writeInt(page.bitsPerSample);
+            output.writeInt(page.samplesPerPixel);
+            output.writeInt(page.compression);
+            output.writeInt(page.photometricInterpretation);
+            output.writeInt(page.planarConfiguration);
+            output.writeInt(page.predictor);
+            output.writeInt(page.sampleFormat);
+            output.writeInt(page.rowsPerStrip);
+            output.writeInt(page.tileWidth);
+            output.writeInt(page.tileHeight);
+            output.writeInt(page.dataOffsets.length);
+            for (int i = 0; i < page.dataOffsets.length; i++) {
+                output.writeInt(page.dataOffsets[i]);
+                output.writeInt(page.dataByteCounts[i]);
+            }
+        }
+    }
+
+    /**
+     * Deserialize the index.
+     */
+    static TiffIndex read(DataInput input) throws IOException {
+        int version = input.readInt();
+        if (version != INDEX_FORMAT_VERSION) {
+            throw new IOException("Unsupported TIFF index version " + version);
+        }
+        boolean bigEndian = input.readBoolean();
+        int numPages = input.readInt();
+        List<Page> pages = new ArrayList<>(numPages);
+        for (int p = 0; p < numPages; p++) {
+            long ifdOffset = input.readLong();
+            int width = input.readInt();
+            int height = input.readInt();
+            int bitsPerSample = input.readInt();
+            int samplesPerPixel = input.readInt();
+            int compression = input.readInt();
+            int photometricInterpretation = input.readInt();
+            int planarConfiguration = input.readInt();
+            int predictor = input.readInt();
+            int sampleFormat = input.readInt();
+            int rowsPerStrip = input.readInt();
+            int tileWidth = input.readInt();
+            int tileHeight = input.readInt();
+            int dataBlockCount = input.readInt();
+            int[] dataOffsets = new int[dataBlockCount];
+            int[] dataByteCounts = new int[dataBlockCount];
+            for (int i = 0; i < dataBlockCount; i++) {
+                dataOffsets[i] = input.readInt();
+                dataByteCounts[i] = input.readInt();
+            }
+            pages.add(new Page(ifdOffset, width, height, bitsPerSample, samplesPerPixel,
+                    compression, photometricInterpretation, planarConfiguration, predictor, sampleFormat,
+                    rowsPerStrip, tileWidth, tileHeight,
+                    dataOffsets, dataByteCounts));
+        }
+        return new TiffIndex(bigEndian, pages);
+    }
+}
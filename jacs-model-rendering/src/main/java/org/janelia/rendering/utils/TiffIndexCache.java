@@ -0,0 +1,180 @@
+package org.janelia.rendering.utils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+
+import javax.annotation.Nullable;
+
+import com.google.common.base.Preconditions;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.sun.media.jai.codec.FileSeekableStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * In memory cache of TIFF indexes keyed by the file path. An index is rebuilt whenever the size or the
+ * modification time of the file changes. Optionally the indexes can be persisted in sidecar files
+ * next to the TIFF files so that they survive restarts. Files that cannot be indexed, such as BigTIFF files
+ * or files with tag types the index does not support, are remembered as well so they are not probed again
+ * until they change.
+ */
+public class TiffIndexCache {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TiffIndexCache.class);
+    private static final String SIDECAR_SUFFIX = ".tifindex";
+    private static final long DEFAULT_CAPACITY_IN_BYTES = 128L * 1024 * 1024;
+
+    private static final TiffIndexCache DEFAULT_INSTANCE = new TiffIndexCache(DEFAULT_CAPACITY_IN_BYTES, false);
+
+    private static class TiffIndexEntry {
+        private final long fileSize;
+        private final long lastModified;
+        @Nullable
+        private final TiffIndex tiffIndex; // null if the file cannot be indexed
+
+        private TiffIndexEntry(long fileSize, long lastModified, @Nullable TiffIndex tiffIndex) {
+            this.fileSize = fileSize;
+            this.lastModified = lastModified;
+            this.tiffIndex = tiffIndex;
+        }
+
+        private boolean matches(long fileSize, long lastModified) {
+            return this.fileSize == fileSize && this.lastModified == lastModified;
+        }
+    }
+
+    /**
+     * @return a shared in memory index cache that does not use sidecar files
+     */
+    public static TiffIndexCache getDefaultInstance() {
+        return DEFAULT_INSTANCE;
+    }
+
+    private final Cache<Path, TiffIndexEntry> tiffIndexes;
+    private final boolean persistSidecars;
+
+    /**
+     * @param capacityInBytes estimated memory used by the cached indexes
+     * @param persistSidecars if true the indexes are also read from and written to sidecar files
+     */
+    public TiffIndexCache(long capacityInBytes, boolean persistSidecars) {
+        Preconditions.checkArgument(capacityInBytes > 0, "TIFF index cache capacity must be positive");
+        this.tiffIndexes = CacheBuilder.newBuilder()
+                .maximumWeight(capacityInBytes)
+                .weigher((Path p, TiffIndexEntry e) -> e.tiffIndex == null ? 1 : (int) Math.min(Integer.MAX_VALUE, e.tiffIndex.estimateSizeInBytes()))
+                .build();
+        this.persistSidecars = persistSidecars;
+    }
+
+    /**
+     * Retrieve the index for the given TIFF file building it if necessary.
+     *
+     * @param tiffPath
+     * @return the index or null if the file cannot be indexed, in which case the pages must be located by the decoder.
+     */
+    @Nullable
+    public TiffIndex getTiffIndex(Path tiffPath) {
+        try {
+            BasicFileAttributes fileAttributes = Files.readAttributes(tiffPath, BasicFileAttributes.class);
+            long fileSize = fileAttributes.size();
+            long lastModified = fileAttributes.lastModifiedTime().toMillis();
+            TiffIndexEntry tiffIndexEntry = tiffIndexes.getIfPresent(tiffPath);
+            if (tiffIndexEntry != null && tiffIndexEntry.matches(fileSize, lastModified)) {
+                return tiffIndexEntry.tiffIndex;
+            }
+            if (persistSidecars) {
+                tiffIndexEntry = readSidecar(tiffPath, fileSize, lastModified);
+            } else {
+                tiffIndexEntry = null;
+            }
+            if (tiffIndexEntry == null) {
+                tiffIndexEntry = new TiffIndexEntry(fileSize, lastModified, buildTiffIndex(tiffPath));
+                if (persistSidecars && tiffIndexEntry.tiffIndex != null) {
+                    writeSidecar(tiffPath, tiffIndexEntry);
+                }
+            }
+            tiffIndexes.put(tiffPath, tiffIndexEntry);
+            return tiffIndexEntry.tiffIndex;
+        } catch (IOException e) {
+            LOG.error("Error indexing TIFF file {}", tiffPath, e);
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Nullable
+    private TiffIndex buildTiffIndex(Path tiffPath) {
+        try (FileSeekableStream tiffStream = new FileSeekableStream(tiffPath.toFile())) {
+            TiffIndex tiffIndex = TiffIndex.build(tiffStream);
+            LOG.debug("Built TIFF index for {} with {} pages", tiffPath, tiffIndex.getNumPages());
+            return tiffIndex;
+        } catch (IOException | RuntimeException e) {
+            LOG.warn("TIFF file {} cannot be indexed - its pages will be located by the decoder: {}", tiffPath, e.toString());
+            return null;
+        }
+    }
+
+    public void invalidate(Path tiffPath) {
+        tiffIndexes.invalidate(tiffPath);
+    }
+
+    public void invalidateAll() {
+        tiffIndexes.invalidateAll();
+    }
+
+    private Path getSidecarPath(Path tiffPath) {
+        return tiffPath.resolveSibling(tiffPath.getFileName().toString() + SIDECAR_SUFFIX);
+    }
+
+    private TiffIndexEntry readSidecar(Path tiffPath, long fileSize, long lastModified) {
+        Path sidecarPath = getSidecarPath(tiffPath);
+        if (Files.notExists(sidecarPath)) {
+            return null;
+        }
+        try (InputStream sidecarStream = Files.newInputStream(sidecarPath)) {
+            DataInputStream sidecarInput = new DataInputStream(new BufferedInputStream(sidecarStream));
+            long indexedFileSize = sidecarInput.readLong();
+            long indexedLastModified = sidecarInput.readLong();
+            if (indexedFileSize != fileSize || indexedLastModified != lastModified) {
+                LOG.debug("Sidecar index {} is stale", sidecarPath);
+                return null;
+            }
+            return new TiffIndexEntry(fileSize, lastModified, TiffIndex.read(sidecarInput));
+        } catch (IOException e) {
+            LOG.warn("Error reading TIFF index sidecar {}", sidecarPath, e);
+            return null;
+        }
+    }
+
+    private void writeSidecar(Path tiffPath, TiffIndexEntry tiffIndexEntry) {
+        Path sidecarPath = getSidecarPath(tiffPath);
+        Path tmpSidecarPath = sidecarPath.resolveSibling(sidecarPath.getFileName().toString() + ".tmp");
+        try {
+            try (OutputStream sidecarStream = Files.newOutputStream(tmpSidecarPath)) {
+                DataOutputStream sidecarOutput = new DataOutputStream(new BufferedOutputStream(sidecarStream));
+                sidecarOutput.writeLong(tiffIndexEntry.fileSize);
+                sidecarOutput.writeLong(tiffIndexEntry.lastModified);
+                tiffIndexEntry.tiffIndex.write(sidecarOutput);
+                sidecarOutput.flush();
+            }
+            Files.move(tmpSidecarPath, sidecarPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            // the data directories may be read only so this is not an error
+            LOG.debug("Could not write TIFF index sidecar {}", sidecarPath, e);
+            try {
+                Files.deleteIfExists(tmpSidecarPath);
+            } catch (IOException ignore) {
+            }
+        }
+    }
+}
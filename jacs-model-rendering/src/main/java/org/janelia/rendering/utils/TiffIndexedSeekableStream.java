@@ -0,0 +1,59 @@
+package org.janelia.rendering.utils;
+
+import java.io.IOException;
+import java.util.function.Supplier;
+
+import javax.annotation.Nullable;
+
+import com.google.common.base.Suppliers;
+import com.sun.media.jai.codec.SeekableStream;
+
+/**
+ * Seekable TIFF stream that also provides the index of the TIFF file so that pages can be accessed
+ * without walking the file's IFD chain. The index is only retrieved when it is needed. If the file cannot
+ * be indexed the index is null and the pages are located by walking the IFD chain.
+ */
+public class TiffIndexedSeekableStream extends SeekableStream {
+    private final SeekableStream tiffStream;
+    private final Supplier<TiffIndex> tiffIndexSupplier;
+
+    public TiffIndexedSeekableStream(SeekableStream tiffStream, Supplier<TiffIndex> tiffIndexSupplier) {
+        this.tiffStream = tiffStream;
+        this.tiffIndexSupplier = Suppliers.memoize(tiffIndexSupplier::get);
+    }
+
+    @Nullable
+    public TiffIndex getTiffIndex() {
+        return tiffIndexSupplier.get();
+    }
+
+    @Override
+    public int read() throws IOException {
+        return tiffStream.read();
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int len) throws IOException {
+        return tiffStream.read(bytes, offset, len);
+    }
+
+    @Override
+    public long getFilePointer() throws IOException {
+        return tiffStream.getFilePointer();
+    }
+
+    @Override
+    public void seek(long pos) throws IOException {
+        tiffStream.seek(pos);
+    }
+
+    @Override
+    public boolean canSeekBackwards() {
+        return tiffStream.canSeekBackwards();
+    }
+
+    @Override
+    public void close() throws IOException {
+        tiffStream.close();
+    }
+}
@@ -0,0 +1,367 @@
+package org.janelia.rendering.utils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.annotation.Nullable;
+
+import com.sun.media.jai.codec.SeekableStream;
+
+/**
+ * Copies a range of pages from a TIFF stream into a new multi-page TIFF without decoding them. The directory
+ * entries and the strip or tile bytes of every page are copied verbatim, in the byte order of the source, and only
+ * the offsets are rewritten for the new layout. Entries that point to other directories or to data that is not
+ * referenced by the page's own entries (e.g. EXIF directories or free space lists) are dropped.
+ */
+class TiffPageCopier {
+
+    private static final int FREE_OFFSETS_TAG = 288;
+    private static final int FREE_BYTE_COUNTS_TAG = 289;
+    private static final int SUB_IFDS_TAG = 330;
+    private static final int JPEG_INTERCHANGE_FORMAT_TAG = 513;
+    private static final int JPEG_INTERCHANGE_FORMAT_LENGTH_TAG = 514;
+    private static final int EXIF_IFD_TAG = 34665;
+    private static final int GPS_IFD_TAG = 34853;
+    private static final Set<Integer> DROPPED_TAGS = new HashSet<>(Arrays.asList(
+            FREE_OFFSETS_TAG, FREE_BYTE_COUNTS_TAG, SUB_IFDS_TAG,
+            JPEG_INTERCHANGE_FORMAT_TAG, JPEG_INTERCHANGE_FORMAT_LENGTH_TAG,
+            EXIF_IFD_TAG, GPS_IFD_TAG));
+    private static final int OLD_JPEG_COMPRESSION = 6;
+    private static final long MAX_CLASSIC_TIFF_SIZE = 0xFFFFFFFFL;
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+
+    private static class DirectoryEntry {
+        private final int tag;
+        private final int type;
+        private final int count;
+        private final byte[] value; // the inline value or the externally stored values
+        private long valueOffset; // offset of the externally stored values in the output
+
+        private DirectoryEntry(int tag, int type, int count, byte[] value) {
+            this.tag = tag;
+            this.type = type;
+            this.count = count;
+            this.value = value;
+        }
+
+        private boolean isExternal() {
+            return value.length > 4;
+        }
+    }
+
+    private static class PageDirectory {
+        private final List<DirectoryEntry> entries = new ArrayList<>();
+        private int width;
+        private int height;
+        private long[] dataOffsets;
+        private long[] dataByteCounts;
+        private DirectoryEntry dataOffsetsEntry;
+        private long ifdOffset; // offset of the directory in the output
+        private long dataStartOffset; // offset of the first strip or tile in the output
+    }
+
+    /**
+     * Read the directories of the pages in the range [startPage, endPage).
+     *
+     * @param tiffStream
+     * @param tiffIndex optional index used for locating the directories of the pages
+     * @param startPage
+     * @param endPage
+     * @return the copier or null if the pages cannot be copied without decoding them
+     * @throws IOException
+     */
+    @Nullable
+    static TiffPageCopier create(SeekableStream tiffStream, @Nullable TiffIndex tiffIndex, int startPage, int endPage) throws IOException {
+        byte[] headerBytes = new byte[8];
+        tiffStream.seek(0L);
+        tiffStream.readFully(headerBytes);
+        ByteOrder byteOrder;
+        if (headerBytes[0] == 'I' && headerBytes[1] == 'I') {
+            byteOrder = ByteOrder.LITTLE_ENDIAN;
+        } else if (headerBytes[0] == 'M' && headerBytes[1] == 'M') {
+            byteOrder = ByteOrder.BIG_ENDIAN;
+        } else {
+            return null;
+        }
+        ByteBuffer header = ByteBuffer.wrap(headerBytes).order(byteOrder);
+        if ((header.getShort(2) & 0xFFFF) != 42) {
+            // only classic TIFF is supported
+            return null;
+        }
+        List<PageDirectory> pages = new ArrayList<>();
+        long ifdOffset = header.getInt(4) & 0xFFFFFFFFL;
+        Set<Long> visitedIFDs = new HashSet<>();
+        // with an index the directories are located directly, otherwise the directory chain is walked from the first page
+        for (int pageIndex = tiffIndex != null ? startPage : 0; pageIndex < endPage; pageIndex++) {
+            if (tiffIndex != null) {
+                ifdOffset = tiffIndex.getPage(pageIndex).getIfdOffset();
+            }
+            if (ifdOffset == 0L || !visitedIFDs.add(ifdOffset)) {
+                return null;
+            }
+            if (pageIndex < startPage) {
+                ifdOffset = readNextIFDOffset(tiffStream, ifdOffset, byteOrder);
+            } else {
+                PageDirectory page = new PageDirectory();
+                ifdOffset = readPageDirectory(tiffStream, ifdOffset, byteOrder, page);
+                if (ifdOffset < 0) {
+                    return null;
+                }
+                pages.add(page);
+            }
+        }
+        if (pages.isEmpty()) {
+            return null;
+        }
+        TiffPageCopier tiffPageCopier = new TiffPageCopier(headerBytes, byteOrder, pages);
+        return tiffPageCopier.layoutPages() ? tiffPageCopier : null;
+    }
+
+    private final byte[] headerBytes;
+    private final ByteOrder byteOrder;
+    private final List<PageDirectory> pages;
+
+    private TiffPageCopier(byte[] headerBytes, ByteOrder byteOrder, List<PageDirectory> pages) {
+        this.headerBytes = headerBytes;
+        this.byteOrder = byteOrder;
+        this.pages = pages;
+    }
+
+    /**
+     * @return true if the given XY region, using the same conventions as the region of a decoded page,
+     * covers every copied page entirely, i.e. the pages would not be cropped.
+     */
+    boolean isCoveredBy(int x0, int y0, int deltax, int deltay) {
+        return x0 <= 0 && y0 <= 0 && pages.stream()
+                .allMatch(page -> (deltax < 0 || deltax >= page.width) && (deltay < 0 || deltay >= page.height));
+    }
+
+    /**
+     * Write the copied pages to the output stream. The output stream is not closed.
+     *
+     * @param tiffStream source stream
+     * @param outputStream
+     * @throws IOException
+     */
+    void copyPages(SeekableStream tiffStream, OutputStream outputStream) throws IOException {
+        ByteBuffer header = ByteBuffer.wrap(Arrays.copyOf(headerBytes, headerBytes.length)).order(byteOrder);
+        header.putInt(4, (int) pages.get(0).ifdOffset);
+        outputStream.write(header.array());
+        long position = header.capacity();
+        byte[] copyBuffer = new byte[COPY_BUFFER_SIZE];
+        for (int pageIndex = 0; pageIndex < pages.size(); pageIndex++) {
+            PageDirectory page = pages.get(pageIndex);
+            long nextIFDOffset = pageIndex + 1 < pages.size() ? pages.get(pageIndex + 1).ifdOffset : 0L;
+            byte[] directoryBytes = encodeDirectory(page, nextIFDOffset);
+            position = writePadding(outputStream, position, page.ifdOffset);
+            outputStream.write(directoryBytes);
+            position += directoryBytes.length;
+            position = writePadding(outputStream, position, page.dataStartOffset);
+            for (int blockIndex = 0; blockIndex < page.dataOffsets.length; blockIndex++) {
+                tiffStream.seek(page.dataOffsets[blockIndex]);
+                long remaining = page.dataByteCounts[blockIndex];
+                while (remaining > 0) {
+                    int chunkSize = (int) Math.min(copyBuffer.length, remaining);
+                    tiffStream.readFully(copyBuffer, 0, chunkSize);
+                    outputStream.write(copyBuffer, 0, chunkSize);
+                    remaining -= chunkSize;
+                }
+                position += page.dataByteCounts[blockIndex];
+            }
+        }
+        outputStream.flush();
+    }
+
+    /**
+     * Assign the output offsets of every directory, of the directories' external values and of the strips or tiles.
+     *
+     * @return false if the result does not fit in a classic TIFF
+     */
+    private boolean layoutPages() {
+        long position = headerBytes.length;
+        for (PageDirectory page : pages) {
+            page.ifdOffset = alignToWord(position);
+            position = page.ifdOffset + 2 + 12L * page.entries.size() + 4;
+            for (DirectoryEntry entry : page.entries) {
+                if (entry.isExternal()) {
+                    entry.valueOffset = alignToWord(position);
+                    position = entry.valueOffset + entry.value.length;
+                }
+            }
+            page.dataStartOffset = alignToWord(position);
+            position = page.dataStartOffset;
+            ByteBuffer dataOffsetsValue = ByteBuffer.wrap(page.dataOffsetsEntry.value).order(byteOrder);
+            for (int blockIndex = 0; blockIndex < page.dataOffsets.length; blockIndex++) {
+                dataOffsetsValue.putInt(blockIndex * 4, (int) position);
+                position += page.dataByteCounts[blockIndex];
+            }
+            if (position > MAX_CLASSIC_TIFF_SIZE) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private byte[] encodeDirectory(PageDirectory page, long nextIFDOffset) {
+        int directorySize = (int) (page.dataStartOffset - page.ifdOffset);
+        ByteBuffer directory = ByteBuffer.allocate(directorySize).order(byteOrder);
+        directory.putShort((short) page.entries.size());
+        for (DirectoryEntry entry : page.entries) {
+            directory.putShort((short) entry.tag);
+            directory.putShort((short) entry.type);
+            directory.putInt(entry.count);
+            if (entry.isExternal()) {
+                directory.putInt((int) entry.valueOffset);
+            } else {
+                directory.put(Arrays.copyOf(entry.value, 4));
+            }
+        }
+        directory.putInt((int) nextIFDOffset);
+        for (DirectoryEntry entry : page.entries) {
+            if (entry.isExternal()) {
+                directory.position((int) (entry.valueOffset - page.ifdOffset));
+                directory.put(entry.value);
+            }
+        }
+        return directory.array();
+    }
+
+    private static long writePadding(OutputStream outputStream, long position, long targetPosition) throws IOException {
+        for (long p = position; p < targetPosition; p++) {
+            outputStream.write(0);
+        }
+        return Math.max(position, targetPosition);
+    }
+
+    private static long alignToWord(long position) {
+        return (position + 1) & ~1L;
+    }
+
+    private static long readNextIFDOffset(SeekableStream tiffStream, long ifdOffset, ByteOrder byteOrder) throws IOException {
+        byte[] entryCountBytes = new byte[2];
+        tiffStream.seek(ifdOffset);
+        tiffStream.readFully(entryCountBytes);
+        int entryCount = ByteBuffer.wrap(entryCountBytes).order(byteOrder).getShort() & 0xFFFF;
+        byte[] nextIFDOffsetBytes = new byte[4];
+        tiffStream.seek(ifdOffset + 2 + 12L * entryCount);
+        tiffStream.readFully(nextIFDOffsetBytes);
+        return ByteBuffer.wrap(nextIFDOffsetBytes).order(byteOrder).getInt() & 0xFFFFFFFFL;
+    }
+
+    /**
+     * Read the directory at the given offset into the page directory.
+     *
+     * @return the offset of the next directory or -1 if the page cannot be copied
+     */
+    private static long readPageDirectory(SeekableStream tiffStream, long ifdOffset, ByteOrder byteOrder, PageDirectory page) throws IOException {
+        byte[] entryCountBytes = new byte[2];
+        tiffStream.seek(ifdOffset);
+        tiffStream.readFully(entryCountBytes);
+        int entryCount = ByteBuffer.wrap(entryCountBytes).order(byteOrder).getShort() & 0xFFFF;
+        byte[] ifdBytes = new byte[entryCount * 12 + 4];
+        tiffStream.readFully(ifdBytes);
+        ByteBuffer ifd = ByteBuffer.wrap(ifdBytes).order(byteOrder);
+
+        DirectoryEntry stripOffsets = null, stripByteCounts = null, tileOffsets = null, tileByteCounts = null;
+        for (int i = 0; i < entryCount; i++) {
+            int entryOffset = i * 12;
+            int tag = ifd.getShort(entryOffset) & 0xFFFF;
+            int type = ifd.getShort(entryOffset + 2) & 0xFFFF;
+            int count = ifd.getInt(entryOffset + 4);
+            if (type < 1 || type >= TiffIndex.FIELD_TYPE_SIZES.length || count < 0) {
+                return -1;
+            }
+            if (DROPPED_TAGS.contains(tag)) {
+                continue;
+            }
+            long valueSize = (long) count * TiffIndex.FIELD_TYPE_SIZES[type];
+            if (valueSize > Integer.MAX_VALUE) {
+                return -1;
+            }
+            byte[] value = new byte[(int) valueSize];
+            if (valueSize <= 4) {
+                System.arraycopy(ifdBytes, entryOffset + 8, value, 0, value.length);
+            } else {
+                tiffStream.seek(ifd.getInt(entryOffset + 8) & 0xFFFFFFFFL);
+                tiffStream.readFully(value);
+            }
+            DirectoryEntry entry = new DirectoryEntry(tag, type, count, value);
+            switch (tag) {
+                case TiffIndex.IMAGE_WIDTH_TAG:
+                    page.width = (int) getUnsignedValue(entry, 0, byteOrder);
+                    break;
+                case TiffIndex.IMAGE_LENGTH_TAG:
+                    page.height = (int) getUnsignedValue(entry, 0, byteOrder);
+                    break;
+                case TiffIndex.COMPRESSION_TAG:
+                    if (getUnsignedValue(entry, 0, byteOrder) == OLD_JPEG_COMPRESSION) {
+                        // old style JPEG data references tables outside of the strips
+                        return -1;
+                    }
+                    break;
+                case TiffIndex.STRIP_OFFSETS_TAG:
+                    stripOffsets = entry;
+                    break;
+                case TiffIndex.STRIP_BYTE_COUNTS_TAG:
+                    stripByteCounts = entry;
+                    break;
+                case TiffIndex.TILE_OFFSETS_TAG:
+                    tileOffsets = entry;
+                    break;
+                case TiffIndex.TILE_BYTE_COUNTS_TAG:
+                    tileByteCounts = entry;
+                    break;
+                default:
+                    break;
+            }
+            page.entries.add(entry);
+        }
+        DirectoryEntry dataOffsets = tileOffsets != null ? tileOffsets : stripOffsets;
+        DirectoryEntry dataByteCounts = tileOffsets != null ? tileByteCounts : stripByteCounts;
+        if (dataOffsets == null || dataByteCounts == null || dataOffsets.count != dataByteCounts.count || (tileOffsets != null && stripOffsets != null)) {
+            return -1;
+        }
+        page.dataOffsets = getUnsignedValues(dataOffsets, byteOrder);
+        page.dataByteCounts = getUnsignedValues(dataByteCounts, byteOrder);
+        if (page.dataOffsets == null || page.dataByteCounts == null) {
+            return -1;
+        }
+        // the new offsets are always written as LONG values since they may not fit in the source's SHORT values
+        page.dataOffsetsEntry = new DirectoryEntry(dataOffsets.tag, TiffIndex.LONG_TYPE, dataOffsets.count, new byte[dataOffsets.count * 4]);
+        page.entries.set(page.entries.indexOf(dataOffsets), page.dataOffsetsEntry);
+        return ifd.getInt(entryCount * 12) & 0xFFFFFFFFL;
+    }
+
+    private static long getUnsignedValue(DirectoryEntry entry, int index, ByteOrder byteOrder) {
+        ByteBuffer value = ByteBuffer.wrap(entry.value).order(byteOrder);
+        switch (entry.type) {
+            case TiffIndex.BYTE_TYPE:
+                return value.get(index) & 0xFF;
+            case TiffIndex.SHORT_TYPE:
+                return value.getShort(index * 2) & 0xFFFF;
+            case TiffIndex.LONG_TYPE:
+                return value.getInt(index * 4) & 0xFFFFFFFFL;
+            default:
+                return -1;
+        }
+    }
+
+    @Nullable
+    private static long[] getUnsignedValues(DirectoryEntry entry, ByteOrder byteOrder) {
+        if (entry.type != TiffIndex.SHORT_TYPE && entry.type != TiffIndex.LONG_TYPE) {
+            return null;
+        }
+        long[] values = new long[entry.count];
+        for (int i = 0; i < entry.count; i++) {
+            values[i] = getUnsignedValue(entry, i, byteOrder);
+        }
+        return values;
+    }
+}
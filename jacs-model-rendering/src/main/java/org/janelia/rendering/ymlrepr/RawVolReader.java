@@ -8,12 +8,14 @@ import com.fasterxml.jackson.dataformat.yaml.YAMLFactory;
 
 public class RawVolReader {
 
+    // the mapper is thread safe once configured so there's no need to create one for every tilebase file
+    private static final ObjectMapper YML_READER = new ObjectMapper(new YAMLFactory());
+
     public RawVolData readRawVolData(InputStream rawVolStream) throws IOException {
-        ObjectMapper ymlReader = new ObjectMapper(new YAMLFactory());
         if (rawVolStream == null) {
             return null;
         }
-        return ymlReader.readValue(rawVolStream, RawVolData.class);
+        return YML_READER.readValue(rawVolStream, RawVolData.class);
     }
 
 }
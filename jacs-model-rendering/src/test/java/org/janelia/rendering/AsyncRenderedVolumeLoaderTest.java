@@ -0,0 +1,168 @@
+package org.janelia.rendering;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+
+import org.janelia.rendering.utils.RequestContext;
+import org.janelia.testutils.TestUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class AsyncRenderedVolumeLoaderTest {
+    private static final String TEST_DATADIR = "src/test/resources/testdata/rendering";
+
+    private static class BlockingVolumeLoader extends RenderedVolumeLoaderImpl {
+        private final CountDownLatch loadStarted = new CountDownLatch(1);
+        private final CountDownLatch loadCancelled = new CountDownLatch(1);
+        private final AtomicBoolean loadInterrupted = new AtomicBoolean(false);
+
+        @Override
+        public Streamable<byte[]> loadSlice(RenderedVolumeLocation rvl, RenderedVolumeMetadata renderedVolumeMetadata, TileKey tileKey) {
+            loadStarted.countDown();
+            long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(30);
+            while (System.currentTimeMillis() < deadline) {
+                if (RequestContext.isCurrentRequestCancelled()) {
+                    loadCancelled.countDown();
+                    break;
+                }
+                try {
+                    Thread.sleep(10);
+                } catch (InterruptedException e) {
+                    loadInterrupted.set(true);
+                    break;
+                }
+            }
+            return Streamable.empty();
+        }
+    }
+
+    private Path testDirectory;
+    private RenderedVolumeLocation testVolumeLocation;
+
+    @Before
+    public void setUp() throws IOException {
+        testDirectory = Files.createTempDirectory("testasyncrendering");
+        testVolumeLocation = new FileBasedRenderedVolumeLocation(testDirectory, Function.identity());
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        TestUtils.deletePath(testDirectory);
+    }
+
+    @Test
+    public void loadVolume() throws Exception {
+        TestUtils.prepareTestDataFiles(Paths.get(TEST_DATADIR), testDirectory, "transform.txt");
+        try (AsyncRenderedVolumeLoader asyncVolumeLoader = new AsyncRenderedVolumeLoader(new RenderedVolumeLoaderImpl())) {
+            Optional<RenderedVolumeMetadata> rvm = asyncVolumeLoader.loadVolume(testVolumeLocation).get(10, TimeUnit.SECONDS);
+            assertFalse(rvm.isPresent());
+            assertNull(asyncVolumeLoader.loadRawVolumeData(testVolumeLocation).get(10, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    public void timeoutCancelsRequestWithoutInterruptingIt() throws Exception {
+        BlockingVolumeLoader blockingVolumeLoader = new BlockingVolumeLoader();
+        try (AsyncRenderedVolumeLoader asyncVolumeLoader = new AsyncRenderedVolumeLoader(blockingVolumeLoader)) {
+            asyncVolumeLoader.setDefaultTimeoutMillis(100);
+            CompletableFuture<Streamable<byte[]>> slice = asyncVolumeLoader.loadSlice(testVolumeLocation, new RenderedVolumeMetadata(), null);
+            try {
+                slice.get(10, TimeUnit.SECONDS);
+                fail("Expected the request to time out");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof TimeoutException);
+            }
+            assertTrue(blockingVolumeLoader.loadCancelled.await(10, TimeUnit.SECONDS));
+            assertFalse(blockingVolumeLoader.loadInterrupted.get());
+            assertEquals(1, asyncVolumeLoader.getTimedOutCount());
+        }
+    }
+
+    @Test
+    public void cancelRequestWithoutInterruptingIt() throws Exception {
+        BlockingVolumeLoader blockingVolumeLoader = new BlockingVolumeLoader();
+        try (AsyncRenderedVolumeLoader asyncVolumeLoader = new AsyncRenderedVolumeLoader(blockingVolumeLoader)) {
+            CompletableFuture<Streamable<byte[]>> slice = asyncVolumeLoader.loadSlice(testVolumeLocation, new RenderedVolumeMetadata(), null);
+            assertTrue(blockingVolumeLoader.loadStarted.await(10, TimeUnit.SECONDS));
+            assertTrue(slice.cancel(true));
+            assertTrue(blockingVolumeLoader.loadCancelled.await(10, TimeUnit.SECONDS));
+            assertFalse(blockingVolumeLoader.loadInterrupted.get());
+            assertEquals(1, asyncVolumeLoader.getCancelledCount());
+        }
+    }
+
+    @Test
+    public void timeoutClosesStreamsOpenedByTheRequest() throws Exception {
+        TestUtils.prepareTestDataFiles(Paths.get(TEST_DATADIR), testDirectory, "transform.txt");
+        CountDownLatch readFailed = new CountDownLatch(1);
+        try (AsyncRenderedVolumeLoader asyncVolumeLoader = new AsyncRenderedVolumeLoader(new RenderedVolumeLoaderImpl())) {
+            CompletableFuture<Integer> read = asyncVolumeLoader.submit(() -> {
+                InputStream transformStream = testVolumeLocation.getContentFromRelativePath("transform.txt").getContent();
+                long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(30);
+                while (!RequestContext.isCurrentRequestCancelled() && System.currentTimeMillis() < deadline) {
+                    try {
+                        Thread.sleep(10);
+                    } catch (InterruptedException e) {
+                        return -1;
+                    }
+                }
+                try (InputStream s = transformStream) {
+                    return s.read();
+                } catch (IOException e) {
+                    readFailed.countDown();
+                    return -1;
+                }
+            }, 100);
+            try {
+                read.get(10, TimeUnit.SECONDS);
+                fail("Expected the request to time out");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof TimeoutException);
+            }
+            assertTrue(readFailed.await(10, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    public void rejectRequestsWhenQueueIsFull() throws Exception {
+        BlockingVolumeLoader blockingVolumeLoader = new BlockingVolumeLoader();
+        ExecutorService ioExecutor = AsyncRenderedVolumeLoader.createIOExecutor(1, 1);
+        try (AsyncRenderedVolumeLoader asyncVolumeLoader = new AsyncRenderedVolumeLoader(blockingVolumeLoader, ioExecutor)) {
+            CompletableFuture<Streamable<byte[]>> runningSlice = asyncVolumeLoader.loadSlice(testVolumeLocation, new RenderedVolumeMetadata(), null);
+            assertTrue(blockingVolumeLoader.loadStarted.await(10, TimeUnit.SECONDS));
+            CompletableFuture<Streamable<byte[]>> queuedSlice = asyncVolumeLoader.loadSlice(testVolumeLocation, new RenderedVolumeMetadata(), null);
+            CompletableFuture<Streamable<byte[]>> rejectedSlice = asyncVolumeLoader.loadSlice(testVolumeLocation, new RenderedVolumeMetadata(), null);
+            try {
+                rejectedSlice.get(10, TimeUnit.SECONDS);
+                fail("Expected the request to be rejected");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof RejectedExecutionException);
+            }
+            assertEquals(1, asyncVolumeLoader.getRejectedCount());
+            queuedSlice.cancel(true);
+            runningSlice.cancel(true);
+        } finally {
+            ioExecutor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package org.janelia.rendering;
+
+import java.net.URI;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class BoundedTextureCacheTest {
+
+    private static final URI TEST_VOLUME_URI = URI.create("file:///volume/");
+
+    @Test
+    public void cacheHitsAndMisses() {
+        for (boolean offHeap : new boolean[]{false, true}) {
+            BoundedTextureCache textureCache = new BoundedTextureCache(1024, offHeap);
+            TextureCacheKey key = new TextureCacheKey(TEST_VOLUME_URI, TileKey.fromTileCoord(0, 0, 0, 0, Coordinate.Z, 3));
+            assertNull(textureCache.get(key));
+            byte[] textureBytes = new byte[]{1, 2, 3, 4};
+            textureCache.put(key, textureBytes);
+            byte[] cachedBytes = textureCache.get(new TextureCacheKey(TEST_VOLUME_URI, TileKey.fromTileCoord(0, 0, 0, 0, Coordinate.Z, 3)));
+            assertNotNull(cachedBytes);
+            assertArrayEquals(textureBytes, cachedBytes);
+            assertEquals(1L, textureCache.getHitCount());
+            assertEquals(1L, textureCache.getMissCount());
+            assertEquals(4L, textureCache.getSizeInBytes());
+        }
+    }
+
+    @Test
+    public void callersCannotModifyCachedTextures() {
+        for (boolean offHeap : new boolean[]{false, true}) {
+            BoundedTextureCache textureCache = new BoundedTextureCache(1024, offHeap);
+            TextureCacheKey key = new TextureCacheKey(TEST_VOLUME_URI, TileKey.fromTileCoord(0, 0, 0, 0, Coordinate.Z, 3));
+            byte[] textureBytes = new byte[]{1, 2, 3, 4};
+            textureCache.put(key, textureBytes);
+            textureBytes[0] = 10;
+            byte[] cachedBytes = textureCache.get(key);
+            assertArrayEquals(new byte[]{1, 2, 3, 4}, cachedBytes);
+            cachedBytes[1] = 20;
+            assertArrayEquals(new byte[]{1, 2, 3, 4}, textureCache.get(key));
+        }
+    }
+
+    @Test
+    public void evictLeastRecentlyUsedTextures() {
+        BoundedTextureCache textureCache = new BoundedTextureCache(200, false);
+        TextureCacheKey key1 = new TextureCacheKey(TEST_VOLUME_URI, TileKey.fromTileCoord(0, 0, 0, 0, Coordinate.Z, 1));
+        TextureCacheKey key2 = new TextureCacheKey(TEST_VOLUME_URI, TileKey.fromTileCoord(0, 0, 0, 0, Coordinate.Z, 2));
+        TextureCacheKey key3 = new TextureCacheKey(TEST_VOLUME_URI, TileKey.fromTileCoord(0, 0, 0, 0, Coordinate.Z, 3));
+        textureCache.put(key1, new byte[100]);
+        textureCache.put(key2, new byte[100]);
+        // touch key1 so that key2 becomes the least recently used entry
+        assertNotNull(textureCache.get(key1));
+        textureCache.put(key3, new byte[100]);
+        assertNull(textureCache.get(key2));
+        assertNotNull(textureCache.get(key1));
+        assertNotNull(textureCache.get(key3));
+        assertEquals(200L, textureCache.getSizeInBytes());
+        assertEquals(1L, textureCache.getEvictionCount());
+        // a texture larger than the capacity is never cached
+        TextureCacheKey key4 = new TextureCacheKey(TEST_VOLUME_URI, TileKey.fromTileCoord(0, 0, 0, 0, Coordinate.Z, 4));
+        textureCache.put(key4, new byte[300]);
+        assertNull(textureCache.get(key4));
+    }
+}
@@ -0,0 +1,148 @@
+package org.janelia.rendering;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import org.janelia.testutils.TestUtils;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+public class CachedRenderedVolumeLoaderTest {
+    private static final String TEST_DATADIR = "src/test/resources/testdata/rendering";
+
+    private static Path testSuiteDirectory;
+
+    private CachedRenderedVolumeLoader renderedVolumeLoader;
+    private Path testDirectory;
+    private RenderedVolumeLocation testVolumeLocation;
+
+    @BeforeClass
+    public static void createTestDir() throws IOException {
+        testSuiteDirectory = Files.createTempDirectory("testrendering");
+    }
+
+    @AfterClass
+    public static void deleteTestDir() throws IOException {
+        TestUtils.deletePath(testSuiteDirectory);
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        renderedVolumeLoader = new CachedRenderedVolumeLoader(new RenderedVolumeLoaderImpl());
+        renderedVolumeLoader.setModificationCheckIntervalMillis(0);
+        testDirectory = Files.createTempDirectory(testSuiteDirectory, null);
+        testVolumeLocation = new FileBasedRenderedVolumeLocation(testDirectory, Function.identity());
+    }
+
+    @Test
+    public void loadCachedVolume() {
+        TestUtils.prepareTestDataFiles(Paths.get(TEST_DATADIR), testDirectory, "transform.txt", "default.0.tif", "default.1.tif", "tilebase.cache.yml");
+        RenderedVolumeMetadata rvm = renderedVolumeLoader.loadVolume(testVolumeLocation).orElse(null);
+        assertNotNull(rvm);
+        assertSame(rvm, renderedVolumeLoader.loadVolume(testVolumeLocation).orElse(null));
+
+        List<RawImage> rawImages = renderedVolumeLoader.loadVolumeRawImageTiles(testVolumeLocation);
+        assertFalse(rawImages.isEmpty());
+        assertSame(rawImages, renderedVolumeLoader.loadVolumeRawImageTiles(testVolumeLocation));
+        assertSame(renderedVolumeLoader.loadRawVolumeData(testVolumeLocation), renderedVolumeLoader.loadRawVolumeData(testVolumeLocation));
+
+        RawImage rawImage = renderedVolumeLoader.findClosestRawImageFromVoxelCoord(testVolumeLocation, 0, 0, 0).orElse(null);
+        RawImage expectedRawImage = new RenderedVolumeLoaderImpl().findClosestRawImageFromVoxelCoord(testVolumeLocation, 0, 0, 0).orElse(null);
+        assertNotNull(rawImage);
+        assertNotNull(expectedRawImage);
+        assertEquals(expectedRawImage.getRelativePath(), rawImage.getRelativePath());
+    }
+
+    @Test
+    public void loadSlicesThroughTheDelegate() {
+        AtomicInteger windowedSliceLoads = new AtomicInteger();
+        CachedRenderedVolumeLoader cachedVolumeLoader = new CachedRenderedVolumeLoader(new RenderedVolumeLoaderImpl() {
+            @Override
+            public Streamable<byte[]> loadSlice(RenderedVolumeLocation rvl, RenderedVolumeMetadata renderedVolumeMetada, TileKey tileKey,
+                                                List<IntensityWindow> channelWindows) {
+                windowedSliceLoads.incrementAndGet();
+                return Streamable.empty();
+            }
+        });
+        TileKey tileKey = TileKey.fromTileCoord(0, 0, 0, 0, Coordinate.Z, 0);
+        cachedVolumeLoader.loadSlice(testVolumeLocation, new RenderedVolumeMetadata(), tileKey, Collections.emptyList());
+        assertEquals(1, windowedSliceLoads.get());
+    }
+
+    @Test
+    public void recordEncodingInTheDelegateMetrics() {
+        byte[] textureBytes = new byte[4096];
+        RenderedVolumeLoaderImpl delegateVolumeLoader = new RenderedVolumeLoaderImpl() {
+            @Override
+            public Streamable<byte[]> loadSlice(RenderedVolumeLocation rvl, RenderedVolumeMetadata renderedVolumeMetada, TileKey tileKey) {
+                return Streamable.of(textureBytes, textureBytes.length);
+            }
+        };
+        InMemoryRenderingMetrics renderingMetrics = new InMemoryRenderingMetrics();
+        delegateVolumeLoader.setRenderingMetrics(renderingMetrics);
+        CachedRenderedVolumeLoader cachedVolumeLoader = new CachedRenderedVolumeLoader(delegateVolumeLoader);
+        TileKey tileKey = TileKey.fromTileCoord(0, 0, 0, 0, Coordinate.Z, 0);
+        byte[] payload = cachedVolumeLoader.loadSlice(testVolumeLocation, new RenderedVolumeMetadata(), tileKey,
+                Collections.emptyList(), TextureEncoding.DEFLATE).getContent();
+        assertNotNull(payload);
+        assertEquals(1L, renderingMetrics.getCount(RenderingStage.ENCODE));
+        assertEquals(payload.length, renderingMetrics.getTotalBytes(RenderingStage.ENCODE));
+        assertEquals(1L, delegateVolumeLoader.getEncodedSliceCount());
+        assertEquals(textureBytes.length, delegateVolumeLoader.getEncodedSliceRawBytes());
+        assertEquals(payload.length, delegateVolumeLoader.getEncodedSliceBytes());
+    }
+
+    @Test
+    public void reloadModifiedVolume() throws IOException {
+        TestUtils.prepareTestDataFiles(Paths.get(TEST_DATADIR), testDirectory, "transform.txt", "default.0.tif", "tilebase.cache.yml");
+        RenderedVolumeMetadata rvm = renderedVolumeLoader.loadVolume(testVolumeLocation).orElse(null);
+        assertNotNull(rvm);
+
+        Path transformPath = testDirectory.resolve("transform.txt");
+        Files.setLastModifiedTime(transformPath, FileTime.fromMillis(Files.getLastModifiedTime(transformPath).toMillis() + 10000));
+        RenderedVolumeMetadata reloadedRvm = renderedVolumeLoader.loadVolume(testVolumeLocation).orElse(null);
+        assertNotNull(reloadedRvm);
+        assertNotSame(rvm, reloadedRvm);
+        assertSame(reloadedRvm, renderedVolumeLoader.loadVolume(testVolumeLocation).orElse(null));
+    }
+
+    @Test
+    public void reloadVolumeWithModifiedManifest() throws IOException {
+        TestUtils.prepareTestDataFiles(Paths.get(TEST_DATADIR), testDirectory, "transform.txt", "default.0.tif", "tilebase.cache.yml");
+        Path manifestPath = Files.write(testDirectory.resolve(RenderedVolumeLoader.DEFAULT_VOLUME_MANIFEST_FILE_NAME), "{}".getBytes());
+        RenderedVolumeMetadata rvm = renderedVolumeLoader.loadVolume(testVolumeLocation).orElse(null);
+        assertNotNull(rvm);
+        assertSame(rvm, renderedVolumeLoader.loadVolume(testVolumeLocation).orElse(null));
+
+        Files.setLastModifiedTime(manifestPath, FileTime.fromMillis(Files.getLastModifiedTime(manifestPath).toMillis() + 10000));
+        assertNotSame(rvm, renderedVolumeLoader.loadVolume(testVolumeLocation).orElse(null));
+    }
+
+    @Test
+    public void refreshVolume() {
+        TestUtils.prepareTestDataFiles(Paths.get(TEST_DATADIR), testDirectory, "transform.txt", "default.0.tif", "tilebase.cache.yml");
+        RenderedVolumeMetadata rvm = renderedVolumeLoader.loadVolume(testVolumeLocation).orElse(null);
+        assertNotNull(rvm);
+        renderedVolumeLoader.refresh(testVolumeLocation);
+        RenderedVolumeMetadata refreshedRvm = renderedVolumeLoader.loadVolume(testVolumeLocation).orElse(null);
+        assertNotNull(refreshedRvm);
+        assertNotSame(rvm, refreshedRvm);
+        renderedVolumeLoader.refreshAll();
+        assertNotSame(refreshedRvm, renderedVolumeLoader.loadVolume(testVolumeLocation).orElse(null));
+    }
+}
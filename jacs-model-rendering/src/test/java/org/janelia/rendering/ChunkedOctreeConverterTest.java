@@ -0,0 +1,89 @@
+package org.janelia.rendering;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.function.Function;
+
+import org.janelia.rendering.utils.ChunkedDataset;
+import org.janelia.testutils.TestUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class ChunkedOctreeConverterTest {
+    private static final String TEST_DATADIR = "src/test/resources/testdata/rendering";
+
+    private Path testDirectory;
+
+    @Before
+    public void setUp() throws IOException {
+        testDirectory = Files.createTempDirectory("testoctreeconversion");
+        TestUtils.prepareTestDataFiles(Paths.get(TEST_DATADIR), testDirectory, "transform.txt", "default.0.tif", "default.1.tif");
+        // add one tile of the next octree level
+        Files.createDirectories(testDirectory.resolve("3"));
+        Files.copy(testDirectory.resolve("default.0.tif"), testDirectory.resolve("3").resolve("default.0.tif"));
+        Files.copy(testDirectory.resolve("default.1.tif"), testDirectory.resolve("3").resolve("default.1.tif"));
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        TestUtils.deletePath(testDirectory);
+    }
+
+    @Test
+    public void convertAndVerify() {
+        FileBasedRenderedVolumeLocation octreeLocation = new FileBasedRenderedVolumeLocation(testDirectory, Function.identity());
+        for (ChunkedDataset.Format format : ChunkedDataset.Format.values()) {
+            ChunkedOctreeConverter converter = new ChunkedOctreeConverter(new RenderedVolumeLoaderImpl(), octreeLocation, Paths.get("octree-" + format));
+            converter.setFormat(format);
+            converter.setMaxBlockSize(16);
+            converter.setThreads(2);
+            converter.setMaxPendingTiles(1);
+            converter.convert();
+            assertEquals(4, converter.getConvertedTileCount());
+            ChunkedDataset rootDataset = ChunkedDataset.open(converter.getChunkedStorePath().resolve("default.0").resolve("s6"));
+            assertNotNull(rootDataset);
+            assertArrayEquals(new long[] {50, 36, 19}, rootDataset.getDims());
+            // the tile size is not a multiple of the chunk size so the tiles share their edge chunks
+            assertArrayEquals(new int[] {16, 16, 16}, rootDataset.getBlockSize());
+
+            ChunkedRenderedVolumeLocation chunkedLocation = new ChunkedRenderedVolumeLocation(testDirectory, Function.identity(), Paths.get("octree-" + format));
+            for (String tilePath : Arrays.asList("", "3")) {
+                for (int page : new int[] {0, 9, 18}) {
+                    assertArrayEquals(
+                            octreeLocation.readTiffPageAsTexturedBytes(tilePath, Arrays.asList("default.0.tif", "default.1.tif"), page).getContent(),
+                            chunkedLocation.readTiffPageAsTexturedBytes(tilePath, Arrays.asList("default.0.tif", "default.1.tif"), page).getContent());
+                }
+            }
+            ChunkedOctreeConverter.VerificationResult verificationResult = converter.verify(10, 17L);
+            assertEquals(10, verificationResult.getCheckedSlices());
+            assertTrue(verificationResult.toString(), verificationResult.isValid());
+        }
+    }
+
+    @Test
+    public void resumeConversion() throws IOException {
+        FileBasedRenderedVolumeLocation octreeLocation = new FileBasedRenderedVolumeLocation(testDirectory, Function.identity());
+        Path storePath = testDirectory.resolve("octree.n5");
+        Files.createDirectories(storePath);
+        // the last journal line was not completely written when the previous run was interrupted
+        Files.write(storePath.resolve("conversion.journal"), Arrays.asList("default.0.tif", "3/default.0.t"));
+        ChunkedOctreeConverter converter = new ChunkedOctreeConverter(new RenderedVolumeLoaderImpl(), octreeLocation, Paths.get("octree.n5"));
+        converter.convert();
+        assertEquals(1, converter.getResumedTileCount());
+        assertEquals(3, converter.getConvertedTileCount());
+
+        ChunkedOctreeConverter restartedConverter = new ChunkedOctreeConverter(new RenderedVolumeLoaderImpl(), octreeLocation, Paths.get("octree.n5"));
+        restartedConverter.convert();
+        assertEquals(4, restartedConverter.getResumedTileCount());
+        assertEquals(0, restartedConverter.getConvertedTileCount());
+    }
+}
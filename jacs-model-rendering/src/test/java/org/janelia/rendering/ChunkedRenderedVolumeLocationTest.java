@@ -0,0 +1,236 @@
+package org.janelia.rendering;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Function;
+
+import org.janelia.rendering.utils.ChunkCache;
+import org.janelia.rendering.utils.ChunkedDataset;
+import org.janelia.rendering.utils.ImageUtils;
+import org.janelia.testutils.TestUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ChunkedRenderedVolumeLocationTest {
+    private static final String TEST_DATADIR = "src/test/resources/testdata/rendering";
+
+    private Path testDirectory;
+
+    @Before
+    public void setUp() throws IOException {
+        testDirectory = Files.createTempDirectory("testchunkedrendering");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        TestUtils.deletePath(testDirectory);
+    }
+
+    @Test
+    public void octreePathToTilePosition() {
+        assertArrayEquals(new int[] {0, 0, 0, 0}, ChunkedRenderedVolumeLocation.getOctreeTilePosition(""));
+        assertArrayEquals(new int[] {1, 1, 1, 1}, ChunkedRenderedVolumeLocation.getOctreeTilePosition("8"));
+        assertArrayEquals(new int[] {1, 2, 2, 2}, ChunkedRenderedVolumeLocation.getOctreeTilePosition("7/2"));
+        for (int tileIndex = 0; tileIndex < 64; tileIndex++) {
+            String tilePath = ChunkedRenderedVolumeLocation.getOctreeTilePath(2, tileIndex);
+            int[] tilePosition = ChunkedRenderedVolumeLocation.getOctreeTilePosition(tilePath);
+            assertEquals(2, tilePosition[3]);
+            assertEquals(tileIndex, ((tilePosition[0] >> 1) | ((tilePosition[1] >> 1) << 1) | ((tilePosition[2] >> 1) << 2)) * 8
+                    + ((tilePosition[0] & 1) | ((tilePosition[1] & 1) << 1) | ((tilePosition[2] & 1) << 2)));
+        }
+    }
+
+    @Test
+    public void readSameTexturesAsTiffOctree() {
+        TestUtils.prepareTestDataFiles(Paths.get(TEST_DATADIR), testDirectory, "transform.txt", "default.0.tif", "default.1.tif");
+        FileBasedRenderedVolumeLocation tiffVolumeLocation = new FileBasedRenderedVolumeLocation(testDirectory, Function.identity());
+        RenderedImageInfo imageInfo = new RenderedImageInfo(50, 36, 19, 16, false);
+        for (ChunkedDataset.Format format : ChunkedDataset.Format.values()) {
+            Path storePath = testDirectory.resolve("octree-" + format);
+            for (String channelImageName : Arrays.asList("default.0.tif", "default.1.tif")) {
+                byte[] volumeBytes = new byte[imageInfo.sx * imageInfo.sy * imageInfo.sz * 2];
+                for (int z = 0; z < imageInfo.sz; z++) {
+                    byte[] pageTexture = tiffVolumeLocation.readTiffPageAsTexturedBytes("", Arrays.asList(channelImageName), z).getContent();
+                    copyTexturePlane(pageTexture, imageInfo, volumeBytes, z);
+                }
+                ChunkedDataset dataset = ChunkedDataset.create(storePath.resolve(ChunkedRenderedVolumeLocation.getTileImageGroupName(channelImageName)).resolve("s0"),
+                        format, new long[] {imageInfo.sx, imageInfo.sy, imageInfo.sz}, new int[] {16, 16, 8}, 2, ChunkedDataset.Compression.GZIP);
+                writeVolume(dataset, volumeBytes);
+            }
+            ChunkedRenderedVolumeLocation chunkedVolumeLocation = new ChunkedRenderedVolumeLocation(testDirectory, Function.identity(), Paths.get("octree-" + format));
+            chunkedVolumeLocation.setChunkCache(new ChunkCache(1024 * 1024));
+            List<String> channelImageNames = Arrays.asList("default.0.tif", "default.1.tif");
+            for (int page : new int[] {0, 7, 18}) {
+                assertArrayEquals(
+                        tiffVolumeLocation.readTiffPageAsTexturedBytes("", channelImageNames, page).getContent(),
+                        chunkedVolumeLocation.readTiffPageAsTexturedBytes("", channelImageNames, page).getContent());
+            }
+            assertNull(chunkedVolumeLocation.readTiffPageAsTexturedBytes("", channelImageNames, 19).getContent());
+            RenderedImageInfo chunkedImageInfo = chunkedVolumeLocation.readTileImageInfo("default.0.tif");
+            assertEquals(imageInfo.sx, chunkedImageInfo.sx);
+            assertEquals(imageInfo.sy, chunkedImageInfo.sy);
+            assertEquals(imageInfo.sz, chunkedImageInfo.sz);
+            assertEquals(imageInfo.cmPixelSize, chunkedImageInfo.cmPixelSize);
+        }
+    }
+
+    @Test
+    public void readOctreeTilesFromScales() throws IOException {
+        TestUtils.prepareTestDataFiles(Paths.get(TEST_DATADIR), testDirectory, "transform.txt");
+        int[] tileSize = new int[] {10, 6, 4};
+        Path groupPath = testDirectory.resolve("octree.n5").resolve("default.0");
+        // s1 is the root tile and s0 holds the 8 tiles of the next level
+        byte[] rootBytes = generateVolume(tileSize[0], tileSize[1], tileSize[2], 1);
+        writeVolume(ChunkedDataset.create(groupPath.resolve("s1"), ChunkedDataset.Format.N5,
+                new long[] {tileSize[0], tileSize[1], tileSize[2]}, new int[] {8, 8, 8}, 2, ChunkedDataset.Compression.RAW), rootBytes);
+        byte[] levelBytes = generateVolume(2 * tileSize[0], 2 * tileSize[1], 2 * tileSize[2], 2);
+        writeVolume(ChunkedDataset.create(groupPath.resolve("s0"), ChunkedDataset.Format.N5,
+                new long[] {2 * tileSize[0], 2 * tileSize[1], 2 * tileSize[2]}, new int[] {8, 8, 8}, 2, ChunkedDataset.Compression.GZIP), levelBytes);
+
+        ChunkedRenderedVolumeLocation chunkedVolumeLocation = new ChunkedRenderedVolumeLocation(testDirectory, Function.identity(), Paths.get("octree.n5"));
+        // octant 6 is x = 1, y = 0, z = 1
+        byte[] tileTexture = chunkedVolumeLocation.readTiffPageAsTexturedBytes("6", Arrays.asList("default.0.tif"), 2).getContent();
+        assertNotNull(tileTexture);
+        ByteBuffer texturePixels = ByteBuffer.wrap(tileTexture, ImageUtils.TEXTURE_HEADER_SIZE, tileTexture.length - ImageUtils.TEXTURE_HEADER_SIZE)
+                .slice().order(ByteOrder.nativeOrder());
+        int textureWidth = 16;
+        for (int y = 0; y < tileSize[1]; y++) {
+            for (int x = 0; x < tileSize[0]; x++) {
+                assertEquals(generatedValue(tileSize[0] + x, y, tileSize[2] + 2, 2),
+                        texturePixels.getShort(2 * (y * textureWidth + x)) & 0xFFFF);
+            }
+        }
+        byte[] rootTexture = chunkedVolumeLocation.readTiffPageAsTexturedBytes("", Arrays.asList("default.0.tif"), 3).getContent();
+        assertNotNull(rootTexture);
+        assertNull(chunkedVolumeLocation.readTiffPageAsTexturedBytes("6/1", Arrays.asList("default.0.tif"), 0).getContent());
+
+        assertEquals(9, chunkedVolumeLocation.listImageUris(1).size());
+        RenderedVolumeMetadata rvm = new RenderedVolumeLoaderImpl().loadVolume(chunkedVolumeLocation).orElse(null);
+        assertNotNull(rvm);
+        assertTrue(rvm.getXyTileInfo() != null);
+        assertArrayEquals(tileSize, rvm.getXyTileInfo().getTileSize());
+        assertEquals(1, rvm.getXyTileInfo().getChannelCount());
+    }
+
+    @Test
+    public void cacheTexturesSeparatelyFromTiffOctree() {
+        TestUtils.prepareTestDataFiles(Paths.get(TEST_DATADIR), testDirectory, "transform.txt", "default.0.tif", "default.1.tif");
+        int[] tileSize = new int[] {50, 36, 19};
+        for (String groupName : Arrays.asList("default.0", "default.1")) {
+            writeVolume(ChunkedDataset.create(testDirectory.resolve("octree.n5").resolve(groupName).resolve("s0"), ChunkedDataset.Format.N5,
+                    new long[] {tileSize[0], tileSize[1], tileSize[2]}, new int[] {16, 16, 8}, 2, ChunkedDataset.Compression.RAW),
+                    generateVolume(tileSize[0], tileSize[1], tileSize[2], 4));
+        }
+        FileBasedRenderedVolumeLocation tiffVolumeLocation = new FileBasedRenderedVolumeLocation(testDirectory, Function.identity());
+        ChunkedRenderedVolumeLocation chunkedVolumeLocation = new ChunkedRenderedVolumeLocation(testDirectory, Function.identity(), Paths.get("octree.n5"));
+        assertEquals(tiffVolumeLocation.getBaseStorageLocationURI(), chunkedVolumeLocation.getBaseStorageLocationURI());
+        assertNotEquals(tiffVolumeLocation.getTileStorageURI(), chunkedVolumeLocation.getTileStorageURI());
+
+        RenderedVolumeLoaderImpl volumeLoader = new RenderedVolumeLoaderImpl(new BoundedTextureCache(64 * 1024 * 1024, false));
+        RenderedVolumeMetadata rvm = volumeLoader.loadVolume(chunkedVolumeLocation).orElse(null);
+        assertNotNull(rvm);
+        TileKey tileKey = TileKey.fromTileCoord(0, 0, 0, rvm.getNumZoomLevels() - 1, Coordinate.Z, 5);
+        byte[] tiffTexture = volumeLoader.loadSlice(tiffVolumeLocation, rvm, tileKey).getContent();
+        byte[] chunkedTexture = volumeLoader.loadSlice(chunkedVolumeLocation, rvm, tileKey).getContent();
+        assertNotNull(tiffTexture);
+        assertFalse(Arrays.equals(tiffTexture, chunkedTexture));
+        assertArrayEquals(chunkedVolumeLocation.readTiffPageAsTexturedBytes("", Arrays.asList("default.0.tif", "default.1.tif"), 5).getContent(),
+                chunkedTexture);
+    }
+
+    @Test
+    public void readRawImageROI() {
+        Path rawTiffPath = testDirectory.resolve("raw").resolve("tile-ngc.0.tif");
+        int[] rawSize = new int[] {30, 20, 12};
+        byte[] rawBytes = generateVolume(rawSize[0], rawSize[1], rawSize[2], 3);
+        writeVolume(ChunkedDataset.create(rawTiffPath.resolveSibling("tile-ngc.0.zarr"), ChunkedDataset.Format.ZARR,
+                new long[] {rawSize[0], rawSize[1], rawSize[2]}, new int[] {7, 9, 5}, 2, ChunkedDataset.Compression.ZLIB), rawBytes);
+        ChunkedRenderedVolumeLocation chunkedVolumeLocation = new ChunkedRenderedVolumeLocation(testDirectory, Function.identity(), Paths.get("octree.zarr"));
+
+        byte[] roiBytes = chunkedVolumeLocation.readTiffImageROIPixels(rawTiffPath.toString(), 10, 18, 6, 8, 6, 4).getContent();
+        // the ROI is shifted inside the image like it is for TIFF images
+        int[] roiStart = new int[] {6, 14, 4};
+        int[] roiSize = new int[] {8, 6, 4};
+        assertEquals(roiSize[0] * roiSize[1] * roiSize[2] * 2, roiBytes.length);
+        for (int z = 0; z < roiSize[2]; z++) {
+            for (int y = 0; y < roiSize[1]; y++) {
+                for (int x = 0; x < roiSize[0]; x++) {
+                    int offset = 2 * ((z * roiSize[1] + y) * roiSize[0] + x);
+                    assertEquals(generatedValue(roiStart[0] + x, roiStart[1] + y, roiStart[2] + z, 3),
+                            (roiBytes[offset] & 0xFF) | ((roiBytes[offset + 1] & 0xFF) << 8));
+                }
+            }
+        }
+        byte[] wholeImageBytes = chunkedVolumeLocation.readTiffImageROIPixels(rawTiffPath.toString(), 0, 0, 0, -1, -1, -1).getContent();
+        assertArrayEquals(rawBytes, wholeImageBytes);
+    }
+
+    private void copyTexturePlane(byte[] pageTexture, RenderedImageInfo imageInfo, byte[] volumeBytes, int z) {
+        ByteBuffer textureBuffer = ByteBuffer.wrap(pageTexture);
+        int textureWidth = textureBuffer.getInt(ImageUtils.TEXTURE_WIDTH_OFFSET);
+        ByteBuffer texturePixels = ByteBuffer.wrap(pageTexture, ImageUtils.TEXTURE_HEADER_SIZE, pageTexture.length - ImageUtils.TEXTURE_HEADER_SIZE)
+                .slice().order(ByteOrder.nativeOrder());
+        for (int y = 0; y < imageInfo.sy; y++) {
+            for (int x = 0; x < imageInfo.sx; x++) {
+                int value = texturePixels.getShort(2 * (y * textureWidth + x)) & 0xFFFF;
+                int offset = 2 * ((z * imageInfo.sy + y) * imageInfo.sx + x);
+                volumeBytes[offset] = (byte) value;
+                volumeBytes[offset + 1] = (byte) (value >> 8);
+            }
+        }
+    }
+
+    private byte[] generateVolume(int sx, int sy, int sz, int seed) {
+        byte[] volumeBytes = new byte[sx * sy * sz * 2];
+        for (int z = 0; z < sz; z++) {
+            for (int y = 0; y < sy; y++) {
+                for (int x = 0; x < sx; x++) {
+                    int value = generatedValue(x, y, z, seed);
+                    int offset = 2 * ((z * sy + y) * sx + x);
+                    volumeBytes[offset] = (byte) value;
+                    volumeBytes[offset + 1] = (byte) (value >> 8);
+                }
+            }
+        }
+        return volumeBytes;
+    }
+
+    private int generatedValue(int x, int y, int z, int seed) {
+        return (seed * 10007 + x * 31 + y * 1009 + z * 4001) & 0xFFFF;
+    }
+
+    private void writeVolume(ChunkedDataset dataset, byte[] volumeBytes) {
+        long[] dims = dataset.getDims();
+        int[] blockSize = dataset.getBlockSize();
+        for (long gz = 0; gz * blockSize[2] < dims[2]; gz++) {
+            for (long gy = 0; gy * blockSize[1] < dims[1]; gy++) {
+                for (long gx = 0; gx * blockSize[0] < dims[0]; gx++) {
+                    byte[] chunkBytes = new byte[dataset.getChunkByteSize()];
+                    for (int z = 0; z < blockSize[2] && gz * blockSize[2] + z < dims[2]; z++) {
+                        for (int y = 0; y < blockSize[1] && gy * blockSize[1] + y < dims[1]; y++) {
+                            int rowLength = (int) Math.min(blockSize[0], dims[0] - gx * blockSize[0]);
+                            long srcOffset = 2 * (((gz * blockSize[2] + z) * dims[1] + gy * blockSize[1] + y) * dims[0] + gx * blockSize[0]);
+                            System.arraycopy(volumeBytes, (int) srcOffset, chunkBytes, 2 * ((z * blockSize[1] + y) * blockSize[0]), 2 * rowLength);
+                        }
+                    }
+                    dataset.writeChunk(new long[] {gx, gy, gz}, chunkBytes);
+                }
+            }
+        }
+    }
+}
@@ -1,20 +1,26 @@
 package org.janelia.rendering;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
 import java.util.function.Function;
 
+import org.janelia.rendering.utils.FileChannelPool;
+import org.janelia.rendering.utils.ImageUtils;
 import org.janelia.testutils.TestUtils;
 import org.junit.AfterClass;
 import org.junit.Before;
 import org.junit.BeforeClass;
 import org.junit.Test;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 
 public class FileBasedRenderedVolumeLocationTest {
@@ -87,4 +93,86 @@ public class FileBasedRenderedVolumeLocationTest {
             assertEquals(byteBuffer.remaining(), height * width * bytesPerPixel * channelCount);
         }
     }
+
+    @Test
+    public void loadRawSliceMatchesDecodedSlice() {
+        TestUtils.prepareTestDataFiles(Paths.get(TEST_DATADIR), testDirectory, "default.0.tif", "default.1.tif", "default.2.tif");
+        FileBasedRenderedVolumeLocation rawVolumeLocation = new FileBasedRenderedVolumeLocation(testDirectory, Function.identity());
+        FileBasedRenderedVolumeLocation decodedVolumeLocation = new FileBasedRenderedVolumeLocation(testDirectory, Function.identity());
+        decodedVolumeLocation.setRawTiffPageReads(false);
+        List<List<String>> testImageNames = Arrays.asList(
+                Arrays.asList("default.0.tif"),
+                Arrays.asList("default.0.tif", "default.1.tif"),
+                Arrays.asList("default.0.tif", "default.1.tif", "default.2.tif")
+        );
+        for (List<String> imageNames : testImageNames) {
+            for (int pageNumber : new int[] {0, 10, 18}) {
+                byte[] rawImageBytes = rawVolumeLocation.readTiffPageAsTexturedBytes("", imageNames, pageNumber).getContent();
+                byte[] decodedImageBytes = decodedVolumeLocation.readTiffPageAsTexturedBytes("", imageNames, pageNumber).getContent();
+                assertArrayEquals(decodedImageBytes, rawImageBytes);
+            }
+        }
+    }
+
+    @Test
+    public void loadMultipleSlices() {
+        TestUtils.prepareTestDataFiles(Paths.get(TEST_DATADIR), testDirectory, "default.0.tif", "default.1.tif");
+        List<String> imageNames = Arrays.asList("default.0.tif", "default.1.tif");
+        List<Integer> pageNumbers = Arrays.asList(7, 2, 7, 18);
+        List<Streamable<byte[]>> pages = testVolumeLocation.readTiffPagesAsTexturedBytes("", imageNames, pageNumbers);
+        assertEquals(pageNumbers.size(), pages.size());
+        for (int i = 0; i < pageNumbers.size(); i++) {
+            byte[] expectedImageBytes = testVolumeLocation.readTiffPageAsTexturedBytes("", imageNames, pageNumbers.get(i)).getContent();
+            assertArrayEquals(expectedImageBytes, pages.get(i).getContent());
+        }
+    }
+
+    @Test
+    public void streamImageROI() throws IOException {
+        TestUtils.prepareTestDataFiles(Paths.get(TEST_DATADIR), testDirectory, "default.0.tif");
+        String imagePath = testDirectory.resolve("default.0.tif").toString();
+        byte[] expectedROIBytes = testVolumeLocation.readTiffImageROIPixels(imagePath, 20, 15, 9, 21, 11, 5).getContent();
+        Streamable<ChannelWriter> roiStream = testVolumeLocation.streamTiffImageROIPixels(imagePath, 20, 15, 9, 21, 11, 5);
+        assertEquals(expectedROIBytes.length, roiStream.getSize());
+
+        ByteArrayOutputStream roiOutput = new ByteArrayOutputStream();
+        long nbytes = roiStream.getContent().writeTo(Channels.newChannel(roiOutput));
+        assertEquals(expectedROIBytes.length, nbytes);
+        assertArrayEquals(expectedROIBytes, roiOutput.toByteArray());
+    }
+
+    @Test
+    public void loadImageROIUsingParallelSlabs() {
+        TestUtils.prepareTestDataFiles(Paths.get(TEST_DATADIR), testDirectory, "default.0.tif");
+        String imagePath = testDirectory.resolve("default.0.tif").toString();
+        byte[] expectedROIBytes = testVolumeLocation.readTiffImageROIPixels(imagePath, 25, 18, 9, -1, -1, -1).getContent();
+
+        FileBasedRenderedVolumeLocation parallelVolumeLocation = new FileBasedRenderedVolumeLocation(testDirectory, Function.identity());
+        ExecutorService roiDecodeExecutor = ImageUtils.createImageDecodeExecutor(3);
+        try {
+            parallelVolumeLocation.setRoiDecodeExecutor(roiDecodeExecutor);
+            parallelVolumeLocation.setRoiSlabDepth(4);
+            assertArrayEquals(expectedROIBytes, parallelVolumeLocation.readTiffImageROIPixels(imagePath, 25, 18, 9, -1, -1, -1).getContent());
+        } finally {
+            roiDecodeExecutor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void loadSlicesUsingFileChannelPool() {
+        TestUtils.prepareTestDataFiles(Paths.get(TEST_DATADIR), testDirectory, "default.0.tif", "default.1.tif");
+        List<String> imageNames = Arrays.asList("default.0.tif", "default.1.tif");
+        FileBasedRenderedVolumeLocation pooledVolumeLocation = new FileBasedRenderedVolumeLocation(testDirectory, Function.identity());
+        FileChannelPool fileChannelPool = new FileChannelPool(10, 60000);
+        pooledVolumeLocation.setFileChannelPool(fileChannelPool);
+        try {
+            for (int pageNumber : new int[] {0, 7, 18}) {
+                byte[] expectedImageBytes = testVolumeLocation.readTiffPageAsTexturedBytes("", imageNames, pageNumber).getContent();
+                assertArrayEquals(expectedImageBytes, pooledVolumeLocation.readTiffPageAsTexturedBytes("", imageNames, pageNumber).getContent());
+            }
+            assertEquals(2, fileChannelPool.getOpenChannelCount());
+        } finally {
+            fileChannelPool.close();
+        }
+    }
 }
@@ -0,0 +1,207 @@
+package org.janelia.rendering;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.google.common.io.ByteStreams;
+import com.sun.media.jai.codec.SeekableStream;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import org.janelia.rendering.utils.HttpBlockCache;
+import org.janelia.rendering.utils.HttpRangeSeekableStream;
+import org.janelia.testutils.TestUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class HttpRenderedVolumeLocationTest {
+    private static final String TEST_DATADIR = "src/test/resources/testdata/rendering";
+    private static final Pattern RANGE_PATTERN = Pattern.compile("bytes=(\\d+)-(\\d+)");
+
+    private Path testDirectory;
+    private HttpServer testServer;
+    private AtomicInteger rangeRequests;
+    private AtomicLong servedBytes;
+    private AtomicInteger contentRequests;
+    private boolean ignoreRanges;
+    private URI testServerURI;
+
+    @Before
+    public void setUp() throws IOException {
+        testDirectory = Files.createTempDirectory("testhttprendering");
+        TestUtils.prepareTestDataFiles(Paths.get(TEST_DATADIR), testDirectory.resolve("volume"),
+                "default.0.tif", "default.1.tif", "YZ.0.tif", "transform.txt");
+        rangeRequests = new AtomicInteger();
+        servedBytes = new AtomicLong();
+        contentRequests = new AtomicInteger();
+        ignoreRanges = false;
+        testServer = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        testServer.createContext("/", this::serveFile);
+        testServer.start();
+        testServerURI = URI.create("http://localhost:" + testServer.getAddress().getPort() + "/data");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        testServer.stop(0);
+        TestUtils.deletePath(testDirectory);
+    }
+
+    @Test
+    public void readContent() throws IOException {
+        HttpRenderedVolumeLocation testVolumeLocation = new HttpRenderedVolumeLocation(testServerURI, "volume");
+        byte[] expectedContent = Files.readAllBytes(testDirectory.resolve("volume/transform.txt"));
+        Streamable<InputStream> content = testVolumeLocation.getContentFromRelativePath("transform.txt");
+        assertEquals(expectedContent.length, content.getSize());
+        try (InputStream contentStream = content.getContent()) {
+            assertArrayEquals(expectedContent, ByteStreams.toByteArray(contentStream));
+        }
+        assertTrue(testVolumeLocation.checkContentAtRelativePath("transform.txt"));
+        assertTrue(testVolumeLocation.checkContentAtAbsolutePath("/volume/default.0.tif"));
+        assertFalse(testVolumeLocation.checkContentAtRelativePath("missing.txt"));
+        assertTrue(testVolumeLocation.getContentLastModifiedAtRelativePath("transform.txt") > 0);
+        assertEquals(-1L, testVolumeLocation.getContentLastModifiedAtRelativePath("missing.txt"));
+        assertEquals(testServerURI + "/volume/default.0.tif", testVolumeLocation.getContentURIFromRelativePath("default.0.tif"));
+    }
+
+    @Test
+    public void listTopLevelImages() {
+        HttpRenderedVolumeLocation testVolumeLocation = new HttpRenderedVolumeLocation(testServerURI, "volume");
+        List<URI> imageURIs = testVolumeLocation.listImageUris(1);
+        assertEquals(
+                Arrays.asList(
+                        URI.create(testServerURI + "/volume/default.0.tif"),
+                        URI.create(testServerURI + "/volume/default.1.tif"),
+                        URI.create(testServerURI + "/volume/YZ.0.tif")),
+                imageURIs);
+    }
+
+    @Test
+    public void readOnlyRequestedRanges() throws IOException {
+        int blockSize = 1024;
+        HttpBlockCache blockCache = new HttpBlockCache(blockSize, 1024 * 1024);
+        Path testFile = testDirectory.resolve("volume/default.0.tif");
+        byte[] fileContent = Files.readAllBytes(testFile);
+        URI testFileURI = URI.create(testServerURI + "/volume/default.0.tif");
+        try (SeekableStream rangeStream = new HttpRangeSeekableStream(testFileURI.toURL(), fileContent.length, "v1", blockCache, 1000, 1000)) {
+            rangeStream.seek(blockSize * 3 + 10);
+            byte[] readContent = new byte[2 * blockSize];
+            rangeStream.readFully(readContent);
+            assertArrayEquals(Arrays.copyOfRange(fileContent, blockSize * 3 + 10, blockSize * 5 + 10), readContent);
+            // the 3 blocks overlapping the read were retrieved with a single request
+            assertEquals(1, rangeRequests.get());
+            assertEquals(3 * blockSize, servedBytes.get());
+
+            rangeStream.seek(blockSize * 4);
+            assertEquals(fileContent[blockSize * 4] & 0xFF, rangeStream.read());
+            // cached blocks are not retrieved again
+            assertEquals(1, rangeRequests.get());
+
+            rangeStream.seek(fileContent.length - 5);
+            byte[] tailContent = new byte[10];
+            assertEquals(5, rangeStream.read(tailContent, 0, tailContent.length));
+            assertArrayEquals(Arrays.copyOfRange(fileContent, fileContent.length - 5, fileContent.length), Arrays.copyOf(tailContent, 5));
+            assertEquals(-1, rangeStream.read());
+            assertEquals(2, rangeRequests.get());
+        }
+    }
+
+    @Test
+    public void readEntireContentOnceIfTheServerIgnoresRanges() throws IOException {
+        ignoreRanges = true;
+        int blockSize = 1024;
+        HttpBlockCache blockCache = new HttpBlockCache(blockSize, 1024 * 1024);
+        byte[] fileContent = Files.readAllBytes(testDirectory.resolve("volume/default.0.tif"));
+        URI testFileURI = URI.create(testServerURI + "/volume/default.0.tif");
+        try (SeekableStream rangeStream = new HttpRangeSeekableStream(testFileURI.toURL(), fileContent.length, "v1", blockCache, 1000, 1000)) {
+            for (long readPosition : new long[] {blockSize * 3 + 10, blockSize * 20, 0, fileContent.length - 100}) {
+                rangeStream.seek(readPosition);
+                byte[] readContent = new byte[100];
+                rangeStream.readFully(readContent);
+                assertArrayEquals(Arrays.copyOfRange(fileContent, (int) readPosition, (int) readPosition + 100), readContent);
+            }
+            assertEquals(1, contentRequests.get());
+            assertEquals(fileContent.length, servedBytes.get());
+        }
+    }
+
+    @Test
+    public void loadSliceSameAsFileBasedLocation() {
+        HttpRenderedVolumeLocation testVolumeLocation = new HttpRenderedVolumeLocation(testServerURI, "volume");
+        testVolumeLocation.setBlockCache(new HttpBlockCache(4096, 1024 * 1024));
+        RenderedVolumeLocation fileBasedVolumeLocation = new FileBasedRenderedVolumeLocation(testDirectory.resolve("volume"), Function.identity());
+        List<String> channelImageNames = Arrays.asList("default.0.tif", "default.1.tif");
+        byte[] expectedTextureBytes = fileBasedVolumeLocation.readTiffPageAsTexturedBytes("", channelImageNames, 10).getContent();
+        byte[] textureBytes = testVolumeLocation.readTiffPageAsTexturedBytes("", channelImageNames, 10).getContent();
+        assertArrayEquals(expectedTextureBytes, textureBytes);
+        RenderedImageInfo expectedImageInfo = fileBasedVolumeLocation.readTileImageInfo("default.0.tif");
+        RenderedImageInfo imageInfo = testVolumeLocation.readTileImageInfo("default.0.tif");
+        assertEquals(expectedImageInfo.sx, imageInfo.sx);
+        assertEquals(expectedImageInfo.sy, imageInfo.sy);
+        assertEquals(expectedImageInfo.sz, imageInfo.sz);
+        assertEquals(expectedImageInfo.cmPixelSize, imageInfo.cmPixelSize);
+    }
+
+    private void serveFile(HttpExchange exchange) throws IOException {
+        String path = exchange.getRequestURI().getPath();
+        Path filePath = path.startsWith("/data/") ? testDirectory.resolve(path.substring("/data/".length())) : null;
+        if (filePath == null || !Files.isRegularFile(filePath)) {
+            exchange.sendResponseHeaders(404, -1);
+            exchange.close();
+            return;
+        }
+        byte[] fileContent = Files.readAllBytes(filePath);
+        SimpleDateFormat httpDateFormat = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+        httpDateFormat.setTimeZone(TimeZone.getTimeZone("GMT"));
+        exchange.getResponseHeaders().add("Last-Modified", httpDateFormat.format(new Date(Files.getLastModifiedTime(filePath).toMillis())));
+        exchange.getResponseHeaders().add("Accept-Ranges", "bytes");
+        if ("HEAD".equals(exchange.getRequestMethod())) {
+            exchange.getResponseHeaders().add("Content-Length", String.valueOf(fileContent.length));
+            exchange.sendResponseHeaders(200, -1);
+            exchange.close();
+            return;
+        }
+        contentRequests.incrementAndGet();
+        String rangeHeader = ignoreRanges ? null : exchange.getRequestHeaders().getFirst("Range");
+        Matcher rangeMatcher = rangeHeader == null ? null : RANGE_PATTERN.matcher(rangeHeader);
+        byte[] responseContent;
+        if (rangeMatcher != null && rangeMatcher.matches()) {
+            int rangeStart = Integer.parseInt(rangeMatcher.group(1));
+            int rangeEnd = Math.min(fileContent.length - 1, Integer.parseInt(rangeMatcher.group(2)));
+            responseContent = Arrays.copyOfRange(fileContent, rangeStart, rangeEnd + 1);
+            rangeRequests.incrementAndGet();
+            exchange.getResponseHeaders().add("Content-Range", "bytes " + rangeStart + "-" + rangeEnd + "/" + fileContent.length);
+            exchange.sendResponseHeaders(206, responseContent.length);
+        } else {
+            responseContent = fileContent;
+            exchange.sendResponseHeaders(200, responseContent.length);
+        }
+        servedBytes.addAndGet(responseContent.length);
+        try (OutputStream responseStream = exchange.getResponseBody()) {
+            responseStream.write(responseContent);
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package org.janelia.rendering;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.janelia.rendering.utils.RenderingTrace;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class InMemoryRenderingMetricsTest {
+
+    @Test
+    public void bucketBoundsContainTheirValues() {
+        for (long nanos : new long[] {0, 1, 3, 4, 7, 8, 9, 10, 1000, 123456789L, Long.MAX_VALUE / 3}) {
+            int bucketIndex = InMemoryRenderingMetrics.bucketIndex(nanos);
+            long upperBound = InMemoryRenderingMetrics.bucketUpperBound(bucketIndex);
+            assertTrue(nanos + " > " + upperBound, nanos <= upperBound);
+            assertTrue(nanos + " precision", upperBound - nanos <= nanos / 4);
+            if (bucketIndex > 0) {
+                assertTrue(nanos + " <= lower bound", nanos > InMemoryRenderingMetrics.bucketUpperBound(bucketIndex - 1));
+            }
+        }
+    }
+
+    @Test
+    public void percentiles() {
+        InMemoryRenderingMetrics renderingMetrics = new InMemoryRenderingMetrics();
+        for (int i = 1; i <= 100; i++) {
+            renderingMetrics.recordStage(RenderingStage.DECODE, TimeUnit.MICROSECONDS.toNanos(i), 1000);
+        }
+        assertEquals(100L, renderingMetrics.getCount(RenderingStage.DECODE));
+        assertEquals(100000L, renderingMetrics.getTotalBytes(RenderingStage.DECODE));
+        assertEquals(TimeUnit.MICROSECONDS.toNanos(100), renderingMetrics.getMaxNanos(RenderingStage.DECODE));
+        assertEquals(0L, renderingMetrics.getCount(RenderingStage.ENCODE));
+        assertEquals(0L, renderingMetrics.getPercentileNanos(RenderingStage.ENCODE, 50));
+        for (int percentile : new int[] {1, 50, 90, 99, 100}) {
+            long expectedNanos = TimeUnit.MICROSECONDS.toNanos(percentile);
+            long percentileNanos = renderingMetrics.getPercentileNanos(RenderingStage.DECODE, percentile);
+            assertTrue("p" + percentile + " " + percentileNanos, percentileNanos >= expectedNanos && percentileNanos <= expectedNanos * 5 / 4);
+        }
+        renderingMetrics.reset();
+        assertEquals(0L, renderingMetrics.getCount(RenderingStage.DECODE));
+    }
+
+    @Test
+    public void traceRecordsStagesFromOtherThreads() throws Exception {
+        InMemoryRenderingMetrics renderingMetrics = new InMemoryRenderingMetrics();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            RenderingTrace.recordStage(RenderingStage.DECODE, System.nanoTime(), 10);
+            assertEquals(0L, renderingMetrics.getCount(RenderingStage.DECODE));
+
+            RenderingTrace trace = RenderingTrace.begin(renderingMetrics);
+            assertSame(trace, RenderingTrace.current());
+            RenderingTrace.recordStage(RenderingStage.OPEN_STREAM, System.nanoTime(), 0);
+            executor.submit(RenderingTrace.propagate(() -> {
+                RenderingTrace.recordStage(RenderingStage.DECODE, System.nanoTime(), 10);
+                return null;
+            })).get();
+            // the executor thread does not keep the trace
+            executor.submit(() -> assertNull(RenderingTrace.current())).get();
+            trace.end(20);
+            assertNull(RenderingTrace.current());
+
+            assertEquals(1L, renderingMetrics.getCount(RenderingStage.OPEN_STREAM));
+            assertEquals(1L, renderingMetrics.getCount(RenderingStage.DECODE));
+            assertEquals(10L, renderingMetrics.getTotalBytes(RenderingStage.DECODE));
+            assertEquals(20L, renderingMetrics.getTotalBytes(RenderingStage.REQUEST));
+            assertEquals(10L, trace.getStageBytes(RenderingStage.DECODE));
+            assertTrue(trace.formatBreakdown(), trace.formatBreakdown().contains("decode="));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
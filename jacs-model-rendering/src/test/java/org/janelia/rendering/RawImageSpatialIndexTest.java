@@ -0,0 +1,127 @@
+package org.janelia.rendering;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class RawImageSpatialIndexTest {
+
+    @Test
+    public void findNearestTile() {
+        Random random = new Random(17);
+        List<RawImage> rawImages = createRandomTiles(random, 500);
+        RawImageSpatialIndex rawImageIndex = new RawImageSpatialIndex(rawImages);
+        assertEquals(rawImages.size(), rawImageIndex.size());
+        for (int i = 0; i < 200; i++) {
+            double[] p = randomPoint(random);
+            RawImage expected = rawImages.stream()
+                    .min((t1, t2) -> Double.compare(squaredDistance(t1.getCenterInNanos(), p), squaredDistance(t2.getCenterInNanos(), p)))
+                    .orElse(null);
+            assertSame(expected, rawImageIndex.findNearest(p[0], p[1], p[2]).orElse(null));
+        }
+    }
+
+    @Test
+    public void findNearestTileWithTies() {
+        RawImage t1 = createTile(0, 0, 0, 10, 10, 10);
+        RawImage t2 = createTile(0, 0, 0, 10, 10, 10);
+        RawImage t3 = createTile(20, 0, 0, 10, 10, 10);
+        RawImageSpatialIndex rawImageIndex = new RawImageSpatialIndex(Arrays.asList(t3, t2, t1));
+        assertSame(t2, rawImageIndex.findNearest(5, 5, 5).orElse(null));
+        assertSame(t3, rawImageIndex.findNearest(15, 5, 5).orElse(null));
+    }
+
+    @Test
+    public void findContainingTiles() {
+        Random random = new Random(19);
+        List<RawImage> rawImages = createRandomTiles(random, 500);
+        RawImageSpatialIndex rawImageIndex = new RawImageSpatialIndex(rawImages);
+        int found = 0;
+        for (int i = 0; i < 200; i++) {
+            double[] p = randomPoint(random);
+            List<RawImage> expected = rawImages.stream()
+                    .filter(t -> intersects(t, p, p))
+                    .collect(Collectors.toList());
+            List<RawImage> containingTiles = rawImageIndex.findContaining(p[0], p[1], p[2]);
+            assertEquals(expected, containingTiles);
+            found += containingTiles.size();
+        }
+        assertTrue(found > 0);
+    }
+
+    @Test
+    public void findIntersectingTiles() {
+        Random random = new Random(23);
+        List<RawImage> rawImages = createRandomTiles(random, 500);
+        RawImageSpatialIndex rawImageIndex = new RawImageSpatialIndex(rawImages);
+        for (int i = 0; i < 200; i++) {
+            double[] p1 = randomPoint(random);
+            double[] p2 = randomPoint(random);
+            double[] minCorner = new double[] {Math.min(p1[0], p2[0]), Math.min(p1[1], p2[1]), Math.min(p1[2], p2[2])};
+            double[] maxCorner = new double[] {Math.max(p1[0], p2[0]), Math.max(p1[1], p2[1]), Math.max(p1[2], p2[2])};
+            List<RawImage> expected = rawImages.stream()
+                    .filter(t -> intersects(t, minCorner, maxCorner))
+                    .collect(Collectors.toList());
+            assertEquals(expected, rawImageIndex.findIntersecting(p1[0], p1[1], p1[2], p2[0], p2[1], p2[2]));
+        }
+    }
+
+    @Test
+    public void skipTilesWithoutBoundingBox() {
+        RawImage t1 = createTile(0, 0, 0, 10, 10, 10);
+        RawImage t2 = new RawImage();
+        RawImageSpatialIndex rawImageIndex = new RawImageSpatialIndex(Arrays.asList(t2, t1));
+        assertEquals(1, rawImageIndex.size());
+        assertSame(t1, rawImageIndex.findNearest(100, 100, 100).orElse(null));
+        assertFalse(new RawImageSpatialIndex(Arrays.asList(t2)).findNearest(0, 0, 0).isPresent());
+    }
+
+    private List<RawImage> createRandomTiles(Random random, int n) {
+        List<RawImage> rawImages = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            rawImages.add(createTile(
+                    random.nextInt(1000000), random.nextInt(1000000), random.nextInt(1000000),
+                    50000 + random.nextInt(50000), 50000 + random.nextInt(50000), 50000 + random.nextInt(50000)));
+        }
+        return rawImages;
+    }
+
+    private RawImage createTile(int x, int y, int z, int dx, int dy, int dz) {
+        RawImage rawImage = new RawImage();
+        rawImage.setOriginInNanos(new Integer[] {x, y, z});
+        rawImage.setDimsInNanos(new Integer[] {dx, dy, dz});
+        return rawImage;
+    }
+
+    private double[] randomPoint(Random random) {
+        return new double[] {random.nextDouble() * 1100000, random.nextDouble() * 1100000, random.nextDouble() * 1100000};
+    }
+
+    private double squaredDistance(Double[] center, double[] p) {
+        double d = 0;
+        for (int i = 0; i < p.length; i++) {
+            d += (center[i] - p[i]) * (center[i] - p[i]);
+        }
+        return d;
+    }
+
+    private boolean intersects(RawImage t, double[] minCorner, double[] maxCorner) {
+        for (int i = 0; i < minCorner.length; i++) {
+            double tileMin = t.getOriginInNanos()[i];
+            double tileMax = tileMin + t.getDimsInNanos()[i];
+            if (tileMin > maxCorner[i] || tileMax < minCorner[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
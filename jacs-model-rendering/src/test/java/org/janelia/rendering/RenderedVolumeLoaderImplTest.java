@@ -1,13 +1,28 @@
 package org.janelia.rendering;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
 import java.util.function.Function;
+import java.util.stream.Collectors;
 
 import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.MoreExecutors;
 
 import org.janelia.testutils.TestUtils;
 import org.junit.AfterClass;
@@ -103,6 +118,46 @@ public class RenderedVolumeLoaderImplTest {
         assertTrue(rvm.hasZSlices());
     }
 
+    @Test
+    public void loadVolumeFromManifest() throws IOException {
+        TestUtils.prepareTestDataFiles(Paths.get(TEST_DATADIR), testDirectory, "transform.txt", "default.0.tif", "default.1.tif", "tilebase.cache.yml");
+        RenderedVolumeLoaderImpl renderedVolumeLoaderImpl = new RenderedVolumeLoaderImpl();
+        VolumeManifest volumeManifest = renderedVolumeLoaderImpl.generateVolumeManifest(testVolumeLocation);
+        assertNotNull(volumeManifest);
+        assertEquals(Arrays.asList("default.0.tif", "default.1.tif"), volumeManifest.getOctreeImageNames().stream().sorted().collect(Collectors.toList()));
+        Path manifestPath = testDirectory.resolve(RenderedVolumeLoader.DEFAULT_VOLUME_MANIFEST_FILE_NAME);
+        volumeManifest.writeTo(manifestPath);
+        RenderedVolumeMetadata discoveredRvm = renderedVolumeLoaderImpl.loadVolume(testVolumeLocation).orElse(null);
+        assertNotNull(discoveredRvm);
+
+        // remove a channel without making the manifest stale so that only the manifest can report it;
+        // the volume directory is not compared with the manifest
+        Files.delete(testDirectory.resolve("default.1.tif"));
+        Files.setLastModifiedTime(testDirectory, FileTime.fromMillis(Files.getLastModifiedTime(manifestPath).toMillis() + 10000));
+        RenderedVolumeMetadata rvm = renderedVolumeLoaderImpl.loadVolume(testVolumeLocation).orElse(null);
+        assertNotNull(rvm);
+        assertEquals(2, rvm.getXyTileInfo().getChannelCount());
+        assertArrayEquals(discoveredRvm.getOriginVoxel(), rvm.getOriginVoxel());
+        assertArrayEquals(discoveredRvm.getVolumeSizeInVoxels(), rvm.getVolumeSizeInVoxels());
+        assertEquals(renderedVolumeLoaderImpl.loadVolumeRawImageTiles(testVolumeLocation).size(),
+                volumeManifest.getRawVolData().getTiles().size());
+
+        // once an octree level directory is newer than the manifest the volume is discovered again
+        Path octreeLevelDir = Files.createDirectory(testDirectory.resolve("1"));
+        Files.setLastModifiedTime(octreeLevelDir, FileTime.fromMillis(Files.getLastModifiedTime(manifestPath).toMillis() + 10000));
+        RenderedVolumeMetadata staleLevelRvm = renderedVolumeLoaderImpl.loadVolume(testVolumeLocation).orElse(null);
+        assertNotNull(staleLevelRvm);
+        assertEquals(1, staleLevelRvm.getXyTileInfo().getChannelCount());
+        Files.delete(octreeLevelDir);
+
+        // the same once one of the top level octree images listed in the manifest is newer than the manifest
+        Path octreeImagePath = testDirectory.resolve("default.0.tif");
+        Files.setLastModifiedTime(octreeImagePath, FileTime.fromMillis(Files.getLastModifiedTime(manifestPath).toMillis() + 10000));
+        RenderedVolumeMetadata staleManifestRvm = renderedVolumeLoaderImpl.loadVolume(testVolumeLocation).orElse(null);
+        assertNotNull(staleManifestRvm);
+        assertEquals(1, staleManifestRvm.getXyTileInfo().getChannelCount());
+    }
+
     @Test
     public void loadXYSlice() {
         TestUtils.prepareTestDataFiles(Paths.get(TEST_DATADIR), testDirectory, "transform.txt", "default.0.tif", "default.1.tif");
@@ -139,6 +194,143 @@ public class RenderedVolumeLoaderImplTest {
         assertEquals(sliceContent.getSize(), (long) sliceContent.getContent().length);
     }
 
+    @Test
+    public void recordSliceStageMetrics() {
+        TestUtils.prepareTestDataFiles(Paths.get(TEST_DATADIR), testDirectory, "transform.txt", "default.0.tif", "default.1.tif");
+        InMemoryRenderingMetrics renderingMetrics = new InMemoryRenderingMetrics();
+        RenderedVolumeLoaderImpl instrumentedVolumeLoader = new RenderedVolumeLoaderImpl();
+        instrumentedVolumeLoader.setRenderingMetrics(renderingMetrics);
+        instrumentedVolumeLoader.setSlowRequestThresholdMillis(1);
+        RenderedVolumeMetadata rvm = instrumentedVolumeLoader.loadVolume(testVolumeLocation).orElse(null);
+        assertNotNull(rvm);
+        assertEquals(1L, renderingMetrics.getCount(RenderingStage.LIST_IMAGES));
+        TileKey tileKey = TileKey.fromTileCoord(0, 0, 0, rvm.getNumZoomLevels() - 1, Coordinate.Z, 0);
+        Streamable<byte[]> sliceContent = instrumentedVolumeLoader.loadSlice(testVolumeLocation, rvm, tileKey);
+        assertNotNull(sliceContent.getContent());
+        assertEquals(2L, renderingMetrics.getCount(RenderingStage.REQUEST));
+        assertEquals(sliceContent.getSize(), renderingMetrics.getTotalBytes(RenderingStage.REQUEST));
+        assertTrue(renderingMetrics.getCount(RenderingStage.OPEN_STREAM) > 0);
+        assertEquals(1L, renderingMetrics.getCount(RenderingStage.TEXTURE_PACK));
+        assertEquals(sliceContent.getSize(), renderingMetrics.getTotalBytes(RenderingStage.TEXTURE_PACK));
+    }
+
+    @Test
+    public void truncateTileProjectionAtTheEndOfTheTile() {
+        TestUtils.prepareTestDataFiles(Paths.get(TEST_DATADIR), testDirectory, "transform.txt", "default.0.tif");
+        RenderedVolumeMetadata rvm = renderedVolumeLoader.loadVolume(testVolumeLocation).orElse(null);
+        assertNotNull(rvm);
+        int numPages = rvm.getXyTileInfo().getNumPages();
+        TileKey lastSlicesTileKey = TileKey.fromTileCoord(0, 0, 0, rvm.getNumZoomLevels() - 1, Coordinate.Z, numPages - 2);
+        byte[] projection = renderedVolumeLoader.loadTileProjection(testVolumeLocation, rvm, lastSlicesTileKey, 0, 5, ProjectionType.MAX)
+                .getContent();
+        assertNotNull(projection);
+        // only the last 2 slices are projected
+        byte[] expectedProjection = testVolumeLocation.readTileImageROIProjection("default.0.tif",
+                -1, -1, numPages - 1, -1, -1, 2, Coordinate.Z, ProjectionType.MAX)
+                .getContent();
+        assertArrayEquals(expectedProjection, projection);
+
+        TileKey lastSliceTileKey = TileKey.fromTileCoord(0, 0, 0, rvm.getNumZoomLevels() - 1, Coordinate.Z, numPages - 1);
+        byte[] lastSliceProjection = renderedVolumeLoader.loadTileProjection(testVolumeLocation, rvm, lastSliceTileKey, 0, 5, ProjectionType.MAX)
+                .getContent();
+        byte[] expectedLastSliceProjection = testVolumeLocation.readTileImageROIProjection("default.0.tif",
+                -1, -1, numPages - 1, -1, -1, 1, Coordinate.Z, ProjectionType.MAX)
+                .getContent();
+        assertArrayEquals(expectedLastSliceProjection, lastSliceProjection);
+    }
+
+    @Test
+    public void loadCachedXYSlice() {
+        TestUtils.prepareTestDataFiles(Paths.get(TEST_DATADIR), testDirectory, "transform.txt", "default.0.tif", "default.1.tif");
+        BoundedTextureCache textureCache = new BoundedTextureCache(64 * 1024 * 1024, true);
+        RenderedVolumeLoader cachingVolumeLoader = new RenderedVolumeLoaderImpl(textureCache);
+        RenderedVolumeMetadata rvm = cachingVolumeLoader.loadVolume(testVolumeLocation).orElse(null);
+        assertNotNull(rvm);
+        TileKey tileKey = TileKey.fromTileCoord(0, 0, 0, rvm.getNumZoomLevels() - 1, Coordinate.Z, 0);
+        byte[] firstSliceContent = cachingVolumeLoader.loadSlice(testVolumeLocation, rvm, tileKey).getContent();
+        byte[] secondSliceContent = cachingVolumeLoader.loadSlice(testVolumeLocation, rvm, tileKey).getContent();
+        assertNotNull(firstSliceContent);
+        assertArrayEquals(firstSliceContent, secondSliceContent);
+        assertEquals(1L, textureCache.getMissCount());
+        assertEquals(1L, textureCache.getHitCount());
+    }
+
+    @Test
+    public void loadMultipleXYSlices() {
+        TestUtils.prepareTestDataFiles(Paths.get(TEST_DATADIR), testDirectory, "transform.txt", "default.0.tif", "default.1.tif");
+        RenderedVolumeMetadata rvm = renderedVolumeLoader.loadVolume(testVolumeLocation).orElse(null);
+        assertNotNull(rvm);
+        List<TileKey> tileKeys = Arrays.asList(
+                TileKey.fromTileCoord(0, 0, 0, rvm.getNumZoomLevels() - 1, Coordinate.Z, 3),
+                TileKey.fromTileCoord(0, 0, 0, rvm.getNumZoomLevels() - 1, Coordinate.Z, 1),
+                TileKey.fromTileCoord(1, 1, 1, 0, Coordinate.Z, 0),
+                TileKey.fromTileCoord(0, 0, 0, rvm.getNumZoomLevels() - 1, Coordinate.Z, 3)
+        );
+        List<Streamable<byte[]>> slices = renderedVolumeLoader.loadSlices(testVolumeLocation, rvm, tileKeys);
+        assertEquals(tileKeys.size(), slices.size());
+        for (int i = 0; i < tileKeys.size(); i++) {
+            byte[] expectedSliceContent = renderedVolumeLoader.loadSlice(testVolumeLocation, rvm, tileKeys.get(i)).getContent();
+            assertArrayEquals(expectedSliceContent, slices.get(i).getContent());
+        }
+        assertNotNull(slices.get(0).getContent());
+        assertNull(slices.get(2).getContent());
+    }
+
+    @Test
+    public void reloadTileImageRewrittenInPlace() throws IOException {
+        Path tileImagePath = Files.write(testDirectory.resolve("default.0.tif"), new byte[] {1});
+        AtomicInteger pageReads = new AtomicInteger();
+        RenderedVolumeLocation pageReadsCountingLocation = new FileBasedRenderedVolumeLocation(testDirectory, Function.identity()) {
+            @Override
+            public Streamable<byte[]> readTiffPageAsTexturedBytes(String imageRelativePath, List<String> channelImageNames, int pageNumber) {
+                byte[] textureBytes = new byte[] {(byte) pageReads.incrementAndGet()};
+                return Streamable.of(textureBytes, textureBytes.length);
+            }
+        };
+        RenderedVolumeMetadata rvm = new RenderedVolumeMetadata();
+        rvm.setNumZoomLevels(1);
+        rvm.setXyTileInfo(new TileInfo(Coordinate.Z, 1, new int[] {10, 10, 10}, 16, false));
+        RenderedVolumeLoaderImpl cachingVolumeLoader = new RenderedVolumeLoaderImpl(new BoundedTextureCache(1024 * 1024, false));
+        TileKey tileKey = TileKey.fromTileCoord(0, 0, 0, 0, Coordinate.Z, 3);
+
+        assertArrayEquals(new byte[] {1}, cachingVolumeLoader.loadSlice(pageReadsCountingLocation, rvm, tileKey).getContent());
+        assertArrayEquals(new byte[] {1}, cachingVolumeLoader.loadSlice(pageReadsCountingLocation, rvm, tileKey).getContent());
+        assertEquals(1, pageReads.get());
+
+        Files.setLastModifiedTime(tileImagePath, FileTime.fromMillis(Files.getLastModifiedTime(tileImagePath).toMillis() + 10000));
+        assertArrayEquals(new byte[] {2}, cachingVolumeLoader.loadSlice(pageReadsCountingLocation, rvm, tileKey).getContent());
+        assertArrayEquals(new byte[] {2}, cachingVolumeLoader.loadSlices(pageReadsCountingLocation, rvm, Arrays.asList(tileKey)).get(0).getContent());
+        assertEquals(2, pageReads.get());
+    }
+
+    @Test
+    public void prefetchXYSlices() {
+        TestUtils.prepareTestDataFiles(Paths.get(TEST_DATADIR), testDirectory, "transform.txt", "default.0.tif", "default.1.tif");
+        BoundedTextureCache textureCache = new BoundedTextureCache(64 * 1024 * 1024, false);
+        RenderedVolumeLoaderImpl prefetchingVolumeLoader = new RenderedVolumeLoaderImpl(textureCache);
+        prefetchingVolumeLoader.setSlicePrefetchExecutor(MoreExecutors.newDirectExecutorService());
+        prefetchingVolumeLoader.setSlicePrefetchDepth(2);
+        RenderedVolumeMetadata rvm = prefetchingVolumeLoader.loadVolume(testVolumeLocation).orElse(null);
+        assertNotNull(rvm);
+        int zoom = rvm.getNumZoomLevels() - 1;
+        long tileImagesLastModified = Math.max(
+                testVolumeLocation.getContentLastModifiedAtRelativePath("default.0.tif"),
+                testVolumeLocation.getContentLastModifiedAtRelativePath("default.1.tif"));
+        prefetchingVolumeLoader.loadSlice(testVolumeLocation, rvm, TileKey.fromTileCoord(0, 0, 0, zoom, Coordinate.Z, 5));
+        // no direction yet so both sides are prefetched
+        for (int sliceIndex : new int[] {3, 4, 6, 7}) {
+            assertTrue(textureCache.contains(new TextureCacheKey(testVolumeLocation.getTileStorageURI(),
+                    TileKey.fromTileCoord(0, 0, 0, zoom, Coordinate.Z, sliceIndex), tileImagesLastModified)));
+        }
+        prefetchingVolumeLoader.loadSlice(testVolumeLocation, rvm, TileKey.fromTileCoord(0, 0, 0, zoom, Coordinate.Z, 6));
+        assertTrue(textureCache.contains(new TextureCacheKey(testVolumeLocation.getTileStorageURI(),
+                TileKey.fromTileCoord(0, 0, 0, zoom, Coordinate.Z, 8), tileImagesLastModified)));
+        assertFalse(textureCache.contains(new TextureCacheKey(testVolumeLocation.getTileStorageURI(),
+                TileKey.fromTileCoord(0, 0, 0, zoom, Coordinate.Z, 2), tileImagesLastModified)));
+        assertEquals(1L, textureCache.getMissCount());
+        assertEquals(1L, textureCache.getHitCount());
+    }
+
     @Test
     public void loadMissingXYSlice() {
         TestUtils.prepareTestDataFiles(Paths.get(TEST_DATADIR), testDirectory, "transform.txt", "default.0.tif", "default.1.tif");
@@ -164,6 +356,46 @@ public class RenderedVolumeLoaderImplTest {
         assertNotNull(rawImage);
     }
 
+    @Test
+    public void reuseRawImageIndexUntilTheTileBaseChanges() throws IOException {
+        TestUtils.prepareTestDataFiles(Paths.get(TEST_DATADIR), testDirectory, "transform.txt", "default.0.tif", "default.1.tif", "tilebase.cache.yml");
+        Map<String, AtomicInteger> contentReads = new ConcurrentHashMap<>();
+        RenderedVolumeLocation countingVolumeLocation = createContentReadsCountingLocation(contentReads);
+        List<RawImage> rawImages = renderedVolumeLoader.findRawImagesContainingVoxelCoord(countingVolumeLocation, 0, 0, 0);
+        assertEquals(rawImages, renderedVolumeLoader.findRawImagesContainingVoxelCoord(countingVolumeLocation, 0, 0, 0));
+        assertTrue(renderedVolumeLoader.findClosestRawImageFromVoxelCoord(countingVolumeLocation, 0, 0, 0).isPresent());
+        assertEquals(1, contentReads.get(RenderedVolumeLoader.DEFAULT_TILED_VOL_BASE_FILE_NAME).get());
+
+        Path tileBasePath = testDirectory.resolve(RenderedVolumeLoader.DEFAULT_TILED_VOL_BASE_FILE_NAME);
+        Files.setLastModifiedTime(tileBasePath, FileTime.fromMillis(Files.getLastModifiedTime(tileBasePath).toMillis() + 10000));
+        assertEquals(rawImages, renderedVolumeLoader.findRawImagesContainingVoxelCoord(countingVolumeLocation, 0, 0, 0));
+        assertEquals(2, contentReads.get(RenderedVolumeLoader.DEFAULT_TILED_VOL_BASE_FILE_NAME).get());
+    }
+
+    @Test
+    public void readManifestOncePerRawImageLookup() throws IOException {
+        TestUtils.prepareTestDataFiles(Paths.get(TEST_DATADIR), testDirectory, "transform.txt", "default.0.tif", "default.1.tif", "tilebase.cache.yml");
+        RenderedVolumeLoaderImpl renderedVolumeLoaderImpl = new RenderedVolumeLoaderImpl();
+        VolumeManifest volumeManifest = renderedVolumeLoaderImpl.generateVolumeManifest(testVolumeLocation);
+        assertNotNull(volumeManifest);
+        volumeManifest.writeTo(testDirectory.resolve(RenderedVolumeLoader.DEFAULT_VOLUME_MANIFEST_FILE_NAME));
+        Map<String, AtomicInteger> contentReads = new ConcurrentHashMap<>();
+        RenderedVolumeLocation countingVolumeLocation = createContentReadsCountingLocation(contentReads);
+        renderedVolumeLoaderImpl.findRawImagesIntersectingVoxelBox(countingVolumeLocation, 0, 0, 0, 10, 10, 10);
+        assertEquals(1, contentReads.get(RenderedVolumeLoader.DEFAULT_VOLUME_MANIFEST_FILE_NAME).get());
+        assertNull(contentReads.get(RenderedVolumeLoader.DEFAULT_TILED_VOL_BASE_FILE_NAME));
+    }
+
+    private RenderedVolumeLocation createContentReadsCountingLocation(Map<String, AtomicInteger> contentReads) {
+        return new FileBasedRenderedVolumeLocation(testDirectory, Function.identity()) {
+            @Override
+            public Streamable<InputStream> getContentFromRelativePath(String relativePath) {
+                contentReads.computeIfAbsent(relativePath, p -> new AtomicInteger()).incrementAndGet();
+                return super.getContentFromRelativePath(relativePath);
+            }
+        };
+    }
+
     @Test
     public void noRawImageFound() {
         RawImage rawImage = renderedVolumeLoader.findClosestRawImageFromVoxelCoord(testVolumeLocation, 0, 0, 0 )
@@ -214,4 +446,50 @@ public class RenderedVolumeLoaderImplTest {
         }
     }
 
+    @Test
+    public void coalesceConcurrentRawImageLoads() throws Exception {
+        CountDownLatch loadStarted = new CountDownLatch(1);
+        CountDownLatch loadReleased = new CountDownLatch(1);
+        AtomicInteger roiReads = new AtomicInteger();
+        RenderedVolumeLocation blockingVolumeLocation = new FileBasedRenderedVolumeLocation(testDirectory, Function.identity()) {
+            @Override
+            public Streamable<byte[]> readTiffImageROIPixels(String imagePath, int xCenter, int yCenter, int zCenter, int dimx, int dimy, int dimz) {
+                roiReads.incrementAndGet();
+                loadStarted.countDown();
+                try {
+                    loadReleased.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                byte[] roiBytes = new byte[dimx * dimy * dimz];
+                return Streamable.of(roiBytes, roiBytes.length);
+            }
+        };
+        RawImage rawImage = new RawImage();
+        rawImage.setAcquisitionPath(testDirectory.toString());
+        rawImage.setRelativePath("default");
+        RenderedVolumeLoaderImpl coalescingVolumeLoader = new RenderedVolumeLoaderImpl();
+        ExecutorService testExecutor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Streamable<byte[]>>> results = new ArrayList<>();
+            results.add(testExecutor.submit(() -> coalescingVolumeLoader.loadRawImageContentFromVoxelCoord(blockingVolumeLocation, rawImage, 0, 10, 10, 5, 4, 4, 2)));
+            assertTrue(loadStarted.await(10, TimeUnit.SECONDS));
+            for (int i = 0; i < 3; i++) {
+                results.add(testExecutor.submit(() -> coalescingVolumeLoader.loadRawImageContentFromVoxelCoord(blockingVolumeLocation, rawImage, 0, 10, 10, 5, 4, 4, 2)));
+            }
+            while (coalescingVolumeLoader.getDeduplicatedRawImageLoadCount() < 3) {
+                Thread.sleep(5);
+            }
+            loadReleased.countDown();
+            for (Future<Streamable<byte[]>> result : results) {
+                Streamable<byte[]> roiContent = result.get(10, TimeUnit.SECONDS);
+                assertEquals(32, roiContent.getSize());
+                assertEquals(32, roiContent.getContent().length);
+            }
+            assertEquals(1, roiReads.get());
+            assertEquals(3, coalescingVolumeLoader.getDeduplicatedRawImageLoadCount());
+        } finally {
+            testExecutor.shutdownNow();
+        }
+    }
 }
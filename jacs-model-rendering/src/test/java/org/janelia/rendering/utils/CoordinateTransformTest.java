@@ -0,0 +1,104 @@
+package org.janelia.rendering.utils;
+
+import java.util.Random;
+
+import org.janelia.rendering.RawImage;
+import org.janelia.rendering.RenderedVolumeMetadata;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class CoordinateTransformTest {
+
+    @Test
+    public void batchTransformMatchesSinglePointProduct() {
+        double[][] matrix = new double[][] {
+                {0.98, -0.02, 0.001, 7123.5},
+                {0.015, 1.01, -0.003, -4410.25},
+                {0.0, 0.002, 0.997, 39000.125},
+                {0.0, 0.0, 0.0, 1.0}
+        };
+        CoordinateTransform transform = new CoordinateTransform(matrix);
+        double[] points = randomPoints(1000, 1e5, 11);
+        double[] transformedPoints = transform.transformPoints(points);
+        for (int p = 0; p < points.length / 3; p++) {
+            double[] point = new double[] {points[3 * p], points[3 * p + 1], points[3 * p + 2]};
+            double[] expected = matrixTimesPoint(matrix, point);
+            double[] transformedPoint = transform.transformPoint(point);
+            for (int i = 0; i < 3; i++) {
+                assertEquals(Double.doubleToLongBits(expected[i]), Double.doubleToLongBits(transformedPoint[i]));
+                assertEquals(Double.doubleToLongBits(expected[i]), Double.doubleToLongBits(transformedPoints[3 * p + i]));
+            }
+        }
+        // in place
+        transform.transformPoints(points, 0, points, 0, points.length / 3);
+        assertArrayEquals(transformedPoints, points, 0.);
+    }
+
+    @Test
+    public void invertedTransform() {
+        RawImage rawImage = new RawImage();
+        rawImage.setTransform(new Double[] {
+                250., 3., 0., 0., 71500.,
+                -2., 240., 1., 0., 12600.,
+                0., 4., 1000., 0., 36000.,
+                0., 0., 0., 0., 1.
+        });
+        CoordinateTransform tileTransform = rawImage.getTileTransform();
+        CoordinateTransform inverseTileTransform = tileTransform.invert();
+        double[] points = randomPoints(100, 1000, 5);
+        assertArrayEquals(points, inverseTileTransform.transformPoints(rawImage.transformPoints(points)), 1e-9);
+    }
+
+    @Test
+    public void volumeVoxelAndMicronTransforms() {
+        RenderedVolumeMetadata rvm = new RenderedVolumeMetadata();
+        rvm.setOriginVoxel(new int[] {-12000, 4350, 1200});
+        rvm.setMicromsPerVoxel(new double[] {0.2994, 0.3118, 0.9999});
+        double[] voxels = new double[3 * 500];
+        Random random = new Random(17);
+        for (int i = 0; i < voxels.length; i++) {
+            voxels[i] = random.nextInt(20000);
+        }
+        double[] microscopeNanos = rvm.voxelsToMicroscopeNanos(voxels);
+        double[] microns = rvm.voxelsToMicrons(voxels);
+        double[] micronVoxels = rvm.micronsToVoxels(microns);
+        CoordinateTransform voxelToMicron = rvm.getVoxelToMicronTransform();
+        for (int p = 0; p < voxels.length / 3; p++) {
+            int[] voxel = new int[] {(int) voxels[3 * p], (int) voxels[3 * p + 1], (int) voxels[3 * p + 2]};
+            double[] voxelNanos = rvm.voxelToMicroscopeNanos(voxel);
+            double[] voxelMicrons = voxelToMicron.transformPoint(new double[] {voxels[3 * p], voxels[3 * p + 1], voxels[3 * p + 2]});
+            for (int i = 0; i < 3; i++) {
+                assertEquals(Double.doubleToLongBits(voxelNanos[i]), Double.doubleToLongBits(microscopeNanos[3 * p + i]));
+                assertEquals(Double.doubleToLongBits(voxelMicrons[i]), Double.doubleToLongBits(microns[3 * p + i]));
+                assertEquals(voxels[3 * p + i], micronVoxels[3 * p + i], 1e-6);
+            }
+        }
+    }
+
+    /**
+     * Same operations as multiplying the matrix with the [x, y, z, 1] column vector in JAMA.
+     */
+    private double[] matrixTimesPoint(double[][] matrix, double[] point) {
+        double[] column = new double[] {point[0], point[1], point[2], 1.};
+        double[] result = new double[3];
+        for (int i = 0; i < 3; i++) {
+            double s = 0;
+            for (int k = 0; k < 4; k++) {
+                s += matrix[i][k] * column[k];
+            }
+            result[i] = s;
+        }
+        return result;
+    }
+
+    private double[] randomPoints(int n, double range, long seed) {
+        Random random = new Random(seed);
+        double[] points = new double[3 * n];
+        for (int i = 0; i < points.length; i++) {
+            points[i] = (random.nextDouble() - 0.5) * range;
+        }
+        return points;
+    }
+}
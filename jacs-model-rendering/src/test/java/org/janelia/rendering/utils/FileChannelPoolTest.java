@@ -0,0 +1,138 @@
+package org.janelia.rendering.utils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.Random;
+
+import com.sun.media.jai.codec.SeekableStream;
+
+import org.janelia.testutils.TestUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class FileChannelPoolTest {
+
+    private Path testDirectory;
+
+    @Before
+    public void setUp() throws IOException {
+        testDirectory = Files.createTempDirectory("testchannelpool");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        TestUtils.deletePath(testDirectory);
+    }
+
+    @Test
+    public void shareChannelBetweenBorrowers() throws IOException {
+        Path testFile = createTestFile("f1", 100);
+        FileChannelPool fileChannelPool = new FileChannelPool(10, 60000);
+        FileChannelPool.Lease lease1 = fileChannelPool.borrow(testFile);
+        FileChannelPool.Lease lease2 = fileChannelPool.borrow(testFile);
+        assertSame(lease1.getChannel(), lease2.getChannel());
+        lease1.close();
+        lease1.close();
+        assertTrue(lease2.getChannel().isOpen());
+        lease2.close();
+        assertTrue(lease2.getChannel().isOpen());
+        assertEquals(1, fileChannelPool.getOpenChannelCount());
+        fileChannelPool.close();
+        assertFalse(lease2.getChannel().isOpen());
+    }
+
+    @Test
+    public void evictIdleChannels() throws IOException {
+        Path testFile = createTestFile("f1", 100);
+        FileChannelPool fileChannelPool = new FileChannelPool(10, 0);
+        FileChannelPool.Lease lease = fileChannelPool.borrow(testFile);
+        fileChannelPool.evictIdleChannels();
+        assertTrue(lease.getChannel().isOpen());
+        lease.close();
+        fileChannelPool.evictIdleChannels();
+        assertFalse(lease.getChannel().isOpen());
+        assertEquals(0, fileChannelPool.getOpenChannelCount());
+    }
+
+    @Test
+    public void evictLeastRecentlyUsedChannels() throws IOException {
+        Path testFile1 = createTestFile("f1", 100);
+        Path testFile2 = createTestFile("f2", 100);
+        Path testFile3 = createTestFile("f3", 100);
+        FileChannelPool fileChannelPool = new FileChannelPool(2, 60000);
+        FileChannelPool.Lease lease1 = fileChannelPool.borrow(testFile1);
+        FileChannelPool.Lease lease2 = fileChannelPool.borrow(testFile2);
+        lease2.close();
+        lease1.close();
+        fileChannelPool.borrow(testFile1).close();
+        FileChannelPool.Lease lease3 = fileChannelPool.borrow(testFile3);
+        assertEquals(2, fileChannelPool.getOpenChannelCount());
+        assertTrue(lease1.getChannel().isOpen());
+        assertFalse(lease2.getChannel().isOpen());
+        lease3.close();
+    }
+
+    @Test
+    public void reopenModifiedFile() throws IOException {
+        Path testFile = createTestFile("f1", 100);
+        FileChannelPool fileChannelPool = new FileChannelPool(10, 60000);
+        FileChannelPool.Lease lease1 = fileChannelPool.borrow(testFile);
+        Files.setLastModifiedTime(testFile, FileTime.fromMillis(Files.getLastModifiedTime(testFile).toMillis() + 10000));
+        FileChannelPool.Lease lease2 = fileChannelPool.borrow(testFile);
+        assertNotSame(lease1.getChannel(), lease2.getChannel());
+        assertTrue(lease1.getChannel().isOpen());
+        lease1.close();
+        assertFalse(lease1.getChannel().isOpen());
+        lease2.close();
+    }
+
+    @Test
+    public void readFromPooledStream() throws IOException {
+        Path testFile = createTestFile("f1", 50000);
+        byte[] fileContent = Files.readAllBytes(testFile);
+        FileChannelPool fileChannelPool = new FileChannelPool(10, 60000);
+        try (SeekableStream s1 = fileChannelPool.borrowStream(testFile);
+             SeekableStream s2 = fileChannelPool.borrowStream(testFile)) {
+            s1.seek(40000);
+            s2.seek(10);
+            assertEquals(fileContent[40000] & 0xFF, s1.read());
+            assertEquals(fileContent[10] & 0xFF, s2.read());
+
+            byte[] smallRead = new byte[100];
+            s2.readFully(smallRead);
+            assertArrayEquals(Arrays.copyOfRange(fileContent, 11, 111), smallRead);
+
+            // a buffered read into the middle of the destination that crosses the end of the read buffer
+            byte[] offsetRead = new byte[9000];
+            s2.seek(8000);
+            s2.readFully(offsetRead, 100, 500);
+            assertArrayEquals(Arrays.copyOfRange(fileContent, 8000, 8500), Arrays.copyOfRange(offsetRead, 100, 600));
+
+            byte[] largeRead = new byte[9999];
+            s1.readFully(largeRead);
+            assertArrayEquals(Arrays.copyOfRange(fileContent, 40001, 50000), largeRead);
+            assertEquals(-1, s1.read());
+
+            s1.seek(5);
+            assertEquals(fileContent[5] & 0xFF, s1.read());
+        }
+        assertEquals(1, fileChannelPool.getOpenChannelCount());
+    }
+
+    private Path createTestFile(String name, int size) throws IOException {
+        byte[] content = new byte[size];
+        new Random(size).nextBytes(content);
+        return Files.write(testDirectory.resolve(name), content);
+    }
+}
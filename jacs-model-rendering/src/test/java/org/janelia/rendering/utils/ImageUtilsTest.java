@@ -1,14 +1,26 @@
 package org.janelia.rendering.utils;
 
 import java.awt.image.BufferedImage;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Arrays;
 import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.IntStream;
 import java.util.stream.Stream;
 
@@ -16,7 +28,11 @@ import com.sun.media.jai.codec.FileSeekableStream;
 import com.sun.media.jai.codec.ImageCodec;
 import com.sun.media.jai.codec.ImageEncoder;
 import com.sun.media.jai.codec.TIFFEncodeParam;
+import org.janelia.rendering.Coordinate;
+import org.janelia.rendering.DownsamplingMethod;
+import org.janelia.rendering.IntensityWindow;
 import org.janelia.rendering.NamedSupplier;
+import org.janelia.rendering.ProjectionType;
 import org.janelia.rendering.RenderedImageInfo;
 import org.janelia.testutils.TestUtils;
 import org.junit.AfterClass;
@@ -24,8 +40,11 @@ import org.junit.Before;
 import org.junit.BeforeClass;
 import org.junit.Test;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 public class ImageUtilsTest {
     private static final String TEST_DATADIR = "src/test/resources/testdata/rendering";
@@ -85,6 +104,73 @@ public class ImageUtilsTest {
         }
     }
 
+    @Test
+    public void loadDownsampledTiffPixelBytes() throws IOException {
+        TestUtils.prepareTestDataFiles(Paths.get(TEST_DATADIR), testDirectory, "default.0.tif");
+        Path testFilePath = testDirectory.resolve("default.0.tif");
+        RenderedImageInfo imageInfo;
+        byte[] imageBytes;
+        try (InputStream tiffStream = Files.newInputStream(testFilePath)) {
+            imageInfo = ImageUtils.loadImageInfoFromTiffStream(tiffStream);
+        }
+        try (InputStream tiffStream = Files.newInputStream(testFilePath)) {
+            imageBytes = ImageUtils.loadImagePixelBytesFromTiffStream(tiffStream, -1, -1, -1, -1, -1, -1);
+        }
+        int[] factors = new int[] {3, 2, 4};
+        for (DownsamplingMethod downsamplingMethod : DownsamplingMethod.values()) {
+            try (InputStream tiffStream = Files.newInputStream(testFilePath)) {
+                byte[] downsampledBytes = ImageUtils.loadDownsampledImagePixelBytesFromTiffStream(tiffStream,
+                        -1, -1, -1, -1, -1, -1,
+                        factors[0], factors[1], factors[2], downsamplingMethod);
+                assertArrayEquals(downsampleImageBytes(imageBytes, imageInfo, factors, downsamplingMethod), downsampledBytes);
+            }
+        }
+    }
+
+    private byte[] downsampleImageBytes(byte[] imageBytes, RenderedImageInfo imageInfo, int[] factors, DownsamplingMethod downsamplingMethod) {
+        int[] dims = new int[] {imageInfo.sx, imageInfo.sy, imageInfo.sz};
+        int[] outDims = new int[3];
+        for (int d = 0; d < 3; d++) {
+            outDims[d] = (dims[d] + factors[d] - 1) / factors[d];
+        }
+        ByteBuffer inBuffer = ByteBuffer.wrap(imageBytes).order(ByteOrder.LITTLE_ENDIAN);
+        ByteBuffer outBuffer = ByteBuffer.allocate(outDims[0] * outDims[1] * outDims[2] * 2).order(ByteOrder.LITTLE_ENDIAN);
+        for (int oz = 0; oz < outDims[2]; oz++) {
+            for (int oy = 0; oy < outDims[1]; oy++) {
+                for (int ox = 0; ox < outDims[0]; ox++) {
+                    long sum = 0;
+                    int max = 0;
+                    int n = 0;
+                    for (int z = oz * factors[2]; z < Math.min(dims[2], (oz + 1) * factors[2]); z++) {
+                        for (int y = oy * factors[1]; y < Math.min(dims[1], (oy + 1) * factors[1]); y++) {
+                            for (int x = ox * factors[0]; x < Math.min(dims[0], (ox + 1) * factors[0]); x++) {
+                                int v = inBuffer.getShort(2 * ((z * dims[1] + y) * dims[0] + x)) & 0xFFFF;
+                                sum += v;
+                                max = Math.max(max, v);
+                                n++;
+                            }
+                        }
+                    }
+                    int first = inBuffer.getShort(2 * ((oz * factors[2] * dims[1] + oy * factors[1]) * dims[0] + ox * factors[0])) & 0xFFFF;
+                    int value;
+                    switch (downsamplingMethod) {
+                        case BOX:
+                            value = (int) ((sum + n / 2) / n);
+                            break;
+                        case MAX:
+                            value = max;
+                            break;
+                        default:
+                            value = first;
+                            break;
+                    }
+                    outBuffer.putShort((short) value);
+                }
+            }
+        }
+        return outBuffer.array();
+    }
+
     private BufferedImage extractSliceFromImageBytes(byte[] imageBytes, RenderedImageInfo imageInfo, int sliceIndex) {
         BufferedImage bufferedImage = new BufferedImage(imageInfo.sx, imageInfo.sy, BufferedImage.TYPE_USHORT_GRAY);
         int sliceSize = imageInfo.sx * imageInfo.sy * (imageInfo.cmPixelSize / 8);
@@ -100,6 +186,155 @@ public class ImageUtilsTest {
         return bufferedImage;
     }
 
+    @Test
+    public void projectTiffPixelBytes() {
+        TestUtils.prepareTestDataFiles(Paths.get(TEST_DATADIR), testDirectory, "default.0.tif");
+        Path testFilePath = testDirectory.resolve("default.0.tif");
+        NamedSupplier<InputStream> tiffStreamSupplier = NamedSupplier.namedSupplier(testFilePath.toString(), () -> {
+            try {
+                return Files.newInputStream(testFilePath);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        int x0 = 25, y0 = 18, z0 = 9, dx = 30, dy = 20, dz = 15;
+        byte[] roiBytes = ImageUtils.loadImagePixelBytesFromTiffStream(tiffStreamSupplier.get(), x0, y0, z0, dx, dy, dz);
+        assertNotNull(roiBytes);
+        ShortBuffer roiPixels = ByteBuffer.wrap(roiBytes).order(ByteOrder.LITTLE_ENDIAN).asShortBuffer();
+        ExecutorService projectionExecutor = Executors.newFixedThreadPool(3);
+        try {
+            for (Coordinate projectionAxis : Coordinate.values()) {
+                for (ProjectionType projectionType : ProjectionType.values()) {
+                    int width = projectionAxis == Coordinate.X ? dy : dx;
+                    int height = projectionAxis == Coordinate.Z ? dy : dz;
+                    int depth = projectionAxis == Coordinate.X ? dx : (projectionAxis == Coordinate.Y ? dy : dz);
+                    long[] expectedProjection = new long[width * height];
+                    for (int z = 0; z < dz; z++) {
+                        for (int y = 0; y < dy; y++) {
+                            for (int x = 0; x < dx; x++) {
+                                int i;
+                                if (projectionAxis == Coordinate.X) {
+                                    i = z * width + y;
+                                } else if (projectionAxis == Coordinate.Y) {
+                                    i = z * width + x;
+                                } else {
+                                    i = y * width + x;
+                                }
+                                long v = roiPixels.get((z * dy + y) * dx + x) & 0xFFFF;
+                                expectedProjection[i] = projectionType == ProjectionType.MAX ? Math.max(expectedProjection[i], v) : expectedProjection[i] + v;
+                            }
+                        }
+                    }
+                    ByteBuffer expectedBytes = ByteBuffer.allocate(width * height * 2).order(ByteOrder.LITTLE_ENDIAN);
+                    for (long v : expectedProjection) {
+                        expectedBytes.putShort((short) (projectionType == ProjectionType.MAX ? v : (v + depth / 2) / depth));
+                    }
+                    byte[] sequentialProjection = ImageUtils.projectImagePixelBytesFromTiffStreams(tiffStreamSupplier,
+                            x0, y0, z0, dx, dy, dz, projectionAxis, projectionType, null, 4);
+                    byte[] concurrentProjection = ImageUtils.projectImagePixelBytesFromTiffStreams(tiffStreamSupplier,
+                            x0, y0, z0, dx, dy, dz, projectionAxis, projectionType, projectionExecutor, 4);
+                    assertArrayEquals(projectionAxis + " " + projectionType, expectedBytes.array(), sequentialProjection);
+                    assertArrayEquals(projectionAxis + " " + projectionType, expectedBytes.array(), concurrentProjection);
+                }
+            }
+        } finally {
+            projectionExecutor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void copyWholeTiffPages() throws IOException {
+        TestUtils.prepareTestDataFiles(Paths.get(TEST_DATADIR), testDirectory, "default.0.tif");
+        Path testFilePath = testDirectory.resolve("default.0.tif");
+        TiffIndex sourceTiffIndex;
+        try (FileSeekableStream tiffStream = new FileSeekableStream(testFilePath.toFile())) {
+            sourceTiffIndex = TiffIndex.build(tiffStream);
+        }
+        int startPage = 3;
+        int numPages = 5;
+        Path testOutputFilePath = testDirectory.resolve("outputTiff.tif");
+        try (InputStream tiffStream = new TiffIndexedSeekableStream(new FileSeekableStream(testFilePath.toFile()), () -> sourceTiffIndex);
+             OutputStream testOutputStream = Files.newOutputStream(testOutputFilePath)) {
+            assertTrue(ImageUtils.writeRenderedImageBytesFromTiffStream(tiffStream, 0, 0, startPage, -1, -1, numPages, testOutputStream));
+        }
+        try (FileSeekableStream sourceStream = new FileSeekableStream(testFilePath.toFile());
+             FileSeekableStream resultStream = new FileSeekableStream(testOutputFilePath.toFile())) {
+            TiffIndex resultTiffIndex = TiffIndex.build(resultStream);
+            assertEquals(numPages, resultTiffIndex.getNumPages());
+            assertEquals(sourceTiffIndex.isBigEndian(), resultTiffIndex.isBigEndian());
+            for (int p = 0; p < numPages; p++) {
+                TiffIndex.Page sourcePage = sourceTiffIndex.getPage(startPage + p);
+                TiffIndex.Page resultPage = resultTiffIndex.getPage(p);
+                assertEquals(sourcePage.getWidth(), resultPage.getWidth());
+                assertEquals(sourcePage.getHeight(), resultPage.getHeight());
+                assertEquals(sourcePage.getBitsPerSample(), resultPage.getBitsPerSample());
+                assertEquals(sourcePage.getCompression(), resultPage.getCompression());
+                assertEquals(sourcePage.getRowsPerStrip(), resultPage.getRowsPerStrip());
+                assertEquals(sourcePage.getDataBlockCount(), resultPage.getDataBlockCount());
+                for (int b = 0; b < sourcePage.getDataBlockCount(); b++) {
+                    assertEquals(sourcePage.getDataByteCount(b), resultPage.getDataByteCount(b));
+                    assertArrayEquals(
+                            readBytes(sourceStream, sourcePage.getDataOffset(b), (int) sourcePage.getDataByteCount(b)),
+                            readBytes(resultStream, resultPage.getDataOffset(b), (int) resultPage.getDataByteCount(b)));
+                }
+            }
+        }
+        // the copied pages decode to the same pixels as the source pages
+        byte[] expectedPixels;
+        try (InputStream sourceStream = Files.newInputStream(testFilePath)) {
+            expectedPixels = ImageUtils.loadImagePixelBytesFromTiffStream(sourceStream, 0, 0, startPage + numPages / 2, -1, -1, numPages);
+        }
+        assertNotNull(expectedPixels);
+        assertArrayEquals(expectedPixels, loadAllPixelBytes(testOutputFilePath));
+
+        // without an index the copier walks the directory chain to the first page
+        Path unindexedOutputFilePath = testDirectory.resolve("unindexedOutputTiff.tif");
+        try (InputStream tiffStream = Files.newInputStream(testFilePath);
+             OutputStream testOutputStream = Files.newOutputStream(unindexedOutputFilePath)) {
+            assertTrue(ImageUtils.writeRenderedImageBytesFromTiffStream(tiffStream, 0, 0, startPage, -1, -1, numPages, testOutputStream));
+        }
+        assertArrayEquals(expectedPixels, loadAllPixelBytes(unindexedOutputFilePath));
+    }
+
+    @Test
+    public void reencodeCroppedTiffPages() throws IOException {
+        TestUtils.prepareTestDataFiles(Paths.get(TEST_DATADIR), testDirectory, "default.0.tif");
+        Path testFilePath = testDirectory.resolve("default.0.tif");
+        int startPage = 3;
+        int numPages = 5;
+        int x0 = 10;
+        int y0 = 6;
+        int width = 20;
+        int height = 16;
+        // cropped pages cannot be copied so they are decoded and encoded again
+        Path testOutputFilePath = testDirectory.resolve("croppedOutputTiff.tif");
+        try (InputStream tiffStream = Files.newInputStream(testFilePath);
+             OutputStream testOutputStream = Files.newOutputStream(testOutputFilePath)) {
+            assertTrue(ImageUtils.writeRenderedImageBytesFromTiffStream(tiffStream, x0, y0, startPage, width, height, numPages, testOutputStream));
+        }
+        byte[] expectedPixels;
+        try (InputStream sourceStream = Files.newInputStream(testFilePath)) {
+            expectedPixels = ImageUtils.loadImagePixelBytesFromTiffStream(sourceStream,
+                    x0 + width / 2, y0 + height / 2, startPage + numPages / 2,
+                    width, height, numPages);
+        }
+        assertNotNull(expectedPixels);
+        assertArrayEquals(expectedPixels, loadAllPixelBytes(testOutputFilePath));
+    }
+
+    private byte[] loadAllPixelBytes(Path tiffFilePath) throws IOException {
+        try (InputStream tiffStream = Files.newInputStream(tiffFilePath)) {
+            return ImageUtils.loadImagePixelBytesFromTiffStream(tiffStream, 0, 0, 0, -1, -1, 0);
+        }
+    }
+
+    private byte[] readBytes(FileSeekableStream stream, long offset, int length) throws IOException {
+        byte[] bytes = new byte[length];
+        stream.seek(offset);
+        stream.readFully(bytes);
+        return bytes;
+    }
+
     @Test
     public void combineSlices() {
         TestUtils.prepareTestDataFiles(Paths.get(TEST_DATADIR), testDirectory, "default.0.tif", "default.1.tif");
@@ -121,4 +356,177 @@ public class ImageUtilsTest {
 
         assertNotNull(contentBytes);
     }
+
+    @Test
+    public void combineSlicesWithConcurrentChannelDecoding() {
+        TestUtils.prepareTestDataFiles(Paths.get(TEST_DATADIR), testDirectory, "default.0.tif", "default.1.tif", "default.2.tif");
+        List<Path> testFiles = Arrays.asList(
+                testDirectory.resolve("default.0.tif"),
+                testDirectory.resolve("default.1.tif"),
+                testDirectory.resolve("default.2.tif"));
+        ExecutorService decodeExecutor = ImageUtils.createImageDecodeExecutor(2);
+        try {
+            byte[] sequentialContentBytes = ImageUtils.bandMergedTextureBytesFromImageStreams(
+                    testFiles.stream().map(this::namedStreamSupplier),
+                    /* pageNumber */10);
+            byte[] concurrentContentBytes = ImageUtils.bandMergedTextureBytesFromImageStreams(
+                    testFiles.stream().map(this::namedStreamSupplier),
+                    /* pageNumber */10,
+                    decodeExecutor);
+            assertNotNull(concurrentContentBytes);
+            assertArrayEquals(sequentialContentBytes, concurrentContentBytes);
+        } finally {
+            decodeExecutor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void cancelPendingChannelDecodesWhenTheFirstChannelFails() throws Exception {
+        ExecutorService decodeExecutor = ImageUtils.createImageDecodeExecutor(1);
+        CountDownLatch executorBusy = new CountDownLatch(1);
+        AtomicInteger openedChannels = new AtomicInteger();
+        try {
+            // keep the only decoding thread busy so the other channels are still queued when the first one fails
+            decodeExecutor.submit(() -> {
+                executorBusy.await();
+                return null;
+            });
+            Stream<NamedSupplier<InputStream>> channelStreams = Stream.of(
+                    NamedSupplier.namedSupplier("failing", () -> {
+                        throw new IllegalStateException("Test failure");
+                    }),
+                    NamedSupplier.namedSupplier("channel1", () -> {
+                        openedChannels.incrementAndGet();
+                        return null;
+                    }),
+                    NamedSupplier.namedSupplier("channel2", () -> {
+                        openedChannels.incrementAndGet();
+                        return null;
+                    }));
+            try {
+                ImageUtils.bandMergedTextureBytesFromImageStreams(channelStreams, 0, decodeExecutor);
+                fail("Expected the first channel to fail");
+            } catch (IllegalStateException expected) {
+                assertEquals("Test failure", expected.getMessage());
+            }
+            executorBusy.countDown();
+            decodeExecutor.shutdown();
+            assertTrue(decodeExecutor.awaitTermination(10, TimeUnit.SECONDS));
+            assertEquals(0, openedChannels.get());
+        } finally {
+            executorBusy.countDown();
+            decodeExecutor.shutdownNow();
+        }
+    }
+
+    private NamedSupplier<InputStream> namedStreamSupplier(Path p) {
+        return NamedSupplier.namedSupplier(
+                p.getFileName().toString(),
+                () -> {
+                    try {
+                        return Files.newInputStream(p);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+    }
+
+    @Test
+    public void textureBytesFromComponentRasters() {
+        int width = 13;
+        int height = 5;
+        for (int imageType : new int[]{BufferedImage.TYPE_USHORT_GRAY, BufferedImage.TYPE_BYTE_GRAY, BufferedImage.TYPE_3BYTE_BGR}) {
+            BufferedImage testImage = new BufferedImage(width, height, imageType);
+            WritableRaster testRaster = testImage.getRaster();
+            for (int y = 0; y < height; y++) {
+                for (int x = 0; x < width; x++) {
+                    for (int b = 0; b < testRaster.getNumBands(); b++) {
+                        testRaster.setSample(x, y, b, (x * 31 + y * 17 + b * 7) * 97);
+                    }
+                }
+            }
+            byte[] textureBytes = ImageUtils.renderedImageToTextureBytes(testImage);
+            assertArrayEquals("Image type " + imageType, expectedTextureBytes(testImage), textureBytes);
+            // the raster of a sub image is offset relative to its data buffer
+            BufferedImage testSubImage = testImage.getSubimage(1, 1, width - 2, height - 2);
+            byte[] subImageTextureBytes = ImageUtils.renderedImageToTextureBytes(testSubImage);
+            assertArrayEquals("Sub image type " + imageType, expectedTextureBytes(testSubImage), subImageTextureBytes);
+        }
+    }
+
+    @Test
+    public void remapTextureBytesTo8Bit() {
+        int width = 13;
+        int height = 5;
+        List<byte[]> channelPlanes = Arrays.asList(new byte[width * height * 2], new byte[width * height * 2]);
+        for (int i = 0; i < width * height; i++) {
+            for (int c = 0; c < channelPlanes.size(); c++) {
+                int sample = (i * 1013 + c * 20000) & 0xFFFF;
+                channelPlanes.get(c)[2 * i] = (byte) sample;
+                channelPlanes.get(c)[2 * i + 1] = (byte) (sample >> 8);
+            }
+        }
+        byte[] textureBytes = ImageUtils.channelPlanesToTextureBytes(channelPlanes, width, height, 2);
+        List<IntensityWindow> channelWindows = Arrays.asList(new IntensityWindow(1000, 40000), new IntensityWindow(20000, 60000, 0.5));
+        byte[] remappedBytes = ImageUtils.remapTextureBytesTo8Bit(textureBytes,
+                Arrays.asList(channelWindows.get(0).createLookupTable(16), channelWindows.get(1).createLookupTable(16)));
+
+        int textureWidth = 16;
+        int headerSize = ImageUtils.TEXTURE_HEADER_SIZE;
+        assertEquals(headerSize + textureWidth * height * 2, remappedBytes.length);
+        ByteBuffer remappedHeader = ByteBuffer.wrap(remappedBytes);
+        assertEquals(textureWidth, remappedHeader.getInt(ImageUtils.TEXTURE_WIDTH_OFFSET));
+        assertEquals(width, remappedHeader.getInt(ImageUtils.TEXTURE_USED_WIDTH_OFFSET));
+        assertEquals(8, remappedHeader.getInt(ImageUtils.TEXTURE_BIT_DEPTH_OFFSET));
+        assertEquals(2, remappedHeader.getInt(ImageUtils.TEXTURE_CHANNEL_COUNT_OFFSET));
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < textureWidth; x++) {
+                int i = y * width + Math.min(x, width - 1);
+                for (int c = 0; c < channelPlanes.size(); c++) {
+                    IntensityWindow channelWindow = channelWindows.get(c);
+                    int sample = (i * 1013 + c * 20000) & 0xFFFF;
+                    double normalized = Math.min(1, Math.max(0, (sample - channelWindow.getMin()) / (double) (channelWindow.getMax() - channelWindow.getMin())));
+                    assertEquals((int) Math.round(255 * Math.pow(normalized, channelWindow.getGamma())),
+                            remappedBytes[headerSize + (y * textureWidth + x) * 2 + c] & 0xFF);
+                }
+            }
+        }
+    }
+
+    /**
+     * Reference texture encoding that writes the image one pixel at a time.
+     */
+    private byte[] expectedTextureBytes(BufferedImage image) {
+        Raster raster = image.getData();
+        int channelCount = image.getColorModel().getNumComponents();
+        int bitDepth = Math.max(image.getColorModel().getPixelSize() / channelCount, 8);
+        int usedWidth = image.getWidth();
+        int width = usedWidth % 8 == 0 ? usedWidth : usedWidth + 8 - (usedWidth % 8);
+        int height = image.getHeight();
+        ByteBuffer expectedBuffer = ByteBuffer.allocate(ImageUtils.TEXTURE_HEADER_SIZE + height * width * channelCount * bitDepth / 8);
+        expectedBuffer.putInt(0);
+        expectedBuffer.putInt(width);
+        expectedBuffer.putInt(usedWidth);
+        expectedBuffer.putInt(height);
+        expectedBuffer.putInt(0);
+        expectedBuffer.putInt(image.getColorModel().getColorSpace().isCS_sRGB() ? 1 : 0);
+        expectedBuffer.putInt(bitDepth);
+        expectedBuffer.putInt(channelCount);
+        expectedBuffer.putFloat(usedWidth == width ? 1.0f : usedWidth / (float) width);
+        expectedBuffer.order(ByteOrder.nativeOrder());
+        int[] pixel = new int[channelCount];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                raster.getPixel(Math.min(x, usedWidth - 1), y, pixel);
+                for (int sample : pixel) {
+                    if (bitDepth == 16) {
+                        expectedBuffer.putShort((short) sample);
+                    } else {
+                        expectedBuffer.put((byte) sample);
+                    }
+                }
+            }
+        }
+        return expectedBuffer.array();
+    }
 }
@@ -0,0 +1,153 @@
+package org.janelia.rendering.utils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.janelia.testutils.TestUtils;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class RawTiffPageReaderTest {
+
+    private static Path testDirectory;
+
+    @BeforeClass
+    public static void createTestDir() throws IOException {
+        testDirectory = Files.createTempDirectory("testrawtiff");
+    }
+
+    @AfterClass
+    public static void deleteTestDir() throws IOException {
+        TestUtils.deletePath(testDirectory);
+    }
+
+    @Test
+    public void readPagesOfDifferentSizes() throws IOException {
+        TiffIndexCache tiffIndexCache = new TiffIndexCache(1024 * 1024, false);
+        // the pages are read one after the other so the pooled staging buffers are reused between them
+        for (int[] size : new int[][] {{13, 7}, {45, 31}, {13, 7}, {8, 3}}) {
+            int width = size[0];
+            int height = size[1];
+            Path c0 = writeTiff(testDirectory.resolve("c0-" + width + "x" + height + ".tif"), width, height, 0);
+            Path c1 = writeTiff(testDirectory.resolve("c1-" + width + "x" + height + ".tif"), width, height, 1000);
+
+            byte[] textureBytes = RawTiffPageReader.readTextureBytes(
+                    Arrays.asList(c0, c1),
+                    Arrays.asList(tiffIndexCache.getTiffIndex(c0), tiffIndexCache.getTiffIndex(c1)),
+                    0);
+            assertNotNull(textureBytes);
+            ByteBuffer textureBuffer = ByteBuffer.wrap(textureBytes);
+            int paddedWidth = textureBuffer.getInt(ImageUtils.TEXTURE_WIDTH_OFFSET);
+            assertEquals(width, textureBuffer.getInt(ImageUtils.TEXTURE_USED_WIDTH_OFFSET));
+            assertEquals(height, textureBuffer.getInt(ImageUtils.TEXTURE_HEIGHT_OFFSET));
+            assertEquals(16, textureBuffer.getInt(ImageUtils.TEXTURE_BIT_DEPTH_OFFSET));
+            assertEquals(2, textureBuffer.getInt(ImageUtils.TEXTURE_CHANNEL_COUNT_OFFSET));
+            ByteBuffer pixels = ByteBuffer.wrap(textureBytes, ImageUtils.TEXTURE_HEADER_SIZE, textureBytes.length - ImageUtils.TEXTURE_HEADER_SIZE)
+                    .slice()
+                    .order(ByteOrder.nativeOrder());
+            for (int y = 0; y < height; y++) {
+                for (int x = 0; x < paddedWidth; x++) {
+                    int sourceX = Math.min(x, width - 1);
+                    for (int c = 0; c < 2; c++) {
+                        assertEquals(pixelValue(sourceX, y, c * 1000), pixels.getShort(((y * paddedWidth + x) * 2 + c) * 2));
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void readPagesThroughSmallStagingBuffers() throws IOException {
+        Path c0 = writeTiff(testDirectory.resolve("staged.tif"), 45, 31, 0);
+        TiffIndex tiffIndex = new TiffIndexCache(1024 * 1024, false).getTiffIndex(c0);
+        byte[] expectedTextureBytes = RawTiffPageReader.readTextureBytes(Collections.singletonList(c0), Collections.singletonList(tiffIndex), 0);
+        assertNotNull(expectedTextureBytes);
+        try (FileChannel c0Channel = FileChannel.open(c0, StandardOpenOption.READ)) {
+            // the page data is larger than the staging buffer so it takes multiple reads
+            byte[] textureBytes = RawTiffPageReader.readTextureBytesFromChannels(
+                    Collections.singletonList(c0Channel), Collections.singletonList(tiffIndex), 0, new ByteBufferPool(100, 1));
+            assertArrayEquals(expectedTextureBytes, textureBytes);
+        }
+    }
+
+    @Test
+    public void unsupportedOrUnindexedPages() throws IOException {
+        Path c0 = writeTiff(testDirectory.resolve("single.tif"), 10, 10, 0);
+        TiffIndex tiffIndex = new TiffIndexCache(1024 * 1024, false).getTiffIndex(c0);
+        assertNotNull(tiffIndex);
+        assertNull(RawTiffPageReader.readTextureBytes(Collections.singletonList(c0), Collections.singletonList(tiffIndex), 1));
+        assertNull(RawTiffPageReader.readTextureBytes(Collections.singletonList(c0), Collections.singletonList(null), 0));
+    }
+
+    private static short pixelValue(int x, int y, int channelOffset) {
+        return (short) (channelOffset + y * 100 + x);
+    }
+
+    /**
+     * Write a little endian, uncompressed, 16 bit grayscale TIFF with 2 rows per strip.
+     */
+    private static Path writeTiff(Path path, int width, int height, int channelOffset) throws IOException {
+        int rowsPerStrip = 2;
+        int stripCount = (height + rowsPerStrip - 1) / rowsPerStrip;
+        short[][] entries = new short[][] {
+                {256, 3, (short) width},
+                {257, 3, (short) height},
+                {258, 3, 16},
+                {259, 3, 1},
+                {262, 3, 1},
+                {273, 4, 0}, // strip offsets
+                {277, 3, 1},
+                {278, 3, (short) rowsPerStrip},
+                {279, 4, 0}, // strip byte counts
+                {339, 3, 1}
+        };
+        int ifdOffset = 8;
+        int ifdSize = 2 + entries.length * 12 + 4;
+        int stripOffsetsOffset = ifdOffset + ifdSize;
+        int stripByteCountsOffset = stripOffsetsOffset + 4 * stripCount;
+        int dataOffset = stripByteCountsOffset + 4 * stripCount;
+        ByteBuffer tiff = ByteBuffer.allocate(dataOffset + width * height * 2).order(ByteOrder.LITTLE_ENDIAN);
+        tiff.put((byte) 'I').put((byte) 'I').putShort((short) 42).putInt(ifdOffset);
+        tiff.putShort((short) entries.length);
+        for (short[] entry : entries) {
+            tiff.putShort(entry[0]).putShort(entry[1]);
+            if (entry[0] == 273 || entry[0] == 279) {
+                tiff.putInt(stripCount);
+                if (stripCount == 1) {
+                    tiff.putInt(entry[0] == 273 ? dataOffset : width * height * 2);
+                } else {
+                    tiff.putInt(entry[0] == 273 ? stripOffsetsOffset : stripByteCountsOffset);
+                }
+            } else {
+                tiff.putInt(1).putShort(entry[2]).putShort((short) 0);
+            }
+        }
+        tiff.putInt(0); // no more IFDs
+        for (int s = 0; s < stripCount; s++) {
+            tiff.putInt(dataOffset + s * rowsPerStrip * width * 2);
+        }
+        for (int s = 0; s < stripCount; s++) {
+            tiff.putInt(Math.min(rowsPerStrip, height - s * rowsPerStrip) * width * 2);
+        }
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                tiff.putShort(pixelValue(x, y, channelOffset));
+            }
+        }
+        Files.write(path, tiff.array());
+        return path;
+    }
+}
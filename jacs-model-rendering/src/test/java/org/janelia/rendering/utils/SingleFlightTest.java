@@ -0,0 +1,186 @@
+package org.janelia.rendering.utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SingleFlightTest {
+
+    private ExecutorService testExecutor;
+
+    @Before
+    public void setUp() {
+        testExecutor = Executors.newFixedThreadPool(4);
+    }
+
+    @After
+    public void tearDown() {
+        testExecutor.shutdownNow();
+    }
+
+    @Test
+    public void shareInFlightLoad() throws Exception {
+        SingleFlight<String, byte[]> singleFlight = new SingleFlight<>();
+        CountDownLatch loadStarted = new CountDownLatch(1);
+        CountDownLatch loadReleased = new CountDownLatch(1);
+        AtomicInteger loads = new AtomicInteger();
+        byte[] loadedContent = new byte[] {1, 2, 3};
+        Future<byte[]> firstResult = testExecutor.submit(() -> singleFlight.load("k", () -> {
+            loads.incrementAndGet();
+            loadStarted.countDown();
+            awaitQuietly(loadReleased);
+            return loadedContent;
+        }));
+        assertTrue(loadStarted.await(10, TimeUnit.SECONDS));
+        List<Future<byte[]>> waitingResults = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            waitingResults.add(testExecutor.submit(() -> singleFlight.load("k", () -> {
+                loads.incrementAndGet();
+                return new byte[0];
+            })));
+        }
+        while (singleFlight.getDeduplicatedCount() < 3) {
+            Thread.sleep(5);
+        }
+        loadReleased.countDown();
+        assertSame(loadedContent, firstResult.get(10, TimeUnit.SECONDS));
+        for (Future<byte[]> waitingResult : waitingResults) {
+            assertSame(loadedContent, waitingResult.get(10, TimeUnit.SECONDS));
+        }
+        assertEquals(1, loads.get());
+        assertEquals(1, singleFlight.getLoadCount());
+        assertEquals(3, singleFlight.getDeduplicatedCount());
+        assertEquals(0, singleFlight.getInFlightCount());
+        // once the load completed a new request starts a new load
+        singleFlight.load("k", () -> {
+            loads.incrementAndGet();
+            return loadedContent;
+        });
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    public void shareInFlightFailure() throws Exception {
+        SingleFlight<String, String> singleFlight = new SingleFlight<>();
+        CountDownLatch loadStarted = new CountDownLatch(1);
+        CountDownLatch loadReleased = new CountDownLatch(1);
+        Future<String> firstResult = testExecutor.submit(() -> singleFlight.load("k", () -> {
+            loadStarted.countDown();
+            awaitQuietly(loadReleased);
+            throw new IllegalStateException("load failed");
+        }));
+        assertTrue(loadStarted.await(10, TimeUnit.SECONDS));
+        Future<String> waitingResult = testExecutor.submit(() -> singleFlight.load("k", () -> "unexpected"));
+        while (singleFlight.getDeduplicatedCount() < 1) {
+            Thread.sleep(5);
+        }
+        loadReleased.countDown();
+        for (Future<String> result : Arrays.asList(firstResult, waitingResult)) {
+            try {
+                result.get(10, TimeUnit.SECONDS);
+                fail("Expected the load to fail");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof IllegalStateException);
+                assertEquals("load failed", e.getCause().getMessage());
+            }
+        }
+        assertEquals(0, singleFlight.getInFlightCount());
+    }
+
+    @Test
+    public void retryLoadWhenTheLeaderIsInterrupted() throws Exception {
+        SingleFlight<String, String> singleFlight = new SingleFlight<>();
+        CountDownLatch loadStarted = new CountDownLatch(1);
+        CountDownLatch loadReleased = new CountDownLatch(1);
+        Future<String> leaderResult = testExecutor.submit(() -> singleFlight.load("k", () -> {
+            loadStarted.countDown();
+            try {
+                loadReleased.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException(e);
+            }
+            return "leader";
+        }));
+        assertTrue(loadStarted.await(10, TimeUnit.SECONDS));
+        Future<String> followerResult = testExecutor.submit(() -> singleFlight.load("k", () -> "follower"));
+        while (singleFlight.getDeduplicatedCount() < 1) {
+            Thread.sleep(5);
+        }
+        leaderResult.cancel(true);
+        // the follower does not inherit the leader's interruption - it runs the load itself
+        assertEquals("follower", followerResult.get(10, TimeUnit.SECONDS));
+        assertEquals(2, singleFlight.getLoadCount());
+        assertEquals(0, singleFlight.getInFlightCount());
+    }
+
+    @Test
+    public void interruptWaitingCaller() throws Exception {
+        SingleFlight<String, String> singleFlight = new SingleFlight<>();
+        CountDownLatch loadStarted = new CountDownLatch(1);
+        CountDownLatch loadReleased = new CountDownLatch(1);
+        Future<String> leaderResult = testExecutor.submit(() -> singleFlight.load("k", () -> {
+            loadStarted.countDown();
+            awaitQuietly(loadReleased);
+            return "leader";
+        }));
+        assertTrue(loadStarted.await(10, TimeUnit.SECONDS));
+        AtomicReference<RuntimeException> followerFailure = new AtomicReference<>();
+        Thread follower = new Thread(() -> {
+            try {
+                singleFlight.load("k", () -> "follower");
+            } catch (RuntimeException e) {
+                followerFailure.set(e);
+            }
+        });
+        follower.start();
+        while (singleFlight.getDeduplicatedCount() < 1) {
+            Thread.sleep(5);
+        }
+        follower.interrupt();
+        follower.join(10000);
+        // the follower stopped waiting while the load is still in flight
+        assertFalse(follower.isAlive());
+        assertTrue(followerFailure.get().getCause() instanceof InterruptedException);
+        assertEquals(1, singleFlight.getInFlightCount());
+        loadReleased.countDown();
+        // interrupting a waiting caller does not affect the load
+        assertEquals("leader", leaderResult.get(10, TimeUnit.SECONDS));
+        assertEquals(1, singleFlight.getLoadCount());
+    }
+
+    @Test
+    public void loadDifferentKeysIndependently() {
+        SingleFlight<String, String> singleFlight = new SingleFlight<>();
+        assertEquals("a", singleFlight.load("k1", () -> "a"));
+        assertEquals("b", singleFlight.load("k2", () -> "b"));
+        assertEquals(2, singleFlight.getLoadCount());
+        assertEquals(0, singleFlight.getDeduplicatedCount());
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
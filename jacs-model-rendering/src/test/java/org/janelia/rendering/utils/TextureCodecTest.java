@@ -0,0 +1,68 @@
+package org.janelia.rendering.utils;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Random;
+
+import org.janelia.rendering.TextureEncoding;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class TextureCodecTest {
+
+    @Test
+    public void rawPayloadIsTheTexture() {
+        byte[] textureBytes = mostlyBackgroundTexture(40, 30, 2);
+        byte[] payload = TextureCodec.encode(textureBytes, TextureEncoding.RAW);
+        assertSame(textureBytes, payload);
+        assertEquals(TextureEncoding.RAW, TextureCodec.getEncoding(payload));
+        assertEquals(textureBytes.length, TextureCodec.getDecodedLength(payload));
+        assertSame(textureBytes, TextureCodec.decode(payload));
+    }
+
+    @Test
+    public void encodeAndDecode() {
+        Random random = new Random(7);
+        byte[] noiseBytes = new byte[5000];
+        random.nextBytes(noiseBytes);
+        byte[] zeroBytes = new byte[3000];
+        byte[] shortZeroRuns = new byte[] {1, 0, 0, 2, 0, 0, 0, 3, 0, 0, 0, 0, 4, 0};
+        for (byte[] textureBytes : Arrays.asList(mostlyBackgroundTexture(40, 30, 2), mostlyBackgroundTexture(13, 7, 1),
+                noiseBytes, zeroBytes, shortZeroRuns, new byte[0])) {
+            for (TextureEncoding encoding : Arrays.asList(TextureEncoding.ZERO_RLE, TextureEncoding.DEFLATE)) {
+                byte[] payload = TextureCodec.encode(textureBytes, encoding);
+                assertEquals(encoding, TextureCodec.getEncoding(payload));
+                assertEquals(textureBytes.length, TextureCodec.getDecodedLength(payload));
+                assertArrayEquals(encoding.toString(), textureBytes, TextureCodec.decode(payload));
+            }
+        }
+    }
+
+    @Test
+    public void backgroundTilesCompress() {
+        byte[] textureBytes = mostlyBackgroundTexture(256, 192, 2);
+        for (TextureEncoding encoding : Arrays.asList(TextureEncoding.ZERO_RLE, TextureEncoding.DEFLATE)) {
+            byte[] payload = TextureCodec.encode(textureBytes, encoding);
+            assertTrue(encoding + " payload size " + payload.length, payload.length < textureBytes.length / 4);
+        }
+    }
+
+    /**
+     * Texture with the usual 36 byte header whose pixels are zero except for a small square in the middle.
+     */
+    private byte[] mostlyBackgroundTexture(int width, int height, int bytesPerSample) {
+        byte[] channelPlane = new byte[width * height * bytesPerSample];
+        for (int y = height / 3; y < height / 2; y++) {
+            for (int x = width / 3; x < width / 2; x++) {
+                for (int b = 0; b < bytesPerSample; b++) {
+                    channelPlane[(y * width + x) * bytesPerSample + b] = (byte) (x * 7 + y * 3 + b);
+                }
+            }
+        }
+        return ImageUtils.channelPlanesToTextureBytes(Collections.singletonList(channelPlane), width, height, bytesPerSample);
+    }
+}
@@ -0,0 +1,139 @@
+package org.janelia.rendering.utils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+
+import com.sun.media.jai.codec.FileSeekableStream;
+import org.janelia.rendering.RenderedImageInfo;
+import org.janelia.testutils.TestUtils;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class TiffIndexTest {
+    private static final String TEST_DATADIR = "src/test/resources/testdata/rendering";
+
+    private static Path testSuiteDirectory;
+
+    private Path testDirectory;
+
+    @BeforeClass
+    public static void createTestDir() throws IOException {
+        testSuiteDirectory = Files.createTempDirectory("testtiffindex");
+    }
+
+    @AfterClass
+    public static void deleteTestDir() throws IOException {
+        TestUtils.deletePath(testSuiteDirectory);
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        testDirectory = Files.createTempDirectory(testSuiteDirectory, null);
+    }
+
+    @Test
+    public void buildIndex() throws IOException {
+        TestUtils.prepareTestDataFiles(Paths.get(TEST_DATADIR), testDirectory, "default.0.tif", "YZ.0.tif", "ZX.0.tif");
+        for (String testFileName : new String[] {"default.0.tif", "YZ.0.tif", "ZX.0.tif"}) {
+            Path testFilePath = testDirectory.resolve(testFileName);
+            RenderedImageInfo imageInfo;
+            try (InputStream tiffStream = Files.newInputStream(testFilePath)) {
+                imageInfo = ImageUtils.loadImageInfoFromTiffStream(tiffStream);
+                assertNotNull(imageInfo);
+            }
+            TiffIndex tiffIndex;
+            try (FileSeekableStream tiffStream = new FileSeekableStream(testFilePath.toFile())) {
+                tiffIndex = TiffIndex.build(tiffStream);
+            }
+            assertEquals(testFileName, imageInfo.sz, tiffIndex.getNumPages());
+            for (TiffIndex.Page page : tiffIndex.getPages()) {
+                assertEquals(testFileName, imageInfo.sx, page.getWidth());
+                assertEquals(testFileName, imageInfo.sy, page.getHeight());
+                assertEquals(testFileName, imageInfo.cmPixelSize, page.getBitsPerSample() * page.getSamplesPerPixel());
+                assertTrue(testFileName, page.getDataBlockCount() > 0);
+            }
+        }
+    }
+
+    @Test
+    public void readIndexedTiffStream() throws IOException {
+        TestUtils.prepareTestDataFiles(Paths.get(TEST_DATADIR), testDirectory, "default.0.tif");
+        Path testFilePath = testDirectory.resolve("default.0.tif");
+        TiffIndexCache tiffIndexCache = new TiffIndexCache(1024 * 1024, false);
+        byte[] expectedBytes;
+        try (InputStream tiffStream = Files.newInputStream(testFilePath)) {
+            expectedBytes = ImageUtils.loadImagePixelBytesFromTiffStream(tiffStream, 20, 20, 10, 10, 10, 5);
+        }
+        byte[] indexedBytes;
+        try (InputStream tiffStream = new TiffIndexedSeekableStream(
+                new FileSeekableStream(testFilePath.toFile()),
+                () -> tiffIndexCache.getTiffIndex(testFilePath))) {
+            indexedBytes = ImageUtils.loadImagePixelBytesFromTiffStream(tiffStream, 20, 20, 10, 10, 10, 5);
+        }
+        assertArrayEquals(expectedBytes, indexedBytes);
+    }
+
+    @Test
+    public void unindexableFiles() throws IOException {
+        TestUtils.prepareTestDataFiles(Paths.get(TEST_DATADIR), testDirectory, "default.0.tif");
+        Path testFilePath = testDirectory.resolve("default.0.tif");
+        Path bigTiffPath = testDirectory.resolve("big.tif");
+        // BigTIFF header followed by some data
+        byte[] bigTiffBytes = new byte[1024];
+        System.arraycopy(new byte[] {'I', 'I', 43, 0, 8, 0, 0, 0, 16, 0, 0, 0, 0, 0, 0, 0}, 0, bigTiffBytes, 0, 16);
+        Files.write(bigTiffPath, bigTiffBytes);
+
+        TiffIndexCache tiffIndexCache = new TiffIndexCache(1024 * 1024, true);
+        assertNull(tiffIndexCache.getTiffIndex(bigTiffPath));
+        assertNull(tiffIndexCache.getTiffIndex(bigTiffPath));
+        assertFalse(Files.exists(testDirectory.resolve("big.tif.tifindex")));
+        try (TiffIndexedSeekableStream tiffStream = new TiffIndexedSeekableStream(
+                new FileSeekableStream(bigTiffPath.toFile()),
+                () -> tiffIndexCache.getTiffIndex(bigTiffPath))) {
+            assertNull(tiffStream.getTiffIndex());
+        }
+        // once the file changes it is indexed again
+        Files.copy(testFilePath, bigTiffPath, StandardCopyOption.REPLACE_EXISTING);
+        assertNotNull(tiffIndexCache.getTiffIndex(bigTiffPath));
+    }
+
+    @Test
+    public void persistIndexInSidecar() throws IOException {
+        TestUtils.prepareTestDataFiles(Paths.get(TEST_DATADIR), testDirectory, "default.0.tif");
+        Path testFilePath = testDirectory.resolve("default.0.tif");
+
+        TiffIndexCache tiffIndexCache = new TiffIndexCache(1024 * 1024, true);
+        TiffIndex tiffIndex = tiffIndexCache.getTiffIndex(testFilePath);
+        assertTrue(Files.exists(testDirectory.resolve("default.0.tif.tifindex")));
+        assertSame(tiffIndex, tiffIndexCache.getTiffIndex(testFilePath));
+
+        TiffIndex persistedTiffIndex = new TiffIndexCache(1024 * 1024, true).getTiffIndex(testFilePath);
+        assertNotSame(tiffIndex, persistedTiffIndex);
+        assertEquals(tiffIndex.getNumPages(), persistedTiffIndex.getNumPages());
+        for (int i = 0; i < tiffIndex.getNumPages(); i++) {
+            TiffIndex.Page page = tiffIndex.getPage(i);
+            TiffIndex.Page persistedPage = persistedTiffIndex.getPage(i);
+            assertEquals(page.getIfdOffset(), persistedPage.getIfdOffset());
+            assertEquals(page.getDataBlockCount(), persistedPage.getDataBlockCount());
+            for (int b = 0; b < page.getDataBlockCount(); b++) {
+                assertEquals(page.getDataOffset(b), persistedPage.getDataOffset(b));
+                assertEquals(page.getDataByteCount(b), persistedPage.getDataByteCount(b));
+            }
+        }
+    }
+}